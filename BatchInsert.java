@@ -1,11 +1,16 @@
-import bigt.BTreeData;
+import bigt.BigT;
+import bigt.LSMScan;
+import bigt.LSMTree;
 import bigt.Map;
 import bigt.Minibase;
-import bigt.Stream;
+import bigt.VersionIndex;
 import btree.*;
+import bufmgr.BufMgr;
+import bufmgr.LogMgr;
 import diskmgr.PCounter;
 import global.MapOrder;
 import global.RID;
+import global.SystemDefs;
 import heap.*;
 import iterator.*;
 
@@ -14,7 +19,7 @@ import java.util.HashSet;
 
 /**
  * compile this file using the command "javac BatchInsert.java"
- * Then run using "java BatchInsert datafilename type bigtablename"
+ * Then run using "java BatchInsert datafilename type bigtablename numbuf [pagesize]"
  */
 
 public class BatchInsert {
@@ -24,6 +29,11 @@ public class BatchInsert {
     private static int maxTimeStampLength = Integer.MIN_VALUE;
     private static int maxValueLength = Integer.MIN_VALUE;
 
+    /**
+     * Maps inserted per transaction when the write-ahead log is on.
+     */
+    private static final int COMMIT_MAPS = 100;
+
     public static void main(String[] args) throws Exception {
 //        execute(args[0], args[1], args[2], args[3]);
     }
@@ -36,10 +46,28 @@ public class BatchInsert {
      * @param bigTableName
      */
     public void execute(String dataFileName, String type, String bigTableName, String numBuf) throws Exception {
+        execute(dataFileName, type, bigTableName, numBuf, String.valueOf(Minibase.getInstance().getPageSize()));
+    }
+
+    /**
+     * Inserting records into the big table, with the page size of the
+     * database file created for it. Queries read the page size back from
+     * the file.
+     *
+     * @param dataFileName
+     * @param type
+     * @param bigTableName
+     * @param numBuf
+     * @param pageSize
+     */
+    public void execute(String dataFileName, String type, String bigTableName, String numBuf,
+                        String pageSize) throws Exception {
 
+        Minibase.getInstance().setPageSize(Integer.parseInt(pageSize));
         //Setting the read and write count to zero
         PCounter.getInstance().setReadCount(0);
         PCounter.getInstance().setWriteCount(0);
+        PCounter.Snapshot start = PCounter.snapshot();
         //Finding the max lengths of rowKey, columnKey, timeStamp and value
         String line = "";
         BufferedReader br = new BufferedReader(new FileReader(dataFileName + ".csv"));
@@ -61,9 +89,15 @@ public class BatchInsert {
 
         Minibase.getInstance().init(bigTableName, Integer.parseInt(type), Integer.parseInt(numBuf));
 
+        if (Integer.parseInt(type) == 6) {
+            executeLSM(dataFileName, start);
+            return;
+        }
+
         //As we should not use in-memory sorting, we are using sorting tools provided by the minibase
         //This is a temporary heap file used for sorting purposes
         Heapfile tempHeapFile = new Heapfile("tempFile");
+        tempHeapFile.setBufferPool(BufMgr.TEMP_POOL);
         br = new BufferedReader(new FileReader(dataFileName + ".csv"));
         while ((line = br.readLine()) != null) {
             String[] fields = line.split(",");
@@ -94,32 +128,99 @@ public class BatchInsert {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        HashSet set_row = new HashSet();
-        HashSet set_col = new HashSet();
-
+        // with the write-ahead log, the maps are committed in batches,
+        // each before its pinned pages fill a quarter of a pool
+        LogMgr log = SystemDefs.JavabaseLog;
+        int maxHeld = Integer.MAX_VALUE;
+        for (BufMgr pool : SystemDefs.JavabaseBM.getPools())
+            maxHeld = Math.min(maxHeld, pool.getNumBuffers() / 4);
+        int uncommitted = 0;
         Map m = sort.get_next();
         while (m != null) {
             m.setHdr((short) 4, Minibase.getInstance().getAttrTypes(), Minibase.getInstance().getAttrSizes());
+            if (log != null && uncommitted == 0)
+                log.begin();
             insertMap(m, Integer.parseInt(type));
-            set_row.add(m.getRowLabel());
-            set_col.add(m.getColumnLabel());
+            if (log != null && (++uncommitted == COMMIT_MAPS || log.held() > maxHeld)) {
+                log.commit();
+                uncommitted = 0;
+            }
             m = sort.get_next();
         }
-        int row_count = set_row.size();
-        Minibase.getInstance().setDistinctRowCount(row_count);
-        int col_count = set_col.size();
-        Minibase.getInstance().setDistinctColumnCount(col_count);
+        if (log != null && uncommitted > 0)
+            log.commit();
+        // the distinct counts come from the statistics of the BigT, which
+        // close() writes to disk with it
+        BigT bigT = Minibase.getInstance().getBigTable();
+        // the versions dropped leave holes in the pages
+        if (bigT.getDeletesSinceVacuum() > 0)
+            Minibase.getInstance().vacuum().print(System.out);
+        Minibase.getInstance().setDistinctRowCount(bigT.getRowCnt());
+        Minibase.getInstance().setDistinctColumnCount(bigT.getColumnCnt());
+        bigT.close();
+        Minibase.getInstance().getVersionIndex().close();
+        if (log != null) {
+            log.checkpoint();
+            log.printStats(System.out);
+        }
 
         System.out.println("Total number of pages " + Minibase.getInstance().getBigTable().getCount());
         System.out.println("Total number of index pages " + Minibase.getInstance().getNumberOfIndexPages());
         System.out.println("Total number of reads " + PCounter.getInstance().getReadCount());
         System.out.println("Total number of writes " + PCounter.getInstance().getWriteCount());
+        PCounter.snapshot().since(start).print(System.out);
+        if (SystemDefs.JavabaseBM.getPools().length > 1)
+            SystemDefs.JavabaseBM.printPools(System.out);
         System.out.println("Total number of distinct rows " + Minibase.getInstance().getDistinctRowCount());
         System.out.println("Total number of distinct columns " + Minibase.getInstance().getDistinctColumnCount());
 
         tempHeapFile.deleteFile();
     }
 
+    /**
+     * Inserting records into a big table of type 6. The LSM tree sorts
+     * the maps in its memtable and keeps the newest versions as it
+     * merges, so the maps go in as the data file has them, with no sort
+     * and no version index.
+     */
+    private void executeLSM(String dataFileName, PCounter.Snapshot start) throws Exception {
+        LSMTree lsmTree = Minibase.getInstance().getLSMTree();
+        String line;
+        BufferedReader br = new BufferedReader(new FileReader(dataFileName + ".csv"));
+        while ((line = br.readLine()) != null) {
+            String[] fields = line.split(",");
+            lsmTree.insertMap(fields[0], fields[1], Integer.parseInt(fields[2]), fields[3]);
+        }
+        br.close();
+        lsmTree.close();
+
+        // the scan returns the maps by row, so a row is new when it changes
+        int rows = 0;
+        HashSet<String> columns = new HashSet<String>();
+        LSMScan scan = lsmTree.openScan(null, null);
+        String lastRow = null;
+        Map map;
+        while ((map = scan.getNext()) != null) {
+            if (!map.getRowLabel().equals(lastRow))
+                rows++;
+            lastRow = map.getRowLabel();
+            columns.add(map.getColumnLabel());
+        }
+        scan.closescan();
+        Minibase.getInstance().setDistinctRowCount(rows);
+        Minibase.getInstance().setDistinctColumnCount(columns.size());
+        Minibase.getInstance().getBigTable().close();
+
+        lsmTree.printLevels(System.out);
+        System.out.println("Total number of reads " + PCounter.getInstance().getReadCount());
+        System.out.println("Total number of writes " + PCounter.getInstance().getWriteCount());
+        PCounter.snapshot().since(start).print(System.out);
+        if (SystemDefs.JavabaseBM.getPools().length > 1)
+            SystemDefs.JavabaseBM.printPools(System.out);
+        System.out.println("Total number of distinct rows " + Minibase.getInstance().getDistinctRowCount());
+        System.out.println("Total number of distinct columns " + Minibase.getInstance().getDistinctColumnCount());
+    }
+
     private Map getMap(String rowKey, String columnKey, String timestamp, String value) {
         Map map = new Map();
         try {
@@ -184,108 +285,43 @@ public class BatchInsert {
     }
 
     /**
-     * This method will be called for each row in the data file
+     * This method will be called for each row in the data file. Only the
+     * newest VersionIndex.MAX_VERSIONS versions of a (row, column) are
+     * kept: a map older than all of them is not inserted, else the
+     * oldest one is deleted, from the big table and from its indexes.
      *
      * @param map
      * @param type
      */
     private static void insertMap(Map map, int type) throws
             Exception {
-        try {
-            //This method takes care of maintaining only 3 versions of a map at any instant
-            //Need to uncomment this once filtering and ordering works
-//            batchInsert.checkVersions(map1);
-            RID rid = Minibase.getInstance().getBigTable().insertMap(map.getMapByteArray());
-
-            //inserting into the index file
-            if (type == 2) {
-                Minibase.getInstance().getBTree().insert(new StringKey(map.getRowLabel()), rid);
-            } else if (type == 3) {
-                Minibase.getInstance().getBTree().insert(new StringKey(map.getColumnLabel()), rid);
-            } else if (type == 4) {
-                Minibase.getInstance().getBTree().insert(new StringKey(map.getRowLabel() + map.getColumnLabel()),
-                        rid);
-                Minibase.getInstance().getSecondaryBTree().insert(new IntegerKey(map.getTimeStamp()), rid);
-            } else if (type == 5) {
-                Minibase.getInstance().getBTree().insert(new StringKey(map.getRowLabel() + map.getValue()), rid);
-                Minibase.getInstance().getSecondaryBTree().insert(new IntegerKey(map.getTimeStamp()), rid);
-            }
-        } catch (InvalidSlotNumberException | InvalidTupleSizeException | SpaceNotAvailableException |
-                HFException | HFBufMgrException | HFDiskMgrException | IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void checkVersions(Map map) {
-        int indexType = Minibase.getInstance().getBigTable().getType();
-        Stream stream;
-        BTreeData bData;
-        BTFileScan scan;
-        BTreeData[] bDataMaps = new BTreeData[50]; //change it to 3
-        //System.out.println("----------------------New map--------------------------");
-        //map.print();
-        if (Minibase.getInstance().getBigTable().getType() == 1) {
-
-        } else {
+        BigT bigT = Minibase.getInstance().getBigTable();
+        // a vacuum in the background moves maps and their index entries
+        // with the big table locked
+        synchronized (bigT) {
             try {
-                stream = Minibase.getInstance().getBigTable().openStream(6, map.getRowLabel(), map.getColumnLabel(), "*");
-                bData = stream.getNextMap();
-                int i = 0;
-                while (bData != null) {
-
-                    bDataMaps[i] = bData;
-                    //bData.getMap().print(); //To check the index
-                    i++;
-                    bData = stream.getNextMap();
-                }
-                if (i == 3) {
-                    //delete Map'
-                    //System.out.println("---%%%%%--------------i == 3 ----------%%%%%----------");
-                    Minibase.getInstance().getBigTable().deleteMap(bDataMaps[0].getRid());
-
-                    //Delete Index of deleted map1
-                    if (Minibase.getInstance().getBTree().Delete(bDataMaps[0].getKey(), bDataMaps[0].getRid())) {
-                        //System.out.println(" @ @  Deleted " );
-                        //bDataMaps[0].getMap().print();
-
-                    /*System.out.println("********* After deleting the index **********");
-                    stream = Minibase.getInstance().getBigTable().openStream(6, map.getRowLabel(), map.getColumnLabel(), "*");
-                    bData = stream.getNextMap();
-                    bData.getMap().print();
-                    while (bData != null) {
-
-                        bData.getMap().print();
-                        bData = stream.getNextMap();
-                    }*/
-                    }
-                    if (Minibase.getInstance().getBigTable().getType() == 4 || Minibase.getInstance().getBigTable().getType() == 5) {
-                        scan = Minibase.getInstance().getSecondaryBTree().new_scan(new StringKey(Integer.toString(bDataMaps[0].getMap().getTimeStamp())), new StringKey(Integer.toString(bDataMaps[0].getMap().getTimeStamp())));
-                        KeyDataEntry entry = scan.get_next();
-                        bData = null;
-                        while (entry != null) {
-
-                            RID rid = ((LeafData) entry.data).getData();
-                            if (rid != null) {
-                                try {
-                                    Map map2 = Minibase.getInstance().getBigTable().getMap(rid);
-                                    map2.setOffsets(map2.getOffset());
-                                    if (MapUtils.Equal(bDataMaps[0].getMap(), map2)) {
-                                        Minibase.getInstance().getSecondaryBTree().Delete(entry.key, rid);
-                                    }
-                                    entry = scan.get_next();
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-
-                        }
-                    }
-
+                VersionIndex versions = Minibase.getInstance().getVersionIndex();
+                String row = map.getRowLabel();
+                String column = map.getColumnLabel();
+                int timeStamp = map.getTimeStamp();
+                if (versions.isObsolete(row, column, timeStamp))
+                    return;
+
+                RID rid = bigT.insertMap(Minibase.getInstance().isVarLenMaps()
+                        ? map.getVarLenByteArray() : map.getMapByteArray());
+                Minibase.getInstance().insertIndexEntries(map, rid);
+
+                RID dropped = versions.add(row, column, timeStamp, rid);
+                if (dropped != null) {
+                    Map old = bigT.getMap(dropped);
+                    old.setOffsets(old.getOffset());
+                    Minibase.getInstance().deleteIndexEntries(old, dropped);
+                    bigT.deleteMap(dropped);
                 }
-            } catch (Exception e) {
+            } catch (InvalidSlotNumberException | InvalidTupleSizeException | SpaceNotAvailableException |
+                    HFException | HFBufMgrException | HFDiskMgrException | IOException e) {
                 e.printStackTrace();
             }
         }
-
     }
 }
@@ -9,14 +9,17 @@ public class BigTMinibase {
             System.out.println("Press 1 for BatchInsert\nPress 2 for Query\nPress any other key to exit\n");
             option = sc.next();
             if(option.compareTo("1")==0){
-                System.out.println("Enter DATAFILENAME TYPE BIGTABLENAME NUMBUF");
+                System.out.println("Enter DATAFILENAME TYPE BIGTABLENAME NUMBUF [PAGESIZE]");
                 args1 = sc.nextLine();
                 args1 = sc.nextLine();
                 String[] args2 = args1.split("\\s");
-                if(args2.length == 4) {
+                if(args2.length == 4 || args2.length == 5) {
                     BatchInsert batchInsert = new BatchInsert();
                     try {
-                        batchInsert.execute(args2[0], args2[1], args2[2], args2[3]);
+                        if(args2.length == 5)
+                            batchInsert.execute(args2[0], args2[1], args2[2], args2[3], args2[4]);
+                        else
+                            batchInsert.execute(args2[0], args2[1], args2[2], args2[3]);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -1,6 +1,7 @@
 import bigt.Map;
 import bigt.Minibase;
 import bigt.Stream;
+import bufmgr.BufMgr;
 import diskmgr.PCounter;
 import global.SystemDefs;
 
@@ -31,32 +32,49 @@ public class Query {
         System.out.println("Executing query");
         PCounter.getInstance().setReadCount(0);
         PCounter.getInstance().setWriteCount(0);
-        SystemDefs.JavabaseBM.setNumBuffers(Integer.parseInt(numBuf));
+        PCounter.Snapshot start = PCounter.snapshot();
+        SystemDefs.JavabaseBM.resetPinCounters();
+        // The query gets numBuf frames of the pool, which grows if all
+        // pools together are smaller; the pages of earlier queries stay
+        // in the pool.
+        int buffers = Integer.parseInt(numBuf);
+        int frames = 0;
+        for (BufMgr pool : SystemDefs.JavabaseBM.getPools())
+            frames += pool.getNumBuffers();
+        if (buffers > frames)
+            SystemDefs.JavabaseBM.setNumBuffers(SystemDefs.JavabaseBM.getNumBuffers() + buffers - frames);
+        SystemDefs.JavabaseBM.setQuota(buffers);
+        try {
+            if (!Minibase.getInstance().getBigTable().getName().equals(bigTableName)) {
+                System.out.println("Bigtable name mismatch. Aborting search.");
+                return;
+            }
 
-        if (!Minibase.getInstance().getBigTable().getName().equals(bigTableName)) {
-            System.out.println("Bigtable name mismatch. Aborting search.");
-            return;
-        }
-
-        if (Minibase.getInstance().getBigTable().getType() != Integer.parseInt(type)) {
-            System.out.println("Bigtable and Query type mismatch. Aborting search.");
-            return;
-        }
+            if (Minibase.getInstance().getBigTable().getType() != Integer.parseInt(type)) {
+                System.out.println("Bigtable and Query type mismatch. Aborting search.");
+                return;
+            }
 
-        Stream stream = Minibase.getInstance().getBigTable().openStream(Integer.parseInt(orderType), rowFilter, columnFilter, valueFilter);
-        if (stream == null) {
-            System.out.println("stream null");
-            return;
-        }
-        Map map = stream.getNext();
-        while (map != null) {
-            map.print();
-            map = stream.getNext();
+            Stream stream = Minibase.getInstance().getBigTable().openStream(Integer.parseInt(orderType), rowFilter, columnFilter, valueFilter);
+            if (stream == null) {
+                System.out.println("stream null");
+                return;
+            }
+            Map map = stream.getNext();
+            while (map != null) {
+                map.print();
+                map = stream.getNext();
+            }
+            stream.unsetScanEntireBigT();
+            System.out.println("Total Number of Maps found " + stream.getNumberOfMapsFound());
+            System.out.println("Total number of reads " + PCounter.getInstance().getReadCount());
+            System.out.println("Total number of writes " + PCounter.getInstance().getWriteCount());
+            PCounter.snapshot().since(start).print(System.out);
+            if (SystemDefs.JavabaseBM.getPools().length > 1)
+                SystemDefs.JavabaseBM.printPools(System.out);
+        } finally {
+            SystemDefs.JavabaseBM.setQuota(0);
         }
-        stream.unsetScanEntireBigT();
-        System.out.println("Total Number of Maps found " + stream.getNumberOfMapsFound());
-        System.out.println("Total number of reads " + PCounter.getInstance().getReadCount());
-        System.out.println("Total number of writes " + PCounter.getInstance().getWriteCount());
 
     }
 }
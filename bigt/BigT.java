@@ -1,5 +1,10 @@
 package bigt;
 
+import bufmgr.BufMgr;
+import bufmgr.LogMgr;
+import bufmgr.LogMgrException;
+import bufmgr.PageExtent;
+import diskmgr.PCounter;
 import diskmgr.Page;
 import global.GlobalConst;
 import global.PageId;
@@ -8,6 +13,9 @@ import global.SystemDefs;
 import heap.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 
 /**
  * This heapfile implementation is directory-based. We maintain a
@@ -55,8 +63,58 @@ public class BigT implements Filetype, GlobalConst {
     int _ftype;
     private boolean _file_deleted;
     private String _fileName;
+
+    /**
+     * The I/O counters of the file.
+     */
+    PCounter.Stats io;
+
+    /**
+     * The data pages with room, null if the free-space map was off when
+     * the file was opened.
+     */
+    FreeSpaceMap fsm;
+
+    /**
+     * The statistics of the BigT.
+     */
+    private BigTStats stats;
+
     private static int tempfilecount = 0;
 
+    /**
+     * Share of a data page below which vacuum() merges it into others.
+     */
+    private static double vacuumFill = 0.5;
+
+    /**
+     * Scans opened and not yet closed; vacuum() moves maps only when
+     * there are none.
+     */
+    int openScans;
+
+    /**
+     * Maps deleted since the BigT was opened or last vacuumed.
+     */
+    private int deletesSinceVacuum;
+
+    /**
+     * LogMgr.getAborts() when the free-space map was last checked.
+     */
+    private long abortsSeen;
+
+    /**
+     * Number of pages of a data-page extent, see bufmgr.PageExtent.
+     */
+    public static final int DATA_EXTENT_PAGES = 32;
+    private static int dataExtentPages = DATA_EXTENT_PAGES;
+
+    /**
+     * Data pages are taken from this extent so that they follow each
+     * other on disk in insertion order.
+     */
+    private PageExtent dataExtent = new PageExtent(dataExtentPages);
+
 
     /* get a new datapage from the buffer manager and initialize dpinfo
        @param dpinfop the information in the new HFPage
@@ -68,7 +126,7 @@ public class BigT implements Filetype, GlobalConst {
             IOException {
         Page apage = new Page();
         PageId pageId = new PageId();
-        pageId = newPage(apage, 1);
+        pageId = newDataPage(apage);
 
         if (pageId == null)
             throw new HFException(null, "can't new pae");
@@ -103,6 +161,36 @@ public class BigT implements Filetype, GlobalConst {
             Exception {
         PageId currentDirPageId = new PageId(_firstDirPageId.pid);
 
+        // the free-space map knows where the DataPageInfo of a data page
+        // is; fall back to the walk if it does not, or is out of date
+        if (fsm != null) {
+            int entry = fsm.entryOf(rid.pageNo.pid);
+            if (entry >= 0) {
+                RID dirRid = fsm.getDirRid(entry);
+                pinPage(dirRid.pageNo, dirpage, false/*Rdisk*/);
+                boolean known;
+                try {
+                    known = new DataPageInfo(dirpage.returnMap(dirRid)).pageId.pid == rid.pageNo.pid;
+                } catch (Exception e) {
+                    known = false;
+                }
+                if (known) {
+                    try {
+                        pinPage(rid.pageNo, datapage, false/*Rddisk*/);
+                    } catch (Exception e) {
+                        unpinPage(dirRid.pageNo, false/*undirty*/);
+                        throw e;
+                    }
+                    dirPageId.pid = dirRid.pageNo.pid;
+                    dataPageId.pid = rid.pageNo.pid;
+                    rpDataPageRid.pageNo.pid = dirRid.pageNo.pid;
+                    rpDataPageRid.slotNo = dirRid.slotNo;
+                    return true;
+                }
+                unpinPage(dirRid.pageNo, false/*undirty*/);
+            }
+        }
+
         HFPage currentDirPage = new HFPage();
         HFPage currentDataPage = new HFPage();
         RID currentDataPageRid = new RID();
@@ -197,6 +285,19 @@ public class BigT implements Filetype, GlobalConst {
 
     } // end of _findDatapage
 
+    /* Internal BigT function (used in updateMap): pins the data page of
+       the record rid straight away and returns true if the free-space map
+       knows it as a data page of this file. Returns false, with nothing
+       pinned, if it does not.
+    */
+    private boolean _pinKnownDataPage(RID rid, HFPage datapage)
+            throws HFBufMgrException {
+        if (fsm == null || fsm.entryOf(rid.pageNo.pid) < 0)
+            return false;
+        pinPage(rid.pageNo, datapage, false/*Rddisk*/);
+        return true;
+    } // end of _pinKnownDataPage
+
     /**
      * Initialize.  A null name produces a temporary heapfile which will be
      * deleted by the destructor.  If the name already denotes a file, the
@@ -238,6 +339,8 @@ public class BigT implements Filetype, GlobalConst {
             _fileName = name + type;
             _ftype = ORDINARY;
         }
+        io = PCounter.file(_fileName);
+        SystemDefs.JavabaseBM.assignPool(io, (_ftype == TEMP) ? BufMgr.TEMP_POOL : BufMgr.DATA_POOL);
 
         // The constructor gets run in two different cases.
         // In the first case, the file is new and the header page
@@ -273,7 +376,10 @@ public class BigT implements Filetype, GlobalConst {
 
 
         }
+        if (FreeSpaceMap.isEnabled())
+            fsm = new FreeSpaceMap(_fileName, _firstDirPageId, _ftype == ORDINARY, io);
         _file_deleted = false;
+        stats = new BigTStats(this, _fileName, _ftype == ORDINARY, io);
         // ASSERTIONS:
         // - ALL private data members of class Heapfile are valid:
         //
@@ -284,7 +390,7 @@ public class BigT implements Filetype, GlobalConst {
     } // end of constructor
 
     /**
-     * Return number of records in file.
+     * Return number of records in file, from the statistics.
      *
      * @throws InvalidSlotNumberException invalid slot number
      * @throws InvalidTupleSizeException  invalid tuple size
@@ -295,57 +401,67 @@ public class BigT implements Filetype, GlobalConst {
     public int getMapCnt()
             throws InvalidSlotNumberException,
             InvalidTupleSizeException,
+            HFException,
             HFDiskMgrException,
             HFBufMgrException,
             IOException {
-        int answer = 0;
-        PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-
-        PageId nextDirPageId = new PageId(0);
-
-        HFPage currentDirPage = new HFPage();
-        Page pageinbuffer = new Page();
+        return (int) getStats().getMapCnt();
+    } // end of getRecCnt
 
-        while (currentDirPageId.pid != INVALID_PAGE) {
-            pinPage(currentDirPageId, currentDirPage, false);
+    // Return number of distinct row labels in the bigtable, estimated
+    public int getRowCnt()
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        return getStats().getRowCnt();
+    }
 
-            RID rid = new RID();
-            Map aMap;
-            for (rid = currentDirPage.firstMap();
-                 rid != null;    // rid==NULL means no more record
-                 rid = currentDirPage.nextMap(rid)) {
-                aMap = currentDirPage.getMap(rid);
-                DataPageInfo dpinfo = new DataPageInfo(aMap);
+    // Return number of distinct column labels in the bigtable, estimated
+    public int getColumnCnt()
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        return getStats().getColumnCnt();
+    }
 
-                answer += dpinfo.recct;
+    /**
+     * Returns the statistics of the BigT, kept up to date by every
+     * insert, update and delete, and read again after an abort.
+     *
+     * @throws HFException        a map could not be read
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    public BigTStats getStats()
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log != null) {
+            synchronized (this) {
+                _checkAborts(log);
             }
-
-            // ASSERTIONS: no more record
-            // - we have read all datapage records on
-            //   the current directory page.
-
-            nextDirPageId = currentDirPage.getNextPage();
-            unpinPage(currentDirPageId, false /*undirty*/);
-            currentDirPageId.pid = nextDirPageId.pid;
         }
-
-        // ASSERTIONS:
-        // - if error, exceptions
-        // - if end of heapfile reached: currentDirPageId == INVALID_PAGE
-        // - if not yet end of heapfile: currentDirPageId valid
-
-
-        return answer;
-    } // end of getRecCnt
-
-    // Return number of distinct row labels in the bigtable
-    public int getRowCnt() {
-        return 0;
+        return stats;
     }
 
-    // Return number of distinct column labels in the bigtable
-    public int getColumnCnt() {
-        return 0;
+    /**
+     * Builds the statistics again from the maps, so that the distinct
+     * counts and the timestamp range forget deleted maps.
+     *
+     * @throws HFException       a map could not be read
+     * @throws HFBufMgrException exception thrown from bufmgr layer
+     * @throws IOException       I/O errors
+     */
+    public void rebuildStats()
+            throws HFException,
+            HFBufMgrException,
+            IOException {
+        stats.rebuild(this);
     }
 
     /**
@@ -369,6 +485,37 @@ public class BigT implements Filetype, GlobalConst {
             HFBufMgrException,
             HFDiskMgrException,
             IOException {
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log == null)
+            return _insertMap(mapPtr);
+
+        // the pages are logged with the big table locked, and forced
+        // without it, so that other threads' commits join the force
+        RID result;
+        long end;
+        synchronized (this) {
+            _checkAborts(log);
+            log.begin();
+            try {
+                result = _insertMap(mapPtr);
+            } catch (Throwable e) {
+                abortLogged(log, e);
+                throw e;
+            }
+            end = endLogged(log);
+        }
+        waitForLog(log, end);
+        return result;
+    }
+
+    private synchronized RID _insertMap(byte[] mapPtr)
+            throws InvalidSlotNumberException,
+            InvalidTupleSizeException,
+            SpaceNotAvailableException,
+            HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
         int dpinfoLen = 0;
         int recLen = mapPtr.length;
         boolean found;
@@ -381,11 +528,34 @@ public class BigT implements Filetype, GlobalConst {
         PageId currentDirPageId = new PageId(_firstDirPageId.pid);
         PageId nextDirPageId = new PageId();  // OK
 
+        // with a free-space map, go straight to a data page with room,
+        // or else to the last directory page
+        int entry = -1;
+        if (fsm != null) {
+            entry = fsm.find(recLen);
+            currentDirPageId.pid = (entry >= 0) ? fsm.getDirPage(entry) : fsm.getLastDirPage();
+        }
+
         pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
 
         found = false;
         Map aMap;
         DataPageInfo dpinfo = new DataPageInfo();
+        if (entry >= 0) {
+            currentDataPageRid = fsm.getDirRid(entry);
+            dpinfo = new DataPageInfo(currentDirPage.getMap(currentDataPageRid));
+            if (dpinfo.pageId.pid == fsm.getDataPage(entry) && recLen <= dpinfo.availspace) {
+                pinPage(dpinfo.pageId, currentDataPage, false);
+                found = true;
+            } else {
+                // the map is out of date: search the directory from here
+                if (dpinfo.pageId.pid == fsm.getDataPage(entry))
+                    fsm.update(entry, dpinfo.availspace);
+                else
+                    fsm.remove(entry);
+                entry = -1;
+            }
+        }
         while (found == false) { //Start While01
             // look for suitable dpinfo-struct
             for (currentDataPageRid = currentDirPage.firstMap();
@@ -560,6 +730,7 @@ public class BigT implements Filetype, GlobalConst {
 
         RID rid;
         rid = currentDataPage.insertMap(mapPtr);
+        stats.add(mapPtr, 0);
 
         dpinfo.recct++;
         dpinfo.availspace = currentDataPage.available_space();
@@ -577,6 +748,16 @@ public class BigT implements Filetype, GlobalConst {
         dpinfo_ondirpage.pageId.pid = dpinfo.pageId.pid;
         dpinfo_ondirpage.flushToMap();
 
+        if (fsm != null) {
+            if (entry < 0)
+                entry = fsm.entryOf(dpinfo.pageId.pid);
+            if (entry < 0)
+                fsm.add(dpinfo.pageId.pid, currentDataPageRid, dpinfo.availspace);
+            else
+                fsm.update(entry, dpinfo.availspace);
+            if (currentDirPage.getNextPage().pid == INVALID_PAGE)
+                fsm.setLastDirPage(currentDirPageId.pid);
+        }
 
         unpinPage(currentDirPageId, true /* = DIRTY */);
 
@@ -616,6 +797,34 @@ public class BigT implements Filetype, GlobalConst {
             HFBufMgrException,
             HFDiskMgrException,
             Exception {
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log == null)
+            return _deleteMap(rid);
+
+        boolean result;
+        long end;
+        synchronized (this) {
+            _checkAborts(log);
+            log.begin();
+            try {
+                result = _deleteMap(rid);
+            } catch (Throwable e) {
+                abortLogged(log, e);
+                throw e;
+            }
+            end = endLogged(log);
+        }
+        waitForLog(log, end);
+        return result;
+    }
+
+    private synchronized boolean _deleteMap(RID rid)
+            throws InvalidSlotNumberException,
+            InvalidTupleSizeException,
+            HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            Exception {
         boolean status;
         HFPage currentDirPage = new HFPage();
         PageId currentDirPageId = new PageId();
@@ -641,7 +850,10 @@ public class BigT implements Filetype, GlobalConst {
         DataPageInfo pdpinfo = new DataPageInfo(aMap);
 
         // delete the record on the datapage
+        Map doomed = currentDataPage.returnMap(rid);
+        stats.remove(doomed.returnMapByteArray(), doomed.getOffset());
         currentDataPage.deleteMap(rid);
+        deletesSinceVacuum++;
 
         pdpinfo.recct--;
         pdpinfo.flushToMap();    //Write to the buffer pool
@@ -651,6 +863,11 @@ public class BigT implements Filetype, GlobalConst {
 
             pdpinfo.availspace = currentDataPage.available_space();
             pdpinfo.flushToMap();
+            if (fsm != null) {
+                int entry = fsm.entryOf(currentDataPageId.pid);
+                if (entry >= 0)
+                    fsm.update(entry, pdpinfo.availspace);
+            }
             unpinPage(currentDataPageId, true /* = DIRTY*/);
 
             unpinPage(currentDirPageId, true /* = DIRTY */);
@@ -667,6 +884,11 @@ public class BigT implements Filetype, GlobalConst {
             unpinPage(currentDataPageId, false /*undirty*/);
 
             freePage(currentDataPageId);
+            if (fsm != null) {
+                int entry = fsm.entryOf(currentDataPageId.pid);
+                if (entry >= 0)
+                    fsm.remove(entry);
+            }
 
             // delete corresponding DataPageInfo-entry on the directory page:
             // currentDataPageRid points to datapage (from for loop above)
@@ -717,6 +939,8 @@ public class BigT implements Filetype, GlobalConst {
                 }
 
                 // delete empty directory page: (automatically unpinned?)
+                if (fsm != null && fsm.getLastDirPage() == currentDirPageId.pid)
+                    fsm.setLastDirPage(currentDirPage.getPrevPage().pid);
                 unpinPage(currentDirPageId, false/*undirty*/);
                 freePage(currentDirPageId);
 
@@ -757,6 +981,35 @@ public class BigT implements Filetype, GlobalConst {
             HFDiskMgrException,
             HFBufMgrException,
             Exception {
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log == null)
+            return _updateMap(rid, newMap);
+
+        boolean result;
+        long end;
+        synchronized (this) {
+            _checkAborts(log);
+            log.begin();
+            try {
+                result = _updateMap(rid, newMap);
+            } catch (Throwable e) {
+                abortLogged(log, e);
+                throw e;
+            }
+            end = endLogged(log);
+        }
+        waitForLog(log, end);
+        return result;
+    }
+
+    private synchronized boolean _updateMap(RID rid, Map newMap)
+            throws InvalidSlotNumberException,
+            InvalidUpdateException,
+            InvalidTupleSizeException,
+            HFException,
+            HFDiskMgrException,
+            HFBufMgrException,
+            Exception {
         boolean status;
         HFPage dirPage = new HFPage();
         PageId currentDirPageId = new PageId();
@@ -764,12 +1017,20 @@ public class BigT implements Filetype, GlobalConst {
         PageId currentDataPageId = new PageId();
         RID currentDataPageRid = new RID();
 
-        status = _findDataPage(rid,
-                currentDirPageId, dirPage,
-                currentDataPageId, dataPage,
-                currentDataPageRid);
+        // the free space of the page does not change, so the directory
+        // is only searched if the free-space map does not know the page
+        boolean dirPinned = false;
+        if (_pinKnownDataPage(rid, dataPage)) {
+            currentDataPageId.pid = rid.pageNo.pid;
+        } else {
+            status = _findDataPage(rid,
+                    currentDirPageId, dirPage,
+                    currentDataPageId, dataPage,
+                    currentDataPageRid);
 
-        if (status != true) return status;    // record not found
+            if (status != true) return status;    // record not found
+            dirPinned = true;
+        }
         Map aMap = new Map();
         aMap = dataPage.returnMap(rid);
 
@@ -778,17 +1039,21 @@ public class BigT implements Filetype, GlobalConst {
 
         if (newMap.getLength() != aMap.getLength()) {
             unpinPage(currentDataPageId, false /*undirty*/);
-            unpinPage(currentDirPageId, false /*undirty*/);
+            if (dirPinned)
+                unpinPage(currentDirPageId, false /*undirty*/);
 
             throw new InvalidUpdateException(null, "invalid record update");
 
         }
 
         // new copy of this record fits in old space;
+        stats.remove(aMap.returnMapByteArray(), aMap.getOffset());
         aMap.mapCopy(newMap);
+        stats.add(aMap.returnMapByteArray(), aMap.getOffset());
         unpinPage(currentDataPageId, true /* = DIRTY */);
 
-        unpinPage(currentDirPageId, false /*undirty*/);
+        if (dirPinned)
+            unpinPage(currentDirPageId, false /*undirty*/);
 
 
         return true;
@@ -808,7 +1073,7 @@ public class BigT implements Filetype, GlobalConst {
      * @throws HFDiskMgrException         exception thrown from diskmgr layer
      * @throws Exception                  other exception
      */
-    public Map getMap(RID rid)
+    public synchronized Map getMap(RID rid)
             throws InvalidSlotNumberException,
             InvalidTupleSizeException,
             HFException,
@@ -856,10 +1121,11 @@ public class BigT implements Filetype, GlobalConst {
      * @throws InvalidTupleSizeException Invalid tuple size
      * @throws IOException               I/O errors
      */
-    public Scan openScan()
+    public synchronized Scan openScan()
             throws InvalidTupleSizeException,
             IOException {
         Scan newscan = new Scan(this);
+        openScans++;
         return newscan;
     }
 
@@ -926,9 +1192,403 @@ public class BigT implements Filetype, GlobalConst {
             }
         }
 
+        if (fsm != null) {
+            fsm.delete();
+            fsm = null;
+        }
+        stats.delete();
+        close();
         delete_file_entry(_fileName);
     }
 
+    /**
+     * Vacuums the BigT after deletes. It merges the data pages that are
+     * less than getVacuumFill() full into the pages with room, sparsest
+     * first, as long as the other pages can take their maps; it then
+     * compacts the slot directory of every data page, and moves the
+     * DataPageInfos of each directory page into the page before it, so
+     * that no directory page follows one with room. Every map that gets
+     * a new RID is passed to the listener, which is called with the
+     * BigT locked and must bring the indexes up to date. The BigT must
+     * not have open scans.
+     *
+     * @param listener told of every map moved, may be null
+     * @return the pages before and after, and the maps moved
+     * @throws HFException        the BigT has open scans, or a directory
+     *                            page is corrupt
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws Exception          error from the listener, or other exception
+     */
+    public synchronized VacuumReport vacuum(MapMoveListener listener)
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            Exception {
+        if (openScans > 0)
+            throw new HFException(null, "BigT.java: vacuum() with open scans");
+
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log != null)
+            _checkAborts(log);
+        VacuumReport report = new VacuumReport();
+        boolean ownFsm = (fsm == null);
+        if (ownFsm)
+            fsm = new FreeSpaceMap(_fileName, _firstDirPageId, false, io);
+
+        ArrayList<int[]> pages = new ArrayList<int[]>();
+        report.dirPagesBefore = _dataPages(pages);
+        report.dataPagesBefore = pages.size();
+
+        _mergeDataPages(pages, report, listener);
+        _compactDataPages(report, listener);
+        report.dirPagesAfter = _compactDirectory();
+
+        // the DataPageInfos moved: build the free-space map again
+        fsm.delete();
+        fsm = ownFsm ? null : new FreeSpaceMap(_fileName, _firstDirPageId, _ftype == ORDINARY, io);
+        pages.clear();
+        _dataPages(pages);
+        report.dataPagesAfter = pages.size();
+        deletesSinceVacuum = 0;
+        return report;
+    }
+
+    /**
+     * Returns the number of maps deleted since the BigT was opened or
+     * last vacuumed.
+     */
+    public synchronized int getDeletesSinceVacuum() {
+        return deletesSinceVacuum;
+    }
+
+    /**
+     * Tells whether the BigT has scans that were not closed.
+     */
+    public synchronized boolean hasOpenScans() {
+        return openScans > 0;
+    }
+
+    /**
+     * Sets the share of a data page (0 to 1) below which vacuum()
+     * merges it into other pages.
+     */
+    public static void setVacuumFill(double fill) {
+        vacuumFill = fill;
+    }
+
+    public static double getVacuumFill() {
+        return vacuumFill;
+    }
+
+    /**
+     * Lists the data pages, as their page number and free space, in
+     * directory order.
+     *
+     * @return the number of directory pages
+     */
+    private int _dataPages(ArrayList<int[]> pages)
+            throws HFException,
+            HFBufMgrException,
+            IOException {
+        int dirPages = 0;
+        PageId dirPageId = new PageId(_firstDirPageId.pid);
+        HFPage dirPage = new HFPage();
+        while (dirPageId.pid != INVALID_PAGE) {
+            pinPage(dirPageId, dirPage, false);
+            dirPages++;
+            try {
+                for (RID rid = dirPage.firstMap(); rid != null; rid = dirPage.nextMap(rid)) {
+                    DataPageInfo dpinfo = new DataPageInfo(dirPage.getMap(rid));
+                    pages.add(new int[]{dpinfo.pageId.pid, dpinfo.availspace});
+                }
+            } catch (InvalidSlotNumberException | InvalidTupleSizeException e) {
+                throw new HFException(e, "BigT.java: corrupt directory page");
+            } finally {
+                unpinPage(dirPageId, false);
+            }
+            dirPageId.pid = dirPage.getNextPage().pid;
+        }
+        return dirPages;
+    }
+
+    /**
+     * Moves the maps of the sparse data pages into other pages with
+     * room. A page is taken only if the pages that are not taken have
+     * room for its maps; those of a page that does not fit in the end
+     * stay where they are.
+     */
+    private void _mergeDataPages(ArrayList<int[]> pages, VacuumReport report,
+                                 MapMoveListener listener)
+            throws Exception {
+        int empty = SystemDefs.JavabasePageSize - HFPage.DPFIXED - HFPage.SIZE_OF_SLOT;
+        int room = 0;
+        ArrayList<int[]> sparse = new ArrayList<int[]>();
+        for (int[] page : pages) {
+            room += page[1];
+            if (empty - page[1] < vacuumFill * empty)
+                sparse.add(page);
+        }
+        // sparsest first
+        Collections.sort(sparse, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return b[1] - a[1];
+            }
+        });
+        ArrayList<int[]> victims = new ArrayList<int[]>();
+        for (int[] page : sparse) {
+            int used = empty - page[1];
+            if (used > room - page[1])
+                break;
+            room -= page[1] + used;
+            victims.add(page);
+        }
+
+        // keep the maps from moving into a page that is to be emptied
+        for (int[] page : victims) {
+            int entry = fsm.entryOf(page[0]);
+            if (entry >= 0)
+                fsm.update(entry, 0);
+        }
+
+        HFPage dataPage = new HFPage();
+        PageId dataPageId = new PageId();
+        boolean full = false;
+        for (int[] page : victims) {
+            int entry = fsm.entryOf(page[0]);
+            if (full) {
+                if (entry >= 0)
+                    fsm.update(entry, page[1]);
+                continue;
+            }
+
+            // copy the maps first: deleting them frees the page
+            ArrayList<RID> rids = new ArrayList<RID>();
+            ArrayList<byte[]> maps = new ArrayList<byte[]>();
+            dataPageId.pid = page[0];
+            pinPage(dataPageId, dataPage, false);
+            try {
+                for (RID rid = dataPage.firstMap(); rid != null; rid = dataPage.nextMap(rid)) {
+                    rids.add(new RID(new PageId(rid.pageNo.pid), rid.slotNo));
+                    maps.add(dataPage.getMap(rid).getMapByteArray());
+                }
+            } finally {
+                unpinPage(dataPageId, false);
+            }
+
+            // the maps of a page and their index entries move in one
+            // transaction of the write-ahead log
+            LogMgr log = SystemDefs.JavabaseLog;
+            if (log != null)
+                log.begin();
+            int moved = 0;
+            int space = page[1];
+            try {
+                for (; moved < maps.size(); moved++) {
+                    byte[] map = maps.get(moved);
+                    if (fsm.find(map.length) < 0) {
+                        full = true;
+                        break;
+                    }
+                    RID to = _insertMap(map);
+                    _deleteMap(rids.get(moved));
+                    // deleteMap gave the page its space back: take it away
+                    // again until the last map is out
+                    entry = fsm.entryOf(page[0]);
+                    if (entry >= 0) {
+                        space = fsm.getSpace(entry);
+                        fsm.update(entry, 0);
+                    }
+                    report.mapsMoved++;
+                    if (listener != null)
+                        listener.moved(new Map(map, 0, map.length), rids.get(moved), to);
+                }
+            } catch (Throwable e) {
+                abortLogged(log, e);
+                throw e;
+            }
+            commitLogged(log);
+            entry = fsm.entryOf(page[0]);
+            if (moved == maps.size() && entry >= 0)
+                throw new HFException(null, "BigT.java: vacuum() did not free data page " + page[0]);
+            if (entry >= 0)
+                fsm.update(entry, space);
+        }
+    }
+
+    /**
+     * Compacts the slot directory of every data page with empty slots.
+     * With the write-ahead log, the pages compacted on a directory page
+     * are committed with it in batches, each before its pinned pages fill
+     * a quarter of a pool.
+     */
+    private void _compactDataPages(VacuumReport report, MapMoveListener listener)
+            throws Exception {
+        PageId dirPageId = new PageId(_firstDirPageId.pid);
+        HFPage dirPage = new HFPage();
+        PageId dataPageId = new PageId();
+        HFPage dataPage = new HFPage();
+        LogMgr log = SystemDefs.JavabaseLog;
+        int maxHeld = maxHeld();
+        while (dirPageId.pid != INVALID_PAGE) {
+            if (log != null)
+                log.begin();
+            pinPage(dirPageId, dirPage, false);
+            boolean dirty = false;
+            try {
+                for (RID dirRid = dirPage.firstMap(); dirRid != null; dirRid = dirPage.nextMap(dirRid)) {
+                    DataPageInfo dpinfo = new DataPageInfo(dirPage.returnMap(dirRid));
+                    dataPageId.pid = dpinfo.pageId.pid;
+                    pinPage(dataPageId, dataPage, false);
+                    boolean compacted = false;
+                    try {
+                        // the maps keep their order and take the first slots
+                        int slotCnt = dataPage.getSlotCnt();
+                        int live = 0;
+                        int[] from = new int[slotCnt];
+                        for (int slot = 0; slot < slotCnt; slot++)
+                            if (dataPage.getSlotLength(slot) >= 0)
+                                from[live++] = slot;
+                        if (live < slotCnt) {
+                            dataPage.compact_slot_dir();
+                            compacted = true;
+                            dpinfo.availspace = dataPage.available_space();
+                            dpinfo.flushToMap();
+                            dirty = true;
+                            report.slotsFreed += slotCnt - live;
+                            for (int slot = 0; slot < live; slot++) {
+                                if (from[slot] == slot)
+                                    continue;
+                                report.mapsRenumbered++;
+                                if (listener != null) {
+                                    RID to = new RID(new PageId(dataPageId.pid), slot);
+                                    listener.moved(dataPage.getMap(to),
+                                            new RID(new PageId(dataPageId.pid), from[slot]), to);
+                                }
+                            }
+                        }
+                    } finally {
+                        unpinPage(dataPageId, compacted);
+                    }
+                    if (log != null && dirty && log.held() >= maxHeld) {
+                        // the transaction takes a pin of the directory page
+                        // of its own, and this loop keeps the one it has
+                        pinPage(dirPageId, dirPage, false);
+                        unpinPage(dirPageId, true);
+                        commitLogged(log);
+                        log.begin();
+                        dirty = false;
+                    }
+                }
+            } catch (Throwable e) {
+                abortLogged(log, e);
+                throw e;
+            } finally {
+                unpinPage(dirPageId, dirty);
+            }
+            commitLogged(log);
+            dirPageId.pid = dirPage.getNextPage().pid;
+        }
+    }
+
+    /**
+     * Moves the DataPageInfos of every directory page into the one before
+     * it while that one has room, and frees the directory pages that are
+     * left empty. With the write-ahead log, every directory page is
+     * committed with the one it moved into.
+     *
+     * @return the number of directory pages
+     */
+    private int _compactDirectory()
+            throws Exception {
+        int dirPages = 1;
+        PageId targetId = new PageId(_firstDirPageId.pid);
+        HFPage target = new HFPage();
+        pinPage(targetId, target, false);
+        PageId srcId = new PageId(target.getNextPage().pid);
+        unpinPage(targetId, false);
+        LogMgr log = SystemDefs.JavabaseLog;
+        // ASSERTION: target is the page before src
+        while (srcId.pid != INVALID_PAGE) {
+            if (log != null)
+                log.begin();
+            try {
+                if (_compactDirectoryPage(targetId, srcId)) {
+                    // src is the new target
+                    targetId.pid = srcId.pid;
+                    dirPages++;
+                }
+                pinPage(targetId, target, false);
+                srcId.pid = target.getNextPage().pid;
+                unpinPage(targetId, false);
+            } catch (Throwable e) {
+                abortLogged(log, e);
+                throw e;
+            }
+            commitLogged(log);
+        }
+        return dirPages;
+    }
+
+    /**
+     * Moves the DataPageInfos of the directory page src into target, the
+     * one before it, and frees src if it is left empty.
+     *
+     * @return true if target is full and src stays
+     */
+    private boolean _compactDirectoryPage(PageId targetId, PageId srcId)
+            throws Exception {
+        HFPage target = new HFPage();
+        HFPage src = new HFPage();
+        pinPage(targetId, target, false);
+        boolean full = false;
+        PageId nextId;
+        try {
+            pinPage(srcId, src, false);
+            try {
+                RID rid = src.firstMap();
+                while (rid != null) {
+                    RID next = src.nextMap(rid);
+                    if (target.insertMap(src.getMap(rid).getMapByteArray()) == null) {
+                        full = true;
+                        break;
+                    }
+                    src.deleteMap(rid);
+                    rid = next;
+                }
+                nextId = new PageId(src.getNextPage().pid);
+            } finally {
+                unpinPage(srcId, full);
+            }
+            if (!full)
+                target.setNextPage(nextId);
+        } finally {
+            unpinPage(targetId, true);
+        }
+        if (full)
+            return true;
+
+        if (nextId.pid != INVALID_PAGE) {
+            HFPage nextPage = new HFPage();
+            pinPage(nextId, nextPage, false);
+            nextPage.setPrevPage(targetId);
+            unpinPage(nextId, true);
+        }
+        freePage(srcId);
+        return false;
+    }
+
+    /**
+     * The most pages a transaction of the write-ahead log pins before it
+     * commits: a quarter of the smallest pool.
+     */
+    private static int maxHeld() {
+        int maxHeld = Integer.MAX_VALUE;
+        for (BufMgr pool : SystemDefs.JavabaseBM.getPools())
+            maxHeld = Math.min(maxHeld, pool.getNumBuffers() / 4);
+        return maxHeld;
+    }
+
     /**
      * short cut to access the pinPage function in bufmgr package.
      *
@@ -936,10 +1596,13 @@ public class BigT implements Filetype, GlobalConst {
     private void pinPage(PageId pageno, Page page, boolean emptyPage)
             throws HFBufMgrException {
 
+        PCounter.Stats outer = PCounter.enter(io);
         try {
             SystemDefs.JavabaseBM.pinPage(pageno, page, emptyPage);
         } catch (Exception e) {
             throw new HFBufMgrException(e, "Heapfile.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
         }
 
     } // end of pinPage
@@ -959,6 +1622,75 @@ public class BigT implements Filetype, GlobalConst {
 
     } // end of unpinPage
 
+    /**
+     * Ends the transaction of an operation, see LogMgr.end().
+     */
+    private static long endLogged(LogMgr log)
+            throws HFBufMgrException {
+        try {
+            return log.end();
+        } catch (LogMgrException e) {
+            throw new HFBufMgrException(e, "BigT.java: cannot log the changed pages");
+        }
+    }
+
+    /**
+     * Waits until the transaction of an operation is durable, see
+     * LogMgr.waitFor().
+     */
+    private static void waitForLog(LogMgr log, long end)
+            throws HFBufMgrException {
+        try {
+            log.waitFor(end);
+        } catch (LogMgrException e) {
+            throw new HFBufMgrException(e, "BigT.java: cannot force the log");
+        }
+    }
+
+    /**
+     * Builds the free-space map and the statistics again if a transaction
+     * was aborted since they were last checked: the pages they describe
+     * may have been put back.
+     */
+    private void _checkAborts(LogMgr log)
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        long aborts = log.getAborts();
+        if (aborts == abortsSeen)
+            return;
+        abortsSeen = aborts;
+        if (fsm != null) {
+            fsm.delete();
+            fsm = new FreeSpaceMap(_fileName, _firstDirPageId, _ftype == ORDINARY, io);
+        }
+        stats.reload(this);
+    }
+
+    /**
+     * Aborts a transaction begun if log is not null, for an operation
+     * that failed with e. A failure to abort is added to e.
+     */
+    private static void abortLogged(LogMgr log, Throwable e) {
+        if (log == null)
+            return;
+        try {
+            log.abort();
+        } catch (LogMgrException abortFailed) {
+            e.addSuppressed(abortFailed);
+        }
+    }
+
+    /**
+     * Commits a transaction begun if log is not null.
+     */
+    private static void commitLogged(LogMgr log)
+            throws HFBufMgrException {
+        if (log != null)
+            waitForLog(log, endLogged(log));
+    }
+
     private void freePage(PageId pageno)
             throws HFBufMgrException {
 
@@ -976,16 +1708,67 @@ public class BigT implements Filetype, GlobalConst {
         ++count;
         PageId tmpId = new PageId();
 
+        PCounter.Stats outer = PCounter.enter(io);
         try {
             tmpId = SystemDefs.JavabaseBM.newPage(page, num);
         } catch (Exception e) {
             throw new HFBufMgrException(e, "Heapfile.java: newPage() failed");
+        } finally {
+            PCounter.exit(outer);
         }
 
         return tmpId;
 
     } // end of newPage
 
+    /**
+     * short cut to take a new data page from the data extent.
+     */
+    private PageId newDataPage(Page page)
+            throws HFBufMgrException {
+        ++count;
+        PageId tmpId = new PageId();
+
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            tmpId = dataExtent.newPage(page);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigT.java: newDataPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+
+        return tmpId;
+
+    } // end of newDataPage
+
+    /**
+     * Gives the unused pages of the current data extent back to the DB
+     * and writes the free-space map and the statistics to their pages.
+     * The BigT stays usable; the next data page starts a new extent.
+     *
+     * @throws HFBufMgrException exception thrown from bufmgr layer
+     */
+    public void close()
+            throws HFBufMgrException {
+        try {
+            dataExtent.release();
+            if (fsm != null)
+                fsm.close();
+            stats.close();
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigT.java: close() failed");
+        }
+    }
+
+    /**
+     * Sets the number of pages per data extent of BigTs created from
+     * now on; 1 allocates data pages one at a time.
+     */
+    public static void setDataExtentPages(int pages) {
+        dataExtentPages = pages;
+    }
+
     public int getCount(){
         return count;
     }
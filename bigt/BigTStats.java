@@ -0,0 +1,537 @@
+/* File BigTStats.java */
+
+package bigt;
+
+import bufmgr.LogMgr;
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+import heap.HFBufMgrException;
+import heap.HFDiskMgrException;
+import heap.HFException;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Statistics of a BigT, kept up to date by every insert, update and
+ * delete: the number of maps, the distinct rows, columns and values,
+ * the smallest and largest timestamp, and the average length of the
+ * row and column labels. All are read in O(1).
+ * <p>
+ * The distinct counts are HyperLogLog sketches of 2^HLL_BITS one-byte
+ * registers, with a standard error of about 1.04 / sqrt(2^HLL_BITS),
+ * 3.25%; below 2.5 * 2^HLL_BITS distinct labels they are counted
+ * nearly exactly. A sketch can not forget a label, so the distinct
+ * counts and the timestamp range take in every map inserted since the
+ * statistics were last built, deleted or not; the number of maps and
+ * the label lengths are exact. rebuild() builds them again from the
+ * maps of the BigT.
+ * <p>
+ * The statistics of a named BigT are written by close() to a header
+ * page and one page per sketch, which the DB knows under the file name
+ * followed by ".stats". Like the free-space map, they are marked out of
+ * date on disk before the first change after they were read or
+ * written, and built again from the maps the next time the BigT is
+ * opened if they were not closed.
+ */
+public class BigTStats implements GlobalConst {
+
+    /**
+     * Bits of the hash that choose the register of a sketch.
+     */
+    public static final int HLL_BITS = 10;
+    private static final int REGISTERS = 1 << HLL_BITS;
+
+    /**
+     * Layout of the header page. The counts of 8 bytes are written as
+     * two ints, high int first.
+     */
+    private static final int CLEAN = 0;
+    private static final int MAP_CNT = 4;
+    private static final int MIN_TIMESTAMP = 12;
+    private static final int MAX_TIMESTAMP = 16;
+    private static final int ROW_LABEL_BYTES = 20;
+    private static final int COLUMN_LABEL_BYTES = 28;
+    private static final int SKETCH_PAGES = 36;
+
+    private static final int ROWS = 0;
+    private static final int COLUMNS = 1;
+    private static final int VALUES = 2;
+    private static final int SKETCHES = 3;
+
+    private final String fileName;
+    private boolean persistent;
+    private final PCounter.Stats io;
+
+    private long mapCnt;
+    private int minTimeStamp;
+    private int maxTimeStamp;
+    private long rowLabelBytes;
+    private long columnLabelBytes;
+    private final byte[][] sketches = new byte[SKETCHES][REGISTERS];
+
+    /**
+     * Header page on disk, INVALID_PAGE if not written yet.
+     */
+    private PageId headerPage = new PageId(INVALID_PAGE);
+    private final int[] sketchPages = new int[SKETCHES];
+
+    /**
+     * Whether the statistics on disk are marked up to date.
+     */
+    private boolean clean = false;
+
+    /**
+     * Reads the statistics of a BigT, or builds them from its maps if
+     * there are none on disk or they are out of date.
+     *
+     * @param bigt       the BigT, fully opened.
+     * @param fileName   the name of the BigT in the DB.
+     * @param persistent whether the statistics are kept on disk.
+     * @param io         the I/O counters of the BigT.
+     * @throws HFException        a map could not be read
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    BigTStats(BigT bigt, String fileName, boolean persistent, PCounter.Stats io)
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        this.fileName = fileName + ".stats";
+        this.persistent = persistent;
+        this.io = io;
+        reset();
+
+        if (persistent) {
+            try {
+                PageId header = SystemDefs.JavabaseDB.get_file_entry(this.fileName);
+                if (header != null)
+                    headerPage = header;
+            } catch (Exception e) {
+                throw new HFDiskMgrException(e, "BigTStats.java: get_file_entry() failed");
+            }
+        }
+        if (headerPage.pid == INVALID_PAGE || !load())
+            rebuild(bigt);
+    }
+
+    /**
+     * Returns the number of maps.
+     */
+    public long getMapCnt() {
+        return mapCnt;
+    }
+
+    /**
+     * Returns the estimated number of distinct row labels.
+     */
+    public int getRowCnt() {
+        return estimate(sketches[ROWS]);
+    }
+
+    /**
+     * Returns the estimated number of distinct column labels.
+     */
+    public int getColumnCnt() {
+        return estimate(sketches[COLUMNS]);
+    }
+
+    /**
+     * Returns the estimated number of distinct values.
+     */
+    public int getValueCnt() {
+        return estimate(sketches[VALUES]);
+    }
+
+    /**
+     * Returns the smallest timestamp, Integer.MAX_VALUE if there are no
+     * maps.
+     */
+    public int getMinTimeStamp() {
+        return minTimeStamp;
+    }
+
+    /**
+     * Returns the largest timestamp, Integer.MIN_VALUE if there are no
+     * maps.
+     */
+    public int getMaxTimeStamp() {
+        return maxTimeStamp;
+    }
+
+    /**
+     * Returns the average length of the row labels in bytes.
+     */
+    public double getAvgRowLabelLength() {
+        return (mapCnt > 0) ? (double) rowLabelBytes / mapCnt : 0;
+    }
+
+    /**
+     * Returns the average length of the column labels in bytes.
+     */
+    public double getAvgColumnLabelLength() {
+        return (mapCnt > 0) ? (double) columnLabelBytes / mapCnt : 0;
+    }
+
+    /**
+     * Counts a map that was inserted.
+     *
+     * @param data   the array holding the map.
+     * @param offset the start of the map in data.
+     */
+    void add(byte[] data, int offset)
+            throws HFBufMgrException, IOException {
+        markDirty();
+        mapCnt++;
+        rowLabelBytes += Map.fieldLength(data, offset, 0);
+        columnLabelBytes += Map.fieldLength(data, offset, 1);
+        int timeStamp = Convert.getIntValue(Map.fieldStart(data, offset, 2), data);
+        if (timeStamp < minTimeStamp)
+            minTimeStamp = timeStamp;
+        if (timeStamp > maxTimeStamp)
+            maxTimeStamp = timeStamp;
+        offer(sketches[ROWS], data, offset, 0);
+        offer(sketches[COLUMNS], data, offset, 1);
+        offer(sketches[VALUES], data, offset, 3);
+    }
+
+    /**
+     * Counts a map that was deleted.
+     *
+     * @param data   the array holding the map.
+     * @param offset the start of the map in data.
+     */
+    void remove(byte[] data, int offset)
+            throws HFBufMgrException, IOException {
+        markDirty();
+        mapCnt--;
+        rowLabelBytes -= Map.fieldLength(data, offset, 0);
+        columnLabelBytes -= Map.fieldLength(data, offset, 1);
+    }
+
+    /**
+     * Builds the statistics again from the maps of a BigT.
+     *
+     * @throws HFException       a map could not be read
+     * @throws HFBufMgrException exception thrown from bufmgr layer
+     * @throws IOException       I/O errors
+     */
+    void rebuild(BigT bigt)
+            throws HFException,
+            HFBufMgrException,
+            IOException {
+        markDirty();
+        reset();
+        Scan scan;
+        try {
+            scan = bigt.openScan();
+        } catch (Exception e) {
+            throw new HFException(e, "BigTStats.java: rebuild() failed");
+        }
+        try {
+            RID rid = new RID();
+            Map map;
+            while ((map = scan.getNext(rid)) != null)
+                add(map.getMapByteArray(), 0);
+        } catch (HFBufMgrException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new HFException(e, "BigTStats.java: rebuild() failed");
+        } finally {
+            scan.closescan();
+        }
+    }
+
+    /**
+     * Reads the statistics again after a transaction was aborted, which
+     * may have put back maps and the header page. The header page is as
+     * the transaction found it: if it is marked up to date, every change
+     * since was in the transaction and the statistics on disk are right,
+     * else they are built again from the maps.
+     *
+     * @throws HFException       a map could not be read
+     * @throws HFBufMgrException exception thrown from bufmgr layer
+     * @throws IOException       I/O errors
+     */
+    void reload(BigT bigt)
+            throws HFException,
+            HFBufMgrException,
+            IOException {
+        reset();
+        clean = false;
+        if (headerPage.pid == INVALID_PAGE || !load())
+            rebuild(bigt);
+    }
+
+    /**
+     * Writes the statistics to their pages and marks them up to date, if
+     * they are kept on disk.
+     *
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    void close()
+            throws HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        if (!persistent || clean)
+            return;
+
+        Page header = new Page();
+        if (headerPage.pid == INVALID_PAGE) {
+            headerPage = newPage(header);
+            try {
+                SystemDefs.JavabaseDB.add_file_entry(fileName, headerPage);
+            } catch (Exception e) {
+                unpinPage(headerPage, true);
+                throw new HFDiskMgrException(e, "BigTStats.java: add_file_entry() failed");
+            }
+            for (int i = 0; i < SKETCHES; i++) {
+                Page page = new Page();
+                sketchPages[i] = newPage(page).pid;
+                unpinPage(new PageId(sketchPages[i]), true);
+                Convert.setIntValue(sketchPages[i], SKETCH_PAGES + 4 * i, header.getpage());
+            }
+        } else {
+            pinPage(headerPage, header);
+        }
+
+        for (int i = 0; i < SKETCHES; i++) {
+            PageId pageId = new PageId(sketchPages[i]);
+            Page page = new Page();
+            pinPage(pageId, page);
+            System.arraycopy(sketches[i], 0, page.getpage(), 0, REGISTERS);
+            unpinPage(pageId, true);
+        }
+
+        byte[] data = header.getpage();
+        setLong(mapCnt, MAP_CNT, data);
+        Convert.setIntValue(minTimeStamp, MIN_TIMESTAMP, data);
+        Convert.setIntValue(maxTimeStamp, MAX_TIMESTAMP, data);
+        setLong(rowLabelBytes, ROW_LABEL_BYTES, data);
+        setLong(columnLabelBytes, COLUMN_LABEL_BYTES, data);
+        Convert.setIntValue(1, CLEAN, data);
+        unpinPage(headerPage, true);
+        clean = true;
+    }
+
+    /**
+     * Frees the pages of the statistics and removes them from the DB,
+     * when their BigT is deleted.
+     *
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     */
+    void delete()
+            throws HFBufMgrException,
+            HFDiskMgrException {
+        if (headerPage.pid == INVALID_PAGE)
+            return;
+
+        for (int i = 0; i < SKETCHES; i++)
+            freePage(new PageId(sketchPages[i]));
+        freePage(headerPage);
+        try {
+            SystemDefs.JavabaseDB.delete_file_entry(fileName);
+        } catch (Exception e) {
+            throw new HFDiskMgrException(e, "BigTStats.java: delete_file_entry() failed");
+        }
+        headerPage.pid = INVALID_PAGE;
+        persistent = false;
+        clean = false;
+    }
+
+    /**
+     * Reads the statistics from their pages.
+     *
+     * @return false if the statistics on disk are out of date.
+     */
+    private boolean load()
+            throws HFBufMgrException, IOException {
+        Page header = new Page();
+        pinPage(headerPage, header);
+        byte[] data = header.getpage();
+        boolean upToDate = Convert.getIntValue(CLEAN, data) == 1;
+        for (int i = 0; i < SKETCHES; i++)
+            sketchPages[i] = Convert.getIntValue(SKETCH_PAGES + 4 * i, data);
+        if (upToDate) {
+            mapCnt = getLong(MAP_CNT, data);
+            minTimeStamp = Convert.getIntValue(MIN_TIMESTAMP, data);
+            maxTimeStamp = Convert.getIntValue(MAX_TIMESTAMP, data);
+            rowLabelBytes = getLong(ROW_LABEL_BYTES, data);
+            columnLabelBytes = getLong(COLUMN_LABEL_BYTES, data);
+        }
+        unpinPage(headerPage, false);
+        if (!upToDate)
+            return false;
+
+        for (int i = 0; i < SKETCHES; i++) {
+            PageId pageId = new PageId(sketchPages[i]);
+            Page page = new Page();
+            pinPage(pageId, page);
+            System.arraycopy(page.getpage(), 0, sketches[i], 0, REGISTERS);
+            unpinPage(pageId, false);
+        }
+        clean = true;
+        return true;
+    }
+
+    private void reset() {
+        mapCnt = 0;
+        minTimeStamp = Integer.MAX_VALUE;
+        maxTimeStamp = Integer.MIN_VALUE;
+        rowLabelBytes = 0;
+        columnLabelBytes = 0;
+        for (byte[] sketch : sketches)
+            Arrays.fill(sketch, (byte) 0);
+    }
+
+    /**
+     * Adds the bytes of a string field to a sketch.
+     */
+    private static void offer(byte[] sketch, byte[] data, int offset, int field)
+            throws IOException {
+        long hash = hash(data, Map.fieldStart(data, offset, field), Map.fieldLength(data, offset, field));
+        int register = (int) (hash >>> (64 - HLL_BITS));
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << HLL_BITS), 64 - HLL_BITS) + 1;
+        if (rank > sketch[register])
+            sketch[register] = (byte) rank;
+    }
+
+    /**
+     * Returns the HyperLogLog estimate of a sketch, by linear counting
+     * while many registers are still 0.
+     */
+    private static int estimate(byte[] sketch) {
+        double sum = 0;
+        int zeros = 0;
+        for (byte rank : sketch) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double e = alpha * REGISTERS * REGISTERS / sum;
+        if (e <= 2.5 * REGISTERS && zeros > 0)
+            e = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return (int) Math.round(e);
+    }
+
+    /**
+     * 64-bit FNV-1a of the bytes, mixed by the finalizer of MurmurHash3
+     * so that the high bits, which choose the register, are as good as
+     * the low ones.
+     */
+    private static long hash(byte[] data, int start, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < start + length; i++) {
+            h ^= data[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void setLong(long value, int position, byte[] data)
+            throws IOException {
+        Convert.setIntValue((int) (value >>> 32), position, data);
+        Convert.setIntValue((int) value, position + 4, data);
+    }
+
+    private static long getLong(int position, byte[] data)
+            throws IOException {
+        return ((long) Convert.getIntValue(position, data) << 32)
+                | (Convert.getIntValue(position + 4, data) & 0xffffffffL);
+    }
+
+    /**
+     * Marks the statistics on disk out of date before they are changed,
+     * and writes the header page so that the mark survives a crash. A
+     * transaction of the write-ahead log keeps the page pinned instead,
+     * and its commit logs the page.
+     */
+    private void markDirty()
+            throws HFBufMgrException, IOException {
+        if (!clean)
+            return;
+        clean = false;
+        Page page = new Page();
+        pinPage(headerPage, page);
+        Convert.setIntValue(0, CLEAN, page.getpage());
+        unpinPage(headerPage, true);
+
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log == null || log.held() == 0)
+            flushPage(headerPage);
+    }
+
+    private void pinPage(PageId pageno, Page page)
+            throws HFBufMgrException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageno, page, false);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigTStats.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    private void unpinPage(PageId pageno, boolean dirty)
+            throws HFBufMgrException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageno, dirty);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigTStats.java: unpinPage() failed");
+        }
+    }
+
+    private void flushPage(PageId pageno)
+            throws HFBufMgrException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            SystemDefs.JavabaseBM.flushPage(pageno);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigTStats.java: flushPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    private void freePage(PageId pageno)
+            throws HFBufMgrException {
+        try {
+            SystemDefs.JavabaseBM.freePage(pageno);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigTStats.java: freePage() failed");
+        }
+    }
+
+    private PageId newPage(Page page)
+            throws HFBufMgrException {
+        PageId pageId;
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            pageId = SystemDefs.JavabaseBM.newPage(page, 1);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "BigTStats.java: newPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+        if (pageId == null)
+            throw new HFBufMgrException(null, "BigTStats.java: newPage() failed");
+        return pageId;
+    }
+}
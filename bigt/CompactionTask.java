@@ -0,0 +1,61 @@
+/* File CompactionTask.java */
+
+package bigt;
+
+/**
+ * A background thread that writes out the memtables of an LSMTree and
+ * merges its levels. It waits on the lock of the tree until there is a
+ * memtable to write or a level to merge, and does one at a time without
+ * the lock, so that inserts and scans go on meanwhile. An error stops
+ * it, and the tree then refuses inserts and scans.
+ */
+class CompactionTask extends Thread {
+
+    private final LSMTree tree;
+
+    private boolean stopped = false;
+
+    CompactionTask(LSMTree tree) {
+        super("CompactionTask");
+        this.tree = tree;
+        setDaemon(true);
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (tree) {
+                try {
+                    while (!stopped && !tree.hasWork())
+                        tree.wait();
+                } catch (InterruptedException e) {
+                    stopped = true;
+                }
+                if (stopped)
+                    return;
+            }
+
+            try {
+                tree.work();
+            } catch (Exception e) {
+                tree.failed(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the thread and waits until it is done with its current
+     * segment.
+     */
+    void shutdown() {
+        synchronized (tree) {
+            stopped = true;
+            tree.notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/* File LSMScan.java */
+
+package bigt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A scan of the maps of an LSMTree in order, from a row to a row. It
+ * merges the memtables and the segments of the tree: of the maps of the
+ * same key, the one of the newest memtable or segment is returned, and
+ * of the versions of a (row, column), only the newest
+ * VersionIndex.MAX_VERSIONS. A compaction merges its segments through
+ * the same scan, which is how it drops the older versions.
+ */
+public class LSMScan {
+
+    /**
+     * A sorted source of maps: a memtable or a segment. The lower its
+     * rank, the newer it is.
+     */
+    private abstract static class Source implements Comparable<Source> {
+        final int rank;
+        String row, column, value;
+        int timeStamp;
+
+        Source(int rank) {
+            this.rank = rank;
+        }
+
+        /**
+         * Moves on to the next map; false at the end.
+         */
+        abstract boolean next() throws SegmentException, IOException;
+
+        void close() {
+        }
+
+        public int compareTo(Source s) {
+            int c = Segment.compare(row, column, timeStamp, s.row, s.column, s.timeStamp);
+            return (c != 0) ? c : rank - s.rank;
+        }
+    }
+
+    private static class MemSource extends Source {
+        private final Iterator<java.util.Map.Entry<MemTable.Key, String>> it;
+
+        MemSource(int rank, MemTable mem, String fromRow, String toRow) {
+            super(rank);
+            it = mem.range(fromRow, toRow);
+        }
+
+        boolean next() {
+            if (!it.hasNext())
+                return false;
+            java.util.Map.Entry<MemTable.Key, String> e = it.next();
+            row = e.getKey().row;
+            column = e.getKey().column;
+            timeStamp = e.getKey().timeStamp;
+            value = e.getValue();
+            return true;
+        }
+    }
+
+    private static class SegmentSource extends Source {
+        private final SegmentScan scan;
+
+        SegmentSource(int rank, Segment seg, String fromRow, String toRow)
+                throws SegmentException,
+                IOException {
+            super(rank);
+            scan = seg.openScan(fromRow, toRow);
+        }
+
+        boolean next() throws SegmentException, IOException {
+            if (!scan.next())
+                return false;
+            row = scan.row;
+            column = scan.column;
+            timeStamp = scan.timeStamp;
+            value = scan.value;
+            return true;
+        }
+
+        void close() {
+            scan.closescan();
+        }
+    }
+
+    private final LSMTree tree;
+    private final short[] strSizes;
+    private final PriorityQueue<Source> queue = new PriorityQueue<Source>();
+    private final ArrayList<Source> sources = new ArrayList<Source>();
+
+    /**
+     * The map returned last, and its number among the versions of its
+     * (row, column).
+     */
+    String row, column, value;
+    int timeStamp;
+    private int version;
+
+    private boolean closed = false;
+
+    /**
+     * Opens a merge of memtables and segments, newest first.
+     *
+     * @param tree told when the scan is closed, null for none; it has
+     *             counted the scan as open already
+     */
+    LSMScan(LSMTree tree, short[] strSizes, MemTable[] mems, Segment[] segs,
+            String fromRow, String toRow)
+            throws SegmentException,
+            IOException {
+        this.tree = tree;
+        this.strSizes = strSizes;
+        int rank = 0;
+        try {
+            for (MemTable mem : mems)
+                add(new MemSource(rank++, mem, fromRow, toRow));
+            for (Segment seg : segs)
+                add(new SegmentSource(rank++, seg, fromRow, toRow));
+        } catch (SegmentException | IOException | RuntimeException e) {
+            closescan();
+            throw e;
+        }
+    }
+
+    private void add(Source source) throws SegmentException, IOException {
+        sources.add(source);
+        if (source.next())
+            queue.add(source);
+    }
+
+    /**
+     * Returns the next map, null at the end of the scan.
+     *
+     * @throws SegmentException error from the buffer manager
+     * @throws IOException      I/O errors
+     */
+    public Map getNext()
+            throws SegmentException,
+            IOException {
+        if (!next())
+            return null;
+
+        Map map = new Map();
+        try {
+            map.setHdr((short) 4, Segment.TYPES, strSizes);
+            map.setRowLabel(row);
+            map.setColumnLabel(column);
+            map.setTimeStamp(timeStamp);
+            map.setValue(value);
+        } catch (Exception e) {
+            throw new SegmentException(e, "LSMScan.java: map construction failed");
+        }
+        return map;
+    }
+
+    /**
+     * Moves on to the next map, whose fields are then in row, column,
+     * timeStamp and value, without making a Map of it.
+     *
+     * @return false at the end of the scan
+     */
+    boolean next()
+            throws SegmentException,
+            IOException {
+        while (!queue.isEmpty()) {
+            Source top = queue.poll();
+            String nextRow = top.row, nextColumn = top.column, nextValue = top.value;
+            int nextTimeStamp = top.timeStamp;
+            advance(top);
+            // the same key in older sources
+            while (!queue.isEmpty() && Segment.compare(queue.peek().row, queue.peek().column,
+                    queue.peek().timeStamp, nextRow, nextColumn, nextTimeStamp) == 0)
+                advance(queue.poll());
+
+            if (nextRow.equals(row) && nextColumn.equals(column)) {
+                if (++version >= VersionIndex.MAX_VERSIONS)
+                    continue;
+            } else {
+                version = 0;
+            }
+            row = nextRow;
+            column = nextColumn;
+            timeStamp = nextTimeStamp;
+            value = nextValue;
+            return true;
+        }
+        return false;
+    }
+
+    private void advance(Source source) throws SegmentException, IOException {
+        if (source.next())
+            queue.add(source);
+    }
+
+    /**
+     * Ends the scan. The segments it reads are not deleted before.
+     */
+    public void closescan() {
+        if (closed)
+            return;
+        closed = true;
+        for (Source source : sources)
+            source.close();
+        queue.clear();
+        if (tree != null)
+            tree.scanClosed();
+    }
+}
@@ -0,0 +1,602 @@
+/* File LSMTree.java */
+
+package bigt;
+
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * The maps of a BigT of storage type 6, kept as a log-structured merge
+ * tree rather than in a heap file with B+ trees on it.
+ * <p>
+ * An insert goes to the memtable, in memory. Once the memtable holds
+ * getMemTableSize() bytes it is written out as a segment, a sorted run,
+ * into level 0, where the runs overlap; an insert waits only if the
+ * memtable before is not written yet. When level 0 has LEVEL0_RUNS runs,
+ * they are merged with the run of level 1; when level i holds more
+ * blocks than its limit, its run is merged with that of level i + 1. The
+ * limit of level 1 is getLevelRatio() memtables, and that of every
+ * level after it getLevelRatio() times that of the one before. A merge
+ * keeps only the newest VersionIndex.MAX_VERSIONS versions of a (row,
+ * column), as a scan does. The writes and merges are done by a
+ * CompactionTask, or by the inserting thread before startCompaction().
+ * <p>
+ * The segments are files of the DB. The tree itself is a manifest page,
+ * the file entry of its name, which lists the segments of every level,
+ * newest first; a segment written or merged is put in the manifest when
+ * it is complete. The segments a merge replaces are deleted once no scan
+ * reads them. The memtable is lost if the tree is not closed.
+ */
+public class LSMTree implements GlobalConst {
+
+    /**
+     * Runs of level 0 that start a merge into level 1.
+     */
+    public static final int LEVEL0_RUNS = 4;
+
+    private static int memTableSize = 256 * 1024;
+    private static int levelRatio = 10;
+
+    /**
+     * Layout of the manifest: the number of segments, the number of the
+     * next segment; every segment follows, as its level and name.
+     */
+    private static final int SEGMENT_CNT = 0;
+    private static final int NEXT_SEGMENT = 4;
+    private static final int MANIFEST_HEADER = 8;
+
+    private final String name;
+    private final short[] strSizes;
+    private final PCounter.Stats io;
+    private PageId manifest;
+
+    private MemTable memTable = new MemTable();
+
+    /**
+     * The memtable being written out, null if none.
+     */
+    private MemTable flushing;
+
+    /**
+     * The segments of every level, newest first; level 1 and after hold
+     * one at most.
+     */
+    private final ArrayList<ArrayList<Segment>> levels = new ArrayList<ArrayList<Segment>>();
+
+    /**
+     * Segments replaced by a merge, and not yet deleted because of open
+     * scans.
+     */
+    private final ArrayList<Segment> obsolete = new ArrayList<Segment>();
+    private int openScans;
+    private int nextSegment;
+
+    private CompactionTask task;
+    private Exception error;
+
+    /**
+     * Opens the tree of the given name, or creates it.
+     *
+     * @param name     the name of the manifest in the DB
+     * @param strSizes the string sizes of the maps
+     * @throws SegmentException error from the buffer manager or the DB
+     * @throws IOException      I/O errors
+     */
+    public LSMTree(String name, short[] strSizes)
+            throws SegmentException,
+            IOException {
+        this.name = name;
+        this.strSizes = strSizes.clone();
+        io = PCounter.file(name);
+        levels.add(new ArrayList<Segment>());
+        try {
+            manifest = SystemDefs.JavabaseDB.get_file_entry(name);
+        } catch (Exception e) {
+            throw new SegmentException(e, "LSMTree.java: get_file_entry() failed");
+        }
+        if (manifest == null) {
+            Page page = new Page();
+            PCounter.Stats outer = PCounter.enter(io);
+            try {
+                manifest = SystemDefs.JavabaseBM.newPage(page, 1);
+            } catch (Exception e) {
+                throw new SegmentException(e, "LSMTree.java: newPage() failed");
+            } finally {
+                PCounter.exit(outer);
+            }
+            unpinPage(manifest, false);
+            saveManifest();
+            try {
+                SystemDefs.JavabaseDB.add_file_entry(name, manifest);
+            } catch (Exception e) {
+                throw new SegmentException(e, "LSMTree.java: add_file_entry() failed");
+            }
+            return;
+        }
+
+        Page page = new Page();
+        pinPage(manifest, page);
+        try {
+            byte[] data = page.getpage();
+            int cnt = Convert.getIntValue(SEGMENT_CNT, data);
+            nextSegment = Convert.getIntValue(NEXT_SEGMENT, data);
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data, MANIFEST_HEADER, data.length - MANIFEST_HEADER));
+            for (int i = 0; i < cnt; i++) {
+                int level = in.readShort();
+                String segment = in.readUTF();
+                while (levels.size() <= level)
+                    levels.add(new ArrayList<Segment>());
+                levels.get(level).add(new Segment(segment));
+            }
+        } finally {
+            unpinPage(manifest, false);
+        }
+    }
+
+    /**
+     * Sets the bytes of maps a memtable takes before it is written out.
+     */
+    public static void setMemTableSize(int size) {
+        memTableSize = size;
+    }
+
+    public static int getMemTableSize() {
+        return memTableSize;
+    }
+
+    /**
+     * Sets how many times larger a level may grow than the one before.
+     */
+    public static void setLevelRatio(int ratio) {
+        levelRatio = ratio;
+    }
+
+    public static int getLevelRatio() {
+        return levelRatio;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Starts writing and merging the segments in a CompactionTask.
+     */
+    public synchronized void startCompaction() {
+        if (task == null) {
+            task = new CompactionTask(this);
+            task.start();
+        }
+    }
+
+    /**
+     * Stops the CompactionTask, if it runs, once it is done with its
+     * current segment.
+     */
+    public void stopCompaction() {
+        CompactionTask t;
+        synchronized (this) {
+            t = task;
+        }
+        if (t == null)
+            return;
+        t.shutdown();
+        // only now may the inserting thread write the memtable itself
+        synchronized (this) {
+            if (task == t)
+                task = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Inserts a map.
+     *
+     * @throws SegmentException the compaction failed, or error from the
+     *                          buffer manager
+     * @throws IOException      I/O errors
+     */
+    public void insertMap(Map map)
+            throws SegmentException,
+            IOException {
+        insertMap(map.getRowLabel(), map.getColumnLabel(), map.getTimeStamp(), map.getValue());
+    }
+
+    /**
+     * Inserts a map, given by its fields.
+     *
+     * @throws SegmentException the compaction failed, or error from the
+     *                          buffer manager
+     * @throws IOException      I/O errors
+     */
+    public synchronized void insertMap(String row, String column, int timeStamp, String value)
+            throws SegmentException,
+            IOException {
+        checkError();
+        memTable.put(row, column, timeStamp, value);
+        if (memTable.size() >= memTableSize)
+            rotate();
+    }
+
+    /**
+     * Writes out the memtable, and waits until it is in level 0.
+     *
+     * @throws SegmentException the compaction failed, or error from the
+     *                          buffer manager
+     * @throws IOException      I/O errors
+     */
+    public synchronized void flush()
+            throws SegmentException,
+            IOException {
+        checkError();
+        if (!memTable.isEmpty())
+            rotate();
+        awaitFlushed();
+    }
+
+    /**
+     * Scans the maps whose row is between fromRow and toRow, both
+     * included; null for no bound. The scan must be closed.
+     *
+     * @throws SegmentException the compaction failed, or error from the
+     *                          buffer manager
+     * @throws IOException      I/O errors
+     */
+    public synchronized LSMScan openScan(String fromRow, String toRow)
+            throws SegmentException,
+            IOException {
+        checkError();
+        MemTable[] mems = (flushing != null)
+                ? new MemTable[]{memTable, flushing} : new MemTable[]{memTable};
+        ArrayList<Segment> segs = new ArrayList<Segment>();
+        for (ArrayList<Segment> level : levels)
+            segs.addAll(level);
+        // counted before it opens: a scan that fails to open closes
+        // itself, which counts it off again
+        openScans++;
+        return new LSMScan(this, strSizes, mems, segs.toArray(new Segment[0]), fromRow, toRow);
+    }
+
+    /**
+     * Writes out the memtable and stops the CompactionTask. The tree may
+     * still be used, with the writes and merges done by the inserting
+     * thread.
+     *
+     * @throws SegmentException the compaction failed, or error from the
+     *                          buffer manager
+     * @throws IOException      I/O errors
+     */
+    public void close()
+            throws SegmentException,
+            IOException {
+        stopCompaction();
+        synchronized (this) {
+            checkError();
+            if (!memTable.isEmpty())
+                rotate();
+            awaitFlushed();
+            if (openScans == 0)
+                deleteObsolete();
+        }
+    }
+
+    /**
+     * Deletes every segment and the manifest.
+     *
+     * @throws SegmentException error from the buffer manager or the DB
+     * @throws IOException      I/O errors
+     */
+    public void destroy()
+            throws SegmentException,
+            IOException {
+        stopCompaction();
+        synchronized (this) {
+            memTable = new MemTable();
+            flushing = null;
+            for (ArrayList<Segment> level : levels) {
+                obsolete.addAll(level);
+                level.clear();
+            }
+            if (openScans > 0)
+                throw new SegmentException(null, "LSMTree.java: destroy() with open scans");
+            deleteObsolete();
+            try {
+                SystemDefs.JavabaseBM.freePage(manifest);
+                SystemDefs.JavabaseDB.delete_file_entry(name);
+            } catch (Exception e) {
+                throw new SegmentException(e, "LSMTree.java: destroy() failed");
+            }
+        }
+    }
+
+    /**
+     * Returns the error that stopped the CompactionTask, null if none did.
+     */
+    public synchronized Exception getError() {
+        return error;
+    }
+
+    public synchronized int getLevelCnt() {
+        return levels.size();
+    }
+
+    /**
+     * Returns the segments of a level.
+     */
+    public synchronized int getSegmentCnt(int level) {
+        return levels.get(level).size();
+    }
+
+    /**
+     * Returns the maps of the segments of a level, including the same
+     * keys in different segments.
+     */
+    public synchronized int getMapCnt(int level) {
+        int cnt = 0;
+        for (Segment seg : levels.get(level))
+            cnt += seg.getMapCnt();
+        return cnt;
+    }
+
+    public synchronized int getBlockCnt(int level) {
+        int cnt = 0;
+        for (Segment seg : levels.get(level))
+            cnt += seg.getBlockCnt();
+        return cnt;
+    }
+
+    /**
+     * Prints the segments, maps and blocks of every level.
+     */
+    public synchronized void printLevels(PrintStream out) {
+        for (int i = 0; i < levels.size(); i++)
+            out.printf("level %d: %d segments, %d maps, %d blocks%n", i,
+                    getSegmentCnt(i), getMapCnt(i), getBlockCnt(i));
+    }
+
+    /**
+     * Tells whether there is a memtable to write out or a level to merge.
+     */
+    synchronized boolean hasWork() {
+        return flushing != null || mergeLevel() >= 0;
+    }
+
+    /**
+     * Writes out the memtable, or else merges a level, if there is one
+     * to; called by the CompactionTask, without the lock of the tree.
+     */
+    void work()
+            throws SegmentException,
+            IOException {
+        MemTable mem;
+        int level;
+        Segment[] inputs;
+        String output;
+        synchronized (this) {
+            mem = flushing;
+            level = mergeLevel();
+            if (mem == null && level < 0)
+                return;
+            output = name + "." + nextSegment++;
+            inputs = (mem == null) ? mergeInputs(level) : new Segment[0];
+        }
+
+        MemTable[] mems = (mem != null) ? new MemTable[]{mem} : new MemTable[0];
+        Segment seg = write(output, new LSMScan(null, strSizes, mems, inputs, null, null));
+        synchronized (this) {
+            if (mem != null) {
+                levels.get(0).add(0, seg);
+                flushing = null;
+            } else {
+                replace(level, inputs, seg);
+            }
+            saveManifest();
+            // the segments replaced go once the manifest no longer has them
+            if (openScans == 0)
+                deleteObsolete();
+            notifyAll();
+        }
+    }
+
+    /**
+     * A scan of the tree was closed.
+     */
+    synchronized void scanClosed() {
+        if (--openScans == 0) {
+            try {
+                deleteObsolete();
+            } catch (Exception e) {
+                // the segments are deleted after the next scan, or by close()
+            }
+        }
+    }
+
+    /**
+     * The CompactionTask failed; the tree refuses inserts and scans.
+     */
+    synchronized void failed(Exception e) {
+        error = e;
+        task = null;
+        notifyAll();
+    }
+
+    /**
+     * Hands the memtable over to be written out, and writes it out and
+     * merges the levels that need it at once if no CompactionTask runs.
+     * Called with the lock held.
+     */
+    private void rotate()
+            throws SegmentException,
+            IOException {
+        awaitFlushed();
+        flushing = memTable;
+        memTable = new MemTable();
+        if (task != null) {
+            notifyAll();
+            return;
+        }
+        // without the task, the work is done with the lock held
+        while (hasWork())
+            work();
+    }
+
+    /**
+     * Waits until no memtable is being written out, or writes it out if
+     * no CompactionTask runs any more.
+     */
+    private void awaitFlushed()
+            throws SegmentException,
+            IOException {
+        while (flushing != null) {
+            checkError();
+            if (task == null) {
+                work();
+                continue;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new SegmentException(e, "LSMTree.java: interrupted waiting for a flush");
+            }
+        }
+    }
+
+    /**
+     * Returns the level to merge into the one after it, -1 if none.
+     */
+    private int mergeLevel() {
+        if (levels.get(0).size() >= LEVEL0_RUNS)
+            return 0;
+        long limit = (long) levelRatio * memTableSize / SystemDefs.JavabasePageSize;
+        for (int i = 1; i < levels.size(); i++, limit *= levelRatio) {
+            int blocks = 0;
+            for (Segment seg : levels.get(i))
+                blocks += seg.getBlockCnt();
+            if (blocks > limit)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the segments of a level and of the level after it, newest
+     * first.
+     */
+    private Segment[] mergeInputs(int level) {
+        ArrayList<Segment> inputs = new ArrayList<Segment>(levels.get(level));
+        if (level + 1 < levels.size())
+            inputs.addAll(levels.get(level + 1));
+        return inputs.toArray(new Segment[0]);
+    }
+
+    /**
+     * Puts the segment merged from a level into the level after it, in
+     * place of the inputs; runs written into level 0 meanwhile stay.
+     */
+    private void replace(int level, Segment[] inputs, Segment seg)
+            throws SegmentException,
+            IOException {
+        for (Segment input : inputs) {
+            levels.get(level).remove(input);
+            if (level + 1 < levels.size())
+                levels.get(level + 1).remove(input);
+            obsolete.add(input);
+        }
+        if (level + 1 == levels.size())
+            levels.add(new ArrayList<Segment>());
+        levels.get(level + 1).add(seg);
+    }
+
+    /**
+     * Writes the maps of a scan to a new segment, and closes the scan.
+     */
+    private Segment write(String segment, LSMScan scan)
+            throws SegmentException,
+            IOException {
+        try {
+            SegmentWriter writer = new SegmentWriter(segment, strSizes);
+            while (scan.next())
+                writer.add(scan.row, scan.column, scan.timeStamp, scan.value);
+            return writer.finish();
+        } finally {
+            scan.closescan();
+        }
+    }
+
+    private void deleteObsolete()
+            throws SegmentException,
+            IOException {
+        while (!obsolete.isEmpty()) {
+            obsolete.get(obsolete.size() - 1).delete();
+            obsolete.remove(obsolete.size() - 1);
+        }
+    }
+
+    private void checkError()
+            throws SegmentException {
+        if (error != null)
+            throw new SegmentException(error, "LSMTree.java: compaction failed");
+    }
+
+    /**
+     * Writes the segments of every level to the manifest page.
+     */
+    private void saveManifest()
+            throws SegmentException,
+            IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int cnt = 0;
+        for (int i = 0; i < levels.size(); i++) {
+            for (Segment seg : levels.get(i)) {
+                out.writeShort(i);
+                out.writeUTF(seg.getName());
+                cnt++;
+            }
+        }
+        if (MANIFEST_HEADER + bytes.size() > SystemDefs.JavabasePageSize)
+            throw new SegmentException(null, "LSMTree.java: too many segments for the manifest");
+
+        Page page = new Page();
+        pinPage(manifest, page);
+        byte[] data = page.getpage();
+        Convert.setIntValue(cnt, SEGMENT_CNT, data);
+        Convert.setIntValue(nextSegment, NEXT_SEGMENT, data);
+        System.arraycopy(bytes.toByteArray(), 0, data, MANIFEST_HEADER, bytes.size());
+        unpinPage(manifest, true);
+    }
+
+    private void pinPage(PageId pageId, Page page)
+            throws SegmentException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageId, page, false);
+        } catch (Exception e) {
+            throw new SegmentException(e, "LSMTree.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    private void unpinPage(PageId pageId, boolean dirty)
+            throws SegmentException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageId, dirty);
+        } catch (Exception e) {
+            throw new SegmentException(e, "LSMTree.java: unpinPage() failed");
+        }
+    }
+}
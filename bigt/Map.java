@@ -5,20 +5,34 @@ package bigt;
 import global.AttrType;
 import global.Convert;
 import global.GlobalConst;
+import global.SystemDefs;
 import heap.FieldNumberOutOfBoundException;
 import heap.InvalidTupleSizeException;
 import heap.InvalidTypeException;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 
 public class Map implements GlobalConst {
 
 
     /**
-     * Maximum size of any Map
+     * Maximum size of any Map: one page of the open database.
      */
-    public static final int max_size = MINIBASE_PAGESIZE;
+    public static int max_size() {
+        return SystemDefs.JavabasePageSize;
+    }
+
+    /**
+     * First byte of a map in the variable-length layout: the byte, then
+     * the row label, the column label, the timestamp as 4 bytes and the
+     * value. A label or the value is its length in UTF-8 bytes as a
+     * varint, 7 bits per byte with the high bit set on all but the last,
+     * then its UTF-8 bytes. A map of the fixed layout of setHdr() starts
+     * with its field count as a short, whose first byte is 0.
+     */
+    public static final byte VARLEN = (byte) 0xff;
 
     /**
      * a byte array to hold data
@@ -48,6 +62,12 @@ public class Map implements GlobalConst {
 
     private short[] fldOffset;
 
+    /**
+     * True if the map is in the variable-length layout; fldOffset then
+     * holds where each field starts in data, found by setOffsets().
+     */
+    private boolean varLen;
+
     /**
      * Class constructor
      * Creat a new Map with length = max_size,Map offset = 0.
@@ -55,9 +75,9 @@ public class Map implements GlobalConst {
 
     public Map() {
         // Creat a new Map
-        data = new byte[max_size];
+        data = new byte[max_size()];
         map_offset = 0;
-        map_length = max_size;
+        map_length = max_size();
     }
 
     /**
@@ -75,6 +95,12 @@ public class Map implements GlobalConst {
     }
 
     public void setOffsets(int offset){
+        varLen = (data[offset] == VARLEN);
+        if (varLen) {
+            fldCnt = 4;
+            fldOffset = varLenOffsets(data, offset);
+            return;
+        }
         try {
             fldCnt = Convert.getShortValue(offset, data);
             fldOffset = new short[fldCnt+1];
@@ -98,7 +124,8 @@ public class Map implements GlobalConst {
         map_length = fromMap.getLength();
         map_offset = 0;
         fldCnt = fromMap.noOfFlds();
-        fldOffset = fromMap.copyFldOffset();
+        varLen = fromMap.isVarLen();
+        fldOffset = varLen ? varLenOffsets(data, 0) : fromMap.copyFldOffset();
     }
 
     /**
@@ -123,7 +150,8 @@ public class Map implements GlobalConst {
         byte[] temparray = fromMap.getMapByteArray();
         System.arraycopy(temparray, 0, data, map_offset, map_length);
         fldCnt = fromMap.noOfFlds(); 
-        fldOffset = fromMap.copyFldOffset(); 
+        varLen = fromMap.isVarLen();
+        fldOffset = varLen ? varLenOffsets(data, map_offset) : fromMap.copyFldOffset();
     }
 
     /**
@@ -151,6 +179,8 @@ public class Map implements GlobalConst {
         System.arraycopy(record, offset, data, 0, length);
         map_offset = 0;
         map_length = length;
+        if (varLen || data[0] == VARLEN)
+            setOffsets(0);
     }
 
     /**
@@ -257,8 +287,7 @@ public class Map implements GlobalConst {
             throws IOException, FieldNumberOutOfBoundException {
         String val;
         if ((fldNo > 0) && (fldNo <= fldCnt)) {
-            val = Convert.getStrValue(fldOffset[fldNo - 1], data,
-                    fldOffset[fldNo] - fldOffset[fldNo - 1]); //strlen+2
+            val = getStr(fldNo - 1);
             return val;
         } else
             throw new FieldNumberOutOfBoundException(null, "Map:Map_FLDNO_OUT_OF_BOUND");
@@ -333,7 +362,7 @@ public class Map implements GlobalConst {
     public Map setStrFld(int fldNo, String val)
             throws IOException, FieldNumberOutOfBoundException {
         if ((fldNo > 0) && (fldNo <= fldCnt)) {
-            Convert.setStrValue(val, fldOffset[fldNo - 1], data);
+            setStr(fldNo - 1, val);
             return this;
         } else
             throw new FieldNumberOutOfBoundException(null, "Map:Map_FLDNO_OUT_OF_BOUND");
@@ -357,8 +386,7 @@ public class Map implements GlobalConst {
      * @throws IOException
      */
     public String getRowLabel() throws IOException {
-        return Convert.getStrValue(fldOffset[0], data,
-                fldOffset[1] - fldOffset[0]); //strlen+2
+        return getStr(0);
     }
 
 
@@ -369,8 +397,7 @@ public class Map implements GlobalConst {
      * @throws IOException
      */
     public String getColumnLabel() throws IOException {
-        return Convert.getStrValue(fldOffset[1], data,
-                fldOffset[2] - fldOffset[1]); //strlen+2
+        return getStr(1);
     }
 
     /**
@@ -380,8 +407,7 @@ public class Map implements GlobalConst {
      * @throws IOException
      */
     public String getValue() throws IOException {
-        return Convert.getStrValue(fldOffset[3], data,
-                fldOffset[4] - fldOffset[3]); //strlen+2
+        return getStr(3);
     }
 
     /**
@@ -395,19 +421,341 @@ public class Map implements GlobalConst {
     }
 
     public Map setRowLabel(String val) throws IOException {
-        Convert.setStrValue(val, fldOffset[0], data);
+        setStr(0, val);
         return this;
     }
 
     public Map setColumnLabel(String val) throws IOException {
-        Convert.setStrValue(val, fldOffset[1], data);
+        setStr(1, val);
         return this;
     }
 
     public Map setValue(String val) throws IOException {
-        Convert.setStrValue(val, fldOffset[3], data);
+        setStr(3, val);
         return this;
     }
+
+    /**
+     * Returns string field i, counted from 0, in either layout. Only the
+     * String is allocated when the field is ASCII.
+     */
+    private String getStr(int i) throws IOException {
+        int start = valueStart(i);
+        int end = valueEnd(i);
+        int p = start;
+        while (p < end && data[p] >= 0)
+            p++;
+        if (p == end)
+            return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+        if (varLen)
+            return new String(data, start, end - start, StandardCharsets.UTF_8);
+        return Convert.getStrValue(fldOffset[i], data,
+                fldOffset[i + 1] - fldOffset[i]); //strlen+2
+    }
+
+    /**
+     * Returns where the characters of string field i, counted from 0,
+     * start in data, after their length.
+     */
+    private int valueStart(int i) {
+        return varLen ? strStart(data, fldOffset[i]) : fldOffset[i] + 2;
+    }
+
+    /**
+     * Returns where the characters of string field i end in data.
+     */
+    private int valueEnd(int i) {
+        if (varLen)
+            return strStart(data, fldOffset[i]) + varIntValue(data, fldOffset[i]);
+        return fldOffset[i] + 2 + (((data[fldOffset[i]] & 0xff) << 8) | (data[fldOffset[i] + 1] & 0xff));
+    }
+
+    /**
+     * Returns where the characters of a string field start in the array
+     * of returnMapByteArray(), without decoding them: UTF-8 in the
+     * variable-length layout, modified UTF-8 in the fixed one.
+     *
+     * @param fldNo the field number, 1, 2 or 4
+     */
+    public int getStrStart(int fldNo) {
+        return valueStart(fldNo - 1);
+    }
+
+    /**
+     * Returns the length in bytes of the characters of a string field.
+     *
+     * @param fldNo the field number, 1, 2 or 4
+     */
+    public int getStrLength(int fldNo) {
+        return valueEnd(fldNo - 1) - valueStart(fldNo - 1);
+    }
+
+    /**
+     * Compares a string field of this map with the same field of another
+     * map as String.compareTo() compares them, on their bytes and without
+     * allocating. The maps may be of either layout.
+     *
+     * @param fldNo the field number, 1, 2 or 4
+     * @return a negative number, 0 or a positive number as the field of
+     * this map is smaller, equal or greater
+     */
+    public int compareStrFld(int fldNo, Map other) {
+        int i = fldNo - 1;
+        return compareUTF(data, valueStart(i), valueEnd(i),
+                other.data, other.valueStart(i), other.valueEnd(i));
+    }
+
+    /**
+     * Compares a string field with a string given as its UTF-8 bytes, as
+     * String.compareTo() compares them.
+     *
+     * @param fldNo the field number, 1, 2 or 4
+     * @param utf8  the bytes of the string, from getBytes(UTF_8)
+     */
+    public int compareStrFld(int fldNo, byte[] utf8) {
+        int i = fldNo - 1;
+        return compareUTF(data, valueStart(i), valueEnd(i), utf8, 0, utf8.length);
+    }
+
+    /**
+     * Compares two strings in UTF-8 or modified UTF-8 by their UTF-16
+     * chars, as String.compareTo() does. ASCII bytes are compared as
+     * they are, the rest are decoded.
+     */
+    private static int compareUTF(byte[] a, int i, int aEnd, byte[] b, int j, int bEnd) {
+        while (i < aEnd && j < bEnd) {
+            byte x = a[i];
+            byte y = b[j];
+            if ((x | y) < 0)
+                return compareChars(a, i, aEnd, b, j, bEnd);
+            if (x != y)
+                return x - y;
+            i++;
+            j++;
+        }
+        return (i < aEnd) ? 1 : ((j < bEnd) ? -1 : 0);
+    }
+
+    /**
+     * compareUTF() from the first char that is not ASCII. A character
+     * outside the BMP, 4 bytes in UTF-8, is compared as its two
+     * surrogates, as modified UTF-8 writes it.
+     */
+    private static int compareChars(byte[] a, int i, int aEnd, byte[] b, int j, int bEnd) {
+        int lowA = 0;
+        int lowB = 0;
+        while ((i < aEnd || lowA != 0) && (j < bEnd || lowB != 0)) {
+            int x;
+            if (lowA != 0) {
+                x = lowA;
+                lowA = 0;
+            } else {
+                x = codePoint(a, i);
+                i += utfSize(a[i]);
+                if (x >= 0x10000) {
+                    lowA = Character.lowSurrogate(x);
+                    x = Character.highSurrogate(x);
+                }
+            }
+            int y;
+            if (lowB != 0) {
+                y = lowB;
+                lowB = 0;
+            } else {
+                y = codePoint(b, j);
+                j += utfSize(b[j]);
+                if (y >= 0x10000) {
+                    lowB = Character.lowSurrogate(y);
+                    y = Character.highSurrogate(y);
+                }
+            }
+            if (x != y)
+                return x - y;
+        }
+        if (i < aEnd || lowA != 0)
+            return 1;
+        return (j < bEnd || lowB != 0) ? -1 : 0;
+    }
+
+    /**
+     * Returns the bytes of the UTF-8 sequence that starts with lead.
+     */
+    private static int utfSize(byte lead) {
+        int c = lead & 0xff;
+        return (c < 0x80) ? 1 : (c < 0xe0) ? 2 : (c < 0xf0) ? 3 : 4;
+    }
+
+    private static int codePoint(byte[] d, int p) {
+        int c = d[p] & 0xff;
+        if (c < 0x80)
+            return c;
+        if (c < 0xe0)
+            return ((c & 0x1f) << 6) | (d[p + 1] & 0x3f);
+        if (c < 0xf0)
+            return ((c & 0x0f) << 12) | ((d[p + 1] & 0x3f) << 6) | (d[p + 2] & 0x3f);
+        return ((c & 0x07) << 18) | ((d[p + 1] & 0x3f) << 12) | ((d[p + 2] & 0x3f) << 6)
+                | (d[p + 3] & 0x3f);
+    }
+
+    /**
+     * Sets string field i, counted from 0. In the variable-length layout
+     * a value of another length is written to a new array, so the map
+     * no longer shares the array it was read from.
+     */
+    private void setStr(int i, String val) throws IOException {
+        if (!varLen) {
+            Convert.setStrValue(val, fldOffset[i], data);
+            return;
+        }
+        byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+        int start = fldOffset[i];
+        int end = fldOffset[i + 1];
+        int size = varIntSize(bytes.length) + bytes.length;
+        if (size == end - start) {
+            putStr(bytes, data, start);
+            return;
+        }
+        int length = fldOffset[fldCnt] - map_offset - (end - start) + size;
+        byte[] map = new byte[length];
+        System.arraycopy(data, map_offset, map, 0, start - map_offset);
+        int pos = putStr(bytes, map, start - map_offset);
+        System.arraycopy(data, end, map, pos, fldOffset[fldCnt] - end);
+        data = map;
+        map_offset = 0;
+        map_length = length;
+        fldOffset = varLenOffsets(data, 0);
+    }
+
+    /**
+     * Returns true if the map is in the variable-length layout.
+     */
+    public boolean isVarLen() {
+        return varLen;
+    }
+
+    /**
+     * Returns the map in the variable-length layout, at most as long as
+     * in the fixed one.
+     *
+     * @return a new array holding only the map
+     * @throws IOException I/O errors
+     */
+    public byte[] getVarLenByteArray() throws IOException {
+        if (!varLen)
+            return encode(getRowLabel(), getColumnLabel(), getTimeStamp(), getValue());
+        byte[] map = new byte[fldOffset[fldCnt] - map_offset];
+        System.arraycopy(data, map_offset, map, 0, map.length);
+        return map;
+    }
+
+    /**
+     * Returns a map in the variable-length layout.
+     */
+    public static byte[] encode(String row, String column, int timeStamp, String value)
+            throws IOException {
+        byte[] r = row.getBytes(StandardCharsets.UTF_8);
+        byte[] c = column.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value.getBytes(StandardCharsets.UTF_8);
+        byte[] map = new byte[1 + varIntSize(r.length) + r.length + varIntSize(c.length) + c.length
+                + 4 + varIntSize(v.length) + v.length];
+        map[0] = VARLEN;
+        int pos = putStr(r, map, 1);
+        pos = putStr(c, map, pos);
+        Convert.setIntValue(timeStamp, pos, map);
+        putStr(v, map, pos + 4);
+        return map;
+    }
+
+    /**
+     * Returns where the data of a field of the map at offset starts: the
+     * characters of a label or the value, after their length, or the 4
+     * bytes of the timestamp. It reads either layout.
+     *
+     * @param field the field, counted from 0
+     */
+    public static int fieldStart(byte[] data, int offset, int field)
+            throws IOException {
+        if (data[offset] == VARLEN) {
+            int pos = varLenOffsets(data, offset)[field];
+            return (field == 2) ? pos : strStart(data, pos);
+        }
+        int pos = offset + Convert.getShortValue(offset + 2 + 2 * field, data);
+        return (field == 2) ? pos : pos + 2;
+    }
+
+    /**
+     * Returns the length in bytes of the characters of a label or the
+     * value of the map at offset, in either layout.
+     *
+     * @param field the field, counted from 0
+     */
+    public static int fieldLength(byte[] data, int offset, int field)
+            throws IOException {
+        if (data[offset] == VARLEN)
+            return varIntValue(data, varLenOffsets(data, offset)[field]);
+        int pos = offset + Convert.getShortValue(offset + 2 + 2 * field, data);
+        return Convert.getShortValue(pos, data) & 0xffff;
+    }
+
+    /**
+     * Returns where the fields of a map of the variable-length layout
+     * start, and where it ends.
+     */
+    private static short[] varLenOffsets(byte[] data, int offset) {
+        short[] offsets = new short[5];
+        int pos = offset + 1;
+        for (int i = 0; i < 4; i++) {
+            offsets[i] = (short) pos;
+            pos = (i == 2) ? pos + 4 : strStart(data, pos) + varIntValue(data, pos);
+        }
+        offsets[4] = (short) pos;
+        return offsets;
+    }
+
+    /**
+     * Writes the length of bytes as a varint and then bytes at pos.
+     *
+     * @return the position after them
+     */
+    private static int putStr(byte[] bytes, byte[] data, int pos) {
+        int n = bytes.length;
+        while (n >= 0x80) {
+            data[pos++] = (byte) (n | 0x80);
+            n >>>= 7;
+        }
+        data[pos++] = (byte) n;
+        System.arraycopy(bytes, 0, data, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static int varIntSize(int n) {
+        int size = 1;
+        while (n >= 0x80) {
+            n >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int varIntValue(byte[] data, int pos) {
+        int n = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos++];
+            n |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return n;
+        }
+    }
+
+    /**
+     * Returns where the characters of a string that starts with its
+     * varint length at pos begin.
+     */
+    private static int strStart(byte[] data, int pos) {
+        while (data[pos] < 0)
+            pos++;
+        return pos + 1;
+    }
     
     /**
      * setHdr will set the header of this Map.
@@ -422,9 +770,10 @@ public class Map implements GlobalConst {
 
     public void setHdr(short numFlds, AttrType types[], short strSizes[])
             throws IOException, InvalidTypeException, InvalidTupleSizeException {
-        if ((numFlds + 2) * 2 > max_size)
+        if ((numFlds + 2) * 2 > max_size())
             throw new InvalidTupleSizeException(null, "Map: Map_TOOBIG_ERROR");
 
+        varLen = false;
         fldCnt = numFlds;
         Convert.setShortValue(numFlds, map_offset, data);
         fldOffset = new short[numFlds + 1];
@@ -487,7 +836,7 @@ public class Map implements GlobalConst {
 
         map_length = fldOffset[numFlds] - map_offset;
 
-        if (map_length > max_size)
+        if (map_length > max_size())
             throw new InvalidTupleSizeException(null, "Map: Map_TOOBIG_ERROR");
     }
 
@@ -562,7 +911,7 @@ public class Map implements GlobalConst {
                     break;
 
                 case AttrType.attrString:
-                    sval = Convert.getStrValue(fldOffset[i], data, fldOffset[i + 1] - fldOffset[i]);
+                    sval = getStr(i);
                     System.out.print(sval);
                     break;
 
@@ -586,7 +935,7 @@ public class Map implements GlobalConst {
                 break;
 
             case AttrType.attrString:
-                sval = Convert.getStrValue(fldOffset[i], data, fldOffset[i + 1] - fldOffset[i]);
+                sval = getStr(i);
                 System.out.print(sval);
                 break;
 
@@ -0,0 +1,22 @@
+/* File MapMoveListener.java */
+
+package bigt;
+
+import global.RID;
+
+/**
+ * Told by BigT.vacuum() of every map that gets a new RID, so that the
+ * indexes on the BigT can be brought up to date.
+ */
+public interface MapMoveListener {
+
+    /**
+     * A map was moved.
+     *
+     * @param map  the map
+     * @param from its RID before
+     * @param to   its RID now
+     * @throws Exception error from an index
+     */
+    void moved(Map map, RID from, RID to) throws Exception;
+}
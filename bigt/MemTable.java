@@ -0,0 +1,75 @@
+/* File MemTable.java */
+
+package bigt;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The maps of an LSMTree not yet written to a segment, in a skip list
+ * sorted as a segment is: by row, column and timestamp, newest first.
+ * Inserts and scans may run in different threads at the same time; a
+ * scan sees the maps inserted before it moves past their key. A map of
+ * the same row, column and timestamp as one already there replaces it.
+ */
+class MemTable {
+
+    /**
+     * The key of a map.
+     */
+    static final class Key implements Comparable<Key> {
+        final String row;
+        final String column;
+        final int timeStamp;
+
+        Key(String row, String column, int timeStamp) {
+            this.row = row;
+            this.column = column;
+            this.timeStamp = timeStamp;
+        }
+
+        public int compareTo(Key k) {
+            return Segment.compare(row, column, timeStamp, k.row, k.column, k.timeStamp);
+        }
+    }
+
+    private final ConcurrentSkipListMap<Key, String> maps = new ConcurrentSkipListMap<Key, String>();
+
+    /**
+     * Bytes the maps take in a segment, about.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    void put(String row, String column, int timeStamp, String value) {
+        maps.put(new Key(row, column, timeStamp), value);
+        // the fields as a block holds them, for ASCII labels
+        size.addAndGet(row.length() + column.length() + value.length() + 14);
+    }
+
+    /**
+     * Returns the bytes the maps would take in a segment, about.
+     */
+    int size() {
+        return size.get();
+    }
+
+    boolean isEmpty() {
+        return maps.isEmpty();
+    }
+
+    /**
+     * Returns the maps whose row is between fromRow and toRow, both
+     * included; null for no bound.
+     */
+    Iterator<java.util.Map.Entry<Key, String>> range(String fromRow, String toRow) {
+        ConcurrentNavigableMap<Key, String> range = maps;
+        if (fromRow != null)
+            range = range.tailMap(new Key(fromRow, "", Integer.MAX_VALUE), true);
+        if (toRow != null)
+            // toRow + '\0' is the first row after toRow
+            range = range.headMap(new Key(toRow + '\0', "", Integer.MAX_VALUE), false);
+        return range.entrySet().iterator();
+    }
+}
@@ -3,8 +3,15 @@ package bigt;
 import btree.AddFileEntryException;
 import btree.BTreeFile;
 import btree.ConstructPageException;
+import btree.DeleteFashion;
 import btree.GetFileEntryException;
+import btree.IntegerKey;
+import btree.StringKey;
+import bufmgr.BufMgr;
+import bufmgr.LogMgrException;
 import global.AttrType;
+import global.GlobalConst;
+import global.RID;
 import global.SystemDefs;
 import heap.HFBufMgrException;
 import heap.HFDiskMgrException;
@@ -18,6 +25,9 @@ public class Minibase {
     private BigT bigT;
     private BTreeFile bTreeFile;
     private BTreeFile bTreeFile1;
+    private VersionIndex versionIndex;
+    private VacuumTask vacuumTask;
+    private LSMTree lsmTree;
 
     private int maxRowKeyLength;
     private int maxColumnKeyLength;
@@ -33,6 +43,19 @@ public class Minibase {
 
     private int orderType;
 
+    private int pageSize = GlobalConst.MINIBASE_PAGESIZE;
+
+    private String replacementPolicy = "Clock";
+
+    private double indexPoolShare;
+    private double dataPoolShare;
+    private double tempPoolShare;
+
+    private boolean writeAheadLog;
+    private boolean groupCommit = true;
+
+    private boolean varLenMaps = true;
+
     private Minibase() {
 
     }
@@ -53,7 +76,21 @@ public class Minibase {
 
         if(Minibase.getInstance().getBigTable() == null || (Minibase.getInstance().getBigTable().getName() != name && Minibase.getInstance().getBigTable().getType()!=type))
         {
-            SystemDefs systemDefs = new SystemDefs(dbpath, 20000, numBuf, "Clock");
+            int index = (int) (indexPoolShare * numBuf);
+            int data = (int) (dataPoolShare * numBuf);
+            int temp = (int) (tempPoolShare * numBuf);
+            SystemDefs systemDefs = new SystemDefs(dbpath, 20000, numBuf - index - data - temp,
+                    replacementPolicy, null, pageSize);
+            try {
+                if (index > 0)
+                    SystemDefs.JavabaseBM.addPool(BufMgr.INDEX_POOL, index, replacementPolicy);
+                if (data > 0)
+                    SystemDefs.JavabaseBM.addPool(BufMgr.DATA_POOL, data, replacementPolicy);
+                if (temp > 0)
+                    SystemDefs.JavabaseBM.addPool(BufMgr.TEMP_POOL, temp, replacementPolicy);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
 
         attrTypes = new AttrType[4];
@@ -90,9 +127,25 @@ public class Minibase {
             keySize = maxRowKeyLength + maxValueLength;
         }
 
+        // type 6 keeps its maps in an LSM tree, with no B+ trees, and
+        // its merges keep the newest versions
+        lsmTree = null;
+        if (type == 6) {
+            bTreeFile = null;
+            bTreeFile1 = null;
+            versionIndex = null;
+            try {
+                lsmTree = new LSMTree(name + type + "_lsm", attrSizes);
+                lsmTree.startCompaction();
+            } catch (SegmentException | IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         if (type != 0) {
             try {
-                bTreeFile = new BTreeFile(name + type + "_index", AttrType.attrString, keySize, 1);
+                bTreeFile = new BTreeFile(name + type + "_index", AttrType.attrString, keySize, DeleteFashion.FULL_DELETE);
                 BTreeFile.traceFilename("TRACE");
             } catch (GetFileEntryException | ConstructPageException | IOException | AddFileEntryException e) {
                 e.printStackTrace();
@@ -101,11 +154,27 @@ public class Minibase {
 
         if (type == 4 || type == 5) {
             try {
-                bTreeFile1 = new BTreeFile(name + type + "_index_1", AttrType.attrInteger, 4, 1);
+                bTreeFile1 = new BTreeFile(name + type + "_index_1", AttrType.attrInteger, 4, DeleteFashion.FULL_DELETE);
             } catch (GetFileEntryException | ConstructPageException | IOException | AddFileEntryException e) {
                 e.printStackTrace();
             }
         }
+
+        try {
+            versionIndex = new VersionIndex(name + type + "_versions", maxRowKeyLength + maxColumnKeyLength);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // creating the files is not logged, so they are written first
+        if (writeAheadLog) {
+            try {
+                SystemDefs.startLog(groupCommit);
+                SystemDefs.JavabaseLog.checkpoint();
+            } catch (LogMgrException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public BTreeFile getBTree() {
@@ -116,6 +185,97 @@ public class Minibase {
         return bTreeFile1;
     }
 
+    public VersionIndex getVersionIndex() {
+        return versionIndex;
+    }
+
+    /**
+     * Returns the LSM tree of a big table of type 6, null for the other
+     * types.
+     */
+    public LSMTree getLSMTree() {
+        return lsmTree;
+    }
+
+    /**
+     * Inserts the entries of a map into the B+ trees of the storage type.
+     */
+    public void insertIndexEntries(Map map, RID rid) throws Exception {
+        int type = bigT.getType();
+        if (type == 2) {
+            bTreeFile.insert(new StringKey(map.getRowLabel()), rid);
+        } else if (type == 3) {
+            bTreeFile.insert(new StringKey(map.getColumnLabel()), rid);
+        } else if (type == 4) {
+            bTreeFile.insert(new StringKey(map.getRowLabel() + map.getColumnLabel()), rid);
+            bTreeFile1.insert(new IntegerKey(map.getTimeStamp()), rid);
+        } else if (type == 5) {
+            bTreeFile.insert(new StringKey(map.getRowLabel() + map.getValue()), rid);
+            bTreeFile1.insert(new IntegerKey(map.getTimeStamp()), rid);
+        }
+    }
+
+    /**
+     * Deletes the entries of a map from the B+ trees of the storage type.
+     */
+    public void deleteIndexEntries(Map map, RID rid) throws Exception {
+        int type = bigT.getType();
+        if (type == 2) {
+            bTreeFile.Delete(new StringKey(map.getRowLabel()), rid);
+        } else if (type == 3) {
+            bTreeFile.Delete(new StringKey(map.getColumnLabel()), rid);
+        } else if (type == 4) {
+            bTreeFile.Delete(new StringKey(map.getRowLabel() + map.getColumnLabel()), rid);
+            bTreeFile1.Delete(new IntegerKey(map.getTimeStamp()), rid);
+        } else if (type == 5) {
+            bTreeFile.Delete(new StringKey(map.getRowLabel() + map.getValue()), rid);
+            bTreeFile1.Delete(new IntegerKey(map.getTimeStamp()), rid);
+        }
+    }
+
+    /**
+     * Vacuums the big table now, and moves the entries of the maps it
+     * moves in the B+ trees and the version index.
+     */
+    public VacuumReport vacuum() throws Exception {
+        return bigT.vacuum(new IndexMover());
+    }
+
+    /**
+     * Starts vacuuming the big table in the background, every interval
+     * milliseconds once threshold maps were deleted.
+     */
+    public void startVacuum(long interval, int threshold) {
+        stopVacuum();
+        vacuumTask = new VacuumTask(bigT, new IndexMover(), interval, threshold);
+        vacuumTask.start();
+    }
+
+    /**
+     * Stops the background vacuum, if it runs.
+     *
+     * @return the task, for its last report and error, or null
+     */
+    public VacuumTask stopVacuum() {
+        VacuumTask task = vacuumTask;
+        if (task != null)
+            task.shutdown();
+        vacuumTask = null;
+        return task;
+    }
+
+    /**
+     * Moves the index entries of the maps the vacuum moves.
+     */
+    private class IndexMover implements MapMoveListener {
+        public void moved(Map map, RID from, RID to) throws Exception {
+            map.setOffsets(map.getOffset());
+            deleteIndexEntries(map, from);
+            insertIndexEntries(map, to);
+            versionIndex.moved(map.getRowLabel(), map.getColumnLabel(), from, to);
+        }
+    }
+
     public void setMaxRowKeyLength(int maxRowKeyLength) {
         this.maxRowKeyLength = maxRowKeyLength;
     }
@@ -199,6 +359,73 @@ public class Minibase {
         return orderType;
     }
 
+    /**
+     * Page size used when init() creates the database file. It must be
+     * set before init() is called.
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Buffer replacement policy used by init(): "Clock" (the default),
+     * "LRU", "MRU", "LRU-2", "2Q" or "ARC".
+     */
+    public void setReplacementPolicy(String replacementPolicy) {
+        this.replacementPolicy = replacementPolicy;
+    }
+
+    public String getReplacementPolicy() {
+        return replacementPolicy;
+    }
+
+    /**
+     * Splits the numBuf frames of init() among buffer pools: these
+     * shares go to the pools of the B+ trees, of the BigT data, and of
+     * temporary files and sort buffers, and the rest stays in the
+     * default pool with the database directory. The temporary pool must
+     * hold the buffer pages of a sort and two pages of every run it
+     * merges. All 0, the default, keeps one pool. It must be set before
+     * init() is called.
+     */
+    public void setPoolShares(double index, double data, double temp) {
+        this.indexPoolShare = index;
+        this.dataPoolShare = data;
+        this.tempPoolShare = temp;
+    }
+
+    /**
+     * Logs the changes to the big table and its B+ trees in a write-ahead
+     * log, see bufmgr.LogMgr; with groupCommit, the commits of concurrent
+     * threads share the forces of the log. Off by default, and not used
+     * for type 6. It must be set before init() is called.
+     */
+    public void setWriteAheadLog(boolean enable, boolean groupCommit) {
+        this.writeAheadLog = enable;
+        this.groupCommit = groupCommit;
+    }
+
+    public boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Stores the maps of the big table in the variable-length layout of
+     * Map.VARLEN instead of padding every label and value to the longest
+     * one. On by default; the maps of either layout can be read.
+     */
+    public void setVarLenMaps(boolean enable) {
+        this.varLenMaps = enable;
+    }
+
+    public boolean isVarLenMaps() {
+        return varLenMaps;
+    }
+
     public void setOrderType(int orderType) {
         this.orderType = orderType;
     }
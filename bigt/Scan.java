@@ -9,6 +9,9 @@ package bigt;
  *
  */
 
+import bufmgr.BufAccessStrategy;
+import bufmgr.ReadAhead;
+import diskmgr.PCounter;
 import diskmgr.Page;
 import global.GlobalConst;
 import global.PageId;
@@ -61,6 +64,16 @@ public class Scan implements GlobalConst {
     /** Status of next user status */
     private boolean nextUserStatus;
 
+    /** Whether closescan() was called */
+    private boolean closed;
+
+    /** Ring of frames the data pages are read into, null for none */
+    private BufAccessStrategy strategy = BufAccessStrategy.bulk();
+
+    /** Read-ahead of the data pages and of the directory pages, null for none */
+    private ReadAhead dataAhead = ReadAhead.sequential(strategy);
+    private ReadAhead dirAhead = ReadAhead.sequential(null);
+
 
     /** The constructor pins the first directory page in the file
      * and initializes its private data members from the private
@@ -193,6 +206,12 @@ public class Scan implements GlobalConst {
     /** Closes the Scan object */
     public void closescan() {
         reset();
+        if (!closed) {
+            closed = true;
+            synchronized (_hf) {
+                _hf.openScans--;
+            }
+        }
     }
 
 
@@ -209,6 +228,10 @@ public class Scan implements GlobalConst {
             }
         }
         datapageId.pid = 0;
+        if (dataAhead != null)
+            dataAhead.reset();
+        if (dirAhead != null)
+            dirAhead.reset();
         datapage = null;
 
         if (dirpage != null) {
@@ -248,7 +271,7 @@ public class Scan implements GlobalConst {
         /** get first directory page and pin it */
         try {
             dirpage = new HFPage();
-            pinPage(dirpageId, (Page) dirpage, false);
+            pinDirPage(dirpageId, (Page) dirpage);
         } catch (Exception e) {
             //    System.err.println("SCAN Error, try pinpage: " + e);
             e.printStackTrace();
@@ -294,7 +317,8 @@ public class Scan implements GlobalConst {
                 try {
 
                     dirpage = new HFPage();
-                    pinPage(nextDirPageId, (Page) dirpage, false);
+                    pinDirPage(nextDirPageId, (Page) dirpage);
+                    dirpageId.pid = nextDirPageId.pid;
 
                 } catch (Exception e) {
                     //  System.err.println("SCAN: Error in 1stdatapage 2 " + e);
@@ -412,7 +436,7 @@ public class Scan implements GlobalConst {
                 // pin first data page
                 try {
                     datapage = new HFPage();
-                    pinPage(datapageId, (Page) datapage, false);
+                    pinDataPage(datapageId, (Page) datapage);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
@@ -475,7 +499,7 @@ public class Scan implements GlobalConst {
 
                 try {
                     dirpage = new HFPage();
-                    pinPage(dirpageId, (Page) dirpage, false);
+                    pinDirPage(dirpageId, (Page) dirpage);
                 } catch (Exception e) {
 
                 }
@@ -515,7 +539,7 @@ public class Scan implements GlobalConst {
 
         try {
             datapage = new HFPage();
-            pinPage(dpinfo.pageId, (Page) datapage, false);
+            pinDataPage(dpinfo.pageId, (Page) datapage);
         } catch (Exception e) {
             System.err.println("HeapFile: Error in Scan" + e);
         }
@@ -584,14 +608,80 @@ public class Scan implements GlobalConst {
     private void pinPage(PageId pageno, Page page, boolean emptyPage)
             throws HFBufMgrException {
 
+        PCounter.Stats outer = PCounter.enter(_hf.io);
         try {
             SystemDefs.JavabaseBM.pinPage(pageno, page, emptyPage);
         } catch (Exception e) {
             throw new HFBufMgrException(e, "Scan.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
         }
 
     } // end of pinPage
 
+    /**
+     * pins a data page through the ring of the scan, so that a scan
+     * of a large file does not push other pages out of the pool.
+     */
+    private void pinDataPage(PageId pageno, Page page)
+            throws HFBufMgrException {
+
+        int ahead = (dataAhead != null) ? dataAhead.next(pageno) : 0;
+        PCounter.Stats outer = PCounter.enter(_hf.io);
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageno, page, false, strategy);
+            if (ahead > 0)
+                readAheadData(ahead);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "Scan.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+
+    } // end of pinDataPage
+
+    /**
+     * pins a directory page, and when the scan follows the chain of
+     * directory pages, requests the next ones.
+     */
+    private void pinDirPage(PageId pageno, Page page)
+            throws HFBufMgrException {
+
+        int ahead = (dirAhead != null) ? dirAhead.next(pageno) : 0;
+        pinPage(pageno, page, false);
+        if (ahead > 0) {
+            PCounter.Stats outer = PCounter.enter(_hf.io);
+            try {
+                dirAhead.prefetchChain(((HFPage) page).getNextPage(), ahead, HFPage.NEXT_PAGE);
+            } catch (IOException e) {
+                // read-ahead is only a hint
+            } finally {
+                PCounter.exit(outer);
+            }
+        }
+
+    } // end of pinDirPage
+
+    /**
+     * requests the data pages listed on the directory page after the
+     * current one, past those requested already.
+     */
+    private void readAheadData(int count) {
+        try {
+            RID rid = datapageRid;
+            for (int skip = dataAhead.pending(); rid != null && skip > 0; skip--)
+                rid = dirpage.nextMap(rid);
+            for (; rid != null && count > 0; count--) {
+                rid = dirpage.nextMap(rid);
+                if (rid != null)
+                    dataAhead.prefetch(new DataPageInfo(dirpage.getMap(rid)).pageId);
+            }
+        } catch (Exception e) {
+            // read-ahead is only a hint
+        }
+
+    } // end of readAheadData
+
     /**
      * short cut to access the unpinPage function in bufmgr package.
      * @see bufmgr.unpinPage
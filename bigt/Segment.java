@@ -0,0 +1,332 @@
+/* File Segment.java */
+
+package bigt;
+
+import bufmgr.BufAccessStrategy;
+import bufmgr.BufMgr;
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.AttrType;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * An immutable segment of maps sorted by row, column and timestamp,
+ * newest first, written once by a SegmentWriter and read by
+ * SegmentScans.
+ * <p>
+ * The maps are stored in blocks of one page each, taken from a page
+ * extent so that they follow each other on disk, and chained so that a
+ * scan reads them in order. Within a block, the row and the column of a
+ * map are stored as the length of the prefix they share with those of
+ * the map before, and the rest; the first map of a block is stored in
+ * full. A sparse index holds the first key of every block, and is read
+ * into memory when the segment is opened, so a scan finds the block of
+ * any key without reading the others. The footer, the page the DB knows
+ * the segment by, is written last; it holds the number of maps and
+ * blocks, where the blocks and the index start, the string sizes of the
+ * maps, and the smallest and largest key.
+ */
+public class Segment implements GlobalConst {
+
+    /**
+     * Layout of a block: the next block, the number of maps, the bytes
+     * used; the maps follow.
+     */
+    static final int NEXT_BLOCK = 0;
+    static final int MAP_CNT = 4;
+    static final int USED = 6;
+    static final int BLOCK_HEADER = 8;
+
+    /**
+     * Layout of an index page: the next index page, the number of keys;
+     * the keys follow, each with the page of its block.
+     */
+    static final int NEXT_INDEX = 0;
+    static final int KEY_CNT = 4;
+    static final int INDEX_HEADER = 6;
+
+    /**
+     * Layout of the footer; the smallest and largest key follow.
+     */
+    static final int MAGIC = 0;
+    static final int FOOTER_MAP_CNT = 4;
+    static final int BLOCK_CNT = 8;
+    static final int FIRST_BLOCK = 12;
+    static final int FIRST_INDEX = 16;
+    static final int STR_SIZES = 20;
+    static final int FOOTER_HEADER = 26;
+
+    static final int SEGMENT_MAGIC = 0x53535431;
+
+    /**
+     * Number of pages of a block extent.
+     */
+    public static final int EXTENT_PAGES = 32;
+
+    static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+
+    private final String name;
+    final PCounter.Stats io;
+    private PageId footer;
+
+    private int mapCnt;
+    private int blockCnt;
+    PageId firstBlock;
+    private PageId firstIndex;
+    final short[] strSizes = new short[3];
+
+    private String minRow, minColumn, maxRow, maxColumn;
+    private int minTimeStamp, maxTimeStamp;
+
+    /**
+     * The sparse index: the first key of every block, and its page.
+     */
+    String[] blockRows;
+    String[] blockColumns;
+    int[] blockTimeStamps;
+    int[] blockPages;
+
+    /**
+     * Opens the segment of the given name.
+     *
+     * @param name the name of the segment in the DB
+     * @throws SegmentException there is no such segment, or it is corrupt
+     * @throws IOException      I/O errors
+     */
+    public Segment(String name)
+            throws SegmentException,
+            IOException {
+        this.name = name;
+        io = PCounter.file(name);
+        SystemDefs.JavabaseBM.assignPool(io, BufMgr.DATA_POOL);
+        try {
+            footer = SystemDefs.JavabaseDB.get_file_entry(name);
+        } catch (Exception e) {
+            throw new SegmentException(e, "Segment.java: get_file_entry() failed");
+        }
+        if (footer == null)
+            throw new SegmentException(null, "Segment.java: no segment " + name);
+
+        Page page = new Page();
+        pinPage(footer, page, null);
+        try {
+            byte[] data = page.getpage();
+            if (Convert.getIntValue(MAGIC, data) != SEGMENT_MAGIC)
+                throw new SegmentException(null, "Segment.java: " + name + " is not a segment");
+            mapCnt = Convert.getIntValue(FOOTER_MAP_CNT, data);
+            blockCnt = Convert.getIntValue(BLOCK_CNT, data);
+            firstBlock = new PageId(Convert.getIntValue(FIRST_BLOCK, data));
+            firstIndex = new PageId(Convert.getIntValue(FIRST_INDEX, data));
+            for (int i = 0; i < 3; i++)
+                strSizes[i] = Convert.getShortValue(STR_SIZES + 2 * i, data);
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data, FOOTER_HEADER, data.length - FOOTER_HEADER));
+            if (mapCnt > 0) {
+                minRow = in.readUTF();
+                minColumn = in.readUTF();
+                minTimeStamp = in.readInt();
+                maxRow = in.readUTF();
+                maxColumn = in.readUTF();
+                maxTimeStamp = in.readInt();
+            }
+        } finally {
+            unpinPage(footer, false);
+        }
+        readIndex();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMapCnt() {
+        return mapCnt;
+    }
+
+    public int getBlockCnt() {
+        return blockCnt;
+    }
+
+    /**
+     * Returns the row of the first map, null if the segment is empty;
+     * likewise for the other bounds.
+     */
+    public String getMinRow() {
+        return minRow;
+    }
+
+    public String getMinColumn() {
+        return minColumn;
+    }
+
+    public int getMinTimeStamp() {
+        return minTimeStamp;
+    }
+
+    public String getMaxRow() {
+        return maxRow;
+    }
+
+    public String getMaxColumn() {
+        return maxColumn;
+    }
+
+    public int getMaxTimeStamp() {
+        return maxTimeStamp;
+    }
+
+    /**
+     * Scans the maps whose row is between fromRow and toRow, both
+     * included; null for no bound.
+     *
+     * @throws SegmentException error from the buffer manager
+     * @throws IOException      I/O errors
+     */
+    public SegmentScan openScan(String fromRow, String toRow)
+            throws SegmentException,
+            IOException {
+        return new SegmentScan(this, fromRow, toRow);
+    }
+
+    /**
+     * Frees the pages of the segment and removes it from the DB.
+     *
+     * @throws SegmentException error from the buffer manager or the DB
+     * @throws IOException      I/O errors
+     */
+    public void delete()
+            throws SegmentException,
+            IOException {
+        for (int i = 0; i < blockCnt; i++)
+            freePage(new PageId(blockPages[i]));
+        Page page = new Page();
+        PageId pageId = new PageId(firstIndex.pid);
+        while (pageId.pid != INVALID_PAGE) {
+            pinPage(pageId, page, null);
+            PageId next = new PageId(Convert.getIntValue(NEXT_INDEX, page.getpage()));
+            unpinPage(pageId, false);
+            freePage(pageId);
+            pageId = next;
+        }
+        freePage(footer);
+        try {
+            SystemDefs.JavabaseDB.delete_file_entry(name);
+        } catch (Exception e) {
+            throw new SegmentException(e, "Segment.java: delete_file_entry() failed");
+        }
+    }
+
+    /**
+     * Returns the last block whose first key is not after the given key,
+     * 0 if there is none.
+     */
+    int findBlock(String row, String column, int timeStamp) {
+        int lo = 0;
+        int hi = blockCnt - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (compare(blockRows[mid], blockColumns[mid], blockTimeStamps[mid],
+                    row, column, timeStamp) <= 0)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Compares two keys: by row, then column, then timestamp, newest
+     * first.
+     */
+    static int compare(String row1, String column1, int timeStamp1,
+                       String row2, String column2, int timeStamp2) {
+        int c = row1.compareTo(row2);
+        if (c != 0)
+            return c;
+        c = column1.compareTo(column2);
+        if (c != 0)
+            return c;
+        return (timeStamp1 > timeStamp2) ? -1 : (timeStamp1 < timeStamp2) ? 1 : 0;
+    }
+
+    /**
+     * Reads the sparse index into memory.
+     */
+    private void readIndex()
+            throws SegmentException,
+            IOException {
+        blockRows = new String[blockCnt];
+        blockColumns = new String[blockCnt];
+        blockTimeStamps = new int[blockCnt];
+        blockPages = new int[blockCnt];
+
+        int block = 0;
+        Page page = new Page();
+        PageId pageId = new PageId(firstIndex.pid);
+        while (pageId.pid != INVALID_PAGE) {
+            pinPage(pageId, page, null);
+            byte[] data = page.getpage();
+            PageId next = new PageId(Convert.getIntValue(NEXT_INDEX, data));
+            try {
+                int cnt = Convert.getShortValue(KEY_CNT, data);
+                if (block + cnt > blockCnt)
+                    throw new SegmentException(null, "Segment.java: the index of " + name + " is corrupt");
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(data, INDEX_HEADER, data.length - INDEX_HEADER));
+                for (int i = 0; i < cnt; i++, block++) {
+                    blockPages[block] = in.readInt();
+                    blockRows[block] = in.readUTF();
+                    blockColumns[block] = in.readUTF();
+                    blockTimeStamps[block] = in.readInt();
+                }
+            } finally {
+                unpinPage(pageId, false);
+            }
+            pageId = next;
+        }
+        if (block != blockCnt)
+            throw new SegmentException(null, "Segment.java: the index of " + name + " is corrupt");
+    }
+
+    void pinPage(PageId pageId, Page page, BufAccessStrategy strategy)
+            throws SegmentException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            if (strategy != null)
+                SystemDefs.JavabaseBM.pinPage(pageId, page, false, strategy);
+            else
+                SystemDefs.JavabaseBM.pinPage(pageId, page, false);
+        } catch (Exception e) {
+            throw new SegmentException(e, "Segment.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    void unpinPage(PageId pageId, boolean dirty)
+            throws SegmentException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageId, dirty);
+        } catch (Exception e) {
+            throw new SegmentException(e, "Segment.java: unpinPage() failed");
+        }
+    }
+
+    private void freePage(PageId pageId)
+            throws SegmentException {
+        try {
+            SystemDefs.JavabaseBM.freePage(pageId);
+        } catch (Exception e) {
+            throw new SegmentException(e, "Segment.java: freePage() failed");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/* File SegmentException.java */
+
+package bigt;
+
+import chainexception.ChainException;
+
+public class SegmentException extends ChainException {
+
+    public SegmentException() {
+        super();
+    }
+
+    public SegmentException(Exception ex, String name) {
+        super(ex, name);
+    }
+}
@@ -0,0 +1,200 @@
+/* File SegmentScan.java */
+
+package bigt;
+
+import bufmgr.BufAccessStrategy;
+import bufmgr.ReadAhead;
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * A scan of the maps of a Segment in order, from a row to a row. The
+ * blocks are pinned one at a time through a ring of their own, copied
+ * and unpinned at once, so that a scan holds no pin between calls; the
+ * blocks after the current one are read ahead, as the sparse index
+ * gives their pages.
+ */
+public class SegmentScan implements GlobalConst {
+
+    private final Segment seg;
+    private final String toRow;
+
+    private final BufAccessStrategy strategy = BufAccessStrategy.bulk();
+    private final ReadAhead ahead = ReadAhead.sequential(strategy);
+
+    /**
+     * The current block, copied, and where the next map starts in it.
+     */
+    private final byte[] data;
+    private DataInputStream in;
+    private int block;
+    private int left;
+
+    /**
+     * The map read last.
+     */
+    String row = "";
+    String column = "";
+    int timeStamp;
+    String value;
+
+    private boolean done;
+
+    SegmentScan(Segment seg, String fromRow, String toRow)
+            throws SegmentException,
+            IOException {
+        this.seg = seg;
+        this.toRow = toRow;
+        data = new byte[global.SystemDefs.JavabasePageSize];
+        done = seg.getBlockCnt() == 0;
+        if (!done)
+            seek((fromRow != null) ? fromRow : "", "");
+    }
+
+    /**
+     * Moves the scan to the first map of the given row and column or
+     * after them.
+     *
+     * @throws SegmentException error from the buffer manager
+     * @throws IOException      I/O errors
+     */
+    public void seek(String row, String column)
+            throws SegmentException,
+            IOException {
+        if (seg.getBlockCnt() == 0)
+            return;
+        if (ahead != null)
+            ahead.reset();
+        block = seg.findBlock(row, column, Integer.MAX_VALUE);
+        readBlock();
+        done = false;
+        // skip the maps of the block before the key
+        while (left > 0) {
+            in.mark(data.length);
+            String oldRow = this.row, oldColumn = this.column;
+            int oldTimeStamp = timeStamp;
+            decode();
+            if (Segment.compare(this.row, this.column, timeStamp, row, column, Integer.MAX_VALUE) >= 0) {
+                in.reset();
+                left++;
+                this.row = oldRow;
+                this.column = oldColumn;
+                timeStamp = oldTimeStamp;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the next map, null at the end of the scan.
+     *
+     * @throws SegmentException error from the buffer manager
+     * @throws IOException      I/O errors
+     */
+    public Map getNext()
+            throws SegmentException,
+            IOException {
+        if (!next())
+            return null;
+
+        Map map = new Map();
+        try {
+            map.setHdr((short) 4, Segment.TYPES, seg.strSizes);
+            map.setRowLabel(row);
+            map.setColumnLabel(column);
+            map.setTimeStamp(timeStamp);
+            map.setValue(value);
+        } catch (Exception e) {
+            throw new SegmentException(e, "SegmentScan.java: map construction failed");
+        }
+        return map;
+    }
+
+    /**
+     * Moves on to the next map, whose fields are then in row, column,
+     * timeStamp and value, without making a Map of it.
+     *
+     * @return false at the end of the scan
+     */
+    boolean next()
+            throws SegmentException,
+            IOException {
+        if (done)
+            return false;
+        while (left == 0) {
+            if (block + 1 >= seg.getBlockCnt()) {
+                done = true;
+                return false;
+            }
+            block++;
+            readBlock();
+        }
+        decode();
+        if (toRow != null && row.compareTo(toRow) > 0) {
+            done = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends the scan.
+     */
+    public void closescan() {
+        done = true;
+        in = null;
+    }
+
+    /**
+     * Copies the current block, and requests the blocks after it.
+     */
+    private void readBlock()
+            throws SegmentException,
+            IOException {
+        PageId pageId = new PageId(seg.blockPages[block]);
+        int count = (ahead != null) ? ahead.next(pageId) : 0;
+        Page page = new Page();
+        seg.pinPage(pageId, page, strategy);
+        try {
+            System.arraycopy(page.getpage(), 0, data, 0, data.length);
+        } finally {
+            seg.unpinPage(pageId, false);
+        }
+        if (count > 0) {
+            PCounter.Stats outer = PCounter.enter(seg.io);
+            try {
+                for (int i = block + 1 + ahead.pending(); i < seg.getBlockCnt() && count > 0; i++, count--)
+                    ahead.prefetch(new PageId(seg.blockPages[i]));
+            } finally {
+                PCounter.exit(outer);
+            }
+        }
+
+        left = Convert.getShortValue(Segment.MAP_CNT, data);
+        int used = Convert.getShortValue(Segment.USED, data);
+        in = new DataInputStream(new ByteArrayInputStream(data, Segment.BLOCK_HEADER,
+                used - Segment.BLOCK_HEADER));
+        row = "";
+        column = "";
+    }
+
+    /**
+     * Reads the next map of the block.
+     */
+    private void decode() throws IOException {
+        int shared = in.readShort();
+        row = row.substring(0, shared) + in.readUTF();
+        shared = in.readShort();
+        column = column.substring(0, shared) + in.readUTF();
+        timeStamp = in.readInt();
+        value = in.readUTF();
+        left--;
+    }
+}
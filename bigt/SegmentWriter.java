@@ -0,0 +1,303 @@
+/* File SegmentWriter.java */
+
+package bigt;
+
+import bufmgr.BufMgr;
+import bufmgr.PageExtent;
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Writes a Segment. The maps are added one at a time, in order of row,
+ * column and timestamp, newest first; a block is written as soon as it
+ * is full, so the writer holds one block and the sparse index in
+ * memory. finish() writes the index and the footer.
+ */
+public class SegmentWriter implements GlobalConst {
+
+    private final String name;
+    private final short[] strSizes;
+    private final PCounter.Stats io;
+    private final PageExtent extent = new PageExtent(Segment.EXTENT_PAGES);
+
+    private final int pageSize = SystemDefs.JavabasePageSize;
+
+    /**
+     * The block being filled, not yet on a page.
+     */
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private int blockMapCnt;
+
+    /**
+     * The block written last, still pinned until the next one is
+     * written, to link it.
+     */
+    private Page lastBlock;
+    private PageId lastBlockId;
+    private PageId firstBlock = new PageId(INVALID_PAGE);
+
+    private final ArrayList<Object[]> index = new ArrayList<Object[]>();
+
+    private int mapCnt;
+    private String row, column;
+    private int timeStamp;
+    private String minRow, minColumn;
+    private int minTimeStamp;
+
+    private final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    private final DataOutputStream entryOut = new DataOutputStream(entry);
+
+    private boolean finished = false;
+
+    /**
+     * Starts a segment of the given name.
+     *
+     * @param name     the name of the segment in the DB, which must not
+     *                 be taken
+     * @param strSizes the string sizes of the maps, for the maps read back
+     */
+    public SegmentWriter(String name, short[] strSizes) {
+        this.name = name;
+        this.strSizes = strSizes.clone();
+        io = PCounter.file(name);
+        SystemDefs.JavabaseBM.assignPool(io, BufMgr.DATA_POOL);
+    }
+
+    /**
+     * Adds a map after those added so far.
+     *
+     * @throws SegmentException the map comes before the one added last,
+     *                          or error from the buffer manager
+     * @throws IOException      I/O errors
+     */
+    public void add(Map map)
+            throws SegmentException,
+            IOException {
+        add(map.getRowLabel(), map.getColumnLabel(), map.getTimeStamp(), map.getValue());
+    }
+
+    /**
+     * Adds a map, given by its fields, after those added so far.
+     *
+     * @throws SegmentException the map comes before the one added last,
+     *                          or error from the buffer manager
+     * @throws IOException      I/O errors
+     */
+    public void add(String newRow, String newColumn, int newTimeStamp, String value)
+            throws SegmentException,
+            IOException {
+        if (finished)
+            throw new SegmentException(null, "SegmentWriter.java: segment already finished");
+        if (mapCnt > 0 && Segment.compare(row, column, timeStamp, newRow, newColumn, newTimeStamp) > 0)
+            throw new SegmentException(null, "SegmentWriter.java: maps out of order");
+
+        encode(newRow, newColumn, newTimeStamp, value, blockMapCnt > 0);
+        if (blockMapCnt > 0 && Segment.BLOCK_HEADER + block.size() + entry.size() > pageSize) {
+            writeBlock();
+            encode(newRow, newColumn, newTimeStamp, value, false);
+        }
+        if (Segment.BLOCK_HEADER + entry.size() > pageSize)
+            throw new SegmentException(null, "SegmentWriter.java: map does not fit in a block");
+        if (blockMapCnt == 0)
+            index.add(new Object[]{newRow, newColumn, newTimeStamp, null});
+        entry.writeTo(block);
+        blockMapCnt++;
+
+        if (mapCnt == 0) {
+            minRow = newRow;
+            minColumn = newColumn;
+            minTimeStamp = newTimeStamp;
+        }
+        row = newRow;
+        column = newColumn;
+        timeStamp = newTimeStamp;
+        mapCnt++;
+    }
+
+    /**
+     * Writes the last block, the index and the footer, and registers the
+     * segment in the DB.
+     *
+     * @return the segment, open for scans
+     * @throws SegmentException error from the buffer manager or the DB
+     * @throws IOException      I/O errors
+     */
+    public Segment finish()
+            throws SegmentException,
+            IOException {
+        if (finished)
+            throw new SegmentException(null, "SegmentWriter.java: segment already finished");
+        if (blockMapCnt > 0)
+            writeBlock();
+        if (lastBlock != null)
+            unpinPage(lastBlockId, true);
+
+        // the index: the page of every block was known only once written
+        PageId firstIndex = new PageId(INVALID_PAGE);
+        Page page = null;
+        PageId pageId = null;
+        ByteArrayOutputStream keys = new ByteArrayOutputStream();
+        int keyCnt = 0;
+        for (int i = 0; i <= index.size(); i++) {
+            ByteArrayOutputStream key = new ByteArrayOutputStream();
+            if (i < index.size()) {
+                Object[] k = index.get(i);
+                DataOutputStream keyOut = new DataOutputStream(key);
+                keyOut.writeInt((Integer) k[3]);
+                keyOut.writeUTF((String) k[0]);
+                keyOut.writeUTF((String) k[1]);
+                keyOut.writeInt((Integer) k[2]);
+            }
+            if (i == index.size() || Segment.INDEX_HEADER + keys.size() + key.size() > pageSize) {
+                if (keyCnt == 0 && i == index.size())
+                    break;
+                Page next = new Page();
+                PageId nextId = newPage(next);
+                byte[] data = next.getpage();
+                Convert.setIntValue(INVALID_PAGE, Segment.NEXT_INDEX, data);
+                Convert.setShortValue((short) keyCnt, Segment.KEY_CNT, data);
+                System.arraycopy(keys.toByteArray(), 0, data, Segment.INDEX_HEADER, keys.size());
+                if (page == null)
+                    firstIndex = new PageId(nextId.pid);
+                else {
+                    Convert.setIntValue(nextId.pid, Segment.NEXT_INDEX, page.getpage());
+                    unpinPage(pageId, true);
+                }
+                page = next;
+                pageId = nextId;
+                keys.reset();
+                keyCnt = 0;
+            }
+            if (i < index.size()) {
+                key.writeTo(keys);
+                keyCnt++;
+            }
+        }
+        if (page != null)
+            unpinPage(pageId, true);
+
+        // the footer last, so that a segment in the DB is complete
+        Page footer = new Page();
+        PageId footerId = newPage(footer);
+        byte[] data = footer.getpage();
+        Convert.setIntValue(Segment.SEGMENT_MAGIC, Segment.MAGIC, data);
+        Convert.setIntValue(mapCnt, Segment.FOOTER_MAP_CNT, data);
+        Convert.setIntValue(index.size(), Segment.BLOCK_CNT, data);
+        Convert.setIntValue(firstBlock.pid, Segment.FIRST_BLOCK, data);
+        Convert.setIntValue(firstIndex.pid, Segment.FIRST_INDEX, data);
+        for (int i = 0; i < 3; i++)
+            Convert.setShortValue(strSizes[i], Segment.STR_SIZES + 2 * i, data);
+        if (mapCnt > 0) {
+            ByteArrayOutputStream bounds = new ByteArrayOutputStream();
+            DataOutputStream boundsOut = new DataOutputStream(bounds);
+            boundsOut.writeUTF(minRow);
+            boundsOut.writeUTF(minColumn);
+            boundsOut.writeInt(minTimeStamp);
+            boundsOut.writeUTF(row);
+            boundsOut.writeUTF(column);
+            boundsOut.writeInt(timeStamp);
+            if (Segment.FOOTER_HEADER + bounds.size() > pageSize)
+                throw new SegmentException(null, "SegmentWriter.java: keys do not fit in the footer");
+            System.arraycopy(bounds.toByteArray(), 0, data, Segment.FOOTER_HEADER, bounds.size());
+        }
+        unpinPage(footerId, true);
+        try {
+            extent.release();
+            SystemDefs.JavabaseDB.add_file_entry(name, footerId);
+        } catch (Exception e) {
+            throw new SegmentException(e, "SegmentWriter.java: add_file_entry() failed");
+        }
+        finished = true;
+        return new Segment(name);
+    }
+
+    /**
+     * Encodes a map into entry, its row and column as the prefix they
+     * share with the map added last and the rest.
+     */
+    private void encode(String newRow, String newColumn, int newTimeStamp, String value,
+                        boolean shared)
+            throws IOException {
+        entry.reset();
+        int rowShared = shared ? sharedPrefix(row, newRow) : 0;
+        int columnShared = shared && rowShared == newRow.length() && rowShared == row.length()
+                ? sharedPrefix(column, newColumn) : 0;
+        entryOut.writeShort(rowShared);
+        entryOut.writeUTF(newRow.substring(rowShared));
+        entryOut.writeShort(columnShared);
+        entryOut.writeUTF(newColumn.substring(columnShared));
+        entryOut.writeInt(newTimeStamp);
+        entryOut.writeUTF(value);
+    }
+
+    private static int sharedPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i))
+            i++;
+        return i;
+    }
+
+    /**
+     * Writes the block being filled to a new page, and links the block
+     * before to it.
+     */
+    private void writeBlock()
+            throws SegmentException,
+            IOException {
+        Page page = new Page();
+        PageId pageId = newPage(page);
+        byte[] data = page.getpage();
+        Convert.setIntValue(INVALID_PAGE, Segment.NEXT_BLOCK, data);
+        Convert.setShortValue((short) blockMapCnt, Segment.MAP_CNT, data);
+        Convert.setShortValue((short) (Segment.BLOCK_HEADER + block.size()), Segment.USED, data);
+        System.arraycopy(block.toByteArray(), 0, data, Segment.BLOCK_HEADER, block.size());
+        index.get(index.size() - 1)[3] = pageId.pid;
+
+        if (lastBlock == null) {
+            firstBlock = new PageId(pageId.pid);
+        } else {
+            Convert.setIntValue(pageId.pid, Segment.NEXT_BLOCK, lastBlock.getpage());
+            unpinPage(lastBlockId, true);
+        }
+        lastBlock = page;
+        lastBlockId = pageId;
+        block.reset();
+        blockMapCnt = 0;
+    }
+
+    private PageId newPage(Page page)
+            throws SegmentException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            PageId pageId = extent.newPage(page);
+            if (pageId == null)
+                throw new SegmentException(null, "SegmentWriter.java: newPage() failed");
+            return pageId;
+        } catch (SegmentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SegmentException(e, "SegmentWriter.java: newPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    private void unpinPage(PageId pageId, boolean dirty)
+            throws SegmentException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageId, dirty);
+        } catch (Exception e) {
+            throw new SegmentException(e, "SegmentWriter.java: unpinPage() failed");
+        }
+    }
+}
@@ -4,6 +4,7 @@ import btree.BTFileScan;
 import btree.KeyDataEntry;
 import btree.LeafData;
 import btree.StringKey;
+import bufmgr.BufMgr;
 import global.MapOrder;
 import global.RID;
 import heap.Heapfile;
@@ -13,9 +14,11 @@ import iterator.RelSpec;
 import iterator.Sort;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class Stream {
     private BTFileScan scan, scan2;
+    private LSMScan lsmScan;
     private int numberOfMapsFound;
     private Scan scanBigT;
     private BigT bigT;
@@ -89,6 +92,19 @@ public class Stream {
                     scanEntireBigT = true;
                 }
                 break;
+            case 6:
+                // the LSM tree is sorted by row, so only the rows of the
+                // filter are read
+                scanEntireBigT = false;
+                LSMTree lsmTree = Minibase.getInstance().getLSMTree();
+                if (rowFilters[0].compareTo("*") == 0) {
+                    lsmScan = lsmTree.openScan(null, null);
+                } else if (rowFilters.length == 1) {
+                    lsmScan = lsmTree.openScan(rowFilter, rowFilter);
+                } else {
+                    lsmScan = lsmTree.openScan(rowFilters[0], rowFilters[1]);
+                }
+                break;
             default:
                 scanEntireBigT = true;
                 break;
@@ -99,18 +115,35 @@ public class Stream {
 
     private void filterAndSortByOrderType(int orderType, String[] rowFilters, String[] columnFilters,
                                           String[] valueFilters) throws Exception{
+        // the filters are compared with the bytes of the maps
+        byte[][] rowBytes = encodeFilter(rowFilters);
+        byte[][] columnBytes = encodeFilter(columnFilters);
+        byte[][] valueBytes = encodeFilter(valueFilters);
         tempHeapFile = new Heapfile("tempfile1");
+        tempHeapFile.setBufferPool(BufMgr.TEMP_POOL);
         if (scanEntireBigT) {
             //System.out.println("Scanning entire big t");
             RID rid = new RID();
             Map map = scanBigT.getNext(rid);
             while(map != null) {
-                map.setHdr((short) 4, Minibase.getInstance().getAttrTypes(), Minibase.getInstance().getAttrSizes());
-                if(filterOutput(map, rowFilters, columnFilters, valueFilters)) {
+                map.setOffsets(map.getOffset());
+                if (!map.isVarLen())
+                    map.setHdr((short) 4, Minibase.getInstance().getAttrTypes(), Minibase.getInstance().getAttrSizes());
+                if(filterOutput(map, rowBytes, columnBytes, valueBytes)) {
                     tempHeapFile.insertMap(map.getMapByteArray());
                 }
                 map = scanBigT.getNext(rid);
             }
+        } else if (lsmScan != null) {
+            Map map = lsmScan.getNext();
+            while (map != null) {
+                if (filterOutput(map, rowBytes, columnBytes, valueBytes)) {
+                    tempHeapFile.insertMap(map.getMapByteArray());
+                }
+                map = lsmScan.getNext();
+            }
+            lsmScan.closescan();
+            lsmScan = null;
         }else {
             KeyDataEntry entry = scan.get_next();
             while(entry != null) {
@@ -118,8 +151,10 @@ public class Stream {
                 if (rid != null) {
                     try {
                         Map map = Minibase.getInstance().getBigTable().getMap(rid);
-                        map.setHdr((short) 4, Minibase.getInstance().getAttrTypes(), Minibase.getInstance().getAttrSizes());
-                        if(filterOutput(map, rowFilters, columnFilters, valueFilters)) {
+                        map.setOffsets(map.getOffset());
+                        if (!map.isVarLen())
+                            map.setHdr((short) 4, Minibase.getInstance().getAttrTypes(), Minibase.getInstance().getAttrSizes());
+                        if(filterOutput(map, rowBytes, columnBytes, valueBytes)) {
                             tempHeapFile.insertMap(map.getMapByteArray());
                         }
                     } catch (Exception e) {
@@ -196,35 +231,69 @@ public class Stream {
 
     public boolean filterOutput(Map map, String[] rowFilter, String[] columnFilter,
                                 String[] valueFilter) throws IOException {
-        if (rowFilter.length == 1) {
-            if (rowFilter[0].compareTo("*") != 0 && map.getRowLabel().compareTo(rowFilter[0]) != 0)
-                return false;
-        } else {
-            if (map.getRowLabel().compareTo(rowFilter[0]) < 0 || map.getRowLabel().compareTo(rowFilter[1]) > 0) {
-                return false;
-            }
-        }
-        if (columnFilter.length == 1) {
-            if (columnFilter[0].compareTo("*") != 0 && map.getColumnLabel().compareTo(columnFilter[0]) != 0)
-                return false;
-        } else {
-            if (map.getColumnLabel().compareTo(columnFilter[0]) < 0 || map.getColumnLabel().compareTo(columnFilter[1]) > 0) {
-                return false;
-            }
-        }
-        if (valueFilter.length == 1) {
-            if (valueFilter[0].compareTo("*") != 0 && map.getValue().compareTo(valueFilter[0]) != 0)
-                return false;
-        } else {
-            if (map.getValue().compareTo(valueFilter[0]) < 0 || map.getValue().compareTo(valueFilter[1]) > 0) {
-                return false;
-            }
-        }
-        return true;
+        return filterOutput(map, encodeFilter(rowFilter), encodeFilter(columnFilter), encodeFilter(valueFilter));
     }
 
-    public void closeStream() {
+    /**
+     * filterOutput() with the filters in UTF-8, as encodeFilter() returns them.
+     * It reads the labels and the value on the bytes of the map, without
+     * allocating.
+     */
+    public static boolean filterOutput(Map map, byte[][] rowFilter, byte[][] columnFilter,
+                                       byte[][] valueFilter) {
+        return matches(map, 1, rowFilter) && matches(map, 2, columnFilter)
+                && matches(map, 4, valueFilter);
+    }
+
+    private static boolean matches(Map map, int fldNo, byte[][] filter) {
+        if (filter == null)
+            return true;
+        if (filter.length == 1)
+            return map.compareStrFld(fldNo, filter[0]) == 0;
+        return map.compareStrFld(fldNo, filter[0]) >= 0 && map.compareStrFld(fldNo, filter[1]) <= 0;
+    }
 
+    /**
+     * Returns the values of a filter in UTF-8, or null for "*".
+     */
+    public static byte[][] encodeFilter(String[] filter) {
+        if (filter.length == 1 && filter[0].compareTo("*") == 0)
+            return null;
+        byte[][] bytes = new byte[filter.length][];
+        for (int i = 0; i < filter.length; i++)
+            bytes[i] = filter[i].getBytes(StandardCharsets.UTF_8);
+        return bytes;
+    }
+
+    /**
+     * Releases what the stream holds in the buffer pool: the scans, the
+     * memory and runs of the sort, and the file of filtered maps.
+     */
+    public void closeStream() throws Exception {
+        if (filteredAndSortedData != null) {
+            filteredAndSortedData.close();
+            filteredAndSortedData = null;
+        }
+        if (scan != null) {
+            scan.DestroyBTreeFileScan();
+            scan = null;
+        }
+        if (scan2 != null) {
+            scan2.DestroyBTreeFileScan();
+            scan2 = null;
+        }
+        if (lsmScan != null) {
+            lsmScan.closescan();
+            lsmScan = null;
+        }
+        if (scanBigT != null) {
+            scanBigT.closescan();
+            scanBigT = null;
+        }
+        if (tempHeapFile != null) {
+            tempHeapFile.deleteFile();
+            tempHeapFile = null;
+        }
     }
 
     public RID getFirstRID() throws Exception {
@@ -237,10 +306,12 @@ public class Stream {
     }
 
     public Map getNext() throws Exception {
+        if (filteredAndSortedData == null)
+            return null;
         Map m = filteredAndSortedData.get_next();
         if(m == null){
             System.out.println("Deleting temp file used for sorting");
-            tempHeapFile.deleteFile();
+            closeStream();
             return null;
         }
         ++numberOfMapsFound;
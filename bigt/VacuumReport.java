@@ -0,0 +1,39 @@
+/* File VacuumReport.java */
+
+package bigt;
+
+import java.io.PrintStream;
+
+/**
+ * What BigT.vacuum() did: the data and directory pages before and after,
+ * the maps moved to other pages, and the slots freed on the pages.
+ */
+public class VacuumReport {
+
+    public int dataPagesBefore;
+    public int dataPagesAfter;
+    public int dirPagesBefore;
+    public int dirPagesAfter;
+
+    /**
+     * Maps moved to another data page.
+     */
+    public int mapsMoved;
+
+    /**
+     * Maps moved to a lower slot of their data page.
+     */
+    public int mapsRenumbered;
+
+    /**
+     * Empty slots dropped from the slot directories.
+     */
+    public int slotsFreed;
+
+    public void print(PrintStream out) {
+        out.println("data pages " + dataPagesBefore + " -> " + dataPagesAfter
+                + ", directory pages " + dirPagesBefore + " -> " + dirPagesAfter);
+        out.println("maps moved " + mapsMoved + ", renumbered " + mapsRenumbered
+                + ", slots freed " + slotsFreed);
+    }
+}
@@ -0,0 +1,105 @@
+/* File VacuumTask.java */
+
+package bigt;
+
+/**
+ * A background thread that vacuums a BigT. Every interval it looks at
+ * the maps deleted since the last vacuum, and once there are at least
+ * a threshold of them and the BigT has no open scans, it calls
+ * BigT.vacuum(). The vacuum holds the lock of the BigT, as do its
+ * insertMap, deleteMap, updateMap and getMap; a caller that keeps
+ * indexes on the BigT must hold that lock from the insert of a map to
+ * the insert of its index entries, so that the listener sees them in
+ * step.
+ */
+public class VacuumTask extends Thread {
+
+    private final BigT bigt;
+    private final MapMoveListener listener;
+    private final long interval;
+    private final int threshold;
+
+    private boolean stopped = false;
+
+    private VacuumReport last;
+    private Exception error;
+
+    /**
+     * @param bigt      the BigT to vacuum
+     * @param listener  told of every map moved, may be null
+     * @param interval  the time between two looks, in milliseconds
+     * @param threshold the deletes that start a vacuum
+     */
+    public VacuumTask(BigT bigt, MapMoveListener listener, long interval, int threshold) {
+        super("VacuumTask");
+        this.bigt = bigt;
+        this.listener = listener;
+        this.interval = interval;
+        this.threshold = threshold;
+        setDaemon(true);
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (!stopped) {
+                    try {
+                        wait(interval);
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                }
+                if (stopped)
+                    return;
+            }
+
+            synchronized (bigt) {
+                if (bigt.getDeletesSinceVacuum() < threshold || bigt.hasOpenScans())
+                    continue;
+                try {
+                    VacuumReport report = bigt.vacuum(listener);
+                    synchronized (this) {
+                        last = report;
+                    }
+                } catch (Exception e) {
+                    // a failed vacuum leaves the BigT as it is; stop
+                    // rather than fail again every interval
+                    synchronized (this) {
+                        error = e;
+                        stopped = true;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the report of the last vacuum, null if there was none.
+     */
+    public synchronized VacuumReport getLastReport() {
+        return last;
+    }
+
+    /**
+     * Returns the error that stopped the thread, null if none did.
+     */
+    public synchronized Exception getError() {
+        return error;
+    }
+
+    /**
+     * Stops the thread and waits until it is done with its current vacuum.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            notify();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/* File VersionIndex.java */
+
+package bigt;
+
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.DeleteFashion;
+import btree.KeyDataEntry;
+import btree.LeafData;
+import btree.StringKey;
+import bufmgr.LogMgr;
+import global.AttrType;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The newest versions of every (row, column) of a BigT: their
+ * timestamps and RIDs, newest first, at most MAX_VERSIONS of them. It
+ * lets an insert find the version to drop without a scan of the BigT
+ * or its indexes.
+ * <p>
+ * The versions of the (row, column)s used last are held in memory, up
+ * to getCacheSize() of them; the others are spilled to a B+ tree whose
+ * keys are the row, the column and the timestamp, with the RID of the
+ * map as data. A (row, column) that is not in memory is read back from
+ * the B+ tree with one range scan, which is skipped as long as nothing
+ * was ever spilled. close() writes back the versions in memory.
+ */
+public class VersionIndex {
+
+    /**
+     * Versions kept of every (row, column).
+     */
+    public static final int MAX_VERSIONS = 3;
+
+    private static int cacheSize = 100000;
+
+    /**
+     * Versions written back per transaction of the write-ahead log.
+     */
+    private static final int COMMIT_VERSIONS = 100;
+
+    /**
+     * Separates the row, the column and the timestamp in the keys of the
+     * B+ tree; it sorts before every character of a label.
+     */
+    private static final char SEPARATOR = '\0';
+
+    private final BTreeFile btree;
+
+    /**
+     * The versions in memory, by key, least recently used first.
+     */
+    private final LinkedHashMap<String, Versions> cache =
+            new LinkedHashMap<String, Versions>(16, 0.75f, true);
+
+    /**
+     * True once a version was written to the B+ tree.
+     */
+    private boolean spilled;
+
+    /**
+     * The versions of one (row, column), and those of them the B+ tree
+     * holds.
+     */
+    private static class Versions {
+        int cnt;
+        final int[] timeStamps = new int[MAX_VERSIONS];
+        final RID[] rids = new RID[MAX_VERSIONS];
+
+        int diskCnt;
+        final int[] diskTimeStamps = new int[MAX_VERSIONS];
+        final RID[] diskRids = new RID[MAX_VERSIONS];
+
+        boolean dirty;
+    }
+
+    /**
+     * Opens the version index of the given name, or creates it.
+     *
+     * @param name    the name of the B+ tree
+     * @param keySize the longest row and column label, as written by
+     *                writeUTF, added up
+     * @throws Exception error from the B+ tree
+     */
+    public VersionIndex(String name, int keySize) throws Exception {
+        // the key is written as one string: the labels without their two
+        // length bytes each, two separators of two bytes, 8 hex digits and
+        // two length bytes
+        btree = new BTreeFile(name, AttrType.attrString, keySize + 10,
+                DeleteFashion.FULL_DELETE);
+        BTFileScan scan = btree.new_scan(null, null);
+        spilled = scan.get_next() != null;
+        scan.DestroyBTreeFileScan();
+    }
+
+    /**
+     * Sets the number of (row, column)s whose versions are held in
+     * memory.
+     */
+    public static void setCacheSize(int size) {
+        cacheSize = size;
+    }
+
+    public static int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Tells whether a map of the given row, column and timestamp would
+     * not be kept, because MAX_VERSIONS newer ones are.
+     *
+     * @throws Exception error from the B+ tree
+     */
+    public boolean isObsolete(String row, String column, int timeStamp) throws Exception {
+        Versions v = lookup(row, column);
+        return v.cnt == MAX_VERSIONS && timeStamp < v.timeStamps[MAX_VERSIONS - 1];
+    }
+
+    /**
+     * Adds a version of a (row, column).
+     *
+     * @return the RID of the version no longer kept, the oldest one or
+     * the one added, or null if all are kept
+     * @throws Exception error from the B+ tree
+     */
+    public RID add(String row, String column, int timeStamp, RID rid) throws Exception {
+        Versions v = lookup(row, column);
+        RID dropped = null;
+        if (v.cnt == MAX_VERSIONS) {
+            if (timeStamp < v.timeStamps[MAX_VERSIONS - 1])
+                return rid;
+            dropped = v.rids[MAX_VERSIONS - 1];
+            v.cnt--;
+        }
+        int i = v.cnt;
+        while (i > 0 && v.timeStamps[i - 1] <= timeStamp) {
+            v.timeStamps[i] = v.timeStamps[i - 1];
+            v.rids[i] = v.rids[i - 1];
+            i--;
+        }
+        v.timeStamps[i] = timeStamp;
+        v.rids[i] = new RID(new PageId(rid.pageNo.pid), rid.slotNo);
+        v.cnt++;
+        v.dirty = true;
+        spill();
+        return dropped;
+    }
+
+    /**
+     * Removes a version of a (row, column), after its map was deleted.
+     *
+     * @return false if it was not one of the versions kept
+     * @throws Exception error from the B+ tree
+     */
+    public boolean remove(String row, String column, RID rid) throws Exception {
+        Versions v = lookup(row, column);
+        for (int i = 0; i < v.cnt; i++) {
+            if (v.rids[i].equals(rid)) {
+                for (; i < v.cnt - 1; i++) {
+                    v.timeStamps[i] = v.timeStamps[i + 1];
+                    v.rids[i] = v.rids[i + 1];
+                }
+                v.cnt--;
+                v.dirty = true;
+                spill();
+                return true;
+            }
+        }
+        spill();
+        return false;
+    }
+
+    /**
+     * Gives a version of a (row, column) the new RID of its map, after
+     * BigT.vacuum() moved it.
+     *
+     * @return false if it was not one of the versions kept
+     * @throws Exception error from the B+ tree
+     */
+    public boolean moved(String row, String column, RID from, RID to) throws Exception {
+        Versions v = lookup(row, column);
+        int i = indexOf(v.rids, v.cnt, from);
+        if (i >= 0) {
+            v.rids[i] = new RID(new PageId(to.pageNo.pid), to.slotNo);
+            v.dirty = true;
+        }
+        spill();
+        return i >= 0;
+    }
+
+    /**
+     * Writes the versions in memory to the B+ tree and closes it.
+     *
+     * @throws Exception error from the B+ tree
+     */
+    public void close() throws Exception {
+        LogMgr log = SystemDefs.JavabaseLog;
+        int uncommitted = 0;
+        for (java.util.Map.Entry<String, Versions> e : cache.entrySet()) {
+            if (log != null && uncommitted == 0)
+                log.begin();
+            write(e.getKey(), e.getValue());
+            if (log != null && ++uncommitted == COMMIT_VERSIONS) {
+                log.commit();
+                uncommitted = 0;
+            }
+        }
+        if (log != null && uncommitted > 0)
+            log.commit();
+        cache.clear();
+        btree.close();
+    }
+
+    /**
+     * Deletes the B+ tree of the versions.
+     *
+     * @throws Exception error from the B+ tree
+     */
+    public void destroy() throws Exception {
+        cache.clear();
+        btree.destroyFile();
+    }
+
+    /**
+     * Returns the versions of a (row, column), read from the B+ tree if
+     * they are not in memory.
+     */
+    private Versions lookup(String row, String column) throws Exception {
+        String key = row + SEPARATOR + column + SEPARATOR;
+        Versions v = cache.get(key);
+        if (v != null)
+            return v;
+
+        v = new Versions();
+        if (spilled) {
+            BTFileScan scan = btree.new_scan(new StringKey(key), new StringKey(key + '\uffff'));
+            try {
+                KeyDataEntry entry;
+                while ((entry = scan.get_next()) != null) {
+                    String k = ((StringKey) entry.key).getKey();
+                    int timeStamp = (int) Long.parseLong(k.substring(key.length()), 16)
+                            ^ Integer.MIN_VALUE;
+                    RID rid = ((LeafData) entry.data).getData();
+                    // the keys come oldest first
+                    int older = Math.min(v.diskCnt, MAX_VERSIONS - 1);
+                    System.arraycopy(v.diskTimeStamps, 0, v.diskTimeStamps, 1, older);
+                    System.arraycopy(v.diskRids, 0, v.diskRids, 1, older);
+                    v.diskTimeStamps[0] = timeStamp;
+                    v.diskRids[0] = new RID(new PageId(rid.pageNo.pid), rid.slotNo);
+                    v.diskCnt = older + 1;
+                }
+            } finally {
+                scan.DestroyBTreeFileScan();
+            }
+            v.cnt = v.diskCnt;
+            System.arraycopy(v.diskTimeStamps, 0, v.timeStamps, 0, v.cnt);
+            System.arraycopy(v.diskRids, 0, v.rids, 0, v.cnt);
+        }
+        cache.put(key, v);
+        return v;
+    }
+
+    /**
+     * Writes the least recently used versions to the B+ tree, until no
+     * more than cacheSize are in memory.
+     */
+    private void spill() throws Exception {
+        Iterator<java.util.Map.Entry<String, Versions>> it = cache.entrySet().iterator();
+        while (cache.size() > cacheSize) {
+            java.util.Map.Entry<String, Versions> e = it.next();
+            write(e.getKey(), e.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Brings the B+ tree up to date with the versions of one (row,
+     * column).
+     */
+    private void write(String key, Versions v) throws Exception {
+        if (!v.dirty)
+            return;
+        for (int i = 0; i < v.diskCnt; i++) {
+            if (indexOf(v.rids, v.cnt, v.diskRids[i]) < 0)
+                btree.Delete(new StringKey(key + hex(v.diskTimeStamps[i])), v.diskRids[i]);
+        }
+        for (int i = 0; i < v.cnt; i++) {
+            if (indexOf(v.diskRids, v.diskCnt, v.rids[i]) < 0) {
+                btree.insert(new StringKey(key + hex(v.timeStamps[i])), v.rids[i]);
+                spilled = true;
+            }
+        }
+        v.diskCnt = v.cnt;
+        System.arraycopy(v.timeStamps, 0, v.diskTimeStamps, 0, v.cnt);
+        System.arraycopy(v.rids, 0, v.diskRids, 0, v.cnt);
+        v.dirty = false;
+    }
+
+    private static int indexOf(RID[] rids, int cnt, RID rid) {
+        for (int i = 0; i < cnt; i++)
+            if (rids[i].equals(rid))
+                return i;
+        return -1;
+    }
+
+    /**
+     * A timestamp as 8 hex digits that sort as the timestamps do.
+     */
+    private static String hex(int timeStamp) {
+        String s = Integer.toHexString(timeStamp ^ Integer.MIN_VALUE);
+        return "00000000".substring(s.length()) + s;
+    }
+}
@@ -6,10 +6,13 @@
  */
 package btree;
 
+import bufmgr.ReadAhead;
+import diskmgr.PCounter;
 import global.GlobalConst;
 import global.PageId;
 import global.RID;
 import global.SystemDefs;
+import heap.HFPage;
 
 import java.io.IOException;
 
@@ -39,6 +42,8 @@ public class BTFileScan extends IndexFileScan
     int keyType;
     int maxKeysize;
 
+    ReadAhead readAhead = ReadAhead.sequential(null); // of the leaf chain
+
     /**
      * Iterate once (during a scan).
      *
@@ -70,7 +75,15 @@ public class BTFileScan extends IndexFileScan
                     return null;
                 }
 
-                leafPage = new BTLeafPage(nextpage, keyType);
+                int ahead = (readAhead != null) ? readAhead.next(nextpage) : 0;
+                PCounter.Stats outer = PCounter.enter(bfile.io);
+                try {
+                    leafPage = new BTLeafPage(nextpage, keyType);
+                    if (ahead > 0)
+                        readAhead.prefetchChain(leafPage.getNextPage(), ahead, HFPage.NEXT_PAGE);
+                } finally {
+                    PCounter.exit(outer);
+                }
 
                 entry = leafPage.getFirst(curRid);
             }
@@ -113,7 +126,14 @@ public class BTFileScan extends IndexFileScan
             entry = leafPage.getCurrent(curRid);
             SystemDefs.JavabaseBM.unpinPage(leafPage.getCurPage(), false);
             bfile.Delete(entry.key, ((LeafData) entry.data).getData());
-            leafPage = bfile.findRunStart(entry.key, curRid);
+            PCounter.Stats outer = PCounter.enter(bfile.io);
+            try {
+                leafPage = bfile.findRunStart(entry.key, curRid);
+            } finally {
+                PCounter.exit(outer);
+            }
+            if (readAhead != null)
+                readAhead.reset();
 
             deletedcurrent = true;
             return;
@@ -8,9 +8,11 @@
 
 package btree;
 
+import bufmgr.PageExtent;
 import diskmgr.Page;
 import global.PageId;
 import global.RID;
+import global.SystemDefs;
 
 import java.io.IOException;
 
@@ -74,6 +76,22 @@ public class BTIndexPage extends BTSortedPage {
         setType(NodeType.INDEX);
     }
 
+    /* take a new page from an extent, associate the BTIndexPage instance
+     * with the Page instance, also it sets the type of node to be
+     * NodeType.INDEX.
+     *@param extent the extent the page is taken from. Input parameter.
+     *@param keyType either AttrType.attrInteger or AttrType.attrString.
+     *  Input parameter.
+     *@exception IOException  error from the lower layer
+     *@exception ConstructPageException error when BTIndexpage constructor
+     */
+    public BTIndexPage(PageExtent extent, int keyType)
+            throws IOException,
+            ConstructPageException {
+        super(extent, keyType);
+        setType(NodeType.INDEX);
+    }
+
 
     /**
      * It inserts a <key, pageNo> value into the index page,
@@ -98,51 +116,50 @@ public class BTIndexPage extends BTSortedPage {
         }
     }
 
-    /*  OPTIONAL: fullDeletekey
+    /**
+     * It inserts a <key, pageNo> value into the index page at the given
+     * slot. Among equal keys, the entries must stay in the order of their
+     * children, which insertKey does not know.
+     *
+     * @param key    the key value in <key, pageNO>. Input parameter.
+     * @param pageNo the pageNo  in <key, pageNO>. Input parameter.
+     * @param slot   the slot the entry gets. Input parameter.
+     * @return It returns the rid where the record is inserted;
+     * null if no space left.
+     * @throws IndexInsertRecException error when insert
+     */
+    public RID insertKey(KeyClass key, PageId pageNo, int slot)
+            throws IndexInsertRecException {
+        try {
+            return insertRecordAt(new KeyDataEntry(key, pageNo), slot);
+        } catch (Exception e) {
+            throw new IndexInsertRecException(e, "Insert failed");
+        }
+    }
+
+    /*  OPTIONAL: deleteChild
      * This is optional, and is only needed if you want to do full deletion.
-     * Return its RID.  delete key may != key.  But delete key <= key,
-     * and the delete key is the first biggest key such that delete key <= key
-     *@param key the key used to search. Input parameter.
+     * Deletes the entry pointing to a child. It is found by the page number
+     * of the child, not by a key, as several entries may hold equal keys.
+     *@param child the page number of the child. Input parameter.
      *@exception IndexFullDeleteException if no record deleted or failed by
      * any reason
      *@return  RID of the record deleted. Can not return null.
      */
-    RID deleteKey(KeyClass key)
+    RID deleteChild(PageId child)
             throws IndexFullDeleteException {
-        KeyDataEntry entry;
-        RID rid = new RID();
-
-
         try {
+            int slot = getChildSlot(child);
+            if (slot < 0)
+                throw new IndexFullDeleteException(null, "The left link has no entry");
 
-            entry = getFirst(rid);
-
-            if (entry == null)
-                //it is supposed there is at least a record
-                throw new IndexFullDeleteException(null, "No records found");
-
-
-            if (BT.keyCompare(key, entry.key) < 0)
-                //it is supposed to not smaller than first key
-                throw new IndexFullDeleteException(null, "First key is bigger");
-
-
-            while (BT.keyCompare(key, entry.key) > 0) {
-                entry = getNext(rid);
-                if (entry == null)
-                    break;
-            }
-
-            if (entry == null) rid.slotNo--;
-            else if (BT.keyCompare(key, entry.key) != 0)
-                rid.slotNo--; // we want to delete the previous key
-
+            RID rid = new RID(getCurPage(), slot);
             deleteSortedRecord(rid);
             return rid;
         } catch (Exception e) {
             throw new IndexFullDeleteException(e, "Full delelte failed");
         }
-    } // end of deleteKey
+    } // end of deleteChild
 
 
     /*
@@ -176,6 +193,32 @@ public class BTIndexPage extends BTSortedPage {
     } // getPageNoByKey
 
 
+    /*
+     * Like getPageNoByKey, but returns the leftmost child that may hold
+     * the key. Entries equal to a separator key may be on the child left
+     * of it as well, so full delete searches from there.
+     *@param key  the key value used in search algorithm. Input parameter.
+     *@return It returns the page_no of the child to be searched next.
+     *@exception IndexSearchException Index search failed;
+     */
+    PageId getLeftmostPageNoByKey(KeyClass key)
+            throws IndexSearchException {
+        try {
+            for (int i = getSlotCnt() - 1; i >= 0; i--) {
+                KeyDataEntry entry = getEntry(i);
+                if (BT.keyCompare(key, entry.key) > 0) {
+                    return ((IndexData) entry.data).getData();
+                }
+            }
+
+            return getPrevPage();
+        } catch (Exception e) {
+            throw new IndexSearchException(e, "Get entry failed");
+        }
+
+    } // getLeftmostPageNoByKey
+
+
     /**
      * Iterators.
      * One of the two functions: getFirst and getNext
@@ -277,117 +320,106 @@ public class BTIndexPage extends BTSortedPage {
     }
 
 
+    /* find the slot of the entry pointing to a child.
+     *@param child the page number of the child. Input parameter.
+     *@return the slot of its entry; -1 if the child is the left link.
+     *@exception IndexSearchException if no entry points to the child
+     */
+    int getChildSlot(PageId child)
+            throws IndexSearchException {
+        try {
+            if (getLeftLink().pid == child.pid)
+                return -1;
+            for (int i = 0; i < getSlotCnt(); i++) {
+                if (((IndexData) getEntry(i).data).getData().pid == child.pid)
+                    return i;
+            }
+        } catch (Exception e) {
+            throw new IndexSearchException(e, "Get child slot failed");
+        }
+        throw new IndexSearchException(null, "No entry for child " + child.pid);
+    } // end of getChildSlot
+
+
     /*It is used in full delete
-     *@param key the key is used to search. Input parameter.
+     *@param child the page number of a child. Input parameter.
      *@param pageNo It returns the pageno of the sibling. Input and Output
      *       parameter.
      *@return 0 if no sibling; -1 if left sibling; 1 if right sibling.
      *@exception IndexFullDeleteException delete failed
      */
 
-    int getSibling(KeyClass key, PageId pageNo)
+    int getSibling(PageId child, PageId pageNo)
             throws IndexFullDeleteException {
 
         try {
             if (getSlotCnt() == 0) // there is no sibling
                 return 0;
 
-            int i;
-            KeyDataEntry entry;
-            for (i = getSlotCnt() - 1; i >= 0; i--) {
-                entry = BT.getEntryFromBytes(getpage(), getSlotOffset(i),
-                        getSlotLength(i), keyType, NodeType.INDEX);
-                if (BT.keyCompare(key, entry.key) >= 0) {
-                    if (i != 0) {
-                        entry = BT.getEntryFromBytes(getpage(), getSlotOffset(i - 1),
-                                getSlotLength(i - 1), keyType, NodeType.INDEX);
-                        pageNo.pid = ((IndexData) entry.data).getData().pid;
-                        return -1; //left sibling
-                    } else {
-                        pageNo.pid = getLeftLink().pid;
-                        return -1; //left sibling
-                    }
-                }
+            int slot = getChildSlot(child);
+            if (slot == -1) {
+                // the left link has only a right sibling
+                pageNo.pid = ((IndexData) getEntry(0).data).getData().pid;
+                return 1;  //right sibling
             }
-            entry = BT.getEntryFromBytes(getpage(), getSlotOffset(0),
-                    getSlotLength(0), keyType, NodeType.INDEX);
-            pageNo.pid = ((IndexData) entry.data).getData().pid;
-            return 1;  //right sibling
+            if (slot == 0)
+                pageNo.pid = getLeftLink().pid;
+            else
+                pageNo.pid = ((IndexData) getEntry(slot - 1).data).getData().pid;
+            return -1; //left sibling
         } catch (Exception e) {
             throw new IndexFullDeleteException(e, "Get sibling failed");
         }
-    } // end of getSibling  
+    } // end of getSibling
 
 
-    /* find the position for old key by findKeyData,
-     *  where the  newKey will be returned .
-     *@newKey It will replace certain key in index page. Input parameter.
-     *@oldKey It helps us to find which key will be replaced by
-     * the newKey. Input parameter.
-     *@return false if no key was found; true if success.
-     *@exception IndexFullDeleteException delete failed
+    /* find the key of the entry pointing to a child.
+     *@param child the page number of the child. Input parameter.
+     *@return the key; the child must not be the left link.
+     *@exception IndexSearchException index search failed
      */
-
-    boolean adjustKey(KeyClass newKey, KeyClass oldKey)
-            throws IndexFullDeleteException {
-
+    KeyClass getKeyOf(PageId child)
+            throws IndexSearchException {
+        int slot = getChildSlot(child);
+        if (slot < 0)
+            throw new IndexSearchException(null, "The left link has no key");
         try {
-
-            KeyDataEntry entry;
-            entry = findKeyData(oldKey);
-            if (entry == null) return false;
-
-            RID rid = deleteKey(entry.key);
-            if (rid == null) throw new IndexFullDeleteException(null, "Rid is null");
-
-            rid = insertKey(newKey, ((IndexData) entry.data).getData());
-            if (rid == null) throw new IndexFullDeleteException(null, "Rid is null");
-
-            return true;
+            return getEntry(slot).key;
         } catch (Exception e) {
-            throw new IndexFullDeleteException(e, "Adjust key failed");
+            throw new IndexSearchException(e, "Get key failed");
         }
-    } // end of adjustKey
+    } // end of getKeyOf
 
 
-    /* find entry for key by B+ tree algorithm,
-     * but entry.key may not equal KeyDataEntry.key returned.
-     *@param key input parameter.
-     *@return return that entry if found; otherwise return null;
-     *@exception  IndexSearchException index search failed
-     *
+    /* replace the key of the entry pointing to a child. The entry keeps
+     * its slot, so it keeps its place among equal keys.
+     *@param child the page number of the child. Input parameter.
+     *@param newKey It will replace the key of the entry. Input parameter.
+     *@exception IndexFullDeleteException delete failed
      */
-    KeyDataEntry findKeyData(KeyClass key)
-            throws IndexSearchException {
-        KeyDataEntry entry;
-
+    void setKeyOf(PageId child, KeyClass newKey)
+            throws IndexFullDeleteException {
         try {
+            int slot = getChildSlot(child);
+            if (slot < 0)
+                throw new IndexFullDeleteException(null, "The left link has no key");
 
-            for (int i = getSlotCnt() - 1; i >= 0; i--) {
-                entry = BT.getEntryFromBytes(getpage(), getSlotOffset(i),
-                        getSlotLength(i), keyType, NodeType.INDEX);
-
-                if (BT.keyCompare(key, entry.key) >= 0) {
-                    return entry;
-                }
-            }
-            return null;
+            deleteSortedRecord(new RID(getCurPage(), slot));
+            if (insertRecordAt(new KeyDataEntry(newKey, child), slot) == null)
+                throw new IndexFullDeleteException(null, "Rid is null");
         } catch (Exception e) {
-            throw new IndexSearchException(e, "finger key data failed");
+            throw new IndexFullDeleteException(e, "Adjust key failed");
         }
-    } // end of findKeyData     
+    } // end of setKeyOf
 
 
-    /* find a key  by B++ algorithm,
-     * but returned key may not equal the key passed in.
-     *@param key input parameter.
-     *@return return that key if found; otherwise return null;
-     *@exception  IndexSearchException index search failed
-     *
+    /* the entry at a slot
      */
-    KeyClass findKey(KeyClass key)
-            throws IndexSearchException {
-        return findKeyData(key).key;
+    private KeyDataEntry getEntry(int slot)
+            throws IOException, KeyNotMatchException, NodeNotMatchException,
+            ConvertException {
+        return BT.getEntryFromBytes(getpage(), getSlotOffset(slot),
+                getSlotLength(slot), keyType, NodeType.INDEX);
     }
 
 
@@ -396,42 +428,34 @@ public class BTIndexPage extends BTSortedPage {
      *@param parentIndexPage the parant of indexPage and this. Input parameter.
      *@param direction -1 if "this" is left sibling of indexPage ;
      *      1 if "this" is right sibling of indexPage. Input parameter.
-     *@param deletedKey the key which was already deleted, and cause
-     *     redistribution. Input parameter.
      *@exception RedistributeException Redistribution failed
      *@return true if redistrbution success. false if we can not redistribute them.
      */
     boolean redistribute(BTIndexPage indexPage, BTIndexPage parentIndexPage,
-                         int direction, KeyClass deletedKey)
+                         int direction)
             throws RedistributeException {
 
         // assertion: indexPage and parentIndexPage are  pinned
         try {
-            boolean st;
             if (direction == -1) { // 'this' is the left sibling of indexPage
-                if ((getSlotLength(getSlotCnt() - 1) + available_space()) >
-                        ((MAX_SPACE - DPFIXED) / 2)) {
+                if (getSlotCnt() == 0 || (getSlotLength(getSlotCnt() - 1) + available_space()) >
+                        ((SystemDefs.JavabasePageSize - DPFIXED) / 2)) {
                     // cannot spare a record for its underflow sibling
                     return false;
                 } else {
-                    // get its sibling's first record's key
-                    RID dummyRid = new RID();
-                    KeyDataEntry firstEntry, lastEntry;
-                    firstEntry = indexPage.getFirst(dummyRid);
-
-                    // get the entry pointing to the right sibling
-
-                    KeyClass splitKey = parentIndexPage.findKey(firstEntry.key);
+                    // get the key of the entry pointing to the right sibling
+                    KeyClass splitKey = parentIndexPage.getKeyOf(indexPage.getCurPage());
 
                     // get the leftmost child pointer of the right sibling
                     PageId leftMostPageId = indexPage.getLeftLink();
 
-                    // insert  <splitKey,leftMostPageId>  to its sibling
-                    indexPage.insertKey(splitKey, leftMostPageId);
+                    // insert  <splitKey,leftMostPageId>  before the first
+                    // entry of its sibling, ahead of any equal keys
+                    if (indexPage.insertKey(splitKey, leftMostPageId, 0) == null)
+                        throw new RedistributeException(null, "insert record failed");
 
                     // get the last record of itself
-                    lastEntry = BT.getEntryFromBytes(getpage(), getSlotOffset(getSlotCnt() - 1),
-                            getSlotLength(getSlotCnt() - 1), keyType, NodeType.INDEX);
+                    KeyDataEntry lastEntry = getEntry(getSlotCnt() - 1);
 
                     // set sibling's leftmostchild to be lastPageId
                     indexPage.setLeftLink(((IndexData) (lastEntry.data)).getData());
@@ -445,37 +469,26 @@ public class BTIndexPage extends BTSortedPage {
                         throw new RedistributeException(null, "Delete record failed");
 
                     // adjust the entry pointing to sibling in its parent
-                    if (deletedKey != null)
-                        st = parentIndexPage.adjustKey(lastEntry.key, deletedKey);
-
-                    else
-                        st = parentIndexPage.adjustKey(lastEntry.key, splitKey);
-                    if (st == false)
-                        throw new RedistributeException(null, "adjust key failed");
+                    parentIndexPage.setKeyOf(indexPage.getCurPage(), lastEntry.key);
                     return true;
                 }
             } else { // 'this' is the right sibling of indexPage
-                if ((getSlotLength(0) + available_space()) > ((MAX_SPACE - DPFIXED) / 2)) {
+                if (getSlotCnt() == 0 || (getSlotLength(0) + available_space()) > ((SystemDefs.JavabasePageSize - DPFIXED) / 2)) {
                     // cannot spare a record for its underflow sibling
                     return false;
                 } else {
                     // get the first record
-                    KeyDataEntry firstEntry;
-                    firstEntry = BT.getEntryFromBytes(getpage(),
-                            getSlotOffset(0),
-                            getSlotLength(0), keyType, NodeType.INDEX);
+                    KeyDataEntry firstEntry = getEntry(0);
 
                     // get its leftmost child pointer
                     PageId leftMostPageId = getLeftLink();
 
-                    // get the entry in its parent pointing to itself
-                    KeyClass splitKey;
-                    splitKey = parentIndexPage.findKey(firstEntry.key);
-
-                    // insert <split, leftMostPageId> to its left sibling
-
-                    indexPage.insertKey(splitKey, leftMostPageId);
+                    // get the key of the entry in its parent pointing to itself
+                    KeyClass splitKey = parentIndexPage.getKeyOf(getCurPage());
 
+                    // append <split, leftMostPageId> to its left sibling
+                    if (indexPage.insertKey(splitKey, leftMostPageId, indexPage.getSlotCnt()) == null)
+                        throw new RedistributeException(null, "insert record failed");
 
                     // set its new leftmostchild
                     setLeftLink(((IndexData) (firstEntry.data)).getData());
@@ -488,8 +501,7 @@ public class BTIndexPage extends BTSortedPage {
                         throw new RedistributeException(null, "delete record failed");
 
                     // adjust the entry pointing to itself in its parent
-                    if (parentIndexPage.adjustKey(firstEntry.key, splitKey) == false)
-                        throw new RedistributeException(null, "adjust key failed");
+                    parentIndexPage.setKeyOf(getCurPage(), firstEntry.key);
                     return true;
                 }
             } //else
@@ -497,5 +509,5 @@ public class BTIndexPage extends BTSortedPage {
         catch (Exception e) {
             throw new RedistributeException(e, "redistribute failed");
         }
-    } // end of redistribute  
+    } // end of redistribute
 };
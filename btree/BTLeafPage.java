@@ -7,9 +7,11 @@
 
 package btree;
 
+import bufmgr.PageExtent;
 import diskmgr.Page;
 import global.PageId;
 import global.RID;
+import global.SystemDefs;
 
 import java.io.IOException;
 
@@ -73,6 +75,23 @@ public class BTLeafPage extends BTSortedPage {
         setType(NodeType.LEAF);
     }
 
+    /**
+     * take a new page from an extent, associate the BTLeafPage instance with
+     * the Page instance, also it sets the type to be NodeType.LEAF.
+     *
+     * @param extent  the extent the page is taken from. Input parameter.
+     * @param keyType either AttrType.attrInteger or AttrType.attrString.
+     *                Input parameter.
+     * @throws IOException            error from the lower layer
+     * @throws ConstructPageException BTLeafPage constructor error
+     */
+    public BTLeafPage(PageExtent extent, int keyType)
+            throws IOException,
+            ConstructPageException {
+        super(extent, keyType);
+        setType(NodeType.LEAF);
+    }
+
 
     /**
      * insertRecord
@@ -221,20 +240,17 @@ public class BTLeafPage extends BTSortedPage {
      *@param parentIndexPage the parant of leafPage and this. Input parameter.
      *@param direction -1 if "this" is left sibling of leafPage ;
      *      1 if "this" is right sibling of leafPage. Input parameter.
-     *@param deletedKey the key which was already deleted, and cause
-     *        redistribution. Input parameter.
      *@exception LeafRedistributeException
      *@return true if redistrbution success. false if we can not redistribute them.
      */
     boolean redistribute(BTLeafPage leafPage, BTIndexPage parentIndexPage,
-                         int direction, KeyClass deletedKey)
+                         int direction)
             throws LeafRedistributeException {
-        boolean st;
         // assertion: leafPage pinned
         try {
             if (direction == -1) { // 'this' is the left sibling of leafPage
-                if ((getSlotLength(getSlotCnt() - 1) + available_space() + 8 /*  2*sizeof(slot) */) >
-                        ((MAX_SPACE - DPFIXED) / 2)) {
+                if (getSlotCnt() == 0 || (getSlotLength(getSlotCnt() - 1) + available_space() + 8 /*  2*sizeof(slot) */) >
+                        ((SystemDefs.JavabasePageSize - DPFIXED) / 2)) {
                     // cannot spare a record for its underflow sibling
                     return false;
                 } else {
@@ -246,11 +262,6 @@ public class BTLeafPage extends BTSortedPage {
                             , getSlotLength(getSlotCnt() - 1), keyType, NodeType.LEAF);
 
 
-                    //get its sibling's first record's key for adjusting parent pointer
-                    RID dummyRid = new RID();
-                    KeyDataEntry firstEntry;
-                    firstEntry = leafPage.getFirst(dummyRid);
-
                     // insert it into its sibling
                     leafPage.insertRecord(lastEntry);
 
@@ -263,17 +274,11 @@ public class BTLeafPage extends BTSortedPage {
 
 
                     // adjust the entry pointing to sibling in its parent
-                    if (deletedKey != null)
-                        st = parentIndexPage.adjustKey(lastEntry.key, deletedKey);
-                    else
-                        st = parentIndexPage.adjustKey(lastEntry.key,
-                                firstEntry.key);
-                    if (st == false)
-                        throw new LeafRedistributeException(null, "adjust key failed");
+                    parentIndexPage.setKeyOf(leafPage.getCurPage(), lastEntry.key);
                     return true;
                 }
             } else { // 'this' is the right sibling of pptr
-                if ((getSlotLength(0) + available_space() + 8) > ((MAX_SPACE - DPFIXED) / 2)) {
+                if (getSlotCnt() == 0 || (getSlotLength(0) + available_space() + 8) > ((SystemDefs.JavabasePageSize - DPFIXED) / 2)) {
                     // cannot spare a record for its underflow sibling
                     return false;
                 } else {
@@ -305,9 +310,7 @@ public class BTLeafPage extends BTSortedPage {
 
 
                     // adjust the entry pointing to itself in its parent
-                    st = parentIndexPage.adjustKey(tmpEntry.key, firstEntry.key);
-                    if (st == false)
-                        throw new LeafRedistributeException(null, "adjust key failed");
+                    parentIndexPage.setKeyOf(getCurPage(), tmpEntry.key);
                     return true;
                 }
             }
@@ -8,6 +8,7 @@
 package btree;
 
 import bigt.Minibase;
+import bufmgr.PageExtent;
 import diskmgr.Page;
 import global.PageId;
 import global.RID;
@@ -74,10 +75,24 @@ public class BTSortedPage extends HFPage {
      */
     public BTSortedPage(int keyType)
             throws ConstructPageException {
+        this(new PageExtent(1), keyType);
+    }
+
+    /**
+     * take a new page from an extent, and associate the SortedPage instance
+     * with the Page instance
+     *
+     * @param extent  input parameter. The extent the page is taken from.
+     * @param keyType input parameter. It specifies the type of key. It can be
+     *                AttrType.attrString or AttrType.attrInteger.
+     * @throws ConstructPageException error for BTSortedPage constructor
+     */
+    public BTSortedPage(PageExtent extent, int keyType)
+            throws ConstructPageException {
         super();
         try {
             Page apage = new Page();
-            PageId pageId = SystemDefs.JavabaseBM.newPage(apage, 1);
+            PageId pageId = extent.newPage(apage);
             Minibase.getInstance().incrementNumberOfIndexPages();
             if (pageId == null)
                 throw new ConstructPageException(null, "construct new page failed");
@@ -166,6 +181,42 @@ public class BTSortedPage extends HFPage {
 
     } // end of insertRecord
 
+    /**
+     * Inserts a record at the given slot of a sorted record page, shifting
+     * the later slots up by one. The caller keeps the keys sorted; unlike
+     * insertRecord, it decides where the record goes among equal keys.
+     *
+     * @param entry the entry to be inserted. Input parameter.
+     * @param slot  the slot the entry gets, from 0 to the number of records.
+     *              Input parameter.
+     * @return its rid where the entry was inserted; null if no space left.
+     * @throws InsertRecException error when insert
+     */
+    protected RID insertRecordAt(KeyDataEntry entry, int slot)
+            throws InsertRecException {
+        RID rid;
+        byte[] record;
+        try {
+            record = BT.getBytesFromEntry(entry);
+            Minibase.getInstance().setMaxKeyEntrySize(record.length);
+            rid = super.insertMap(record);
+            if (rid == null) return null;
+
+            // the record went into the last slot; move it down to 'slot'
+            int i = getSlotCnt() - 1;
+            int ln = getSlotLength(i);
+            int off = getSlotOffset(i);
+            for (; i > slot; i--)
+                setSlot(i, getSlotLength(i - 1), getSlotOffset(i - 1));
+            setSlot(slot, ln, off);
+
+            rid.slotNo = slot;
+            return rid;
+        } catch (Exception e) {
+            throw new InsertRecException(e, "insert record failed");
+        }
+    } // end of insertRecordAt
+
 
     /**
      * Deletes a record from a sorted record page. It also calls
@@ -7,10 +7,14 @@
 
 package btree;
 
+import bufmgr.BufMgr;
 import bufmgr.HashEntryNotFoundException;
 import bufmgr.InvalidFrameNumberException;
+import bufmgr.LogMgr;
+import bufmgr.PageExtent;
 import bufmgr.PageUnpinnedException;
 import bufmgr.ReplacerException;
+import diskmgr.PCounter;
 import diskmgr.Page;
 import global.*;
 import heap.HFPage;
@@ -66,10 +70,35 @@ public class BTreeFile extends IndexFile
     }
 
 
+    /**
+     * Number of pages of an index-page extent, see bufmgr.PageExtent.
+     */
+    public static final int INDEX_EXTENT_PAGES = 8;
+    private static int indexExtentPages = INDEX_EXTENT_PAGES;
+
     private BTreeHeaderPage headerPage;
     private PageId headerPageId;
     private String dbname;
 
+    /**
+     * The I/O counters of the file.
+     */
+    PCounter.Stats io;
+
+    /**
+     * New leaf and index pages are taken from this extent, so that pages
+     * split off one after the other end up next to each other on disk.
+     */
+    private PageExtent extent = new PageExtent(indexExtentPages);
+
+    /**
+     * Sets the number of pages per index extent of B+ tree files opened
+     * from now on; 1 allocates index pages one at a time.
+     */
+    public static void setExtentPages(int pages) {
+        indexExtentPages = pages;
+    }
+
     /**
      * Access method to data member.
      *
@@ -134,6 +163,15 @@ public class BTreeFile extends IndexFile
 
     }
 
+    private void releaseExtent()
+            throws FreePageException {
+        try {
+            extent.release();
+        } catch (Exception e) {
+            throw new FreePageException(e, "BTreeFile.java: releaseExtent() failed");
+        }
+    }
+
     private void delete_file_entry(String filename)
             throws DeleteFileEntryException {
         try {
@@ -144,6 +182,30 @@ public class BTreeFile extends IndexFile
         }
     }
 
+    private void commit(LogMgr log)
+            throws UnpinPageException {
+        try {
+            log.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new UnpinPageException(e, "");
+        }
+    }
+
+    /**
+     * Aborts the transaction of an operation that failed with e, if log
+     * is not null. A failure to abort is added to e.
+     */
+    private static void abort(LogMgr log, Throwable e) {
+        if (log == null)
+            return;
+        try {
+            log.abort();
+        } catch (Exception abortFailed) {
+            e.addSuppressed(abortFailed);
+        }
+    }
+
     private void unpinPage(PageId pageno, boolean dirty)
             throws UnpinPageException {
         try {
@@ -168,18 +230,23 @@ public class BTreeFile extends IndexFile
             throws GetFileEntryException,
             PinPageException,
             ConstructPageException {
+        io = PCounter.file(filename);
+        SystemDefs.JavabaseBM.assignPool(io, BufMgr.INDEX_POOL);
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            headerPageId = get_file_entry(filename);
 
-
-        headerPageId = get_file_entry(filename);
-
-        headerPage = new BTreeHeaderPage(headerPageId);
-        dbname = new String(filename);
-        /*
-         *
-         * - headerPageId is the PageId of this BTreeFile's header page;
-         * - headerPage, headerPageId valid and pinned
-         * - dbname contains a copy of the name of the database
-         */
+            headerPage = new BTreeHeaderPage(headerPageId);
+            dbname = new String(filename);
+            /*
+             *
+             * - headerPageId is the PageId of this BTreeFile's header page;
+             * - headerPage, headerPageId valid and pinned
+             * - dbname contains a copy of the name of the database
+             */
+        } finally {
+            PCounter.exit(outer);
+        }
     }
 
 
@@ -203,26 +270,30 @@ public class BTreeFile extends IndexFile
             ConstructPageException,
             IOException,
             AddFileEntryException {
+        io = PCounter.file(filename);
+        SystemDefs.JavabaseBM.assignPool(io, BufMgr.INDEX_POOL);
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            headerPageId = get_file_entry(filename);
+            if (headerPageId == null) //file not exist
+            {
+                headerPage = new BTreeHeaderPage();
+                headerPageId = headerPage.getPageId();
+                add_file_entry(filename, headerPageId);
+                headerPage.set_magic0(MAGIC0);
+                headerPage.set_rootId(new PageId(INVALID_PAGE));
+                headerPage.set_keyType((short) keytype);
+                headerPage.set_maxKeySize(keysize);
+                headerPage.set_deleteFashion(delete_fashion);
+                headerPage.setType(NodeType.BTHEAD);
+            } else {
+                headerPage = new BTreeHeaderPage(headerPageId);
+            }
 
-
-        headerPageId = get_file_entry(filename);
-        if (headerPageId == null) //file not exist
-        {
-            headerPage = new BTreeHeaderPage();
-            headerPageId = headerPage.getPageId();
-            add_file_entry(filename, headerPageId);
-            headerPage.set_magic0(MAGIC0);
-            headerPage.set_rootId(new PageId(INVALID_PAGE));
-            headerPage.set_keyType((short) keytype);
-            headerPage.set_maxKeySize(keysize);
-            headerPage.set_deleteFashion(delete_fashion);
-            headerPage.setType(NodeType.BTHEAD);
-        } else {
-            headerPage = new BTreeHeaderPage(headerPageId);
+            dbname = new String(filename);
+        } finally {
+            PCounter.exit(outer);
         }
-
-        dbname = new String(filename);
-
     }
 
     /**
@@ -232,13 +303,16 @@ public class BTreeFile extends IndexFile
      * @throws InvalidFrameNumberException error from the lower layer
      * @throws HashEntryNotFoundException  error from the lower layer
      * @throws ReplacerException           error from the lower layer
+     * @throws FreePageException           failed to free unused extent pages
      */
     public void close()
             throws PageUnpinnedException,
             InvalidFrameNumberException,
             HashEntryNotFoundException,
-            ReplacerException {
+            ReplacerException,
+            FreePageException {
         if (headerPage != null) {
+            releaseExtent();
             SystemDefs.JavabaseBM.unpinPage(headerPageId, true);
             headerPage = null;
         }
@@ -263,14 +337,20 @@ public class BTreeFile extends IndexFile
             DeleteFileEntryException,
             ConstructPageException,
             PinPageException {
-        if (headerPage != null) {
-            PageId pgId = headerPage.get_rootId();
-            if (pgId.pid != INVALID_PAGE)
-                _destroyFile(pgId);
-            unpinPage(headerPageId);
-            freePage(headerPageId);
-            delete_file_entry(dbname);
-            headerPage = null;
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            if (headerPage != null) {
+                PageId pgId = headerPage.get_rootId();
+                if (pgId.pid != INVALID_PAGE)
+                    _destroyFile(pgId);
+                releaseExtent();
+                unpinPage(headerPageId);
+                freePage(headerPageId);
+                delete_file_entry(dbname);
+                headerPage = null;
+            }
+        } finally {
+            PCounter.exit(outer);
         }
     }
 
@@ -297,6 +377,9 @@ public class BTreeFile extends IndexFile
                 childId = ((IndexData) (entry.data)).getData();
                 _destroyFile(childId);
             }
+            _destroyFile(new PageId(indexPage.getPrevPage().pid));
+            unpinPage(pageno);
+            freePage(pageno);
         } else { // BTLeafPage
 
             unpinPage(pageno);
@@ -367,148 +450,164 @@ public class BTreeFile extends IndexFile
             LeafDeleteException,
             InsertException,
             IOException {
-        KeyDataEntry newRootEntry;
+        // the changed pages are logged when the outermost operation ends
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log != null)
+            log.begin();
+        boolean failed = false;
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            KeyDataEntry newRootEntry;
 
-        if (BT.getKeyLength(key) > headerPage.get_maxKeySize())
-            throw new KeyTooLongException(null, "");
+            if (BT.getKeyLength(key) > headerPage.get_maxKeySize())
+                throw new KeyTooLongException(null, "");
 
-        if (key instanceof StringKey) {
-            if (headerPage.get_keyType() != AttrType.attrString) {
-                throw new KeyNotMatchException(null, "");
-            }
-        } else if (key instanceof IntegerKey) {
-            if (headerPage.get_keyType() != AttrType.attrInteger) {
+            if (key instanceof StringKey) {
+                if (headerPage.get_keyType() != AttrType.attrString) {
+                    throw new KeyNotMatchException(null, "");
+                }
+            } else if (key instanceof IntegerKey) {
+                if (headerPage.get_keyType() != AttrType.attrInteger) {
+                    throw new KeyNotMatchException(null, "");
+                }
+            } else
                 throw new KeyNotMatchException(null, "");
+
+
+            // TWO CASES:
+            // 1. headerPage.root == INVALID_PAGE:
+            //    - the tree is empty and we have to create a new first page;
+            //    this page will be a leaf page
+            // 2. headerPage.root != INVALID_PAGE:
+            //    - we call _insert() to insert the pair (key, rid)
+
+
+            if (trace != null) {
+                trace.writeBytes("INSERT " + rid.pageNo + " "
+                        + rid.slotNo + " " + key + lineSep);
+                trace.writeBytes("DO" + lineSep);
+                trace.flush();
             }
-        } else
-            throw new KeyNotMatchException(null, "");
 
 
-        // TWO CASES:
-        // 1. headerPage.root == INVALID_PAGE:
-        //    - the tree is empty and we have to create a new first page;
-        //    this page will be a leaf page
-        // 2. headerPage.root != INVALID_PAGE:
-        //    - we call _insert() to insert the pair (key, rid)
+            if (headerPage.get_rootId().pid == INVALID_PAGE) {
+                PageId newRootPageId;
+                BTLeafPage newRootPage;
+                RID dummyrid;
 
+                newRootPage = new BTLeafPage(extent, headerPage.get_keyType());
+                newRootPageId = newRootPage.getCurPage();
 
-        if (trace != null) {
-            trace.writeBytes("INSERT " + rid.pageNo + " "
-                    + rid.slotNo + " " + key + lineSep);
-            trace.writeBytes("DO" + lineSep);
-            trace.flush();
-        }
 
+                if (trace != null) {
+                    trace.writeBytes("NEWROOT " + newRootPageId + lineSep);
+                    trace.flush();
+                }
 
-        if (headerPage.get_rootId().pid == INVALID_PAGE) {
-            PageId newRootPageId;
-            BTLeafPage newRootPage;
-            RID dummyrid;
 
-            newRootPage = new BTLeafPage(headerPage.get_keyType());
-            newRootPageId = newRootPage.getCurPage();
+                newRootPage.setNextPage(new PageId(INVALID_PAGE));
+                newRootPage.setPrevPage(new PageId(INVALID_PAGE));
 
 
-            if (trace != null) {
-                trace.writeBytes("NEWROOT " + newRootPageId + lineSep);
-                trace.flush();
-            }
+                // ASSERTIONS:
+                // - newRootPage, newRootPageId valid and pinned
 
+                newRootPage.insertRecord(key, rid);
 
-            newRootPage.setNextPage(new PageId(INVALID_PAGE));
-            newRootPage.setPrevPage(new PageId(INVALID_PAGE));
+                if (trace != null) {
+                    trace.writeBytes("PUTIN node " + newRootPageId + lineSep);
+                    trace.flush();
+                }
 
+                unpinPage(newRootPageId, true); /* = DIRTY */
+                updateHeader(newRootPageId);
 
-            // ASSERTIONS:
-            // - newRootPage, newRootPageId valid and pinned
+                if (trace != null) {
+                    trace.writeBytes("DONE" + lineSep);
+                    trace.flush();
+                }
 
-            newRootPage.insertRecord(key, rid);
 
-            if (trace != null) {
-                trace.writeBytes("PUTIN node " + newRootPageId + lineSep);
-                trace.flush();
+                return;
             }
 
-            unpinPage(newRootPageId, true); /* = DIRTY */
-            updateHeader(newRootPageId);
+            // ASSERTIONS:
+            // - headerPageId, headerPage valid and pinned
+            // - headerPage.root holds the pageId of the root of the B-tree
+            // - none of the pages of the tree is pinned yet
+
 
             if (trace != null) {
-                trace.writeBytes("DONE" + lineSep);
+                trace.writeBytes("SEARCH" + lineSep);
                 trace.flush();
             }
 
 
-            return;
-        }
-
-        // ASSERTIONS:
-        // - headerPageId, headerPage valid and pinned
-        // - headerPage.root holds the pageId of the root of the B-tree
-        // - none of the pages of the tree is pinned yet
-
-
-        if (trace != null) {
-            trace.writeBytes("SEARCH" + lineSep);
-            trace.flush();
-        }
+            newRootEntry = _insert(key, rid, headerPage.get_rootId());
 
+            // TWO CASES:
+            // - newRootEntry != null: a leaf split propagated up to the root
+            //                            and the root split: the new pageNo is in
+            //                            newChildEntry.data.pageNo
+            // - newRootEntry == null: no new root was created;
+            //                            information on headerpage is still valid
 
-        newRootEntry = _insert(key, rid, headerPage.get_rootId());
+            // ASSERTIONS:
+            // - no page pinned
 
-        // TWO CASES:
-        // - newRootEntry != null: a leaf split propagated up to the root
-        //                            and the root split: the new pageNo is in
-        //                            newChildEntry.data.pageNo
-        // - newRootEntry == null: no new root was created;
-        //                            information on headerpage is still valid
+            if (newRootEntry != null) {
+                BTIndexPage newRootPage;
+                PageId newRootPageId;
+                Object newEntryKey;
 
-        // ASSERTIONS:
-        // - no page pinned
+                // the information about the pair <key, PageId> is
+                // packed in newRootEntry: extract it
 
-        if (newRootEntry != null) {
-            BTIndexPage newRootPage;
-            PageId newRootPageId;
-            Object newEntryKey;
+                newRootPage = new BTIndexPage(extent, headerPage.get_keyType());
+                newRootPageId = newRootPage.getCurPage();
 
-            // the information about the pair <key, PageId> is
-            // packed in newRootEntry: extract it
+                // ASSERTIONS:
+                // - newRootPage, newRootPageId valid and pinned
+                // - newEntryKey, newEntryPage contain the data for the new entry
+                //     which was given up from the level down in the recursion
 
-            newRootPage = new BTIndexPage(headerPage.get_keyType());
-            newRootPageId = newRootPage.getCurPage();
 
-            // ASSERTIONS:
-            // - newRootPage, newRootPageId valid and pinned
-            // - newEntryKey, newEntryPage contain the data for the new entry
-            //     which was given up from the level down in the recursion
+                if (trace != null) {
+                    trace.writeBytes("NEWROOT " + newRootPageId + lineSep);
+                    trace.flush();
+                }
 
 
-            if (trace != null) {
-                trace.writeBytes("NEWROOT " + newRootPageId + lineSep);
-                trace.flush();
-            }
+                newRootPage.insertKey(newRootEntry.key,
+                        ((IndexData) newRootEntry.data).getData());
 
 
-            newRootPage.insertKey(newRootEntry.key,
-                    ((IndexData) newRootEntry.data).getData());
+                // the old root split and is now the left child of the new root
+                newRootPage.setPrevPage(headerPage.get_rootId());
 
+                unpinPage(newRootPageId, true /* = DIRTY */);
 
-            // the old root split and is now the left child of the new root
-            newRootPage.setPrevPage(headerPage.get_rootId());
+                updateHeader(newRootPageId);
 
-            unpinPage(newRootPageId, true /* = DIRTY */);
+            }
 
-            updateHeader(newRootPageId);
 
-        }
+            if (trace != null) {
+                trace.writeBytes("DONE" + lineSep);
+                trace.flush();
+            }
 
 
-        if (trace != null) {
-            trace.writeBytes("DONE" + lineSep);
-            trace.flush();
+            return;
+        } catch (Throwable e) {
+            failed = true;
+            abort(log, e);
+            throw e;
+        } finally {
+            PCounter.exit(outer);
+            if (log != null && !failed)
+                commit(log);
         }
-
-
-        return;
     }
 
 
@@ -584,13 +683,17 @@ public class BTreeFile extends IndexFile
             // the information about the pair <key, PageId> is
             // packed in upEntry
 
+            // the new entry goes right after the entry of the child that
+            // split: entries with equal keys keep the order of their children
+            int upSlot = currentIndexPage.getChildSlot(nextPageId) + 1;
+
             // check whether there can still be entries inserted on that page
             if (currentIndexPage.available_space() >=
                     BT.getKeyDataLength(upEntry.key, NodeType.INDEX)) {
 
                 // no split has occurred
                 currentIndexPage.insertKey(upEntry.key,
-                        ((IndexData) upEntry.data).getData());
+                        ((IndexData) upEntry.data).getData(), upSlot);
 
                 unpinPage(currentIndexPageId, true /* DIRTY */);
 
@@ -610,7 +713,7 @@ public class BTreeFile extends IndexFile
 
             // we have to allocate a new INDEX page and
             // to redistribute the index entries
-            newIndexPage = new BTIndexPage(headerPage.get_keyType());
+            newIndexPage = new BTIndexPage(extent, headerPage.get_keyType());
             newIndexPageId = newIndexPage.getCurPage();
 
 
@@ -668,7 +771,7 @@ public class BTreeFile extends IndexFile
                     newIndexPage.available_space()) {
 
                 newIndexPage.insertKey(undoEntry.key,
-                        ((IndexData) undoEntry.data).getData());
+                        ((IndexData) undoEntry.data).getData(), 0);
 
                 currentIndexPage.deleteSortedRecord
                         (new RID(currentIndexPage.getCurPage(),
@@ -680,15 +783,14 @@ public class BTreeFile extends IndexFile
             // will be inserted
             // on the newly allocated or on the old index page
 
-            tmpEntry = newIndexPage.getFirst(firstRid);
-
-            if (BT.keyCompare(upEntry.key, tmpEntry.key) >= 0) {
+            if (upSlot > currentIndexPage.getSlotCnt()) {
                 // the new data entry belongs on the new index page
                 newIndexPage.insertKey(upEntry.key,
-                        ((IndexData) upEntry.data).getData());
+                        ((IndexData) upEntry.data).getData(),
+                        upSlot - currentIndexPage.getSlotCnt());
             } else {
                 currentIndexPage.insertKey(upEntry.key,
-                        ((IndexData) upEntry.data).getData());
+                        ((IndexData) upEntry.data).getData(), upSlot);
 
                 int i = (int) currentIndexPage.getSlotCnt() - 1;
                 tmpEntry =
@@ -698,7 +800,7 @@ public class BTreeFile extends IndexFile
                                 headerPage.get_keyType(), NodeType.INDEX);
 
                 newIndexPage.insertKey(tmpEntry.key,
-                        ((IndexData) tmpEntry.data).getData());
+                        ((IndexData) tmpEntry.data).getData(), 0);
 
                 currentIndexPage.deleteSortedRecord
                         (new RID(currentIndexPage.getCurPage(), i));
@@ -774,7 +876,7 @@ public class BTreeFile extends IndexFile
             PageId newLeafPageId;
             // we have to allocate a new LEAF page and
             // to redistribute the data entries entries
-            newLeafPage = new BTLeafPage(headerPage.get_keyType());
+            newLeafPage = new BTLeafPage(extent, headerPage.get_keyType());
             newLeafPageId = newLeafPage.getCurPage();
 
             newLeafPage.setNextPage(currentLeafPage.getNextPage());
@@ -940,12 +1042,27 @@ public class BTreeFile extends IndexFile
             DeleteRecException,
             IndexSearchException,
             IOException {
-        if (headerPage.get_deleteFashion() == DeleteFashion.FULL_DELETE)
-            return FullDelete(key, rid);
-        else if (headerPage.get_deleteFashion() == DeleteFashion.NAIVE_DELETE)
-            return NaiveDelete(key, rid);
-        else
-            throw new DeleteFashionException(null, "");
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log != null)
+            log.begin();
+        boolean failed = false;
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            if (headerPage.get_deleteFashion() == DeleteFashion.FULL_DELETE)
+                return FullDelete(key, rid);
+            else if (headerPage.get_deleteFashion() == DeleteFashion.NAIVE_DELETE)
+                return NaiveDelete(key, rid);
+            else
+                throw new DeleteFashionException(null, "");
+        } catch (Throwable e) {
+            failed = true;
+            abort(log, e);
+            throw e;
+        } finally {
+            PCounter.exit(outer);
+            if (log != null && !failed)
+                commit(log);
+        }
     }
 
 
@@ -1249,10 +1366,10 @@ public class BTreeFile extends IndexFile
 
     }
 
-    private KeyClass _Delete(KeyClass key,
-                             RID rid,
-                             PageId currentPageId,
-                             PageId parentPageId)
+    private PageId _Delete(KeyClass key,
+                           RID rid,
+                           PageId currentPageId,
+                           PageId parentPageId)
             throws IndexInsertRecException,
             RedistributeException,
             IndexSearchException,
@@ -1292,12 +1409,12 @@ public class BTreeFile extends IndexFile
             leafPage = new BTLeafPage(page, headerPage.get_keyType());
 
 
-            KeyClass deletedKey = key;
             tmpEntry = leafPage.getFirst(curRid);
 
             RID delRid;
             // for all records with key equal to 'key', delete it if its rid = 'rid'
-            while ((tmpEntry != null) && (BT.keyCompare(key, tmpEntry.key) >= 0)) {
+            // (an empty leaf may be followed by more of them)
+            while ((tmpEntry == null) || (BT.keyCompare(key, tmpEntry.key) >= 0)) {
                 // WriteUpdateLog is done in the btleafpage level - to log the
                 // deletion of the rid.
 
@@ -1311,8 +1428,12 @@ public class BTreeFile extends IndexFile
                     }
 
                     PageId leafPage_no = leafPage.getCurPage();
-                    if ((4 + leafPage.available_space()) <=
-                            ((MAX_SPACE - HFPage.DPFIXED) / 2)) {
+                    if (leafPage_no.pid != currentPageId.pid) {
+                        // found on a later leaf, whose parent we do not know
+                        unpinPage(leafPage_no, true /* = DIRTY */);
+                        return null;
+                    } else if ((4 + leafPage.available_space()) <=
+                            ((SystemDefs.JavabasePageSize - HFPage.DPFIXED) / 2)) {
                         // the leaf page is at least half full after the deletion
                         unpinPage(leafPage.getCurPage(), true /* = DIRTY */);
                         return null;
@@ -1345,7 +1466,7 @@ public class BTreeFile extends IndexFile
                         PageId siblingPageId = new PageId();
                         BTLeafPage siblingPage;
                         int direction;
-                        direction = parentPage.getSibling(key, siblingPageId);
+                        direction = parentPage.getSibling(currentPageId, siblingPageId);
 
 
                         if (direction == 0) {
@@ -1363,7 +1484,7 @@ public class BTreeFile extends IndexFile
 
 
                         if (siblingPage.redistribute(leafPage, parentPage,
-                                direction, deletedKey)) {
+                                direction)) {
                             // the redistribution has been done successfully
 
                             if (trace != null) {
@@ -1378,19 +1499,10 @@ public class BTreeFile extends IndexFile
                             unpinPage(parentPageId, true);
                             return null;
                         } else if ((siblingPage.available_space() + 8 /* 2*sizeof(slot) */) >=
-                                ((MAX_SPACE - HFPage.DPFIXED)
+                                ((SystemDefs.JavabasePageSize - HFPage.DPFIXED)
                                         - leafPage.available_space())) {
 
                             // we can merge these two children
-                            // get old child entry in the parent first
-                            KeyDataEntry oldChildEntry;
-                            if (direction == -1)
-                                oldChildEntry = leafPage.getFirst(curRid);
-                                // get a copy
-                            else {
-                                oldChildEntry = siblingPage.getFirst(curRid);
-                            }
-
                             // merge the two children
                             BTLeafPage leftChild, rightChild;
                             if (direction == -1) {
@@ -1432,9 +1544,11 @@ public class BTreeFile extends IndexFile
 
                             unpinPage(parentPageId, true);
 
-                            freePage(rightChild.getCurPage());
+                            // the parent deletes the entry pointing to the right child
+                            PageId oldChildId = rightChild.getCurPage();
+                            freePage(oldChildId);
 
-                            return oldChildEntry.key;
+                            return oldChildId;
                         } else {
                             // It's a very rare case when we can do neither
                             // redistribution nor merge.
@@ -1477,31 +1591,28 @@ public class BTreeFile extends IndexFile
         if (sortPage.getType() == NodeType.INDEX) {
             PageId childPageId;
             BTIndexPage indexPage = new BTIndexPage(page, headerPage.get_keyType());
-            childPageId = indexPage.getPageNoByKey(key);
+            // the leftmost child, as equal keys may span several children
+            childPageId = indexPage.getLeftmostPageNoByKey(key);
 
             // now unpin the page, recurse and then pin it again
             unpinPage(currentPageId);
 
-            KeyClass oldChildKey = _Delete(key, rid, childPageId, currentPageId);
+            PageId oldChildId = _Delete(key, rid, childPageId, currentPageId);
 
             // two cases:
-            // - oldChildKey == null: one level lower no merge has occurred:
-            // - oldChildKey != null: one of the children has been deleted and
-            //                     oldChildEntry is the entry to be deleted.
+            // - oldChildId == null: one level lower no merge has occurred:
+            // - oldChildId != null: one of the children has been deleted and
+            //                     the entry pointing to it is to be deleted.
 
             indexPage = new BTIndexPage(pinPage(currentPageId), headerPage.get_keyType());
 
-            if (oldChildKey == null) {
+            if (oldChildId == null) {
                 unpinPage(indexPage.getCurPage(), true);
                 return null;
             }
 
-            // delete the oldChildKey
-
-            // save possible old child entry before deletion
-            PageId dummyPageId;
-            KeyClass deletedKey = key;
-            RID curRid = indexPage.deleteKey(oldChildKey);
+            // delete the entry of the old child
+            RID curRid = indexPage.deleteChild(oldChildId);
 
             if (indexPage.getCurPage().pid == headerPage.get_rootId().pid) {
                 // the index page is the root
@@ -1531,7 +1642,7 @@ public class BTreeFile extends IndexFile
 
             // now we know the current index page is not a root
             if ((4 /*sizeof slot*/ + indexPage.available_space()) <=
-                    ((MAX_SPACE - HFPage.DPFIXED) / 2)) {
+                    ((SystemDefs.JavabasePageSize - HFPage.DPFIXED) / 2)) {
                 // the index page is at least half full after the deletion
                 unpinPage(currentPageId, true);
 
@@ -1545,7 +1656,7 @@ public class BTreeFile extends IndexFile
                 PageId siblingPageId = new PageId();
                 BTIndexPage siblingPage;
                 int direction;
-                direction = parentPage.getSibling(key,
+                direction = parentPage.getSibling(currentPageId,
                         siblingPageId);
                 if (direction == 0) {
                     // there is no sibling. nothing can be done.
@@ -1562,15 +1673,13 @@ public class BTreeFile extends IndexFile
 
                 int pushKeySize = 0;
                 if (direction == 1) {
-                    pushKeySize = BT.getKeyLength
-                            (parentPage.findKey(siblingPage.getFirst(new RID()).key));
+                    pushKeySize = BT.getKeyLength(parentPage.getKeyOf(siblingPageId));
                 } else if (direction == -1) {
-                    pushKeySize = BT.getKeyLength
-                            (parentPage.findKey(indexPage.getFirst(new RID()).key));
+                    pushKeySize = BT.getKeyLength(parentPage.getKeyOf(currentPageId));
                 }
 
                 if (siblingPage.redistribute(indexPage, parentPage,
-                        direction, deletedKey)) {
+                        direction)) {
                     // the redistribution has been done successfully
 
 
@@ -1591,21 +1700,13 @@ public class BTreeFile extends IndexFile
 
                     return null;
                 } else if (siblingPage.available_space() + 4 /*slot size*/ >=
-                        ((MAX_SPACE - HFPage.DPFIXED) -
+                        ((SystemDefs.JavabasePageSize - HFPage.DPFIXED) -
                                 (indexPage.available_space() + 4 /*slot size*/)
                                 + pushKeySize + 4 /*slot size*/ + 4 /* pageId size*/)) {
 
 
                     // we can merge these two children
 
-                    // get old child entry in the parent first
-                    KeyClass oldChildEntry;
-                    if (direction == -1) {
-                        oldChildEntry = indexPage.getFirst(curRid).key;
-                    } else {
-                        oldChildEntry = siblingPage.getFirst(curRid).key;
-                    }
-
                     // merge the two children
                     BTIndexPage leftChild, rightChild;
                     if (direction == -1) {
@@ -1628,7 +1729,7 @@ public class BTreeFile extends IndexFile
                     RID firstRid = new RID(), insertRid;
                     PageId curPageId;
 
-                    leftChild.insertKey(parentPage.findKey(oldChildEntry),
+                    leftChild.insertKey(parentPage.getKeyOf(rightChild.getCurPage()),
                             rightChild.getLeftLink());
 
                     // move all entries from rightChild to leftChild
@@ -1644,9 +1745,11 @@ public class BTreeFile extends IndexFile
 
                     unpinPage(parentPageId, true);
 
-                    freePage(rightChild.getCurPage());
+                    // the parent deletes the entry pointing to the right child
+                    oldChildId = rightChild.getCurPage();
+                    freePage(oldChildId);
 
-                    return oldChildEntry;  // ???
+                    return oldChildId;
 
                 } else {
                     // It's a very rare case when we can do neither
@@ -1698,24 +1801,29 @@ public class BTreeFile extends IndexFile
             ConstructPageException,
             PinPageException,
             UnpinPageException {
-        BTFileScan scan = new BTFileScan();
-        if (headerPage.get_rootId().pid == INVALID_PAGE) {
-            scan.leafPage = null;
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            BTFileScan scan = new BTFileScan();
+            if (headerPage.get_rootId().pid == INVALID_PAGE) {
+                scan.leafPage = null;
+                return scan;
+            }
+
+            scan.treeFilename = dbname;
+            scan.endkey = hi_key;
+            scan.didfirst = false;
+            scan.deletedcurrent = false;
+            scan.curRid = new RID();
+            scan.keyType = headerPage.get_keyType();
+            scan.maxKeysize = headerPage.get_maxKeySize();
+            scan.bfile = this;
+
+            //this sets up scan at the starting position, ready for iteration
+            scan.leafPage = findRunStart(lo_key, scan.curRid);
             return scan;
+        } finally {
+            PCounter.exit(outer);
         }
-
-        scan.treeFilename = dbname;
-        scan.endkey = hi_key;
-        scan.didfirst = false;
-        scan.deletedcurrent = false;
-        scan.curRid = new RID();
-        scan.keyType = headerPage.get_keyType();
-        scan.maxKeysize = headerPage.get_maxKeySize();
-        scan.bfile = this;
-
-        //this sets up scan at the starting position, ready for iteration
-        scan.leafPage = findRunStart(lo_key, scan.curRid);
-        return scan;
     }
 
     void trace_children(PageId id)
@@ -0,0 +1,103 @@
+package bufmgr;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive replacement cache (Megiddo and Modha). Pages referenced once
+ * since they were read in are on the LRU list T1, pages referenced again
+ * on the LRU list T2. The ids of pages replaced from T1 and T2 are
+ * remembered on B1 and B2. A page read in while on B1 shows that T1 is
+ * too short, and one on B2 that T2 is too short; the target size p of
+ * T1 moves accordingly, and the victim comes from T1 while T1 is longer
+ * than p. A scan fills T1 only and cannot replace the pages on T2 until
+ * the misses say so.
+ */
+class ARC extends PageReplacer {
+
+    private FrameList t1;
+    private FrameList t2;
+    private LinkedHashSet<Integer> b1;
+    private LinkedHashSet<Integer> b2;
+
+    /**
+     * Target size of T1.
+     */
+    private int p;
+
+    public ARC(BufMgr mgrArg) {
+        super(mgrArg);
+    }
+
+    protected void setBufferManager(BufMgr mgrArg) {
+        super.setBufferManager(mgrArg);
+
+        int numBuffers = mgr.getNumBuffers();
+        t1 = new FrameList(numBuffers);
+        t2 = new FrameList(numBuffers);
+        b1 = new LinkedHashSet<Integer>();
+        b2 = new LinkedHashSet<Integer>();
+        p = 0;
+    }
+
+    protected void admit(int frameNo, int pid) {
+        int numBuffers = mgr.getNumBuffers();
+
+        if (b1.contains(pid)) {
+            int delta = (b1.size() >= b2.size()) ? 1 : b2.size() / b1.size();
+            p = Math.min(numBuffers, p + delta);
+            b1.remove(pid);
+            t2.addLast(frameNo);
+        } else if (b2.contains(pid)) {
+            int delta = (b2.size() >= b1.size()) ? 1 : b1.size() / b2.size();
+            p = Math.max(0, p - delta);
+            b2.remove(pid);
+            t2.addLast(frameNo);
+        } else {
+            t1.addLast(frameNo);
+        }
+    }
+
+    protected void forget(int frameNo) {
+        t1.remove(frameNo);
+        t2.remove(frameNo);
+    }
+
+    protected void hit(int frameNo) {
+        t1.remove(frameNo);
+        t2.moveToLast(frameNo);
+    }
+
+    protected int victim() throws BufMgrException {
+        boolean fromT1 = t1.size() > 0 && t1.size() > p;
+        int frameNo = claimFirst(fromT1 ? t1 : t2);
+        if (frameNo < 0) {
+            fromT1 = !fromT1;
+            frameNo = claimFirst(fromT1 ? t1 : t2);
+            if (frameNo < 0)
+                return -1;
+        }
+
+        // Keep |T1| + |B1| and the whole directory within c and 2c pages.
+        int numBuffers = mgr.getNumBuffers();
+        (fromT1 ? b1 : b2).add(pages[frameNo]);
+        trim(b1, Math.max(0, numBuffers - t1.size()));
+        trim(b2, Math.max(0, 2 * numBuffers - t1.size() - t2.size() - b1.size()));
+        return frameNo;
+    }
+
+    int victimHand() {
+        int frameNo = (t1.size() > p) ? t1.first() : t2.first();
+        return (frameNo < 0) ? 0 : frameNo;
+    }
+
+    public String name() {
+        return "ARC";
+    }
+
+    public void info() {
+        super.info();
+
+        System.out.println("ARC REPLACEMENT p " + p + " T1 " + t1.size() + " T2 " + t2.size()
+                + " B1 " + b1.size() + " B2 " + b2.size());
+    }
+}
@@ -0,0 +1,107 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+/**
+ * A buffer access strategy for one bulk operation, such as a sequential
+ * scan or the writing of sort runs. The pages the operation brings into
+ * the pool go to a small ring of frames that belongs to the operation,
+ * and once the ring is full each new page replaces the oldest page of
+ * the ring instead of a page chosen by the replacer. A full scan then
+ * takes only the frames of its ring, and the rest of the pool keeps
+ * the pages that are used over and over, such as B+ tree pages.
+ * <p>
+ * Only pages that miss go to the ring; a page that is already in the
+ * pool stays where it is. A ring frame is given up if another operation
+ * pinned it or put another page into it. A dirty page is written when
+ * its ring frame is reused, as with any other victim.
+ * <p>
+ * A strategy is used by one operation; pass it to BufMgr.pinPage and
+ * BufMgr.newPage. The read-ahead thread may add pages to its ring
+ * meanwhile, see ReadAhead. BufMgr.setQuota gives a thread a
+ * strategy that its other pins use, as a quota for one query.
+ */
+public class BufAccessStrategy implements GlobalConst {
+
+    /**
+     * Default number of frames in a ring.
+     */
+    public static final int RING_FRAMES = 16;
+
+    private static int ringFrames = RING_FRAMES;
+
+    private final int[] frames;
+    private final int[] pages;
+    private int next;
+
+    /**
+     * Creates a strategy with a ring of the given number of frames.
+     */
+    public BufAccessStrategy(int size) {
+        frames = new int[size];
+        pages = new int[size];
+        for (int i = 0; i < size; i++) {
+            frames[i] = -1;
+            pages[i] = INVALID_PAGE;
+        }
+    }
+
+    /**
+     * Returns a strategy for a bulk read or write, or null when rings
+     * are turned off.
+     */
+    public static BufAccessStrategy bulk() {
+        return (ringFrames > 0) ? new BufAccessStrategy(ringFrames) : null;
+    }
+
+    /**
+     * Sets the number of frames of the rings made by bulk(); 0 turns
+     * rings off, so that bulk operations use the whole pool.
+     */
+    public static void setRingFrames(int frames) {
+        ringFrames = frames;
+    }
+
+    public static int getRingFrames() {
+        return ringFrames;
+    }
+
+    /**
+     * Returns the number of frames of the ring.
+     */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * Takes the oldest frame of the ring for a new page, if it still
+     * holds the page the operation put there (or no page) and is not
+     * pinned.
+     *
+     * @return the frame, pinned and empty; -1 if the replacer has to
+     * choose one.
+     * @throws BufMgrException the page in the frame could not be written.
+     */
+    synchronized int victim(BufMgr mgr) throws BufMgrException {
+        int frameNo = frames[next];
+        if (frameNo < 0 || frameNo >= mgr.getNumBuffers())
+            return -1;
+
+        int pid = (mgr.frameTable())[frameNo].pageNo.pid;
+        if ((pid != pages[next] && pid != INVALID_PAGE) || !mgr.claimFrame(frameNo)) {
+            frames[next] = -1;
+            return -1;
+        }
+        return frameNo;
+    }
+
+    /**
+     * Puts the frame that now holds the page into the ring, in place of
+     * the oldest one.
+     */
+    synchronized void add(int frameNo, int pid) {
+        frames[next] = frameNo;
+        pages[next] = pid;
+        next = (next + 1) % frames.length;
+    }
+}
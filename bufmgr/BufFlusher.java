@@ -0,0 +1,90 @@
+/* File BufFlusher.java */
+
+package bufmgr;
+
+/**
+ * A background thread that writes dirty, unpinned buffer frames ahead
+ * of eviction. Whenever fewer than a target share of the frames are
+ * clean, it asks the buffer manager for a batch of dirty frames and
+ * writes them, adjacent pages as one sequential write. A pinPage miss
+ * that still has to write its victim wakes the thread up early. A
+ * write that fails stops the thread, see BufMgr.getFlushError().
+ */
+class BufFlusher extends Thread {
+
+    /**
+     * How long the thread sleeps between two rounds, in milliseconds.
+     */
+    static final long FLUSH_INTERVAL = 5;
+
+    private BufMgr mgr;
+
+    /**
+     * Share of the frames (0 to 1) that should be clean.
+     */
+    private double cleanShare;
+
+    private boolean stopped = false;
+    private boolean signaled = false;
+
+    BufFlusher(BufMgr mgr, double cleanShare) {
+        super("BufFlusher");
+        this.mgr = mgr;
+        this.cleanShare = cleanShare;
+        setDaemon(true);
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (!signaled && !stopped) {
+                    try {
+                        wait(FLUSH_INTERVAL);
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                }
+                signaled = false;
+                if (stopped)
+                    return;
+            }
+
+            // Keep going while there is work, so that a burst of dirty
+            // frames is written out without waiting for the next round.
+            int written;
+            while ((written = mgr.flushAhead(cleanShare)) > 0) {
+                synchronized (this) {
+                    if (stopped)
+                        return;
+                }
+            }
+            // a write failed: leave the pages to eviction, which reports
+            // the error to the thread that needs the frame
+            if (written < 0)
+                return;
+        }
+    }
+
+    /**
+     * Starts a round now instead of at the end of the interval.
+     */
+    synchronized void wakeUp() {
+        signaled = true;
+        notify();
+    }
+
+    /**
+     * Stops the thread and waits until it is done with its current batch.
+     */
+    void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            notify();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
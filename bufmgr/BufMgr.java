@@ -5,152 +5,123 @@ package bufmgr;
 import diskmgr.DiskMgrException;
 import diskmgr.FileIOException;
 import diskmgr.InvalidPageNumberException;
+import diskmgr.PCounter;
 import diskmgr.Page;
+import global.Convert;
 import global.GlobalConst;
 import global.PageId;
 import global.SystemDefs;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
- * A frame description class. It describes each page in the buffer
- * pool, the page number in the file, whether it is dirty or not,
- * its pin count, and the pin count change when pinning or unpinning
- * a page.
+ * A buffer hashtable to keep track of pages in the buffer pool.
+ * It inserts, retrieves and removes pages from the hash table.
+ * <p>
+ * The table maps page numbers to frame numbers with open addressing
+ * and linear probing over two int arrays. It is sized from the number
+ * of frames it is expected to hold and doubles if it gets more than
+ * half full; otherwise nothing is allocated on lookup, insert or
+ * remove. The table is not synchronized; BufMgr stripes the page
+ * table over several of them, each guarded by its own lock. A removed entry is filled by
+ * shifting the following entries of its probe sequence back, so no
+ * deleted markers are left behind.
  */
-class FrameDesc implements GlobalConst {
+class BufHashTbl implements GlobalConst {
 
     /**
-     * The page within file, or INVALID_PAGE if the frame is empty.
+     * Marks an empty slot; no page has this number.
      */
-    public PageId pageNo;
+    private static final int EMPTY = INVALID_PAGE;
 
     /**
-     * the dirty bit, 1 (TRUE) stands for this frame is altered,
-     * 0 (FALSE) for clean frames.
+     * Page number held in each slot, EMPTY if none.
      */
-    public boolean dirty;
+    private int[] keys;
 
     /**
-     * The pin count for the page in this frame
+     * Frame number of the page held in each slot.
      */
-    public int pin_cnt;
+    private int[] frames;
 
     /**
-     * Creates a FrameDesc object, initialize pageNo, dirty and
-     * pin_count.
+     * Number of slots - 1; the number of slots is a power of two.
      */
-    public FrameDesc() {
-
-        pageNo = new PageId();
-        pageNo.pid = INVALID_PAGE;
-        dirty = false;
-        pin_cnt = 0;
-
-    }
-
+    private int mask;
 
     /**
-     * Returns the pin count of a certain frame page.
-     *
-     * @return the pin count number.
+     * 32 - log2(number of slots), for the multiplicative hash.
      */
-    public int pin_count() {
-        return (pin_cnt);
-    }
+    private int shift;
 
     /**
-     * Increments the pin count of a certain frame page when the
-     * page is pinned.
-     *
-     * @return the incremented pin count.
+     * Number of pages in the table.
      */
-    public int pin() {
-        return (++pin_cnt);
-    }
+    private int count;
+
 
     /**
-     * Decrements the pin count of a frame when the page is
-     * unpinned.  If the pin count is equal to or less than
-     * zero, the pin count will be zero.
+     * Returns the slot a page number hashes to, value between 0 and
+     * the number of slots - 1 (Fibonacci hashing, so that runs of
+     * adjacent page numbers are spread over the table).
      *
-     * @return the decremented pin count.
+     * @param pid the page number for the page in file.
+     * @return the slot number in the hash table.
      */
-    public int unpin() {
-
-        pin_cnt = (pin_cnt <= 0) ? 0 : pin_cnt - 1;
-
-        return (pin_cnt);
+    private int hash(int pid) {
+        return (pid * 0x9E3779B9) >>> shift;
     }
-}
-
-
-// *****************************************************
-
-/**
- * A buffer hashtable entry description class. It describes
- * each entry for the buffer hash table, the page number and
- * frame number for that page, the pointer points to the next
- * hash table entry.
- */
-class BufHTEntry {
-    /**
-     * The next entry in this hashtable bucket.
-     */
-    public BufHTEntry next;
-
-    /**
-     * This page number.
-     */
-    public PageId pageNo = new PageId();
-
-    /**
-     * The frame we are stored in.
-     */
-    public int frameNo;
-}
-
-
-// *****************************************************
-
-/**
- * A buffer hashtable to keep track of pages in the buffer pool.
- * It inserts, retrieves and removes pages from the h ash table.
- */
-class BufHashTbl implements GlobalConst {
-
-
-    /**
-     * Hash Table size, small number for debugging.
-     */
-    private static final int HTSIZE = 20;
 
 
     /**
-     * Each slot holds a linked list of BufHTEntrys, NULL means
-     * none.
+     * Creates a buffer hash table object.
+     *
+     * @param numbufs number of frames in the buffer pool.
      */
-    private BufHTEntry ht[] = new BufHTEntry[HTSIZE];
+    public BufHashTbl(int numbufs) {
+        int size = 2;
+        while (size < 2 * numbufs)
+            size <<= 1;
 
+        resize(size);
+    }
 
     /**
-     * Returns the number of hash bucket used, value between 0 and HTSIZE-1
-     *
-     * @param pageNo the page number for the page in file.
-     * @return the bucket number in the hash table.
+     * Allocates size empty slots.
      */
-    private int hash(PageId pageNo) {
-        return (pageNo.pid % HTSIZE);
+    private void resize(int size) {
+        keys = new int[size];
+        frames = new int[size];
+        mask = size - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(size);
+        clearHashTable();
     }
 
-
     /**
-     * Creates a buffer hash table object.
+     * Doubles the number of slots and inserts the pages again.
      */
-    public BufHashTbl() {
-        for (int i = 0; i < HTSIZE; i++)
-            ht[i] = null;
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldFrames = frames;
+
+        resize(2 * keys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = hash(oldKeys[i]);
+                while (keys[index] != EMPTY)
+                    index = (index + 1) & mask;
+                keys[index] = oldKeys[i];
+                frames[index] = oldFrames[i];
+                count++;
+            }
+        }
     }
 
 
@@ -164,14 +135,21 @@ class BufHashTbl implements GlobalConst {
      */
     public boolean insert(PageId pageNo, int frameNo) {
 
-        BufHTEntry ent = new BufHTEntry();
-        int index = hash(pageNo);
+        int pid = pageNo.pid;
+        int index = hash(pid);
 
-        ent.pageNo.pid = pageNo.pid;
-        ent.frameNo = frameNo;
+        while (keys[index] != EMPTY && keys[index] != pid)
+            index = (index + 1) & mask;
 
-        ent.next = ht[index];    // insert this page at the top
-        ht[index] = ent;
+        if (keys[index] == EMPTY) {
+            if (2 * (count + 1) > keys.length) {
+                grow();
+                return insert(pageNo, frameNo);
+            }
+            count++;
+        }
+        keys[index] = pid;
+        frames[index] = frameNo;
 
         return true;
     }
@@ -185,14 +163,13 @@ class BufHashTbl implements GlobalConst {
      */
     public int lookup(PageId pageNo) {
 
-        BufHTEntry ent;
-        if (pageNo.pid == INVALID_PAGE)
+        int pid = pageNo.pid;
+        if (pid == INVALID_PAGE)
             return INVALID_PAGE;
 
-        for (ent = ht[hash(pageNo)]; ent != null; ent = ent.next) {
-            if (ent.pageNo.pid == pageNo.pid) {
-                return (ent.frameNo);
-            }
+        for (int index = hash(pid); keys[index] != EMPTY; index = (index + 1) & mask) {
+            if (keys[index] == pid)
+                return frames[index];
         }
 
         return (INVALID_PAGE);
@@ -206,32 +183,35 @@ class BufHashTbl implements GlobalConst {
      */
     public boolean remove(PageId pageNo) {
 
-        BufHTEntry cur, prev = null;
+        int pid = pageNo.pid;
 
         // Allow INVALID_PAGE to be removed all they want.
-        if (pageNo.pid == INVALID_PAGE)
+        if (pid == INVALID_PAGE)
             return true;
 
-        int indx = hash(pageNo);
-        for (cur = ht[indx]; cur != null; cur = cur.next) {
+        int index = hash(pid);
+        while (keys[index] != pid) {
+            if (keys[index] == EMPTY) {
+                System.err.println("ERROR: Page " + pid
+                        + " was not found in hashtable.\n");
 
-            if (cur.pageNo.pid == pageNo.pid)
-                break;
-            prev = cur;
+                return false;
+            }
+            index = (index + 1) & mask;
         }
 
-        if (cur != null) {
-            if (prev != null)
-                prev.next = cur.next;
-            else
-                ht[indx] = cur.next;
-
-        } else {
-            System.err.println("ERROR: Page " + pageNo.pid
-                    + " was not found in hashtable.\n");
-
-            return false;
+        // Shift back the entries that probed past the freed slot.
+        int hole = index;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                frames[hole] = frames[next];
+                hole = next;
+            }
         }
+        keys[hole] = EMPTY;
+        count--;
 
         return true;
 
@@ -241,30 +221,20 @@ class BufHashTbl implements GlobalConst {
      * Show hashtable contents.
      */
     public void display() {
-        BufHTEntry cur;
 
         System.out.println("HASH Table contents :FrameNo[PageNo]");
 
-        for (int i = 0; i < HTSIZE; i++) {
-            //   System.out.println ( "\nindex: " + i + "-" );
-            if (ht[i] != null) {
-
-                for (cur = ht[i]; cur != null; cur = cur.next) {
-                    System.out.println(cur.frameNo + "[" + cur.pageNo.pid + "]-");
-                }
-                System.out.println("\t\t");
-
-            } else {
-                System.out.println("NONE\t");
-            }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY)
+                System.out.println(frames[i] + "[" + keys[i] + "]-");
         }
         System.out.println("");
 
     }
 
     public void clearHashTable() {
-        for (int i = 0; i < HTSIZE; i++)
-            ht[i] = null;
+        Arrays.fill(keys, EMPTY);
+        count = 0;
     }
 
 }
@@ -275,9 +245,19 @@ class BufHashTbl implements GlobalConst {
  * A clock algorithm for buffer pool replacement policy.
  * It picks up the frame in the buffer pool to be replaced.
  * This is the default replacement policy.
+ * <p>
+ * The clock hand is an atomic counter. Several threads can look for
+ * victims at once without taking a lock, and each gets its own frame
+ * from BufMgr.claimFrame.
  */
 class Clock extends Replacer {
 
+    /**
+     * Counts the frames the hand has passed; the hand is at
+     * hand mod numBuffers.
+     */
+    private final AtomicInteger hand = new AtomicInteger(-1);
+
     /**
      * Creates a clock object.
      */
@@ -297,37 +277,35 @@ class Clock extends Replacer {
      */
     public int pick_victim()
             throws BufferPoolExceededException,
-            PagePinnedException {
-        int num = 0;
+            PagePinnedException,
+            BufMgrException {
         int numBuffers = mgr.getNumBuffers();
+        FrameDesc[] frames = mgr.frameTable();
 
-        head = (head + 1) % numBuffers;
-        while (state_bit[head].state != Available) {
-            if (state_bit[head].state == Referenced)
-                state_bit[head].state = Available;
+        for (int num = 0; num <= 2 * numBuffers; num++) {
+            int frame = Math.floorMod(hand.incrementAndGet(), numBuffers);
 
-            if (num == 2 * numBuffers) {
-
-                throw new BufferPoolExceededException(null, "BUFMGR: BUFFER_EXCEEDED.");
+            if (frames[frame].pin_count() != 0)
+                continue;
 
+            // Referenced frames get a second chance.
+            if (state_bit[frame].state != Available) {
+                state_bit[frame].state = Available;
+                continue;
             }
-            ++num;
-            head = (head + 1) % numBuffers;
-        }
 
-        // Make sure pin count is 0.
-        /** need to convert assert to a similar function. */
-        // assert( (mgr.frameTable())[head].pin_count() == 0 );
-
-        if ((mgr.frameTable())[head].pin_count() != 0) {
-            throw new PagePinnedException(null, "BUFMGR: PIN_COUNT IS NOT 0.");
+            if (mgr.claimFrame(frame)) {
+                state_bit[frame].state = Pinned;
+                head = frame;
+                return frame;
+            }
         }
 
-        state_bit[head].state = Pinned;        // Pin this victim so that other
-        (mgr.frameTable())[head].pin();
-        // process can't pick it as victim (???)
+        throw new BufferPoolExceededException(null, "BUFMGR: BUFFER_EXCEEDED.");
+    }
 
-        return head;
+    int victimHand() {
+        return Math.floorMod(hand.get() + 1, mgr.getNumBuffers());
     }
 
     /**
@@ -358,13 +336,66 @@ class Clock extends Replacer {
  * buffer pool, pins and unpins the frame, frees the frame
  * page, and uses the replacement algorithm to replace the
  * page.
+ * <p>
+ * Any number of threads may pin and unpin pages at the same time. The
+ * page table is split into STRIPES hash tables, each with its own lock.
+ * A page is looked up and pinned, or evicted, only while holding the
+ * lock of its stripe. So a page cannot be evicted between the lookup
+ * and the pin. Pin counts are atomic. A page being read in is in the
+ * page table with its frame marked loading. A second thread pinning
+ * the page waits for that read instead of reading the page again.
+ * Disk reads happen outside the stripe locks. The write of a dirty
+ * victim holds only the lock of the victim's stripe.
+ * <p>
+ * flushAllPages, flushPage and setNumBuffers expect the pages to be
+ * unpinned, as before, and should not run while other threads use the
+ * pages.
+ * <p>
+ * The buffer manager of the database, SystemDefs.JavabaseBM, is the
+ * default pool. Named pools, each a BufMgr with its own frames and
+ * replacer, may be added to it with addPool, and a file assigned to
+ * one with assignPool, such as the B+ trees to INDEX_POOL, so that
+ * pages of other files do not replace its pages. The default pool
+ * hands each call to the pool that holds the page, or for a page not
+ * in any pool, to the pool of the file whose scope the thread is in
+ * (see diskmgr.PCounter). A pool enters a page in its page table only
+ * under an install lock of the page's stripe, shared by all the pools,
+ * after checking that no other pool holds it; if one does, the pin
+ * goes to that pool. So a page is only ever in one pool, even when
+ * threads in the scopes of different files pin it at once. Pages of
+ * files without a pool, or whose pool was not added, stay in the
+ * default pool.
  */
 public class BufMgr implements GlobalConst {
 
     /**
-     * The hash table, only allocated once.
+     * Number of page-table stripes, a power of two.
+     */
+    static final int STRIPES = 64;
+
+    /**
+     * Answers of residency: the page is not in the pool, is being read
+     * in, or is in the pool.
+     */
+    static final int ABSENT = 0;
+    static final int LOADING = 1;
+    static final int RESIDENT = 2;
+
+    /**
+     * Names of the pools: the default pool, and the pools the files of
+     * the B+ trees, of the BigT and heap data, and of temporary and sort
+     * files are assigned to.
+     */
+    public static final String DEFAULT_POOL = "default";
+    public static final String INDEX_POOL = "index";
+    public static final String DATA_POOL = "data";
+    public static final String TEMP_POOL = "temp";
+
+    /**
+     * The page table: page number -> frame number, one hash table per
+     * stripe. Page pid is in stripe pid mod STRIPES.
      */
-    private BufHashTbl hashTable = new BufHashTbl();
+    private BufHashTbl[] hashTable;
 
     /**
      * Total number of buffer frames in the buffer pool.
@@ -376,6 +407,11 @@ public class BufMgr implements GlobalConst {
      */
     private byte[][] bufPool;  // default = byte[NUMBUF][MAX_SPACE];
 
+    /**
+     * Size in bytes of each frame, the page size of the database.
+     */
+    private int pageSize;
+
     /**
      * An array of Descriptors one per frame.
      */
@@ -386,6 +422,149 @@ public class BufMgr implements GlobalConst {
      */
     private Replacer replacer;
 
+    /**
+     * Name of the replacement policy, kept for setNumBuffers.
+     */
+    private String replacerName;
+
+    /**
+     * The name of this pool.
+     */
+    private String poolName = DEFAULT_POOL;
+
+    /**
+     * The named pools added to this default pool; none in a named pool.
+     * Copied on change, as every call looks at it.
+     */
+    private volatile BufMgr[] pools = new BufMgr[0];
+
+    /**
+     * The default pool of this named pool; this for the default pool.
+     */
+    private BufMgr root = this;
+
+    /**
+     * One lock per stripe, shared by a default pool and its named pools,
+     * held to enter a page in a page table after checking that no other
+     * pool holds it.
+     */
+    private Object[] installLocks = newLocks();
+
+    /**
+     * The name of the pool of each file assigned to one.
+     */
+    private final ConcurrentHashMap<PCounter.Stats, String> filePools =
+            new ConcurrentHashMap<PCounter.Stats, String>();
+
+    /**
+     * Pins that had to bring the page into the pool.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * All pins, hits and misses; a LongAdder, since every hit adds to it.
+     */
+    private final LongAdder pins = new LongAdder();
+
+    /**
+     * The buffer quota of the query running in each thread, a ring that
+     * takes the pages the thread brings in without a strategy of its
+     * own; null for none.
+     */
+    private final ThreadLocal<BufAccessStrategy> quota = new ThreadLocal<BufAccessStrategy>();
+
+    /**
+     * Records every pin and unpin when set, see PinTrace.
+     */
+    private volatile PinTrace trace;
+
+    /**
+     * The background write-behind thread, null when it is off.
+     */
+    private volatile BufFlusher flusher;
+
+    /**
+     * Clean share the flusher was started with, to restart it after a
+     * resize.
+     */
+    private double flusherShare;
+
+    /**
+     * The read-ahead thread, started by the first request; null when it
+     * is not running.
+     */
+    private Prefetcher prefetcher;
+
+    /**
+     * Pages read ahead, those of them pinned later, and those replaced
+     * or freed before anybody pinned them.
+     */
+    private final AtomicLong readAheads = new AtomicLong();
+    private final AtomicLong readAheadUsed = new AtomicLong();
+    private final AtomicLong readAheadWasted = new AtomicLong();
+
+    /**
+     * Dirty pages written by the flusher before they were evicted.
+     */
+    private final AtomicLong aheadWrites = new AtomicLong();
+
+    /**
+     * Dirty pages written by pinPage when evicting them.
+     */
+    private final AtomicLong forcedWrites = new AtomicLong();
+
+    /**
+     * The last write of the flusher that failed, null if none did.
+     */
+    private volatile BufMgrException flushError;
+
+
+    /**
+     * Returns the page-table stripe of a page.
+     */
+    private BufHashTbl stripe(int pid) {
+        return hashTable[pid & (STRIPES - 1)];
+    }
+
+    /**
+     * Creates the replacer named by the policy: "Clock", "LRU", "MRU",
+     * "LRU-2", "2Q" or "ARC". Clock for null or an unknown name.
+     */
+    private Replacer newReplacer(String policy) {
+        if ("LRU".equals(policy))
+            return new LRU(this);
+        if ("MRU".equals(policy))
+            return new MRU(this);
+        if ("LRU-2".equals(policy))
+            return new LRU2(this);
+        if ("2Q".equals(policy))
+            return new TwoQ(this);
+        if ("ARC".equals(policy))
+            return new ARC(this);
+        if (policy != null && !"Clock".equals(policy))
+            System.out.println("Replacer:Unknown, Use Clock\n");
+        return new Clock(this);
+    }
+
+    /**
+     * Creates an empty page table for numbufs frames.
+     */
+    private static BufHashTbl[] newPageTable(int numbufs) {
+        BufHashTbl[] table = new BufHashTbl[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            table[i] = new BufHashTbl(numbufs / STRIPES + 1);
+        return table;
+    }
+
+    /**
+     * Creates the install locks of a default pool.
+     */
+    private static Object[] newLocks() {
+        Object[] locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+        return locks;
+    }
 
     /**
      * Factor out the common code for the two versions of Flush
@@ -401,7 +580,7 @@ public class BufMgr implements GlobalConst {
      * @throws FileIOException            File I/O  error
      * @throws IOException                Other I/O errors
      */
-    private void privFlushPages(PageId pageid, int all_pages)
+    private synchronized void privFlushPages(PageId pageid, int all_pages)
             throws HashOperationException,
             PageUnpinnedException,
             PagePinnedException,
@@ -414,6 +593,8 @@ public class BufMgr implements GlobalConst {
         for (i = 0; i < numBuffers; i++)   // write all valid dirty pages to disk
             if ((all_pages != 0) || (frmeTable[i].pageNo.pid == pageid.pid)) {
 
+                waitForWrite(frmeTable[i]);
+
                 if (frmeTable[i].pin_count() != 0)
                     unpinned++;
 
@@ -427,16 +608,20 @@ public class BufMgr implements GlobalConst {
 
                     Page apage = new Page(bufPool[i]);
 
-                    write_page(pageid, apage);
+                    BufHashTbl table = stripe(pageid.pid);
+                    synchronized (table) {
+                        write_page(pageid, apage);
+                        frmeTable[i].owner.count(PCounter.WRITES);
 
-                    try {
-                        hashTable.remove(pageid);
-                    } catch (Exception e2) {
-                        throw new HashOperationException(e2, "BUFMGR: HASH_TBL_ERROR.");
-                    }
+                        try {
+                            table.remove(pageid);
+                        } catch (Exception e2) {
+                            throw new HashOperationException(e2, "BUFMGR: HASH_TBL_ERROR.");
+                        }
 
-                    frmeTable[i].pageNo.pid = INVALID_PAGE; // frame is empty
-                    frmeTable[i].dirty = false;
+                        frmeTable[i].pageNo.pid = INVALID_PAGE; // frame is empty
+                        frmeTable[i].dirty = false;
+                    }
                 }
 
                 if (all_pages == 0) {
@@ -462,33 +647,19 @@ public class BufMgr implements GlobalConst {
     public BufMgr(int numbufs, String replacerArg) {
 
         numBuffers = numbufs;
+        pageSize = SystemDefs.JavabasePageSize;
+        hashTable = newPageTable(numBuffers);
         frmeTable = new FrameDesc[numBuffers];
-        bufPool = new byte[numBuffers][MAX_SPACE];
+        bufPool = new byte[numBuffers][pageSize];
         frmeTable = new FrameDesc[numBuffers];
 
         for (int i = 0; i < numBuffers; i++)  // initialize frameTable
             frmeTable[i] = new FrameDesc();
 
-        if (replacerArg == null) {
-
-            replacer = new Clock(this);
-
-        } else {
-
-            if (replacerArg.compareTo("Clock") == 0) {
-                replacer = new Clock(this);
-                System.out.println("Replacer: Clock\n");
-            } else if (replacerArg.compareTo("LRU") == 0) {
-                replacer = new LRU(this);
-                System.out.println("Replacer: LRU\n");
-            } else if (replacerArg.compareTo("MRU") == 0) {
-                replacer = new LRU(this);
-                System.out.println("Replacer: MRU\n");
-            } else {
-                replacer = new Clock(this);
-                System.out.println("Replacer:Unknown, Use Clock\n");
-            }
-        }
+        replacerName = replacerArg;
+        replacer = newReplacer(replacerArg);
+        if (replacerArg != null)
+            System.out.println("Replacer: " + replacer.name() + "\n");
 
         replacer.setBufferManager(this);
 
@@ -497,7 +668,10 @@ public class BufMgr implements GlobalConst {
 
     // Debug use only
     private void bmhashdisplay() {
-        hashTable.display();
+        for (BufHashTbl table : hashTable)
+            synchronized (table) {
+                table.display();
+            }
     }
 
 
@@ -532,85 +706,236 @@ public class BufMgr implements GlobalConst {
             PagePinnedException,
             BufMgrException,
             IOException {
+        pinPage(pin_pgid, page, emptyPage, null);
+    }
+
+    /**
+     * Same as pinPage(pin_pgid, page, emptyPage), but a page that is not
+     * in the pool goes to the ring of the access strategy.
+     *
+     * @param strategy the buffer access strategy of the operation, null
+     *                 for none.
+     */
+    public void pinPage(PageId pin_pgid, Page page, boolean emptyPage,
+                        BufAccessStrategy strategy)
+            throws ReplacerException,
+            HashOperationException,
+            PageUnpinnedException,
+            InvalidFrameNumberException,
+            PageNotReadException,
+            BufferPoolExceededException,
+            PagePinnedException,
+            BufMgrException,
+            IOException {
+        PCounter.Stats io = PCounter.current();
+        if (pools.length != 0) {
+            BufMgr pool = route(pin_pgid, io);
+            if (pool != this) {
+                pool.pinPage(pin_pgid, page, emptyPage, strategy);
+                return;
+            }
+        }
+
+        pins.increment();
+        io.count(PCounter.PINS);
+        PinTrace t = trace;
+        if (t != null)
+            t.record(emptyPage ? PinTrace.PIN_EMPTY : PinTrace.PIN, pin_pgid.pid);
+
+        pin(pin_pgid, page, emptyPage, strategy, io);
+    }
+
+    /**
+     * Pins a page in this pool, counted already, for pinPage.
+     */
+    private void pin(PageId pin_pgid, Page page, boolean emptyPage,
+                     BufAccessStrategy strategy, PCounter.Stats io)
+            throws ReplacerException,
+            HashOperationException,
+            PageUnpinnedException,
+            InvalidFrameNumberException,
+            PageNotReadException,
+            BufferPoolExceededException,
+            PagePinnedException,
+            BufMgrException,
+            IOException {
         int frameNo;
         boolean bst, bst2;
-        PageId oldpageNo = new PageId(-1);
-        int needwrite = 0;
+        BufHashTbl table = stripe(pin_pgid.pid);
+        BufAccessStrategy ring = strategy;
+
+        while (true) {
+            synchronized (table) {
+                frameNo = table.lookup(pin_pgid);
+                if (frameNo >= 0) {
+                    frmeTable[frameNo].pin();
+                    if (frmeTable[frameNo].prefetched) {
+                        frmeTable[frameNo].prefetched = false;
+                        readAheadUsed.incrementAndGet();
+                    }
+                }
+            }
+
+            if (frameNo >= 0) {    // the page is in the buffer pool
+
+                replacer.pin(frameNo);
+                waitForRead(frmeTable[frameNo]);
 
-        frameNo = hashTable.lookup(pin_pgid);
+                if (frmeTable[frameNo].pageNo.pid == pin_pgid.pid) {
+                    io.count(PCounter.HITS);
+                    page.setpage(bufPool[frameNo]);
+                    return;
+                }
+
+                // The thread reading it in failed; try again.
+                replacer.unpin(frameNo);
+                continue;
+            }
 
-        if (frameNo < 0) {           // Not in the buffer pool
+            // Not in the buffer pool
 
-            frameNo = replacer.pick_victim(); // frameNo is pinned
+            if (ring == null)
+                ring = quota.get();
+            frameNo = (ring != null) ? ring.victim(this) : -1;
+            if (frameNo < 0)
+                frameNo = replacer.pick_victim(); // frameNo is pinned and empty
             if (frameNo < 0) {
                 page = null;
                 throw new ReplacerException(null, "BUFMGR: REPLACER_ERROR.");
 
             }
 
-            if ((frmeTable[frameNo].pageNo.pid != INVALID_PAGE)
-                    && (frmeTable[frameNo].dirty == true)) {
-                needwrite = 1;
-                oldpageNo.pid = frmeTable[frameNo].pageNo.pid;
+            // Another thread may have brought the page in meanwhile,
+            // into this pool or another one.
+            BufMgr other;
+            synchronized (installLock(pin_pgid.pid)) {
+                other = otherHolder(pin_pgid);
+                synchronized (table) {
+                    bst2 = other == null && table.lookup(pin_pgid) < 0;
+                    if (bst2) {
+                        bst = table.insert(pin_pgid, frameNo);
+                        if (bst != true) {
+                            throw new HashOperationException(null, "BUFMGR: HASH_TABLE_ERROR.");
+                        }
+
+                        (frmeTable[frameNo].pageNo).pid = pin_pgid.pid;
+                        frmeTable[frameNo].dirty = false;
+                        frmeTable[frameNo].loading = !emptyPage;
+                        frmeTable[frameNo].prefetched = false;
+                        frmeTable[frameNo].owner = io;
+                    }
+                }
             }
 
-            bst = hashTable.remove(frmeTable[frameNo].pageNo);
-            if (bst != true) {
-                throw new HashOperationException(null, "BUFMGR: HASH_TABLE_ERROR.");
+            if (bst2)
+                break;
+
+            replacer.unpin(frameNo);
+            if (other != null) {
+                // pin the page in the pool that has it, counted there
+                pins.decrement();
+                other.pins.increment();
+                other.pin(pin_pgid, page, emptyPage, strategy, io);
+                return;
             }
+        }
 
-            frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
-            frmeTable[frameNo].dirty = false;             // not dirty
+        misses.incrementAndGet();
+        io.count(PCounter.MISSES);
+        replacer.pin(frameNo);
+        if (ring != null)
+            ring.add(frameNo, pin_pgid.pid);
+
+        // read in the page if not empty
+        if (emptyPage == false) {
+            try {
+                Page apage = new Page(bufPool[frameNo]);
+                read_page(pin_pgid, apage);
+                io.count(PCounter.READS);
+            } catch (Exception e) {
+
+                synchronized (table) {
+                    bst = table.remove(pin_pgid);
+                    frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
+                    frmeTable[frameNo].dirty = false;
+                }
+                frmeTable[frameNo].loaded();
 
-            bst2 = hashTable.insert(pin_pgid, frameNo);
+                if (bst != true)
+                    throw new HashOperationException(e, "BUFMGR: HASH_TABLE_ERROR.");
 
-            (frmeTable[frameNo].pageNo).pid = pin_pgid.pid;
-            frmeTable[frameNo].dirty = false;
+                bst = replacer.unpin(frameNo);
 
-            if (bst2 != true) {
-                throw new HashOperationException(null, "BUFMGR: HASH_TABLE_ERROR.");
-            }
+                if (bst != true)
+                    throw new ReplacerException(e, "BUFMGR: REPLACER_ERROR.");
 
-            Page apage = new Page(bufPool[frameNo]);
-            if (needwrite == 1) {
-                write_page(oldpageNo, apage);
-            } // end of needwrite..
+                throw new PageNotReadException(e, "BUFMGR: DB_READ_PAGE_ERROR.");
+            }
 
-            // read in the page if not empty
-            if (emptyPage == false) {
-                try {
-                    apage.setpage(bufPool[frameNo]);
-                    read_page(pin_pgid, apage);
-                } catch (Exception e) {
+            frmeTable[frameNo].loaded();
+        }
 
+        page.setpage(bufPool[frameNo]);
+    }
 
-                    bst = hashTable.remove(frmeTable[frameNo].pageNo);
-                    if (bst != true)
-                        throw new HashOperationException(e, "BUFMGR: HASH_TABLE_ERROR.");
+    /**
+     * Empties an unpinned frame for a new page: claims the frame, writes
+     * the page in it if dirty, and removes the page from the page table,
+     * all under the lock of the page's stripe. Called by the replacers
+     * for each frame they consider.
+     *
+     * @param frameNo the frame.
+     * @return true if the frame is now empty and pinned once by the
+     * caller; false if it is pinned or being written by the flusher.
+     * @throws BufMgrException the dirty page could not be written.
+     */
+    boolean claimFrame(int frameNo)
+            throws BufMgrException {
+        FrameDesc frame = frmeTable[frameNo];
 
-                    frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
-                    frmeTable[frameNo].dirty = false;
+        if (frame.pin_count() != 0 || frame.writing)
+            return false;
 
-                    bst = replacer.unpin(frameNo);
+        int pid = frame.pageNo.pid;
+        if (pid == INVALID_PAGE) {
+            if (!frame.claim())
+                return false;
+            if (frame.pageNo.pid == INVALID_PAGE)
+                return true;
+            // somebody used the frame in between
+            frame.unpin();
+            return false;
+        }
 
-                    if (bst != true)
-                        throw new ReplacerException(e, "BUFMGR: REPLACER_ERROR.");
+        BufHashTbl table = stripe(pid);
+        synchronized (table) {
+            if (frame.pageNo.pid != pid || frame.writing || !frame.claim())
+                return false;
 
-                    throw new PageNotReadException(e, "BUFMGR: DB_READ_PAGE_ERROR.");
+            if (frame.dirty) {
+                try {
+                    write_page(frame.pageNo, new Page(bufPool[frameNo]));
+                } catch (BufMgrException e) {
+                    frame.unpin();
+                    throw e;
                 }
-
+                frame.dirty = false;
+                frame.owner.count(PCounter.WRITES);
+                forcedWrites.incrementAndGet();
+                BufFlusher f = flusher;
+                if (f != null)
+                    f.wakeUp();
             }
 
-            page.setpage(bufPool[frameNo]);
-
-            // return true;
-
-        } else {    // the page is in the buffer pool ( frameNo > 0 )
-
-            page.setpage(bufPool[frameNo]);
-            replacer.pin(frameNo);
-
+            if (frame.prefetched) {
+                frame.prefetched = false;
+                readAheadWasted.incrementAndGet();
+            }
+            frame.owner.count(PCounter.EVICTIONS);
+            table.remove(frame.pageNo);
+            frame.pageNo.pid = INVALID_PAGE; // frame is empty
         }
+        return true;
     }
 
     /**
@@ -632,9 +957,24 @@ public class BufMgr implements GlobalConst {
             HashEntryNotFoundException,
             InvalidFrameNumberException {
 
+        if (pools.length != 0) {
+            BufMgr pool = holder(PageId_in_a_DB);
+            if (pool != null && pool != this) {
+                pool.unpinPage(PageId_in_a_DB, dirty);
+                return;
+            }
+        }
+
         int frameNo;
+        BufHashTbl table = stripe(PageId_in_a_DB.pid);
 
-        frameNo = hashTable.lookup(PageId_in_a_DB);
+        PinTrace t = trace;
+        if (t != null)
+            t.record(dirty ? PinTrace.UNPIN_DIRTY : PinTrace.UNPIN, PageId_in_a_DB.pid);
+
+        synchronized (table) {
+            frameNo = table.lookup(PageId_in_a_DB);
+        }
 
         if (frameNo < 0) {
             throw new HashEntryNotFoundException(null, "BUFMGR: HASH_NOT_FOUND.");
@@ -645,27 +985,91 @@ public class BufMgr implements GlobalConst {
 
         }
 
+        // set before the pin is dropped, so that an evicting thread
+        // sees it
+        if (dirty == true)
+            frmeTable[frameNo].dirty = dirty;
+
+        // a transaction of the write-ahead log keeps the pin of a page it
+        // changed until the page is logged
+        if (dirty) {
+            LogMgr log = SystemDefs.JavabaseLog;
+            if (log != null && log.hold(PageId_in_a_DB.pid))
+                return;
+        }
+
         if ((replacer.unpin(frameNo)) != true) {
             throw new ReplacerException(null, "BUFMGR: REPLACER_ERROR.");
         }
 
-        if (dirty == true)
-            frmeTable[frameNo].dirty = dirty;
-
     }
 
-
     /**
-     * Call DB object to allocate a run of new pages and
-     * find a frame in the buffer pool for the first page
-     * and pin it. If buffer is full, ask DB to deallocate
-     * all these pages and return error (null if error).
+     * Called by LogMgr for a page held by a transaction it aborts: puts
+     * an image in the frame, or the page on disk if image is null, and
+     * drops the pin of the transaction. The frame is dirty only if the
+     * image may not be on disk.
      *
-     * @param firstpage the address of the first page.
-     * @param howmany   total number of allocated new pages.
-     * @return the first page id of the new pages.
-     * @throws BufferPoolExceededException if the buffer pool is full.
-     * @throws HashOperationException      if there is a hashtable error.
+     * @param pageNo the page.
+     * @param image  the page as the last commit that logged it left it,
+     *               null if no commit since the checkpoint logged it.
+     * @throws HashEntryNotFoundException  if the page is not in the pool.
+     * @throws ReplacerException           if there is a replacer error.
+     * @throws InvalidFrameNumberException if there is an invalid frame number.
+     * @throws PageUnpinnedException       if the page is not pinned.
+     * @throws BufMgrException             the page could not be read.
+     */
+    void restorePage(PageId pageNo, byte[] image)
+            throws HashEntryNotFoundException,
+            ReplacerException,
+            InvalidFrameNumberException,
+            PageUnpinnedException,
+            BufMgrException {
+        if (pools.length != 0) {
+            BufMgr pool = holder(pageNo);
+            if (pool != null && pool != this) {
+                pool.restorePage(pageNo, image);
+                return;
+            }
+        }
+
+        int frameNo;
+        BufHashTbl table = stripe(pageNo.pid);
+        synchronized (table) {
+            frameNo = table.lookup(pageNo);
+        }
+        if (frameNo < 0)
+            throw new HashEntryNotFoundException(null, "BUFMGR: HASH_NOT_FOUND.");
+
+        // a write the flusher started before the page was pinned must
+        // not land after the page is read back
+        FrameDesc frame = frmeTable[frameNo];
+        waitForWrite(frame);
+        if (image != null) {
+            System.arraycopy(image, 0, bufPool[frameNo], 0, pageSize);
+            frame.dirty = true;
+        } else {
+            read_page(pageNo, new Page(bufPool[frameNo]));
+            frame.dirty = false;
+        }
+
+        if ((replacer.unpin(frameNo)) != true) {
+            throw new ReplacerException(null, "BUFMGR: REPLACER_ERROR.");
+        }
+    }
+
+
+    /**
+     * Call DB object to allocate a run of new pages and
+     * find a frame in the buffer pool for the first page
+     * and pin it. If buffer is full, ask DB to deallocate
+     * all these pages and return error (null if error).
+     *
+     * @param firstpage the address of the first page.
+     * @param howmany   total number of allocated new pages.
+     * @return the first page id of the new pages.
+     * @throws BufferPoolExceededException if the buffer pool is full.
+     * @throws HashOperationException      if there is a hashtable error.
      * @throws ReplacerException           if there is a replacer error.
      * @throws HashEntryNotFoundException  if there is no entry of page in the hash table.
      * @throws InvalidFrameNumberException if there is an invalid frame number.
@@ -688,6 +1092,28 @@ public class BufMgr implements GlobalConst {
             BufMgrException,
             DiskMgrException,
             IOException {
+        return newPage(firstpage, howmany, null);
+    }
+
+    /**
+     * Same as newPage(firstpage, howmany), but the first page goes to
+     * the ring of the access strategy.
+     *
+     * @param strategy the buffer access strategy of the operation, null
+     *                 for none.
+     */
+    public PageId newPage(Page firstpage, int howmany, BufAccessStrategy strategy)
+            throws BufferPoolExceededException,
+            HashOperationException,
+            ReplacerException,
+            HashEntryNotFoundException,
+            InvalidFrameNumberException,
+            PagePinnedException,
+            PageUnpinnedException,
+            PageNotReadException,
+            BufMgrException,
+            DiskMgrException,
+            IOException {
         int i;
 
         PageId firstPageId = new PageId();
@@ -695,7 +1121,7 @@ public class BufMgr implements GlobalConst {
         allocate_page(firstPageId, howmany);
 
         try {
-            pinPage(firstPageId, firstpage, true);
+            pinPage(firstPageId, firstpage, true, strategy);
         }
 
         // rollback because pin failed
@@ -748,36 +1174,65 @@ public class BufMgr implements GlobalConst {
             BufMgrException,
             DiskMgrException,
             IOException {
+        if (pools.length != 0) {
+            BufMgr pool = holder(globalPageId);
+            if (pool != null && pool != this) {
+                pool.freePage(globalPageId);
+                return;
+            }
+        }
+
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log != null && log.release(globalPageId.pid))
+            unpinPage(globalPageId, false);   // the transaction's pin
+
         int frameNo;
-        frameNo = hashTable.lookup(globalPageId);
+        BufHashTbl table = stripe(globalPageId.pid);
 
-        //if globalPageId is not in pool, frameNo < 0
-        //then call deallocate
-        if (frameNo < 0) {
-            deallocate_page(globalPageId);
+        PinTrace t = trace;
+        if (t != null)
+            t.record(PinTrace.FREE, globalPageId.pid);
 
-            return;
-        }
-        if (frameNo >= (int) numBuffers) {
-            throw new InvalidBufferException(null, "BUFMGR, BAD_BUFFER");
+        while (true) {
+            synchronized (table) {
+                frameNo = table.lookup(globalPageId);
 
-        }
+                //if globalPageId is not in pool, frameNo < 0
+                //then call deallocate
+                if (frameNo < 0)
+                    break;
 
-        try {
-            replacer.free(frameNo);
-        } catch (Exception e1) {
-            throw new ReplacerException(e1, "BUFMGR, REPLACER_ERROR");
-        }
+                if (frameNo >= (int) numBuffers) {
+                    throw new InvalidBufferException(null, "BUFMGR, BAD_BUFFER");
 
-        try {
-            hashTable.remove(frmeTable[frameNo].pageNo);
-        } catch (Exception e2) {
-            throw new HashOperationException(e2, "BUFMGR, HASH_TABLE_ERROR");
-        }
+                }
 
-        frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
-        frmeTable[frameNo].dirty = false;
+                if (!frmeTable[frameNo].writing) {
+                    try {
+                        replacer.free(frameNo);
+                    } catch (Exception e1) {
+                        throw new ReplacerException(e1, "BUFMGR, REPLACER_ERROR");
+                    }
 
+                    try {
+                        table.remove(frmeTable[frameNo].pageNo);
+                    } catch (Exception e2) {
+                        throw new HashOperationException(e2, "BUFMGR, HASH_TABLE_ERROR");
+                    }
+
+                    if (frmeTable[frameNo].prefetched) {
+                        frmeTable[frameNo].prefetched = false;
+                        readAheadWasted.incrementAndGet();
+                    }
+                    frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
+                    frmeTable[frameNo].dirty = false;
+                    break;
+                }
+            }
+
+            // the flusher is writing the page; free it afterwards
+            waitForWrite(frmeTable[frameNo]);
+        }
 
         deallocate_page(globalPageId);
 
@@ -802,6 +1257,13 @@ public class BufMgr implements GlobalConst {
             PageNotFoundException,
             BufMgrException,
             IOException {
+        if (pools.length != 0) {
+            BufMgr pool = holder(pageid);
+            if (pool != null && pool != this) {
+                pool.flushPage(pageid);
+                return;
+            }
+        }
         privFlushPages(pageid, 0);
     }
 
@@ -823,11 +1285,50 @@ public class BufMgr implements GlobalConst {
             PageNotFoundException,
             BufMgrException,
             IOException {
+        for (BufMgr pool : pools)
+            pool.flushAllPages();
         PageId pageId = new PageId(INVALID_PAGE);
         privFlushPages(pageId, 1);
     }
 
 
+    /**
+     * Writes every dirty page of this pool and of the named pools to
+     * disk, pinned or not, and leaves them in the pool. Called by the
+     * write-ahead log at a checkpoint, when no transaction holds a page.
+     *
+     * @throws BufMgrException a page could not be written.
+     */
+    public void writeDirtyPages()
+            throws BufMgrException {
+        for (BufMgr pool : pools)
+            pool.writeDirtyPages();
+
+        for (int i = 0; i < numBuffers; i++) {
+            FrameDesc frame = frmeTable[i];
+            int pid = frame.pageNo.pid;
+            if (!frame.dirty || pid == INVALID_PAGE)
+                continue;
+
+            synchronized (stripe(pid)) {
+                if (frame.pageNo.pid != pid || !frame.dirty || frame.writing)
+                    continue;
+                frame.writing = true;
+                frame.dirty = false;
+            }
+            try {
+                write_page(new PageId(pid), new Page(bufPool[i]));
+                frame.owner.count(PCounter.WRITES);
+            } catch (BufMgrException e) {
+                frame.dirty = true;
+                throw e;
+            } finally {
+                frame.written();
+            }
+        }
+    }
+
+
     /**
      * Gets the total number of buffers.
      *
@@ -837,22 +1338,110 @@ public class BufMgr implements GlobalConst {
         return numBuffers;
     }
 
-    public void setNumBuffers(int numBuf) throws Exception {
-        for (int i = 0; i < numBuffers; ++i) {
-            if (frmeTable[i].pageNo.pid != INVALID_PAGE) {
-                frmeTable[i].dirty = true;
+    /**
+     * Resizes the buffer pool while it is in use. The pages in the pool
+     * stay there, dirty or not, and nothing is written, except that a
+     * shrink that leaves too few frames for the pages evicts as many of
+     * them as needed, chosen by the replacer. The remaining pages move
+     * to the first frames of the new pool, with their pins; the byte
+     * arrays of the frames move along, so pinned Page objects stay
+     * valid. The replacer starts over with the pages in the pool as
+     * its current pages. A running flusher is stopped for the resize,
+     * and pending read-ahead is dropped.
+     * <p>
+     * Like flushAllPages, this should not run while other threads use
+     * the pool.
+     *
+     * @param numBuf the new number of frames.
+     * @throws BufferPoolExceededException if more than numBuf pages are pinned.
+     * @throws BufMgrException             a page could not be written.
+     */
+    public synchronized void setNumBuffers(int numBuf) throws Exception {
+        if (numBuf < 1)
+            throw new BufMgrException(null, "BUFMGR: BAD_NUMBUF.");
+        if (numBuf == numBuffers)
+            return;
+
+        stopPrefetcher();
+        BufFlusher f = flusher;
+        if (f != null)
+            stopFlusher();
+
+        try {
+            evict(numBuf);
+
+            FrameDesc[] frames = new FrameDesc[numBuf];
+            byte[][] pool = new byte[numBuf][];
+            BufHashTbl[] table = newPageTable(numBuf);
+            int resident = 0;
+            for (int i = 0; i < numBuffers; i++)
+                if (frmeTable[i].pageNo.pid != INVALID_PAGE)
+                    resident++;
+
+            // pages first, then the empty frames that still fit
+            int used = 0;
+            int empty = resident;
+            for (int i = 0; i < numBuffers; i++) {
+                int pid = frmeTable[i].pageNo.pid;
+                int frameNo;
+                if (pid != INVALID_PAGE)
+                    frameNo = used++;
+                else if (empty < numBuf)
+                    frameNo = empty++;
+                else
+                    continue;
+                frames[frameNo] = frmeTable[i];
+                pool[frameNo] = bufPool[i];
+                if (pid != INVALID_PAGE)
+                    table[pid & (STRIPES - 1)].insert(frmeTable[i].pageNo, frameNo);
+            }
+            for (int i = empty; i < numBuf; i++) {
+                frames[i] = new FrameDesc();
+                pool[i] = new byte[pageSize];
+            }
+
+            numBuffers = numBuf;
+            hashTable = table;
+            frmeTable = frames;
+            bufPool = pool;
+            replacer = newReplacer(replacerName);
+            replacer.setBufferManager(this);
+            for (int i = 0; i < resident; i++)
+                replacer.resident(i);
+        } finally {
+            if (f != null)
+                startFlusher(flusherShare);
+        }
+    }
+
+    /**
+     * Evicts pages until at most numBuf frames hold one, for a shrink
+     * of the pool to numBuf frames. The replacer chooses the victims;
+     * the empty frames it hands out meanwhile are kept pinned until
+     * enough pages are gone, so that it cannot hand them out again.
+     */
+    private void evict(int numBuf) throws Exception {
+        int[] before = new int[numBuffers];
+        int excess = -numBuf;
+        for (int i = 0; i < numBuffers; i++) {
+            before[i] = frmeTable[i].pageNo.pid;
+            if (before[i] != INVALID_PAGE)
+                excess++;
+        }
+
+        int[] taken = new int[numBuffers];
+        int count = 0;
+        try {
+            while (excess > 0) {
+                int frameNo = replacer.pick_victim();
+                taken[count++] = frameNo;
+                if (before[frameNo] != INVALID_PAGE)
+                    excess--;
             }
-            frmeTable[i].pin_cnt = 0;
+        } finally {
+            for (int i = 0; i < count; i++)
+                replacer.free(taken[i]);
         }
-        flushAllPages();
-        hashTable.clearHashTable();
-        this.numBuffers = numBuf;
-        frmeTable = new FrameDesc[numBuffers];
-        for (int i = 0; i < numBuffers; i++)  // initialize frameTable
-            frmeTable[i] = new FrameDesc();
-        bufPool = new byte[numBuffers][MAX_SPACE];
-        replacer = new Clock(this);
-        replacer.setBufferManager(this);
     }
 
     /**
@@ -871,6 +1460,604 @@ public class BufMgr implements GlobalConst {
         return frmeTable;
     }
 
+    /**
+     * Starts the background flusher, which writes dirty unpinned frames
+     * ahead of eviction so that at least the given share of the frames
+     * is clean. Adjacent dirty pages are written as one sequential
+     * write. Does nothing if the flusher is already running.
+     *
+     * @param cleanShare share of the frames to keep clean, 0 to 1.
+     */
+    public synchronized void startFlusher(double cleanShare) {
+        if (flusher != null)
+            return;
+        flusherShare = Math.max(0.0, Math.min(1.0, cleanShare));
+        flusher = new BufFlusher(this, flusherShare);
+        flusher.start();
+    }
+
+    /**
+     * Stops the background flusher, waiting for its current batch of
+     * writes to finish. Must not be called while holding the buffer
+     * manager lock.
+     */
+    public void stopFlusher() {
+        BufFlusher f = flusher;
+        if (f != null) {
+            f.shutdown();
+            flusher = null;
+        }
+        for (BufMgr pool : pools)
+            pool.stopFlusher();
+    }
+
+    /**
+     * Returns the last failure of the flusher to write pages, of this
+     * pool or of a named pool, null if there was none. The flusher of
+     * the pool stops at a failure; the pages stay dirty and are written
+     * when they are evicted or flushed, which reports any error to the
+     * caller.
+     */
+    public BufMgrException getFlushError() {
+        BufMgrException error = flushError;
+        for (BufMgr pool : pools)
+            if (error == null)
+                error = pool.getFlushError();
+        return error;
+    }
+
+    /**
+     * Returns the number of dirty pages the flusher wrote ahead of
+     * their eviction.
+     */
+    public long getAheadWrites() {
+        return aheadWrites.get();
+    }
+
+    /**
+     * Returns the number of dirty pages pinPage had to write when it
+     * evicted them.
+     */
+    public long getForcedWrites() {
+        return forcedWrites.get();
+    }
+
+    /**
+     * Returns the number of pins that had to bring the page into the
+     * pool, with or without reading it.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of pins, hits and misses.
+     */
+    public long getPins() {
+        return pins.sum();
+    }
+
+    /**
+     * Sets the pin and miss counters back to 0, also those of the named
+     * pools.
+     */
+    public void resetPinCounters() {
+        pins.reset();
+        misses.set(0);
+        for (BufMgr pool : pools)
+            pool.resetPinCounters();
+    }
+
+    /**
+     * Adds a named pool of numbufs frames to this default pool, with its
+     * own replacer, or resizes it if it was added already. Files assigned
+     * to the pool before it was added move to it for pages read from now
+     * on.
+     *
+     * @param name        the name of the pool, such as INDEX_POOL.
+     * @param numbufs     its number of frames.
+     * @param replacerArg its replacement policy, as for the constructor.
+     * @return the pool.
+     * @throws BufMgrException for the default pool, or a pool added to a
+     *                         named pool.
+     */
+    public synchronized BufMgr addPool(String name, int numbufs, String replacerArg)
+            throws Exception {
+        if (DEFAULT_POOL.equals(name) || !DEFAULT_POOL.equals(poolName))
+            throw new BufMgrException(null, "BUFMGR: BAD_POOL.");
+
+        BufMgr pool = getPool(name);
+        if (pool != null) {
+            pool.setNumBuffers(numbufs);
+            return pool;
+        }
+        if (numbufs < 1)
+            throw new BufMgrException(null, "BUFMGR: BAD_BUFFER.");
+
+        pool = new BufMgr(numbufs, replacerArg);
+        pool.poolName = name;
+        pool.root = this;
+        pool.installLocks = installLocks;
+        BufMgr[] list = Arrays.copyOf(pools, pools.length + 1);
+        list[pools.length] = pool;
+        pools = list;
+        return pool;
+    }
+
+    /**
+     * Returns the pool of the name, this one for DEFAULT_POOL; null if
+     * there is none.
+     */
+    public BufMgr getPool(String name) {
+        if (poolName.equals(name))
+            return this;
+        for (BufMgr pool : pools)
+            if (pool.poolName.equals(name))
+                return pool;
+        return null;
+    }
+
+    /**
+     * Returns this pool and the named pools added to it.
+     */
+    public BufMgr[] getPools() {
+        BufMgr[] list = new BufMgr[pools.length + 1];
+        list[0] = this;
+        System.arraycopy(pools, 0, list, 1, pools.length);
+        return list;
+    }
+
+    /**
+     * Prints the frames, pins, misses and hit ratio of this pool and of
+     * the named pools, one line each.
+     */
+    public void printPools(PrintStream out) {
+        out.printf("%-10s %8s %10s %10s %8s%n", "pool", "frames", "pins", "misses", "hits");
+        for (BufMgr pool : getPools()) {
+            long p = pool.getPins();
+            long m = pool.getMisses();
+            out.printf("%-10s %8d %10d %10d %7.2f%%%n", pool.poolName, pool.getNumBuffers(), p, m,
+                    (p == 0) ? 0.0 : 100.0 * (p - m) / p);
+        }
+    }
+
+    /**
+     * Returns the name of this pool.
+     */
+    public String getPoolName() {
+        return poolName;
+    }
+
+    /**
+     * Assigns a file to a pool, when the file is opened. Its pages go to
+     * that pool as long as it exists, else to the default pool.
+     *
+     * @param file the counters of the file, which name it.
+     * @param pool the name of the pool; DEFAULT_POOL or null for none.
+     */
+    public void assignPool(PCounter.Stats file, String pool) {
+        if (pool == null || DEFAULT_POOL.equals(pool))
+            filePools.remove(file);
+        else
+            filePools.put(file, pool);
+    }
+
+    /**
+     * Returns the pool holding a page, null if no pool holds it.
+     */
+    private BufMgr holder(PageId pageNo) {
+        if (holds(pageNo))
+            return this;
+        for (BufMgr pool : pools)
+            if (pool.holds(pageNo))
+                return pool;
+        return null;
+    }
+
+    private boolean holds(PageId pageNo) {
+        BufHashTbl table = stripe(pageNo.pid);
+        synchronized (table) {
+            return table.lookup(pageNo) >= 0;
+        }
+    }
+
+    /**
+     * Returns the pool other than this one, among the default pool and
+     * its named pools, that holds a page; null if none does.
+     */
+    private BufMgr otherHolder(PageId pageNo) {
+        if (root != this && root.holds(pageNo))
+            return root;
+        for (BufMgr pool : root.pools)
+            if (pool != this && pool.holds(pageNo))
+                return pool;
+        return null;
+    }
+
+    /**
+     * Returns the install lock of a page's stripe.
+     */
+    private Object installLock(int pid) {
+        return installLocks[pid & (STRIPES - 1)];
+    }
+
+    /**
+     * Returns the pool to pin a page in: the one holding it, else the
+     * pool of the file. The pool may change before the page is entered
+     * in its page table; pinPage checks again under the install lock.
+     */
+    private BufMgr route(PageId pageNo, PCounter.Stats file) {
+        BufMgr pool = holder(pageNo);
+        if (pool != null)
+            return pool;
+        String name = filePools.get(file);
+        if (name != null)
+            pool = getPool(name);
+        return (pool != null) ? pool : this;
+    }
+
+    /**
+     * Gives the calling thread a quota of frames, for one query. Once
+     * the pages it brought into the pool fill the quota, each new page
+     * replaces its oldest one instead of a page of other queries, as
+     * with the ring of a BufAccessStrategy. Pages already in the pool
+     * are used wherever they are, so a query that runs again finds its
+     * pages still there. Operations that pass their own strategy, such
+     * as scans, keep using it. The quota covers the pages this pool
+     * brings in, not those of files in named pools.
+     *
+     * @param frames the quota, 0 to remove it.
+     */
+    public void setQuota(int frames) {
+        if (frames > 0)
+            quota.set(new BufAccessStrategy(frames));
+        else
+            quota.remove();
+    }
+
+    /**
+     * Starts recording every pin, unpin and free to the trace, or stops
+     * recording when it is null. The caller closes the trace.
+     */
+    public void setTrace(PinTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Sets both write counters back to 0.
+     */
+    public void resetWriteCounters() {
+        aheadWrites.set(0);
+        forcedWrites.set(0);
+    }
+
+    /**
+     * One round of the flusher. Picks dirty unpinned frames, starting
+     * where the replacer looks for its next victim, until the clean share
+     * would be reached, and marks them clean and being written and copies
+     * them out under the lock of their stripe, so that no thread can pin
+     * and change them while they are copied. The copies are then written
+     * without holding any lock, sorted by page number so that adjacent
+     * pages go out as one write. Frames being written are not evicted or
+     * freed, but they may be pinned and changed meanwhile; such a change
+     * makes the frame dirty again.
+     * <p>
+     * If the write fails, the pages stay dirty for eviction to write, and
+     * the failure is kept for getFlushError().
+     *
+     * @param cleanShare share of the frames to keep clean.
+     * @return number of pages written, 0 if nothing had to be done, -1 if
+     * the write failed.
+     */
+    int flushAhead(double cleanShare) {
+        int n = numBuffers;
+        int clean = 0;
+        for (int i = 0; i < n; i++)
+            if (!frmeTable[i].dirty || frmeTable[i].writing)
+                clean++;
+
+        int want = (int) Math.ceil(cleanShare * n) - clean;
+        if (want <= 0)
+            return 0;
+
+        // look at the frames in the order the replacer will reach them
+        int[] frames = new int[want];
+        int[] pids = new int[want];
+        byte[] copies = new byte[want * pageSize];
+        int count = 0;
+        int hand = replacer.victimHand();
+        for (int k = 0; k < n && count < want; k++) {
+            int i = (hand + k) % n;
+            FrameDesc frame = frmeTable[i];
+            int pid = frame.pageNo.pid;
+            if (!frame.dirty || frame.writing || frame.pin_count() != 0 || pid == INVALID_PAGE)
+                continue;
+
+            synchronized (stripe(pid)) {
+                if (frame.pageNo.pid != pid || !frame.dirty || frame.writing
+                        || frame.pin_count() != 0)
+                    continue;
+                frame.writing = true;
+                frame.dirty = false;
+                System.arraycopy(bufPool[i], 0, copies, count * pageSize, pageSize);
+            }
+            frames[count] = i;
+            pids[count] = pid;
+            count++;
+        }
+        if (count == 0)
+            return 0;
+
+        // sort by page number, smallest first, with the copies
+        int[] order = new int[count];
+        for (int k = 0; k < count; k++)
+            order[k] = k;
+        for (int k = 1; k < count; k++)
+            for (int j = k; j > 0 && pids[order[j - 1]] > pids[order[j]]; j--) {
+                int t = order[j]; order[j] = order[j - 1]; order[j - 1] = t;
+            }
+        byte[] copy = new byte[count * pageSize];
+        int[] sorted = new int[count];
+        for (int k = 0; k < count; k++) {
+            System.arraycopy(copies, order[k] * pageSize, copy, k * pageSize, pageSize);
+            sorted[k] = pids[order[k]];
+        }
+        pids = sorted;
+
+        boolean failed = false;
+        try {
+            for (int k = 0; k < count; ) {
+                int run = 1;
+                while (k + run < count && pids[k + run] == pids[k] + run)
+                    run++;
+                SystemDefs.JavabaseDB.write_pages(new PageId(pids[k]), copy, k * pageSize, run);
+                k += run;
+            }
+        } catch (Exception e) {
+            // leave the pages dirty; eviction will write them
+            flushError = new BufMgrException(e, "BufMgr.java: the flusher could not write "
+                    + count + " pages");
+            failed = true;
+        }
+
+        for (int k = 0; k < count; k++) {
+            if (failed)
+                frmeTable[frames[k]].dirty = true;
+            else
+                frmeTable[frames[k]].owner.count(PCounter.WRITES);
+            frmeTable[frames[k]].written();
+        }
+        if (failed)
+            return -1;
+        aheadWrites.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Asks the read-ahead thread to read pages into the pool for a
+     * ReadAhead. It reads count pages starting at pid: that page alone
+     * if offset is negative, else a chain in which each page holds the
+     * number of the next one at offset. Pages already in the pool are
+     * not read again, and pages the scan has moved on to meanwhile are
+     * not read at all.
+     *
+     * @param owner the read-ahead of the scan; the ring of its access
+     *              strategy takes the pages.
+     * @param seq   the position of the first page in the order of the scan.
+     * @return false if the request was dropped because too many are
+     * waiting.
+     */
+    synchronized boolean prefetch(int pid, int count, int offset, ReadAhead owner, int seq) {
+        if (prefetcher == null) {
+            prefetcher = new Prefetcher(this);
+            prefetcher.start();
+        }
+        return prefetcher.request(pid, count, offset, owner, seq);
+    }
+
+    /**
+     * Stops the read-ahead thread and drops its pending requests. It
+     * starts again with the next request.
+     */
+    public void stopPrefetcher() {
+        Prefetcher p;
+        synchronized (this) {
+            p = prefetcher;
+            prefetcher = null;
+        }
+        if (p != null)
+            p.shutdown();
+    }
+
+    /**
+     * Tells whether the page is in the pool: ABSENT, LOADING or RESIDENT.
+     */
+    int residency(int pid) {
+        PageId pageNo = new PageId(pid);
+        if (pools.length != 0) {
+            BufMgr pool = holder(pageNo);
+            if (pool != null && pool != this)
+                return pool.residency(pid);
+        }
+        synchronized (stripe(pid)) {
+            int frameNo = stripe(pid).lookup(pageNo);
+            if (frameNo < 0)
+                return ABSENT;
+            return frmeTable[frameNo].loading ? LOADING : RESIDENT;
+        }
+    }
+
+    /**
+     * Reads a page into an unpinned frame for the read-ahead thread,
+     * unless it is in the pool already. The frame is marked prefetched
+     * until the page is pinned. The replacer sees the page only as read
+     * in; the first pin is not counted as a second reference.
+     *
+     * @param pid      the page.
+     * @param offset   where the page holds the number of the next page of
+     *                 its chain, negative for none.
+     * @param strategy the access strategy whose ring takes the page, null
+     *                 for none.
+     * @param io       the counters of the file of the page.
+     * @return the number of the next page of the chain; INVALID_PAGE if
+     * there is none, or the page could not be read.
+     */
+    int readAhead(int pid, int offset, BufAccessStrategy strategy, PCounter.Stats io) {
+        PageId pageNo = new PageId(pid);
+        if (pools.length != 0) {
+            BufMgr pool = route(pageNo, io);
+            if (pool != this)
+                return pool.readAhead(pid, offset, strategy, io);
+        }
+        BufHashTbl table = stripe(pid);
+        int frameNo;
+
+        synchronized (table) {
+            frameNo = table.lookup(pageNo);
+            if (frameNo >= 0)
+                frmeTable[frameNo].pin();
+        }
+
+        if (frameNo >= 0) {
+            // only to read the next page number; no reference
+            FrameDesc frame = frmeTable[frameNo];
+            try {
+                waitForRead(frame);
+                if (frame.pageNo.pid != pid)
+                    return INVALID_PAGE;
+                return nextPage(frameNo, offset);
+            } catch (BufMgrException e) {
+                return INVALID_PAGE;
+            } finally {
+                frame.unpin();
+            }
+        }
+
+        try {
+            frameNo = (strategy != null) ? strategy.victim(this) : -1;
+            if (frameNo < 0)
+                frameNo = replacer.pick_victim(); // frameNo is pinned and empty
+        } catch (Exception e) {
+            return INVALID_PAGE; // no frame to spare
+        }
+
+        FrameDesc frame = frmeTable[frameNo];
+        boolean installed;
+        synchronized (installLock(pid)) {
+            installed = otherHolder(pageNo) == null;
+            synchronized (table) {
+                installed = installed && table.lookup(pageNo) < 0;
+                if (installed) {
+                    table.insert(pageNo, frameNo);
+                    frame.pageNo.pid = pid;
+                    frame.dirty = false;
+                    frame.loading = true;
+                    frame.prefetched = true;
+                    frame.owner = io;
+                }
+            }
+        }
+
+        try {
+            if (!installed)
+                return INVALID_PAGE; // somebody else read it meanwhile
+
+            if (strategy != null)
+                strategy.add(frameNo, pid);
+
+            try {
+                replacer.prefetched(frameNo);
+                read_page(pageNo, new Page(bufPool[frameNo]));
+            } catch (Exception e) {
+                synchronized (table) {
+                    table.remove(pageNo);
+                    frame.pageNo.pid = INVALID_PAGE; // frame is empty
+                    frame.prefetched = false;
+                }
+                frame.loaded();
+                return INVALID_PAGE;
+            }
+            frame.loaded();
+            io.count(PCounter.READS);
+            readAheads.incrementAndGet();
+            return nextPage(frameNo, offset);
+        } finally {
+            try {
+                replacer.unpin(frameNo);
+            } catch (Exception e) {
+                // the frame was pinned above
+            }
+        }
+    }
+
+    /**
+     * Reads the number of the next page of a chain out of a frame.
+     */
+    private int nextPage(int frameNo, int offset) {
+        if (offset < 0)
+            return INVALID_PAGE;
+        try {
+            return Convert.getIntValue(offset, bufPool[frameNo]);
+        } catch (IOException e) {
+            return INVALID_PAGE;
+        }
+    }
+
+    /**
+     * Returns the number of pages the read-ahead thread read.
+     */
+    public long getReadAheads() {
+        return readAheads.get();
+    }
+
+    /**
+     * Returns the number of pages read ahead that were pinned later.
+     */
+    public long getReadAheadUsed() {
+        return readAheadUsed.get();
+    }
+
+    /**
+     * Returns the number of pages read ahead that were replaced or
+     * freed before anybody pinned them.
+     */
+    public long getReadAheadWasted() {
+        return readAheadWasted.get();
+    }
+
+    /**
+     * Sets the read-ahead counters back to 0.
+     */
+    public void resetReadAheadCounters() {
+        readAheads.set(0);
+        readAheadUsed.set(0);
+        readAheadWasted.set(0);
+    }
+
+    /**
+     * Waits until the flusher is done writing a frame.
+     */
+    private void waitForWrite(FrameDesc frame)
+            throws BufMgrException {
+        try {
+            frame.awaitWritten();
+        } catch (InterruptedException e) {
+            throw new BufMgrException(e, "BufMgr.java: interrupted waiting for a page write");
+        }
+    }
+
+    /**
+     * Waits until another thread is done reading a page into a frame.
+     */
+    private void waitForRead(FrameDesc frame)
+            throws BufMgrException {
+        try {
+            frame.awaitLoaded();
+        } catch (InterruptedException e) {
+            throw new BufMgrException(e, "BufMgr.java: interrupted waiting for a page read");
+        }
+    }
+
     private void write_page(PageId pageno, Page page)
             throws BufMgrException {
 
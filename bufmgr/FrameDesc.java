@@ -0,0 +1,166 @@
+/* File FrameDesc.java */
+
+package bufmgr;
+
+import diskmgr.PCounter;
+import global.GlobalConst;
+import global.PageId;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A frame description class. It describes each page in the buffer
+ * pool, the page number in the file, whether it is dirty or not,
+ * its pin count, and the pin count change when pinning or unpinning
+ * a page.
+ * <p>
+ * Frames are shared by all threads. The pin count is atomic. The page
+ * number only changes while holding the page-table stripe lock of the
+ * page. The frame object itself is the latch that threads wait on
+ * while the page is read in or written out.
+ */
+class FrameDesc implements GlobalConst {
+
+    /**
+     * The page within file, or INVALID_PAGE if the frame is empty.
+     */
+    public PageId pageNo;
+
+    /**
+     * the dirty bit, 1 (TRUE) stands for this frame is altered,
+     * 0 (FALSE) for clean frames.
+     */
+    public volatile boolean dirty;
+
+    /**
+     * The pin count for the page in this frame
+     */
+    private final AtomicInteger pin_cnt = new AtomicInteger(0);
+
+    /**
+     * True while the background flusher is writing this frame. The
+     * frame must not be written, evicted or freed until it is false.
+     */
+    public volatile boolean writing;
+
+    /**
+     * True while the page is being read into this frame. Threads that
+     * pin the page meanwhile wait for the read instead of reading the
+     * page a second time.
+     */
+    public volatile boolean loading;
+
+    /**
+     * True while the page was read ahead and has not been pinned yet.
+     * Changed only under the page-table stripe lock of the page.
+     */
+    public volatile boolean prefetched;
+
+    /**
+     * The counters of the file that read the page in or created it,
+     * which its write and eviction count for.
+     */
+    public volatile PCounter.Stats owner;
+
+    /**
+     * Creates a FrameDesc object, initialize pageNo, dirty and
+     * pin_count.
+     */
+    public FrameDesc() {
+
+        pageNo = new PageId();
+        pageNo.pid = INVALID_PAGE;
+        dirty = false;
+        writing = false;
+        loading = false;
+        prefetched = false;
+        owner = PCounter.OTHER;
+
+    }
+
+
+    /**
+     * Returns the pin count of a certain frame page.
+     *
+     * @return the pin count number.
+     */
+    public int pin_count() {
+        return pin_cnt.get();
+    }
+
+    /**
+     * Increments the pin count of a certain frame page when the
+     * page is pinned.
+     *
+     * @return the incremented pin count.
+     */
+    public int pin() {
+        return pin_cnt.incrementAndGet();
+    }
+
+    /**
+     * Decrements the pin count of a frame when the page is
+     * unpinned.
+     *
+     * @return the decremented pin count, or -1 if the pin count was
+     * already zero (it is left at zero).
+     */
+    public int unpin() {
+        while (true) {
+            int cnt = pin_cnt.get();
+            if (cnt <= 0)
+                return -1;
+            if (pin_cnt.compareAndSet(cnt, cnt - 1))
+                return cnt - 1;
+        }
+    }
+
+    /**
+     * Pins an unpinned frame for the calling thread only: the pin count
+     * goes from 0 to 1, or nothing happens.
+     *
+     * @return true if the frame was unpinned and is now claimed.
+     */
+    public boolean claim() {
+        return pin_cnt.compareAndSet(0, 1);
+    }
+
+    /**
+     * Drops all pins of the frame.
+     */
+    public void release() {
+        pin_cnt.set(0);
+    }
+
+    /**
+     * Waits until the page has been read into the frame.
+     */
+    public synchronized void awaitLoaded() throws InterruptedException {
+        while (loading)
+            wait();
+    }
+
+    /**
+     * Marks the read of the page done and wakes up the waiting threads.
+     */
+    public synchronized void loaded() {
+        loading = false;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the flusher has written the frame.
+     */
+    public synchronized void awaitWritten() throws InterruptedException {
+        while (writing)
+            wait();
+    }
+
+    /**
+     * Marks the write of the frame done and wakes up the waiting threads.
+     */
+    public synchronized void written() {
+        writing = false;
+        notifyAll();
+    }
+}
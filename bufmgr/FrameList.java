@@ -0,0 +1,93 @@
+package bufmgr;
+
+/**
+ * A doubly linked list of buffer frames, kept in arrays indexed by frame
+ * number, so that adding, removing and moving a frame take constant
+ * time. A frame is in a list at most once. Used by the replacers that
+ * keep frames in recency order; not synchronized.
+ */
+class FrameList {
+
+    private final int[] prev;
+    private final int[] next;
+    private final boolean[] member;
+    private int head = -1;
+    private int tail = -1;
+    private int size;
+
+    /**
+     * Creates an empty list for frames 0 to numBuffers-1.
+     */
+    FrameList(int numBuffers) {
+        prev = new int[numBuffers];
+        next = new int[numBuffers];
+        member = new boolean[numBuffers];
+    }
+
+    /**
+     * Appends a frame that is not in the list.
+     */
+    void addLast(int frameNo) {
+        prev[frameNo] = tail;
+        next[frameNo] = -1;
+        if (tail < 0)
+            head = frameNo;
+        else
+            next[tail] = frameNo;
+        tail = frameNo;
+        member[frameNo] = true;
+        size++;
+    }
+
+    /**
+     * Removes a frame, if it is in the list.
+     */
+    void remove(int frameNo) {
+        if (!member[frameNo])
+            return;
+        int p = prev[frameNo];
+        int n = next[frameNo];
+        if (p < 0)
+            head = n;
+        else
+            next[p] = n;
+        if (n < 0)
+            tail = p;
+        else
+            prev[n] = p;
+        member[frameNo] = false;
+        size--;
+    }
+
+    /**
+     * Moves a frame that is in the list to its end.
+     */
+    void moveToLast(int frameNo) {
+        if (tail != frameNo) {
+            remove(frameNo);
+            addLast(frameNo);
+        }
+    }
+
+    boolean contains(int frameNo) {
+        return member[frameNo];
+    }
+
+    /**
+     * @return the first frame, -1 if the list is empty.
+     */
+    int first() {
+        return head;
+    }
+
+    /**
+     * @return the frame after the given one, -1 at the end.
+     */
+    int next(int frameNo) {
+        return next[frameNo];
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -77,12 +77,25 @@ class LRU extends  Replacer {
    * @param	 frameNo	 the frame number to pin
    * @exception  InvalidFrameNumberException
    */
- public void pin(int frameNo) throws InvalidFrameNumberException
+ public synchronized void pin(int frameNo) throws InvalidFrameNumberException
  {
     super.pin(frameNo);
 
     update(frameNo);
     
+ }
+
+  /**
+   * The pages kept by a resize are in the first frames; they are the
+   * frames in use, oldest first.
+   *
+   * @param	frameNo	the frame number
+   */
+ synchronized void resident(int frameNo)
+ {
+    super.resident(frameNo);
+
+    frames[nframes++] = frameNo;
  }
 
   /**
@@ -91,26 +104,28 @@ class LRU extends  Replacer {
    *
    * @return 	return the frame number
    *		return -1 if failed
+   * @exception  BufMgrException the victim could not be written
    */
 
- public int pick_victim()
+ public synchronized int pick_victim() throws BufMgrException
  {
    int numBuffers = mgr.getNumBuffers();
    int frame;
    
-    if ( nframes < numBuffers ) {
+    while ( nframes < numBuffers ) {
         frame = nframes++;
         frames[frame] = frame;
-        state_bit[frame].state = Pinned;
-        (mgr.frameTable())[frame].pin();
-        return frame;
+        if ( mgr.claimFrame(frame) ) {
+            state_bit[frame].state = Pinned;
+            return frame;
+        }
     }
 
     for ( int i = 0; i < numBuffers; ++i ) {
          frame = frames[i];
-        if ( state_bit[frame].state != Pinned ) {
+        if ( (mgr.frameTable())[frame].pin_count() == 0
+                && mgr.claimFrame(frame) ) {
             state_bit[frame].state = Pinned;
-            (mgr.frameTable())[frame].pin();
             update(frame);
             return frame;
         }
@@ -0,0 +1,120 @@
+package bufmgr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-2 replacement (O'Neil, O'Neil and Weikum): replaces the page whose
+ * second most recent reference is oldest. Pages referenced only once,
+ * such as the pages of a scan, have no second reference and go first,
+ * oldest first, so they cannot push out pages that are used over and
+ * over, such as the upper levels of a B+ tree.
+ * <p>
+ * The last reference of a replaced page is kept for a while (for as
+ * many pages as there are frames), so that a page read back soon after
+ * it was replaced keeps its history. Choosing a victim looks at every
+ * frame, like LRU does.
+ */
+class LRU2 extends PageReplacer {
+
+    /**
+     * Time of the last and the second to last reference of the page in
+     * each frame; 0 for none. Time counts references.
+     */
+    private long[] last;
+    private long[] previous;
+    private long now;
+
+    /**
+     * Last reference of recently replaced pages, oldest first.
+     */
+    private LinkedHashMap<Integer, Long> history;
+
+    public LRU2(BufMgr mgrArg) {
+        super(mgrArg);
+    }
+
+    protected void setBufferManager(BufMgr mgrArg) {
+        super.setBufferManager(mgrArg);
+
+        final int numBuffers = mgr.getNumBuffers();
+        last = new long[numBuffers];
+        previous = new long[numBuffers];
+        now = 0;
+        history = new LinkedHashMap<Integer, Long>() {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return size() > numBuffers;
+            }
+        };
+    }
+
+    protected void admit(int frameNo, int pid) {
+        Long before = history.remove(pid);
+        previous[frameNo] = (before == null) ? 0 : before;
+        last[frameNo] = ++now;
+    }
+
+    protected void forget(int frameNo) {
+        // no lists; admit sets the reference times
+    }
+
+    protected void hit(int frameNo) {
+        previous[frameNo] = last[frameNo];
+        last[frameNo] = ++now;
+    }
+
+    protected int victim() throws BufMgrException {
+        int numBuffers = mgr.getNumBuffers();
+        FrameDesc[] frames = mgr.frameTable();
+
+        // A frame may be skipped by claim when it is being written;
+        // then look for the next best one.
+        long afterPrevious = -1;
+        long afterLast = -1;
+        while (true) {
+            int best = -1;
+            for (int i = 0; i < numBuffers; i++) {
+                if (pages[i] == INVALID_PAGE || frames[i].pin_count() != 0)
+                    continue;
+                if (!after(previous[i], last[i], afterPrevious, afterLast))
+                    continue;
+                if (best < 0 || after(previous[best], last[best], previous[i], last[i]))
+                    best = i;
+            }
+            if (best < 0)
+                return -1;
+
+            int pid = pages[best];
+            if (claim(best)) {
+                history.put(pid, last[best]);
+                return best;
+            }
+            afterPrevious = previous[best];
+            afterLast = last[best];
+        }
+    }
+
+    /**
+     * Whether reference times (previous1, last1) order after (previous2,
+     * last2). Last references are unique, so no two frames are equal.
+     */
+    private static boolean after(long previous1, long last1, long previous2, long last2) {
+        return previous1 > previous2 || (previous1 == previous2 && last1 > last2);
+    }
+
+    public String name() {
+        return "LRU-2";
+    }
+
+    public void info() {
+        super.info();
+
+        System.out.print("LRU-2 REPLACEMENT");
+        for (int i = 0; i < mgr.getNumBuffers(); i++) {
+            if (i % 5 == 0)
+                System.out.println();
+            System.out.print("\t" + i + ":" + previous[i] + "/" + last[i]);
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,796 @@
+package bufmgr;
+
+import diskmgr.Page;
+import global.PageId;
+import global.SystemDefs;
+import heap.HFPage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Redo-only write-ahead log of the pages of a database, in the file
+ * &lt;log name&gt;.wal next to it.
+ * <p>
+ * A thread changes pages between begin() and commit(). Every page it
+ * unpins dirty meanwhile stays pinned by the transaction, so the buffer
+ * manager cannot write it to disk before the transaction is logged. At
+ * commit() the images of these pages are appended to the log, followed
+ * by a commit record, and the pages are unpinned once the log is on
+ * disk. Each page that is an HFPage gets the LSN of its record, its
+ * offset in the log, in its header.
+ * <p>
+ * With group commit, a thread that finds the log being forced waits for
+ * that force to finish and then forces, in one write, the records of
+ * every transaction that committed meanwhile. Without it, every commit
+ * writes and forces its own records while the others wait.
+ * <p>
+ * abort() ends a transaction without logging it: its pages go back to
+ * what the last commit that logged them left, or to what is on disk.
+ * <p>
+ * recover() applies the pages of every complete transaction in the log,
+ * skipping those whose LSN on disk is already as new, and checkpoint()
+ * empties the log once the pages are written. The LSNs go on from one
+ * log to the next.
+ * <p>
+ * Pages of a transaction are logged whole, so two threads that change
+ * the same page log each other's changes; only a commit of the same
+ * thread makes its changes durable together.
+ */
+public class LogMgr {
+
+    private static final int MAGIC = 0x57414c31;  // "WAL1"
+
+    /**
+     * The log starts with its magic number, the page size and the LSN of
+     * its first record.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private static final byte PAGE = 1;
+    private static final byte COMMIT = 2;
+
+    /**
+     * Pages changed by the transaction of a thread, in the order it
+     * changed them first.
+     */
+    private static class Txn {
+        int depth;
+        int[] pids = new int[16];
+        int count;
+        final HashSet<Integer> held = new HashSet<Integer>();
+        boolean aborted;
+    }
+
+    private final ThreadLocal<Txn> txn = new ThreadLocal<Txn>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong aborts = new AtomicLong();
+
+    private final String filename;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int pageSize;
+    private final boolean groupCommit;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * LSN of the first byte of the file after the header.
+     */
+    private long base;
+
+    /**
+     * LSN of the next record.
+     */
+    private long nextLsn;
+
+    /**
+     * LSN of the last record of each page logged since the checkpoint.
+     */
+    private final HashMap<Integer, Long> logged = new HashMap<Integer, Long>();
+
+    /**
+     * Everything before this LSN is on disk.
+     */
+    private long durableLsn;
+
+    /**
+     * Records appended but not written yet, from durableLsn on.
+     */
+    private byte[] pending = new byte[1 << 16];
+    private int pendingLen;
+    private byte[] spare = new byte[1 << 16];
+    private boolean forcing;
+    private long groupDelay;
+
+    private long commits;
+    private long forces;
+    private long pagesLogged;
+    private long forceNanos;
+
+    /**
+     * Opens the log of a database to append to it. The log must not hold
+     * records that recover() has not applied yet; it is created if there
+     * is none.
+     *
+     * @param logname     the name the log file is derived from.
+     * @param groupCommit true to force the records of concurrent commits
+     *                    together.
+     * @throws LogMgrException the log could not be opened.
+     */
+    public LogMgr(String logname, boolean groupCommit)
+            throws LogMgrException {
+        this.filename = fileName(logname);
+        this.pageSize = SystemDefs.JavabasePageSize;
+        this.groupCommit = groupCommit;
+        try {
+            boolean exists = new File(filename).length() >= HEADER_SIZE;
+            file = new RandomAccessFile(filename, "rw");
+            channel = file.getChannel();
+            if (exists) {
+                readHeader(file, pageSize);
+                base = file.readLong();
+                if (file.length() > HEADER_SIZE)
+                    throw new LogMgrException(null, "LOGMGR: log " + filename + " not recovered");
+            } else {
+                writeHeader(file, pageSize, 0);
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            throw new LogMgrException(e, "LOGMGR: cannot open " + filename);
+        }
+        nextLsn = base;
+        durableLsn = base;
+    }
+
+    /**
+     * Name of the log file of a database.
+     */
+    public static String fileName(String logname) {
+        return logname + ".wal";
+    }
+
+    /**
+     * Starts a transaction on this thread, or nests in the one it has
+     * open; only the outermost commit() ends it.
+     */
+    public void begin() {
+        Txn t = txn.get();
+        if (t == null) {
+            t = new Txn();
+            txn.set(t);
+            active.incrementAndGet();
+        }
+        t.depth++;
+    }
+
+    /**
+     * Ends the innermost begin() of this thread. The outermost one logs
+     * the pages the transaction changed and returns once the log is on
+     * disk. A transaction that changed nothing writes nothing.
+     *
+     * @throws LogMgrException the log could not be written; the pages stay
+     *                         pinned.
+     */
+    public void commit()
+            throws LogMgrException {
+        waitFor(end());
+    }
+
+    /**
+     * The first half of commit(), for callers that lock what they change:
+     * ends the innermost begin() and, for the outermost one, appends the
+     * images of the pages to the log while they cannot change. The pages
+     * stay pinned until waitFor() is called.
+     *
+     * @return the LSN the log has to reach for the transaction to be
+     * durable, -1 if there is nothing to wait for.
+     * @throws LogMgrException the pages could not be read, or the
+     *                         transaction was aborted; its pages are then
+     *                         dropped as by abort().
+     */
+    public long end()
+            throws LogMgrException {
+        Txn t = txn.get();
+        if (t == null || t.depth == 0)
+            throw new LogMgrException(null, "LOGMGR: commit without begin");
+        if (--t.depth > 0)
+            return -1;
+        if (t.aborted) {
+            drop(t);
+            throw new LogMgrException(null, "LOGMGR: commit of an aborted transaction");
+        }
+        if (t.count == 0) {
+            txn.remove();
+            active.decrementAndGet();
+            return -1;
+        }
+
+        // the transaction pins every page, so these are hits
+        byte[][] frames = new byte[t.count][];
+        PageId pageNo = new PageId();
+        Page page = new Page();
+        try {
+            for (int i = 0; i < t.count; i++) {
+                pageNo.pid = t.pids[i];
+                SystemDefs.JavabaseBM.pinPage(pageNo, page, false);
+                frames[i] = page.getpage();
+            }
+        } catch (Exception e) {
+            throw new LogMgrException(e, "LOGMGR: cannot pin a page of the transaction");
+        }
+
+        long end;
+        synchronized (this) {
+            try {
+                for (int i = 0; i < t.count; i++) {
+                    if (HFPage.getLSN(frames[i], t.pids[i]) >= 0)
+                        HFPage.setLSN(frames[i], nextLsn);
+                    logged.put(t.pids[i], nextLsn);
+                    append(PAGE, t.pids[i], frames[i]);
+                }
+                append(COMMIT, t.count, null);
+            } catch (IOException e) {
+                throw new LogMgrException(e, "LOGMGR: cannot stamp a page");
+            }
+            end = nextLsn;
+            commits++;
+            pagesLogged += t.count;
+            if (!groupCommit)
+                force(end);
+        }
+
+        try {
+            for (int i = 0; i < t.count; i++) {
+                pageNo.pid = t.pids[i];
+                SystemDefs.JavabaseBM.unpinPage(pageNo, false);
+            }
+        } catch (Exception e) {
+            throw new LogMgrException(e, "LOGMGR: cannot unpin a page of the transaction");
+        }
+        return end;
+    }
+
+    /**
+     * The second half of commit(): returns once the log is on disk up to
+     * the LSN end() returned, and unpins the pages of the transaction.
+     *
+     * @param end what end() returned.
+     * @throws LogMgrException the log could not be written; the pages stay
+     *                         pinned.
+     */
+    public void waitFor(long end)
+            throws LogMgrException {
+        if (end < 0)
+            return;
+        Txn t = txn.get();
+        if (groupCommit)
+            flushTo(end);
+
+        txn.remove();
+        active.decrementAndGet();
+        try {
+            PageId pageNo = new PageId();
+            for (int i = 0; i < t.count; i++) {
+                pageNo.pid = t.pids[i];
+                SystemDefs.JavabaseBM.unpinPage(pageNo, true);
+            }
+        } catch (Exception e) {
+            throw new LogMgrException(e, "LOGMGR: cannot unpin a page of the transaction");
+        }
+    }
+
+    /**
+     * Ends the innermost begin() of this thread without logging anything,
+     * for an operation that failed. The outermost one puts back the pages
+     * the transaction changed, each as the last commit that logged it
+     * left it or else as it is on disk, and unpins them. An outer commit()
+     * of an aborted transaction fails. What the operation changed outside
+     * the pages is not undone.
+     *
+     * @throws LogMgrException the pages could not be put back.
+     */
+    public void abort()
+            throws LogMgrException {
+        Txn t = txn.get();
+        if (t == null || t.depth == 0)
+            throw new LogMgrException(null, "LOGMGR: abort without begin");
+        t.aborted = true;
+        if (--t.depth == 0)
+            drop(t);
+    }
+
+    /**
+     * Puts back the pages of an aborted transaction and ends it. The
+     * transaction stays active until then, so no checkpoint empties the
+     * log it reads.
+     */
+    private void drop(Txn t)
+            throws LogMgrException {
+        try {
+            long[] lsns = new long[t.count];
+            long last = -1;
+            synchronized (this) {
+                for (int i = 0; i < t.count; i++) {
+                    Long lsn = logged.get(t.pids[i]);
+                    lsns[i] = (lsn == null) ? -1 : lsn;
+                    last = Math.max(last, lsns[i]);
+                }
+                if (last >= 0 && !groupCommit && durableLsn < nextLsn)
+                    force(nextLsn);
+            }
+            // the images to read back may still be pending
+            if (last >= 0 && groupCommit)
+                flushTo(last + 1);
+
+            PageId pageNo = new PageId();
+            byte[] image = new byte[pageSize];
+            for (int i = 0; i < t.count; i++) {
+                pageNo.pid = t.pids[i];
+                if (lsns[i] >= 0) {
+                    read(image, lsns[i]);
+                    SystemDefs.JavabaseBM.restorePage(pageNo, image);
+                } else {
+                    SystemDefs.JavabaseBM.restorePage(pageNo, null);
+                }
+            }
+        } catch (LogMgrException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LogMgrException(e, "LOGMGR: cannot put back a page of the transaction");
+        } finally {
+            txn.remove();
+            aborts.incrementAndGet();
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Number of transactions aborted so far. A file that keeps the
+     * contents of its pages in memory builds it again when this changes.
+     */
+    public long getAborts() {
+        return aborts.get();
+    }
+
+    /**
+     * Reads the image of the page record at an LSN that is on disk.
+     */
+    private void read(byte[] image, long lsn)
+            throws LogMgrException {
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(image);
+            long position = HEADER_SIZE + (lsn - base) + 1 + 4;
+            while (bb.hasRemaining()) {
+                int n = channel.read(bb, position);
+                if (n < 0)
+                    throw new EOFException();
+                position += n;
+            }
+        } catch (IOException e) {
+            throw new LogMgrException(e, "LOGMGR: cannot read " + filename);
+        }
+    }
+
+    /**
+     * Number of pages the transaction of this thread holds pinned, 0 if
+     * it has none open. Long transactions commit before the pages fill
+     * the buffer pool.
+     */
+    public int held() {
+        Txn t = txn.get();
+        return (t == null) ? 0 : t.count;
+    }
+
+    /**
+     * Called by BufMgr.unpinPage for a dirty page: lets the transaction
+     * of this thread keep the pin if it did not change the page before.
+     *
+     * @return true if the transaction keeps the pin.
+     */
+    boolean hold(int pid) {
+        Txn t = txn.get();
+        if (t == null || t.depth == 0 || !t.held.add(pid))
+            return false;
+        if (t.count == t.pids.length)
+            t.pids = Arrays.copyOf(t.pids, 2 * t.count);
+        t.pids[t.count++] = pid;
+        return true;
+    }
+
+    /**
+     * Called by BufMgr.freePage: the transaction of this thread no longer
+     * logs the page.
+     *
+     * @return true if the transaction held the page; the caller unpins it.
+     */
+    boolean release(int pid) {
+        Txn t = txn.get();
+        if (t == null || t.depth == 0 || !t.held.remove(pid))
+            return false;
+        for (int i = 0; i < t.count; i++)
+            if (t.pids[i] == pid) {
+                System.arraycopy(t.pids, i + 1, t.pids, i, t.count - i - 1);
+                t.count--;
+                break;
+            }
+        return true;
+    }
+
+    /**
+     * Sets how long, in microseconds, a commit that has to force the log
+     * waits first for other commits to join it. 0, the default, forces at
+     * once. Only used with group commit.
+     */
+    public void setGroupDelay(long micros) {
+        groupDelay = micros;
+    }
+
+    /**
+     * Writes every dirty page of the buffer pool and empties the log.
+     *
+     * @throws LogMgrException a transaction is open, or the pages or the
+     *                         log could not be written.
+     */
+    public synchronized void checkpoint()
+            throws LogMgrException {
+        if (active.get() != 0)
+            throw new LogMgrException(null, "LOGMGR: checkpoint with open transactions");
+        try {
+            SystemDefs.JavabaseBM.writeDirtyPages();
+        } catch (Exception e) {
+            throw new LogMgrException(e, "LOGMGR: cannot write the pages at a checkpoint");
+        }
+        try {
+            base = nextLsn;
+            durableLsn = nextLsn;
+            pendingLen = 0;
+            logged.clear();
+            writeHeader(file, pageSize, base);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new LogMgrException(e, "LOGMGR: cannot empty " + filename);
+        }
+    }
+
+    /**
+     * Closes the log file. Committed transactions are in the log, but
+     * their pages may not be in the database until recover() runs.
+     */
+    public synchronized void close()
+            throws LogMgrException {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new LogMgrException(e, "LOGMGR: cannot close " + filename);
+        }
+    }
+
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getForces() {
+        return forces;
+    }
+
+    public synchronized long getPagesLogged() {
+        return pagesLogged;
+    }
+
+    /**
+     * @return the LSN the next record will get.
+     */
+    public synchronized long getLsn() {
+        return nextLsn;
+    }
+
+    public synchronized void resetCounters() {
+        commits = 0;
+        forces = 0;
+        pagesLogged = 0;
+        forceNanos = 0;
+    }
+
+    /**
+     * Prints the commits, forces and log volume since the last reset.
+     */
+    public synchronized void printStats(PrintStream out) {
+        out.printf("log: %d commits, %d forces (%.1f commits/force), %d pages, %.1f ms/force%n",
+                commits, forces, (forces == 0) ? 0.0 : (double) commits / forces,
+                pagesLogged, (forces == 0) ? 0.0 : forceNanos / 1e6 / forces);
+    }
+
+    /**
+     * Appends a record to the pending records. A page record holds the
+     * page number and image, a commit record the number of pages before
+     * it; both end with a CRC.
+     */
+    private void append(byte type, int value, byte[] image) {
+        int len = 1 + 4 + ((image != null) ? image.length : 0) + 4;
+        if (pendingLen + len > pending.length)
+            pending = Arrays.copyOf(pending, Math.max(2 * pending.length, pendingLen + len));
+        int start = pendingLen;
+        pending[pendingLen++] = type;
+        putInt(pending, pendingLen, value);
+        pendingLen += 4;
+        if (image != null) {
+            System.arraycopy(image, 0, pending, pendingLen, image.length);
+            pendingLen += image.length;
+        }
+        crc.reset();
+        crc.update(pending, start, pendingLen - start);
+        putInt(pending, pendingLen, (int) crc.getValue());
+        pendingLen += 4;
+        nextLsn += len;
+    }
+
+    /**
+     * Writes and forces the pending records, with the monitor held.
+     */
+    private void force(long end)
+            throws LogMgrException {
+        long start = System.nanoTime();
+        write(pending, pendingLen, durableLsn);
+        pendingLen = 0;
+        durableLsn = end;
+        forces++;
+        forceNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Returns once the log is on disk up to end. One thread at a time
+     * forces the log, taking all records appended until it starts.
+     */
+    private void flushTo(long end)
+            throws LogMgrException {
+        byte[] buf;
+        int len;
+        long from, to;
+        synchronized (this) {
+            while (forcing && durableLsn < end)
+                waitForForce();
+            if (durableLsn >= end)
+                return;
+            forcing = true;
+        }
+
+        if (groupDelay > 0) {
+            try {
+                Thread.sleep(groupDelay / 1000, (int) (groupDelay % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            buf = pending;
+            len = pendingLen;
+            pending = spare;
+            pendingLen = 0;
+            from = durableLsn;
+            to = nextLsn;
+        }
+
+        long start = System.nanoTime();
+        try {
+            write(buf, len, from);
+        } catch (LogMgrException e) {
+            synchronized (this) {
+                forcing = false;
+                notifyAll();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            spare = buf;
+            durableLsn = to;
+            forcing = false;
+            forces++;
+            forceNanos += System.nanoTime() - start;
+            notifyAll();
+        }
+    }
+
+    private void waitForForce()
+            throws LogMgrException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            throw new LogMgrException(e, "LOGMGR: interrupted waiting for the log");
+        }
+    }
+
+    /**
+     * Writes records that start at LSN from and forces them to disk.
+     */
+    private void write(byte[] buf, int len, long from)
+            throws LogMgrException {
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+            long position = HEADER_SIZE + (from - base);
+            while (bb.hasRemaining())
+                position += channel.write(bb, position);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new LogMgrException(e, "LOGMGR: cannot write " + filename);
+        }
+    }
+
+    /**
+     * Applies the log of a database to its pages after a crash: the
+     * pages of each transaction that has its commit record, in log order.
+     * A page whose LSN on disk is at least that of its record is left
+     * alone. The pages are written, and the log is emptied, keeping its
+     * LSNs. An incomplete or damaged record ends the log. Does nothing if
+     * the database has no log.
+     *
+     * @param logname the name the log file is derived from.
+     * @return true if any page was changed.
+     * @throws LogMgrException the log could not be read or the pages could
+     *                         not be written.
+     */
+    public static boolean recover(String logname)
+            throws LogMgrException {
+        String filename = fileName(logname);
+        File f = new File(filename);
+        if (f.length() <= HEADER_SIZE)
+            return false;
+
+        int pageSize = SystemDefs.JavabasePageSize;
+        long base;
+        long length = f.length();
+        int commits = 0;
+        int redone = 0;
+        int skipped = 0;
+        long start = System.currentTimeMillis();
+
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(f), 1 << 16));
+            try {
+                readHeader(in, pageSize);
+                base = in.readLong();
+
+                CRC32 check = new CRC32();
+                byte[] record = new byte[1 + 4 + pageSize + 4];
+                ArrayList<byte[]> images = new ArrayList<byte[]>();
+                ArrayList<Integer> pids = new ArrayList<Integer>();
+                ArrayList<Long> lsns = new ArrayList<Long>();
+                long lsn = base;
+                PageId pageNo = new PageId();
+                Page page = new Page();
+
+                while (true) {
+                    try {
+                        in.readFully(record, 0, 5);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int value = getInt(record, 1);
+                    int len;
+                    if (record[0] == PAGE)
+                        len = 5 + pageSize;
+                    else if (record[0] == COMMIT && value == images.size())
+                        len = 5;
+                    else
+                        break;
+                    try {
+                        in.readFully(record, 5, len - 5 + 4);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    check.reset();
+                    check.update(record, 0, len);
+                    if (getInt(record, len) != (int) check.getValue())
+                        break;
+
+                    if (record[0] == PAGE) {
+                        images.add(Arrays.copyOfRange(record, 5, len));
+                        pids.add(value);
+                        lsns.add(lsn);
+                    } else {
+                        for (int i = 0; i < images.size(); i++) {
+                            pageNo.pid = pids.get(i);
+                            SystemDefs.JavabaseBM.pinPage(pageNo, page, false);
+                            byte[] frame = page.getpage();
+                            long onDisk = HFPage.getLSN(frame, pageNo.pid);
+                            if (onDisk >= 0 && HFPage.getLSN(images.get(i), pageNo.pid) >= 0
+                                    && onDisk >= lsns.get(i)) {
+                                skipped++;
+                                SystemDefs.JavabaseBM.unpinPage(pageNo, false);
+                            } else {
+                                System.arraycopy(images.get(i), 0, frame, 0, pageSize);
+                                redone++;
+                                SystemDefs.JavabaseBM.unpinPage(pageNo, true);
+                            }
+                        }
+                        commits++;
+                        images.clear();
+                        pids.clear();
+                        lsns.clear();
+                    }
+                    lsn += len + 4;
+                }
+            } finally {
+                in.close();
+            }
+
+            SystemDefs.JavabaseBM.writeDirtyPages();
+
+            // records cut off by the crash may have stamped pages still in
+            // the pool, so the next LSN is past the whole file
+            RandomAccessFile out = new RandomAccessFile(f, "rw");
+            try {
+                writeHeader(out, pageSize, base + length - HEADER_SIZE);
+                out.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+        } catch (LogMgrException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LogMgrException(e, "LOGMGR: cannot recover from " + filename);
+        }
+
+        System.out.println("Recovery: " + commits + " commits, " + redone + " pages redone, "
+                + skipped + " already on disk, " + (System.currentTimeMillis() - start) + " ms");
+        return redone > 0;
+    }
+
+    /**
+     * Removes the log of a database, when a new database replaces it.
+     */
+    public static void discard(String logname) {
+        new File(fileName(logname)).delete();
+    }
+
+    private static void readHeader(java.io.DataInput in, int pageSize)
+            throws IOException, LogMgrException {
+        if (in.readInt() != MAGIC)
+            throw new LogMgrException(null, "LOGMGR: not a log file");
+        int size = in.readInt();
+        if (size != pageSize)
+            throw new LogMgrException(null, "LOGMGR: log page size " + size
+                    + " does not match page size " + pageSize);
+    }
+
+    /**
+     * Writes the header and cuts the file after it.
+     */
+    private static void writeHeader(RandomAccessFile file, int pageSize, long base)
+            throws IOException {
+        file.setLength(HEADER_SIZE);
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(pageSize);
+        file.writeLong(base);
+    }
+
+    private static void putInt(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 24);
+        buf[pos + 1] = (byte) (value >>> 16);
+        buf[pos + 2] = (byte) (value >>> 8);
+        buf[pos + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] buf, int pos) {
+        return ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16)
+                | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+    }
+}
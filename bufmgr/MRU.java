@@ -94,13 +94,26 @@ public  MRU(BufMgr mgrArg)
  * @@exception  InvalidFrameNumberException
  */
 
-public void pin(int frameNo) throws InvalidFrameNumberException
+public synchronized void pin(int frameNo) throws InvalidFrameNumberException
 {
     super.pin(frameNo);
 
     update(frameNo);
 }
 
+/**
+ * The pages kept by a resize are in the first frames; they go into
+ * the list as if they had been pinned in order.
+ *
+ * @param       frameNo  the frame number
+ */
+synchronized void resident(int frameNo)
+{
+    super.resident(frameNo);
+
+    update(frameNo);
+}
+
   /** 
    * Finding a free frame in the buffer pool
    * or choosing a page to replace using MRU policy
@@ -110,7 +123,7 @@ public void pin(int frameNo) throws InvalidFrameNumberException
    */
  
     
-public int pick_victim()
+public synchronized int pick_victim() throws BufMgrException
 {
    int numBuffers = mgr.getNumBuffers();
    int i, frame;
@@ -122,17 +135,18 @@ public int pick_victim()
             else
                 frames[i] *= -1;
             frame = frames[i];
+            if ( !mgr.claimFrame(frame) )
+                continue;
             state_bit[frame].state = Pinned;
-            (mgr.frameTable())[frame].pin();
             update(frame);
             return frame;
         }
   
     for ( i = 0; i < numBuffers; ++i ) {
          frame = frames[i];
-        if ( state_bit[frame].state != Pinned ) {
+        if ( (mgr.frameTable())[frame].pin_count() == 0
+                && mgr.claimFrame(frame) ) {
             state_bit[frame].state = Pinned;
-            (mgr.frameTable())[frame].pin();
             update(frame);
             return frame;
         }
@@ -0,0 +1,120 @@
+/* File PageExtent.java */
+
+package bufmgr;
+
+import diskmgr.OutOfSpaceException;
+import diskmgr.Page;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+/**
+ * An extent is a run of pages allocated from the DB with a single
+ * allocate_page(start, runsize) call and then handed out one page at a
+ * time, in page order. A file that takes its new pages from its own
+ * extent ends up with physically consecutive pages, so a sequential
+ * scan of the file reads the disk sequentially.
+ * <p>
+ * Pages of the current extent that have not been handed out yet stay
+ * allocated until release() is called.
+ */
+public class PageExtent implements GlobalConst {
+
+    /**
+     * Number of pages allocated at a time.
+     */
+    private int size;
+
+    /**
+     * Next page to hand out.
+     */
+    private PageId next = new PageId(INVALID_PAGE);
+
+    /**
+     * Number of pages of the current extent not handed out yet.
+     */
+    private int left = 0;
+
+    /**
+     * Creates an extent allocator.
+     *
+     * @param size number of pages per extent; 1 allocates page by page.
+     */
+    public PageExtent(int size) {
+        this.size = (size > 1) ? size : 1;
+    }
+
+    /**
+     * Returns the next page of the extent, pinned like BufMgr.newPage
+     * does. A new extent is allocated when the current one is used up;
+     * if the DB has no free run that long, a single page is allocated.
+     *
+     * @param page the page object to point at the new frame.
+     * @return the new page id, null if the page could not be pinned.
+     * @throws BufMgrException allocation or pin failed.
+     */
+    public PageId newPage(Page page)
+            throws BufMgrException {
+
+        if (left == 0) {
+            if (size > 1) {
+                PageId first;
+                try {
+                    first = SystemDefs.JavabaseBM.newPage(page, size);
+                } catch (BufMgrException e) {
+                    // no free run that long: fall back to a single page
+                    if (!(e.prev instanceof OutOfSpaceException))
+                        throw e;
+                    first = null;
+                } catch (Exception e) {
+                    throw new BufMgrException(e, "PageExtent.java: newPage() failed");
+                }
+                if (first != null) {
+                    next.pid = first.pid + 1;
+                    left = size - 1;
+                    return first;
+                }
+            }
+
+            try {
+                return SystemDefs.JavabaseBM.newPage(page, 1);
+            } catch (Exception e) {
+                throw new BufMgrException(e, "PageExtent.java: newPage() failed");
+            }
+        }
+
+        PageId pageId = new PageId(next.pid);
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageId, page, true /*no diskIO*/);
+        } catch (Exception e) {
+            throw new BufMgrException(e, "PageExtent.java: pinPage() failed");
+        }
+        next.pid++;
+        left--;
+        return pageId;
+    }
+
+    /**
+     * Gives the pages of the current extent that were never handed out
+     * back to the DB.
+     *
+     * @throws BufMgrException deallocation failed.
+     */
+    public void release()
+            throws BufMgrException {
+
+        try {
+            for (; left > 0; left--, next.pid++)
+                SystemDefs.JavabaseDB.deallocate_page(new PageId(next.pid));
+        } catch (Exception e) {
+            throw new BufMgrException(e, "PageExtent.java: release() failed");
+        }
+    }
+
+    /**
+     * Returns the number of pages allocated at a time.
+     */
+    public int size() {
+        return size;
+    }
+}
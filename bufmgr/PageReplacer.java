@@ -0,0 +1,191 @@
+package bufmgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * A replacer that knows which page each frame holds, for policies that
+ * treat a page brought in differently from a page hit again and that
+ * remember pages after they were replaced (LRU-2, 2Q, ARC).
+ * <p>
+ * The buffer manager calls pin both for a hit and right after it put a
+ * new page into a frame; pin tells the two apart by the page id it saw
+ * in the frame last time. A pin of a page that is already pinned is not
+ * counted as a new reference, so that a page pinned several times by
+ * one operation does not look hot.
+ * <p>
+ * Empty frames, and frames handed out by pick_victim whose page has not
+ * been seen by pin yet, are kept on a free list that pick_victim takes
+ * from first. All other frames belong to the lists of the policy.
+ * Frames emptied by freePage stay where they are until the policy
+ * replaces them. A frame reused by the ring of a BufAccessStrategy
+ * leaves the lists of the policy when pin sees its new page.
+ */
+abstract class PageReplacer extends Replacer {
+
+    /**
+     * Page each frame held when pin last saw it, INVALID_PAGE for a free
+     * frame.
+     */
+    protected int[] pages;
+
+    private FrameList free;
+
+    /**
+     * Frames whose page was read ahead and has not been pinned since.
+     */
+    private boolean[] unused;
+
+    protected PageReplacer(BufMgr mgrArg) {
+        super(mgrArg);
+    }
+
+    protected void setBufferManager(BufMgr mgrArg) {
+        super.setBufferManager(mgrArg);
+
+        int numBuffers = mgr.getNumBuffers();
+        pages = new int[numBuffers];
+        free = new FrameList(numBuffers);
+        unused = new boolean[numBuffers];
+        for (int i = 0; i < numBuffers; i++) {
+            pages[i] = INVALID_PAGE;
+            free.addLast(i);
+        }
+    }
+
+    /**
+     * Records a pin, as a new page in the frame or as a hit.
+     *
+     * @param frameNo frame number of the page.
+     * @throws InvalidFrameNumberException if the frame number is out of range.
+     */
+    public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+        super.pin(frameNo);
+
+        FrameDesc frame = (mgr.frameTable())[frameNo];
+        int pid = frame.pageNo.pid;
+        if (pid == INVALID_PAGE)
+            return;
+
+        if (pid != pages[frameNo]) {
+            // from the free list, or from the ring of an access strategy
+            free.remove(frameNo);
+            forget(frameNo);
+            pages[frameNo] = pid;
+            unused[frameNo] = false;
+            admit(frameNo, pid);
+        } else if (unused[frameNo]) {
+            // first pin of a page read ahead: not a second reference
+            unused[frameNo] = false;
+        } else if (frame.pin_count() == 1) {
+            hit(frameNo);
+        }
+    }
+
+    /**
+     * A page read ahead is admitted like a page read in, and its first
+     * pin is not counted as a hit.
+     */
+    public synchronized void prefetched(int frameNo) throws InvalidFrameNumberException {
+        pin(frameNo);
+        unused[frameNo] = true;
+    }
+
+    /**
+     * A page kept by a resize leaves the free list and is admitted like
+     * a page just read in.
+     */
+    synchronized void resident(int frameNo) {
+        super.resident(frameNo);
+
+        int pid = (mgr.frameTable())[frameNo].pageNo.pid;
+        free.remove(frameNo);
+        pages[frameNo] = pid;
+        admit(frameNo, pid);
+    }
+
+    /**
+     * Takes a free frame, or else the frame chosen by the policy.
+     *
+     * @return the frame, pinned and empty.
+     * @throws BufferPoolExceededException if every frame is pinned.
+     * @throws BufMgrException             the victim could not be written.
+     */
+    public synchronized int pick_victim()
+            throws BufferPoolExceededException, BufMgrException {
+
+        for (int frameNo = free.first(); frameNo >= 0; frameNo = free.next(frameNo))
+            if (claim(frameNo))
+                return frameNo;
+
+        int frameNo = victim();
+        if (frameNo < 0)
+            throw new BufferPoolExceededException(null, "BUFMGR: BUFFER_EXCEEDED.");
+
+        pages[frameNo] = INVALID_PAGE;
+        free.addLast(frameNo);
+        return frameNo;
+    }
+
+    /**
+     * A page was put into the frame, which is on no list of the policy.
+     */
+    protected abstract void admit(int frameNo, int pid);
+
+    /**
+     * Removes the frame from the lists of the policy, if it is on one.
+     */
+    protected abstract void forget(int frameNo);
+
+    /**
+     * The page in the frame was referenced again.
+     */
+    protected abstract void hit(int frameNo);
+
+    /**
+     * Chooses a frame of the policy, takes it with claim and removes it
+     * from the lists of the policy. pages[frameNo] still holds the page
+     * that was replaced.
+     *
+     * @return the frame, -1 if every frame is pinned.
+     */
+    protected abstract int victim() throws BufMgrException;
+
+    /**
+     * Takes the frame if it is unpinned.
+     *
+     * @return whether the frame is now pinned and empty.
+     */
+    protected boolean claim(int frameNo) throws BufMgrException {
+        if ((mgr.frameTable())[frameNo].pin_count() != 0 || !mgr.claimFrame(frameNo))
+            return false;
+        state_bit[frameNo].state = Pinned;
+        return true;
+    }
+
+    /**
+     * Takes the first unpinned frame of the list and removes it.
+     *
+     * @return the frame, -1 if every frame on the list is pinned.
+     */
+    protected int claimFirst(FrameList list) throws BufMgrException {
+        for (int frameNo = list.first(); frameNo >= 0; frameNo = list.next(frameNo))
+            if (claim(frameNo)) {
+                list.remove(frameNo);
+                return frameNo;
+            }
+        return -1;
+    }
+
+    /**
+     * Drops the oldest pages of a history list until it holds at most
+     * max pages.
+     */
+    protected static void trim(LinkedHashSet<Integer> history, int max) {
+        Iterator<Integer> oldest = history.iterator();
+        for (int n = history.size(); n > max; n--) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package bufmgr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A file of the pin, unpin and free calls made to a buffer manager, in
+ * the order they were made, for replaying them against other pool sizes
+ * and replacement policies. Each call is one byte for the operation and
+ * four for the page number. Start recording with BufMgr.setTrace.
+ * <p>
+ * A trace is opened either for recording or for reading.
+ */
+public class PinTrace {
+
+    public static final int PIN = 0;
+    public static final int PIN_EMPTY = 1;
+    public static final int UNPIN = 2;
+    public static final int UNPIN_DIRTY = 3;
+    public static final int FREE = 4;
+
+    private DataOutputStream out;
+    private DataInputStream in;
+    private int op;
+    private int pid;
+
+    private PinTrace() {
+    }
+
+    /**
+     * Creates a trace file to record into.
+     */
+    public static PinTrace create(String filename) throws IOException {
+        PinTrace trace = new PinTrace();
+        trace.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        return trace;
+    }
+
+    /**
+     * Opens a trace file to read.
+     */
+    public static PinTrace open(String filename) throws IOException {
+        PinTrace trace = new PinTrace();
+        trace.in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        return trace;
+    }
+
+    /**
+     * Appends a call. Errors are dropped: a trace must not make the
+     * buffer manager fail.
+     */
+    synchronized void record(int op, int pid) {
+        try {
+            out.writeByte(op);
+            out.writeInt(pid);
+        } catch (IOException e) {
+            // the trace is cut short
+        }
+    }
+
+    /**
+     * Reads the next call; see op() and pid().
+     *
+     * @return false at the end of the trace.
+     */
+    public boolean next() throws IOException {
+        try {
+            op = in.readUnsignedByte();
+            pid = in.readInt();
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    public int op() {
+        return op;
+    }
+
+    public int pid() {
+        return pid;
+    }
+
+    public synchronized void close() throws IOException {
+        if (out != null)
+            out.close();
+        if (in != null)
+            in.close();
+    }
+}
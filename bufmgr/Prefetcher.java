@@ -0,0 +1,122 @@
+/* File Prefetcher.java */
+
+package bufmgr;
+
+import diskmgr.PCounter;
+import global.GlobalConst;
+
+import java.util.ArrayDeque;
+
+/**
+ * A background thread that reads pages into the buffer pool ahead of
+ * the scans that asked for them, see ReadAhead. Requests wait in a
+ * short queue; when it is full, new requests are dropped, as the scans
+ * will read the pages themselves anyway. When the thread gets to a page
+ * after the scan has moved on to it, the rest of the request is
+ * dropped too: the scan has read it, and would not come back for it.
+ */
+class Prefetcher extends Thread implements GlobalConst {
+
+    /**
+     * Most requests waiting at a time.
+     */
+    static final int QUEUE_SIZE = 64;
+
+    /**
+     * A run of pages to read: count pages starting at pid, either that
+     * page alone (offset < 0) or a chain in which each page holds the
+     * number of the next one at offset. The pages come at positions seq,
+     * seq + 1, ... in the order of the scan of owner, and count for the
+     * file whose scope the scan requested them in.
+     */
+    private static class Request {
+        int pid;
+        int count;
+        int offset;
+        ReadAhead owner;
+        int epoch;
+        int seq;
+        PCounter.Stats io;
+    }
+
+    private BufMgr mgr;
+
+    private final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+
+    private boolean stopped = false;
+
+    Prefetcher(BufMgr mgr) {
+        super("Prefetcher");
+        this.mgr = mgr;
+        setDaemon(true);
+    }
+
+    /**
+     * Queues a request.
+     *
+     * @return false if the queue was full and the request was dropped.
+     */
+    synchronized boolean request(int pid, int count, int offset, ReadAhead owner, int seq) {
+        if (stopped || queue.size() >= QUEUE_SIZE)
+            return false;
+        Request r = new Request();
+        r.pid = pid;
+        r.count = count;
+        r.offset = offset;
+        r.owner = owner;
+        r.epoch = owner.epoch();
+        r.seq = seq;
+        r.io = PCounter.current();
+        queue.addLast(r);
+        notifyAll();
+        return true;
+    }
+
+    public void run() {
+        while (true) {
+            Request r;
+            synchronized (this) {
+                while (queue.isEmpty() && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                }
+                if (stopped)
+                    return;
+                r = queue.removeFirst();
+            }
+
+            int pid = r.pid;
+            for (int k = 0; k < r.count && pid != INVALID_PAGE; k++) {
+                synchronized (this) {
+                    if (stopped)
+                        return;
+                }
+                if (r.owner.passed(r.epoch, r.seq + k))
+                    break;
+                pid = mgr.readAhead(pid, r.offset, r.owner.strategy(), r.io);
+                if (r.offset < 0)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Stops the thread, dropping the requests not yet started, and
+     * waits until it is done with the page it is reading.
+     */
+    void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            queue.clear();
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
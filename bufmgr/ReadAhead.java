@@ -0,0 +1,178 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+/**
+ * Read-ahead for one scan that follows pages in order, such as the data
+ * pages listed on a heap directory page, the chain of directory pages,
+ * or the chain of B+ tree leaves. The scan tells next about each page it
+ * moves on to. Once it has moved on TRIGGER times in a row, next answers
+ * how many more pages to request, and the scan names them with prefetch
+ * or prefetchChain. A background thread of the buffer manager reads
+ * them into unpinned frames, so that the scan finds them in the pool.
+ * <p>
+ * The depth, the number of pages requested ahead of the scan, adapts.
+ * When the scan reaches a requested page that is in the pool, the
+ * depth grows by one. When the page is still being read, the scan is
+ * waiting for the disk, and the depth doubles. When the page is gone
+ * again, replaced before it was used, the depth is halved. More pages
+ * are requested once half of the requested pages have been reached.
+ * <p>
+ * A ReadAhead is used by one scan in one thread, besides the read-ahead
+ * thread, which asks it whether the scan has passed a page already.
+ * Pages read for a scan
+ * with a BufAccessStrategy go to its ring, and the depth is then kept
+ * to half the ring, so that they do not replace each other.
+ */
+public class ReadAhead implements GlobalConst {
+
+    /**
+     * Default largest depth.
+     */
+    public static final int MAX_DEPTH = 8;
+
+    /**
+     * Pages the scan has to move on to in order before read-ahead starts.
+     */
+    public static final int TRIGGER = 2;
+
+    private static int maxDepth = MAX_DEPTH;
+
+    private final BufAccessStrategy strategy;
+    private final int limit;
+
+    private int depth;
+    private int run;
+
+    /**
+     * Pages the scan has moved on to, and the number of times it has
+     * started over; read by the read-ahead thread.
+     */
+    private volatile int reached;
+    private volatile int epoch;
+
+    /**
+     * Pages requested that the scan has not reached yet.
+     */
+    private int pending;
+
+    private ReadAhead(BufAccessStrategy strategy) {
+        this.strategy = strategy;
+        int max = maxDepth;
+        if (strategy != null)
+            max = Math.min(max, strategy.size() / 2);
+        limit = Math.max(1, max);
+        depth = Math.min(2, limit);
+    }
+
+    /**
+     * Returns a read-ahead for a scan, or null when read-ahead is turned
+     * off.
+     *
+     * @param strategy the buffer access strategy of the scan, null for none.
+     */
+    public static ReadAhead sequential(BufAccessStrategy strategy) {
+        return (maxDepth > 0) ? new ReadAhead(strategy) : null;
+    }
+
+    /**
+     * Sets the largest depth of new read-aheads; 0 turns read-ahead off.
+     */
+    public static void setMaxDepth(int depth) {
+        maxDepth = depth;
+    }
+
+    public static int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The scan moves on to the page, before pinning it.
+     *
+     * @param pageNo the page the scan moves on to.
+     * @return the number of pages to request now, after the pending ones;
+     * 0 for none.
+     */
+    public int next(PageId pageNo) {
+        run++;
+        reached++;
+        if (pending > 0) {
+            pending--;
+            switch (SystemDefs.JavabaseBM.residency(pageNo.pid)) {
+                case BufMgr.RESIDENT:
+                    depth = Math.min(limit, depth + 1);
+                    break;
+                case BufMgr.LOADING:
+                    depth = Math.min(limit, 2 * depth);
+                    break;
+                default:
+                    depth = Math.max(1, depth / 2);
+                    break;
+            }
+        }
+
+        if (run < TRIGGER || pending > depth / 2)
+            return 0;
+        return depth - pending;
+    }
+
+    /**
+     * Returns the number of pages requested that the scan has not
+     * reached yet. They come first after the current page; a scan that
+     * names pages one by one skips them.
+     */
+    public int pending() {
+        return pending;
+    }
+
+    /**
+     * Requests one page.
+     */
+    public void prefetch(PageId pageNo) {
+        if (SystemDefs.JavabaseBM.prefetch(pageNo.pid, 1, -1, this, reached + pending))
+            pending++;
+    }
+
+    /**
+     * Requests count pages of a chain, after the pending ones. Each page
+     * of the chain holds the number of the next page at offset.
+     *
+     * @param first  the page after the current page of the scan.
+     * @param count  the number of pages to request.
+     * @param offset where the pages hold the number of the next page.
+     */
+    public void prefetchChain(PageId first, int count, int offset) {
+        if (first.pid == INVALID_PAGE)
+            return;
+        if (SystemDefs.JavabaseBM.prefetch(first.pid, pending + count, offset, this, reached))
+            pending += count;
+    }
+
+    /**
+     * Starts over, for a scan that moved somewhere else than the next
+     * page.
+     */
+    public void reset() {
+        run = 0;
+        pending = 0;
+        epoch++;
+    }
+
+    BufAccessStrategy strategy() {
+        return strategy;
+    }
+
+    int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Tells whether the scan has moved on to the page at position seq of
+     * a request made in epoch, or started over since.
+     */
+    boolean passed(int epoch, int seq) {
+        return epoch != this.epoch || reached > seq;
+    }
+}
@@ -9,7 +9,7 @@ import global.GlobalConst;
  */
 class STATE {
 
-    int state;
+    volatile int state;
     //  Available = 12;
     //  Referenced = 13;
     //  Pinned = 14;
@@ -20,14 +20,21 @@ class STATE {
  * A super class for buffer pool replacement algorithm. It describes
  * which frame to be picked up for replacement by a certain replace
  * algorithm.
+ * <p>
+ * The buffer manager calls a replacer from many threads at once. The
+ * pin count of a frame is the truth about whether it may be replaced;
+ * the state bits are only hints for the policy. A replacer takes a
+ * victim with BufMgr.claimFrame, which fails if another thread got to
+ * the frame first.
  */
 abstract class Replacer implements GlobalConst {
 
     /**
-     * Pins a candidate page in the buffer pool.
+     * Records that a page in the buffer pool was pinned. The buffer
+     * manager has already incremented the pin count of the frame,
+     * under the page-table lock of the page.
      *
      * @param frameNo frame number of the page.
-     * @return true if successful.
      * @throws InvalidFrameNumberException if the frame number is less than zero
      *                                     or bigger than number of buffers.
      */
@@ -38,11 +45,21 @@ abstract class Replacer implements GlobalConst {
             throw new InvalidFrameNumberException(null, "BUFMGR: BAD_BUFFRAMENO.");
         }
 
-
-        (mgr.frameTable())[frameNo].pin();
         state_bit[frameNo].state = Pinned;
     }
 
+    /**
+     * Records that the read-ahead thread put a page into the frame, which
+     * it took from pick_victim and unpins next. The page has not been
+     * referenced yet.
+     *
+     * @param frameNo frame number of the page.
+     * @throws InvalidFrameNumberException if the frame number is out of range.
+     */
+    public void prefetched(int frameNo) throws InvalidFrameNumberException {
+        pin(frameNo);
+    }
+
     /**
      * Unpins a page in the buffer pool.
      *
@@ -59,15 +76,15 @@ abstract class Replacer implements GlobalConst {
 
         }
 
-        if ((mgr.frameTable())[frameNo].pin_count() == 0) {
+        int pin_cnt = (mgr.frameTable())[frameNo].unpin();
+
+        if (pin_cnt < 0) {
 
             throw new PageUnpinnedException(null, "BUFMGR: PAGE_NOT_PINNED.");
 
         }
 
-        (mgr.frameTable())[frameNo].unpin();
-
-        if ((mgr.frameTable())[frameNo].pin_count() == 0)
+        if (pin_cnt == 0)
             state_bit[frameNo].state = Referenced;
         return true;
 
@@ -88,16 +105,39 @@ abstract class Replacer implements GlobalConst {
 
         }
 
-        (mgr.frameTable())[frameNo].unpin();
+        (mgr.frameTable())[frameNo].release();
         state_bit[frameNo].state = Available;
 
     }
 
 
     /**
-     * Must pin the returned frame.
+     * Tells a new replacer that the frame already holds a page, after
+     * BufMgr.setNumBuffers moved the page there. Called for the frames
+     * that hold a page, in order, before any other call.
+     *
+     * @param frameNo frame number of the page.
+     */
+    void resident(int frameNo) {
+        state_bit[frameNo].state =
+                ((mgr.frameTable())[frameNo].pin_count() != 0) ? Pinned : Referenced;
+    }
+
+    /**
+     * Returns the frame the next victim search starts at. The
+     * write-behind flusher looks at the frames from there on, so that
+     * it cleans the frames that are replaced next.
+     */
+    int victimHand() {
+        return (head + 1) % mgr.getNumBuffers();
+    }
+
+    /**
+     * Must pin the returned frame, by taking it with
+     * BufMgr.claimFrame; the frame is then empty.
      */
-    public abstract int pick_victim() throws BufferPoolExceededException, PagePinnedException;
+    public abstract int pick_victim()
+            throws BufferPoolExceededException, PagePinnedException, BufMgrException;
 
     /**
      * Retruns the name of the replacer algorithm.
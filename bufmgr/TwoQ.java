@@ -0,0 +1,89 @@
+package bufmgr;
+
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha), the full version. A page read in
+ * goes to the FIFO queue A1in. When A1in holds more than a quarter of
+ * the frames its oldest page is replaced and its id moves to the queue
+ * A1out, which remembers as many pages as half the frames. A page read
+ * in while it is on A1out was referenced again soon after its first
+ * use, so it goes to the LRU list Am of hot pages instead. A scan only
+ * ever cycles through A1in and leaves Am alone.
+ */
+class TwoQ extends PageReplacer {
+
+    private FrameList a1in;
+    private FrameList am;
+    private LinkedHashSet<Integer> a1out;
+
+    /**
+     * Sizes of A1in and A1out.
+     */
+    private int kin;
+    private int kout;
+
+    public TwoQ(BufMgr mgrArg) {
+        super(mgrArg);
+    }
+
+    protected void setBufferManager(BufMgr mgrArg) {
+        super.setBufferManager(mgrArg);
+
+        int numBuffers = mgr.getNumBuffers();
+        a1in = new FrameList(numBuffers);
+        am = new FrameList(numBuffers);
+        a1out = new LinkedHashSet<Integer>();
+        kin = Math.max(1, numBuffers / 4);
+        kout = Math.max(1, numBuffers / 2);
+    }
+
+    protected void admit(int frameNo, int pid) {
+        if (a1out.remove(pid))
+            am.addLast(frameNo);
+        else
+            a1in.addLast(frameNo);
+    }
+
+    protected void forget(int frameNo) {
+        a1in.remove(frameNo);
+        am.remove(frameNo);
+    }
+
+    protected void hit(int frameNo) {
+        if (am.contains(frameNo))
+            am.moveToLast(frameNo);
+    }
+
+    protected int victim() throws BufMgrException {
+        int frameNo = (a1in.size() > kin) ? claimFirst(a1in) : -1;
+        if (frameNo < 0) {
+            frameNo = claimFirst(am);
+            if (frameNo >= 0)
+                return frameNo;
+            frameNo = claimFirst(a1in);
+            if (frameNo < 0)
+                return -1;
+        }
+
+        a1out.add(pages[frameNo]);
+        trim(a1out, kout);
+        return frameNo;
+    }
+
+    int victimHand() {
+        int frameNo = (a1in.size() > kin) ? a1in.first() : am.first();
+        return (frameNo < 0) ? 0 : frameNo;
+    }
+
+    public String name() {
+        return "2Q";
+    }
+
+    public void info() {
+        super.info();
+
+        System.out.println("2Q REPLACEMENT A1in " + a1in.size() + " Am " + am.size()
+                + " A1out " + a1out.size());
+    }
+}
@@ -11,14 +11,32 @@ import java.io.RandomAccessFile;
 
 public class BigDB implements GlobalConst {
 
-    private static final int bits_per_page = MAX_SPACE * 8;
+    /**
+     * Smallest and largest supported page sizes. HFPage keeps slot
+     * offsets in shorts, which caps a page at 16K.
+     */
+    public static final int MIN_PAGE_SIZE = 1024;
+    public static final int MAX_PAGE_SIZE = 16384;
 
-    private RandomAccessFile fp;
+    private PageIO fp;
+    private int page_size = MINIBASE_PAGESIZE;
+    private int bits_per_page = MINIBASE_PAGESIZE * 8;
     private int num_pages;
     private String name;
 
     private int type = 1;
 
+    /**
+     * Name of the page I/O backend, see PageIO.
+     */
+    private String io_policy;
+
+    /**
+     * In-memory copy of the space map, null when allocation walks the
+     * space-map pages instead.
+     */
+    private SpaceMap space_map;
+
     public BigDB(int type) {
         this.type = type;
     }
@@ -26,6 +44,15 @@ public class BigDB implements GlobalConst {
     public BigDB() {
     }
 
+    /**
+     * Create a DB object that moves pages through the named backend.
+     *
+     * @param io_policy name of the page I/O backend, null for the default
+     */
+    public BigDB(String io_policy) {
+        this.io_policy = io_policy;
+    }
+
     /**
      * Open the database with the given name.
      *
@@ -42,9 +69,11 @@ public class BigDB implements GlobalConst {
             DiskMgrException {
 
         name = fname;
+        set_page_size(SystemDefs.JavabasePageSize);
 
-        // Creat a random access file
-        fp = new RandomAccessFile(fname, "rw");
+        // Open the file through the page I/O backend
+        fp = PageIO.create(io_policy);
+        fp.open(fname, page_size);
         PageId pageId = new PageId();
         Page apage = new Page();
         pageId.pid = 0;
@@ -57,15 +86,28 @@ public class BigDB implements GlobalConst {
         BigDBFirstPage firstpg = new BigDBFirstPage();
         firstpg.openPage(apage);
         num_pages = firstpg.getNumDBPages();
+        int file_page_size = firstpg.getPageSize();
 
         unpinPage(pageId, false /* undirty*/);
+
+        // A zero page size is a file written before the field existed (1K pages).
+        if (file_page_size == 0)
+            file_page_size = MINIBASE_PAGESIZE;
+        if (file_page_size != page_size)
+            throw new DiskMgrException(null, "DB page size " + file_page_size
+                    + " does not match buffer page size " + page_size);
+
+        // Let the backend know the real size of the file.
+        fp.setNumPages(num_pages);
+
+        load_space_map();
     }
 
 
     /**
      * DB Constructors.
      * Create a database with the specified number of pages where the page
-     * size is the default page size.
+     * size is SystemDefs.JavabasePageSize.
      *
      * @param fname   DB name
      * @param num_pgs number of pages in DB
@@ -82,17 +124,18 @@ public class BigDB implements GlobalConst {
 
         name = new String(fname);
         num_pages = (num_pgs > 2) ? num_pgs : 2;
+        set_page_size(SystemDefs.JavabasePageSize);
 
         File DBfile = new File(name);
 
         DBfile.delete();
 
-        // Creaat a random access file
-        fp = new RandomAccessFile(fname, "rw");
+        // Create the file through the page I/O backend
+        fp = PageIO.create(io_policy);
+        fp.open(fname, page_size);
 
         // Make the file num_pages pages long, filled with zeroes.
-        fp.seek((long) (num_pages * MINIBASE_PAGESIZE - 1));
-        fp.writeByte(0);
+        fp.setNumPages(num_pages);
 
         // Initialize space map and directory pages.
 
@@ -105,8 +148,11 @@ public class BigDB implements GlobalConst {
         BigDBFirstPage firstpg = new BigDBFirstPage(apage);
 
         firstpg.setNumDBPages(num_pages);
+        firstpg.setPageSize(page_size);
         unpinPage(pageId, true /*dirty*/);
 
+        space_map = new SpaceMap(num_pages);
+
         // Calculate how many pages are needed for the space map.  Reserve pages
         // 0 and 1 and as many additional pages for the space map as are needed.
         int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
@@ -157,12 +203,9 @@ public class BigDB implements GlobalConst {
         if ((pageno.pid < 0) || (pageno.pid >= num_pages))
             throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
 
-        // Seek to the correct page
-        fp.seek((long) (pageno.pid * MINIBASE_PAGESIZE));
-
         // Write the appropriate number of bytes.
         try {
-            fp.write(apage.getpage());
+            fp.write(pageno.pid, apage.getpage());
             PCounter.getInstance().writeIncrement();
         } catch (IOException e) {
             throw new FileIOException(e, "DB file I/O error");
@@ -170,6 +213,36 @@ public class BigDB implements GlobalConst {
 
     }
 
+    /**
+     * Write a run of adjacent pages with one sequential write. The pages
+     * are taken one after the other from the buffer.
+     *
+     * @param pageno   the first page of the run
+     * @param buffer   holds the contents of the pages
+     * @param offset   offset in the buffer of the first page
+     * @param runsize  number of pages
+     * @throws InvalidPageNumberException invalid page number
+     * @throws FileIOException            file I/O error
+     * @throws IOException                I/O errors
+     */
+    public void write_pages(PageId pageno, byte[] buffer, int offset, int runsize)
+            throws InvalidPageNumberException,
+            FileIOException,
+            IOException {
+
+        if ((pageno.pid < 0) || (runsize < 1) || (pageno.pid + runsize > num_pages))
+            throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+
+        try {
+            fp.write(pageno.pid, buffer, offset, runsize * page_size);
+            for (int i = 0; i < runsize; i++)
+                PCounter.getInstance().writeIncrement();
+        } catch (IOException e) {
+            throw new FileIOException(e, "DB file I/O error");
+        }
+
+    }
+
     /**
      * Read the contents of the specified page into a Page object
      *
@@ -187,13 +260,10 @@ public class BigDB implements GlobalConst {
         if ((pageno.pid < 0) || (pageno.pid >= num_pages))
             throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
 
-        // Seek to the correct page
-        fp.seek((long) (pageno.pid * MINIBASE_PAGESIZE));
-
         // Read the appropriate number of bytes.
         byte[] buffer = apage.getpage();  //new byte[MINIBASE_PAGESIZE];
         try {
-            fp.read(buffer);
+            fp.read(pageno.pid, buffer);
             PCounter.getInstance().readIncrement();
         } catch (IOException e) {
             throw new FileIOException(e, "DB file I/O error");
@@ -236,7 +306,7 @@ public class BigDB implements GlobalConst {
      * @throws IOException                I/O errors
      * @throws DiskMgrException           error caused by other layers
      */
-    public void allocate_page(PageId start_page_num, int runsize)
+    public synchronized void allocate_page(PageId start_page_num, int runsize)
             throws OutOfSpaceException,
             InvalidRunSizeException,
             InvalidPageNumberException,
@@ -246,6 +316,28 @@ public class BigDB implements GlobalConst {
 
         if (runsize < 0) throw new InvalidRunSizeException(null, "Negative run_size");
 
+        int start = (space_map != null) ? space_map.findRun(runsize)
+                : scan_space_map(runsize);
+
+        if (start < 0)
+            throw new OutOfSpaceException(null, "No space left");
+
+        start_page_num.pid = start;
+        set_bits(start_page_num, runsize, 1);
+    }
+
+    /**
+     * Find a run of free pages by walking the space-map pages from
+     * page 1. This is the allocator used when the space map is not
+     * cached in memory.
+     *
+     * @param runsize the number of pages needed
+     * @return the first page of the run, or -1 if there is none
+     * @throws DiskMgrException error caused by other layers
+     */
+    private int scan_space_map(int runsize)
+            throws DiskMgrException {
+
         int run_size = runsize;
         int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
         int current_run_start = 0;
@@ -306,14 +398,10 @@ public class BigDB implements GlobalConst {
 
         }// end of forloop01
 
-        if (current_run_length >= run_size) {
-            start_page_num.pid = current_run_start;
-            set_bits(start_page_num, run_size, 1);
+        if (current_run_length >= run_size)
+            return current_run_start;
 
-            return;
-        }
-
-        throw new OutOfSpaceException(null, "No space left");
+        return -1;
     }
 
     /**
@@ -328,7 +416,7 @@ public class BigDB implements GlobalConst {
      * @throws IOException                I/O errors
      * @throws DiskMgrException           error caused by other layers
      */
-    public void deallocate_page(PageId start_page_num, int run_size)
+    public synchronized void deallocate_page(PageId start_page_num, int run_size)
             throws InvalidRunSizeException,
             InvalidPageNumberException,
             IOException,
@@ -375,7 +463,7 @@ public class BigDB implements GlobalConst {
      * @throws IOException                I/O errors
      * @throws DiskMgrException           error caused by other layers
      */
-    public void add_file_entry(String fname, PageId start_page_num)
+    public synchronized void add_file_entry(String fname, PageId start_page_num)
             throws FileNameTooLongException,
             InvalidPageNumberException,
             InvalidRunSizeException,
@@ -482,7 +570,7 @@ public class BigDB implements GlobalConst {
      * @throws InvalidPageNumberException invalid page number
      * @throws DiskMgrException           error caused by other layers
      */
-    public void delete_file_entry(String fname)
+    public synchronized void delete_file_entry(String fname)
             throws FileEntryNotFoundException,
             IOException,
             FileIOException,
@@ -554,7 +642,7 @@ public class BigDB implements GlobalConst {
      * @throws InvalidPageNumberException invalid page number
      * @throws DiskMgrException           error caused by other layers
      */
-    public PageId get_file_entry(String name)
+    public synchronized PageId get_file_entry(String name)
             throws IOException,
             FileIOException,
             InvalidPageNumberException,
@@ -628,7 +716,11 @@ public class BigDB implements GlobalConst {
     }
 
     public int db_page_size() {
-        return MINIBASE_PAGESIZE;
+        return page_size;
+    }
+
+    public String db_io_policy() {
+        return fp.name();
     }
 
     /**
@@ -717,6 +809,9 @@ public class BigDB implements GlobalConst {
         if ((start_page.pid < 0) || (start_page.pid + run_size > num_pages))
             throw new InvalidPageNumberException(null, "Bad page number");
 
+        if (space_map != null)
+            space_map.setRun(start_page.pid, run_size, bit);
+
         // Locate the run within the space map.
         int first_map_page = start_page.pid / bits_per_page + 1;
         int last_map_page = (start_page.pid + run_size - 1) / bits_per_page + 1;
@@ -755,23 +850,12 @@ public class BigDB implements GlobalConst {
                 int num_bits_this_byte = (run_size > max_bits_this_byte ?
                         max_bits_this_byte : run_size);
 
-                int imask = 1;
-                int temp;
-                imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-                Integer intmask = new Integer(imask);
-                Byte mask = new Byte(intmask.byteValue());
-                byte bytemask = mask.byteValue();
-
-                if (bit == 1) {
-                    temp = (pgbuf[cur_posi] | bytemask);
-                    intmask = new Integer(temp);
-                    pgbuf[cur_posi] = intmask.byteValue();
-                } else {
+                int imask = ((1 << num_bits_this_byte) - 1) << first_bit_offset;
 
-                    temp = pgbuf[cur_posi] & (255 ^ bytemask);
-                    intmask = new Integer(temp);
-                    pgbuf[cur_posi] = intmask.byteValue();
-                }
+                if (bit == 1)
+                    pgbuf[cur_posi] = (byte) (pgbuf[cur_posi] | imask);
+                else
+                    pgbuf[cur_posi] = (byte) (pgbuf[cur_posi] & ~imask);
                 run_size -= num_bits_this_byte;
 
             }//end of forloop02
@@ -784,6 +868,110 @@ public class BigDB implements GlobalConst {
 
     }
 
+    /**
+     * Check that a page size is supported: a power of two between
+     * MIN_PAGE_SIZE and MAX_PAGE_SIZE.
+     *
+     * @param size the page size in bytes
+     * @return the page size
+     * @throws DiskMgrException the page size is not supported
+     */
+    public static int check_page_size(int size)
+            throws DiskMgrException {
+        if (size < MIN_PAGE_SIZE || size > MAX_PAGE_SIZE || Integer.bitCount(size) != 1)
+            throw new DiskMgrException(null, "unsupported page size " + size);
+        return size;
+    }
+
+    /**
+     * Find the page size of an existing database file without going
+     * through the buffer manager, whose frames have to be sized first.
+     * The first page holds a magic number and the page size ahead of its
+     * file entries, at the same offsets for every page size. Files that
+     * predate the field have no magic number and 1K pages.
+     *
+     * @param fname DB name
+     * @return the page size in bytes
+     * @throws IOException I/O errors
+     */
+    public static int read_page_size(String fname)
+            throws IOException {
+
+        byte[] head = new byte[BigDBFirstPage.FIRST_FILE_ENTRIES];
+        RandomAccessFile file = new RandomAccessFile(fname, "r");
+        try {
+            if (file.length() < head.length)
+                return MINIBASE_PAGESIZE;
+            file.readFully(head);
+        } finally {
+            file.close();
+        }
+        if (Convert.getIntValue(BigDBFirstPage.MAGIC, head) != BigDBFirstPage.DB_MAGIC)
+            return MINIBASE_PAGESIZE;
+        return Convert.getIntValue(BigDBFirstPage.PAGE_SIZE, head);
+    }
+
+    private void set_page_size(int size)
+            throws DiskMgrException {
+        page_size = check_page_size(size);
+        bits_per_page = page_size * 8;
+    }
+
+    /**
+     * Turn the in-memory space map on or off. It is on by default;
+     * with it off, every allocation walks the space-map pages.
+     *
+     * @param enable true to cache the space map in memory
+     * @throws DiskMgrException error caused by other layers
+     */
+    public void setSpaceMapCache(boolean enable)
+            throws DiskMgrException {
+        if (!enable)
+            space_map = null;
+        else if (space_map == null)
+            load_space_map();
+    }
+
+    /**
+     * Read the in-memory space map again from the space-map pages, after
+     * the pages changed under it, as when the write-ahead log redid them.
+     *
+     * @throws DiskMgrException error caused by other layers
+     */
+    public void reload_space_map()
+            throws DiskMgrException {
+        if (space_map != null)
+            load_space_map();
+    }
+
+    /**
+     * Read the space-map pages into the in-memory space map.
+     */
+    private void load_space_map()
+            throws DiskMgrException {
+
+        SpaceMap map = new SpaceMap(num_pages);
+        int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+        int num_bytes = (num_pages + 7) / 8;
+        PageId pgid = new PageId();
+        Page apage = new Page();
+
+        for (int i = 0; i < num_map_pages; i++) {
+            pgid.pid = 1 + i;
+            pinPage(pgid, apage, false /*read disk*/);
+
+            byte[] pagebuf = apage.getpage();
+            int first_byte = i * page_size;
+            int last_byte = Math.min(first_byte + page_size, num_bytes);
+            for (int b = first_byte; b < last_byte; b++)
+                map.loadByte(b, pagebuf[b - first_byte]);
+
+            unpinPage(pgid, false /*undirty*/);
+        }
+
+        space_map = map;
+    }
+
     /**
      * short cut to access the pinPage function in bufmgr package.
      * <p>
@@ -824,7 +1012,7 @@ public class BigDB implements GlobalConst {
  */
 interface bigPageUsedBytes {
     int DIR_PAGE_USED_BYTES = 8 + 8;
-    int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+    int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4 + 4 + 8;
 }
 
 /**
@@ -861,12 +1049,22 @@ class BigDBHeaderPage implements bigPageUsedBytes, GlobalConst {
 
         PageId temppid = getNextPage();
 
-        int num_entries = (MAX_SPACE - pageusedbytes) / SIZE_OF_FILE_ENTRY;
+        int num_entries = (data.length - pageusedbytes) / SIZE_OF_FILE_ENTRY;
         setNumOfEntries(num_entries);
         for (int index = 0; index < num_entries; ++index)
             initFileEntry(INVALID_PAGE, index);
     }
 
+    /**
+     * return the offset of the first file entry on the page
+     *
+     * @throws IOException I/O errors
+     */
+    protected int firstFileEntry()
+            throws IOException {
+        return START_FILE_ENTRIES;
+    }
+
     /**
      * set the next page number
      *
@@ -923,7 +1121,7 @@ class BigDBHeaderPage implements bigPageUsedBytes, GlobalConst {
      */
     private void initFileEntry(int empty, int entryNo)
             throws IOException {
-        int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
+        int position = firstFileEntry() + entryNo * SIZE_OF_FILE_ENTRY;
         Convert.setIntValue(empty, position, data);
     }
 
@@ -938,7 +1136,7 @@ class BigDBHeaderPage implements bigPageUsedBytes, GlobalConst {
     public void setFileEntry(PageId pageNo, String fname, int entryNo)
             throws IOException {
 
-        int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
+        int position = firstFileEntry() + entryNo * SIZE_OF_FILE_ENTRY;
         Convert.setIntValue(pageNo.pid, position, data);
         Convert.setStrValue(fname, position + 4, data);
     }
@@ -954,7 +1152,7 @@ class BigDBHeaderPage implements bigPageUsedBytes, GlobalConst {
     public String getFileEntry(PageId pageNo, int entryNo)
             throws IOException {
 
-        int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
+        int position = firstFileEntry() + entryNo * SIZE_OF_FILE_ENTRY;
         pageNo.pid = Convert.getIntValue(position, data);
         return (Convert.getStrValue(position + 4, data, MAX_NAME + 2));
     }
@@ -966,7 +1164,17 @@ class BigDBHeaderPage implements bigPageUsedBytes, GlobalConst {
  */
 class BigDBFirstPage extends BigDBHeaderPage {
 
-    protected static final int NUM_DB_PAGE = MINIBASE_PAGESIZE - 4;
+    /**
+     * The number of pages sits at the end of the page. The magic number
+     * and the page size come before the file entries, so that they can
+     * be read before the page size is known; the file entries of a page
+     * without the magic number start at START_FILE_ENTRIES.
+     */
+    protected static final int NUM_DB_PAGE_FROM_END = 4;
+    protected static final int MAGIC = 8;
+    protected static final int PAGE_SIZE = 12;
+    protected static final int FIRST_FILE_ENTRIES = 16;
+    protected static final int DB_MAGIC = 0x42494744;  // "BIGD"
 
     /**
      * Default construtor
@@ -983,7 +1191,23 @@ class BigDBFirstPage extends BigDBHeaderPage {
      */
     public BigDBFirstPage(Page page)
             throws IOException {
-        super(page, FIRST_PAGE_USED_BYTES);
+        super(stamp(page), FIRST_PAGE_USED_BYTES);
+    }
+
+    /**
+     * Writes the magic number on a new first page, before its file
+     * entries are laid out.
+     */
+    private static Page stamp(Page page)
+            throws IOException {
+        Convert.setIntValue(DB_MAGIC, MAGIC, page.getpage());
+        return page;
+    }
+
+    protected int firstFileEntry()
+            throws IOException {
+        return (Convert.getIntValue(MAGIC, data) == DB_MAGIC)
+                ? FIRST_FILE_ENTRIES : START_FILE_ENTRIES;
     }
 
     /**
@@ -1004,7 +1228,7 @@ class BigDBFirstPage extends BigDBHeaderPage {
      */
     public void setNumDBPages(int num)
             throws IOException {
-        Convert.setIntValue(num, NUM_DB_PAGE, data);
+        Convert.setIntValue(num, data.length - NUM_DB_PAGE_FROM_END, data);
     }
 
     /**
@@ -1016,7 +1240,32 @@ class BigDBFirstPage extends BigDBHeaderPage {
     public int getNumDBPages()
             throws IOException {
 
-        return (Convert.getIntValue(NUM_DB_PAGE, data));
+        return (Convert.getIntValue(data.length - NUM_DB_PAGE_FROM_END, data));
+    }
+
+    /**
+     * set the page size of the DB
+     *
+     * @param size the page size in bytes
+     * @throws IOException I/O errors
+     */
+    public void setPageSize(int size)
+            throws IOException {
+        Convert.setIntValue(size, PAGE_SIZE, data);
+    }
+
+    /**
+     * return the page size of the DB
+     *
+     * @return page size in bytes, 0 on a page without the magic number
+     * @throws IOException I/O errors
+     */
+    public int getPageSize()
+            throws IOException {
+
+        if (Convert.getIntValue(MAGIC, data) != DB_MAGIC)
+            return 0;
+        return (Convert.getIntValue(PAGE_SIZE, data));
     }
 
 }
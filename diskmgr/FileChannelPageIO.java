@@ -0,0 +1,64 @@
+/* File FileChannelPageIO.java */
+
+package diskmgr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A page I/O backend built on the positional read and write calls of
+ * a FileChannel. Each transfer is a single pread/pwrite that does not
+ * touch a shared file pointer, so any number of threads may read
+ * pages at the same time. Short transfers are retried until the whole
+ * page has moved.
+ */
+class FileChannelPageIO extends PageIO {
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    public void open(String fname, int pagesize) throws IOException {
+        pageSize = pagesize;
+        file = new RandomAccessFile(fname, "rw");
+        channel = file.getChannel();
+    }
+
+    public void setNumPages(int num_pages) throws IOException {
+        long length = offset(num_pages);
+        if (channel.size() > length)
+            channel.truncate(length);
+        else if (channel.size() < length)
+            channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+    }
+
+    public void read(int pid, byte[] buffer) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buffer, 0, length(buffer));
+        long position = offset(pid);
+
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + dst.position());
+            if (n < 0)
+                throw new EOFException("end of file inside page " + pid);
+        }
+    }
+
+    public void write(int pid, byte[] buffer, int off, int len) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(buffer, off, len);
+        long position = offset(pid) - off;
+
+        while (src.hasRemaining())
+            channel.write(src, position + src.position());
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    public String name() {
+        return FILE_CHANNEL;
+    }
+}
@@ -0,0 +1,124 @@
+/* File MappedPageIO.java */
+
+package diskmgr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A page I/O backend that maps the database file into memory in
+ * fixed-size segments. Reading a page is a copy out of the mapping and
+ * writing one is a copy into it; the OS page cache does the write-back.
+ * <p>
+ * A segment is mapped the first time one of its pages is touched, and
+ * mapping it grows the file by that chunk, so the file on disk grows
+ * in mapped chunks as pages are allocated and used rather than being
+ * written out in full when the database is created.
+ */
+class MappedPageIO extends PageIO {
+
+    /**
+     * Number of pages per mapped segment.
+     */
+    static final int SEGMENT_PAGES = 4096;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private int num_pages;
+
+    /**
+     * Mapped segments, null until first touched.
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    public void open(String fname, int pagesize) throws IOException {
+        pageSize = pagesize;
+        file = new RandomAccessFile(fname, "rw");
+        channel = file.getChannel();
+        num_pages = (int) (channel.size() / pageSize);
+    }
+
+    public synchronized void setNumPages(int num_pages) throws IOException {
+        // Only the logical size is recorded; the file grows as segments
+        // get mapped. Existing mappings are dropped so that they are
+        // remapped with the new size.
+        segments = new MappedByteBuffer[0];
+        if (channel.size() > offset(num_pages))
+            channel.truncate(offset(num_pages));
+        this.num_pages = num_pages;
+    }
+
+    public void read(int pid, byte[] buffer) throws IOException {
+        segment(pid).get(segmentOffset(pid), buffer, 0, length(buffer));
+    }
+
+    public void write(int pid, byte[] buffer, int off, int len) throws IOException {
+        // A run may cross segment boundaries; copy segment by segment.
+        while (len > 0) {
+            int n = Math.min(len, (SEGMENT_PAGES - pid % SEGMENT_PAGES) * pageSize);
+            segment(pid).put(segmentOffset(pid), buffer, off, n);
+            pid += SEGMENT_PAGES - pid % SEGMENT_PAGES;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments)
+            if (segment != null)
+                segment.force();
+        segments = new MappedByteBuffer[0];
+        channel.close();
+        file.close();
+    }
+
+    public String name() {
+        return MMAP;
+    }
+
+    /**
+     * Returns the byte offset of a page inside its segment.
+     */
+    private int segmentOffset(int pid) {
+        return (pid % SEGMENT_PAGES) * pageSize;
+    }
+
+    /**
+     * Returns the segment holding the page, mapping it if needed.
+     *
+     * @param pid the page number
+     * @return the mapped segment
+     * @throws IOException I/O errors
+     */
+    private MappedByteBuffer segment(int pid) throws IOException {
+        int seg = pid / SEGMENT_PAGES;
+        MappedByteBuffer[] mapped = segments;
+
+        if (seg < mapped.length && mapped[seg] != null)
+            return mapped[seg];
+
+        return mapSegment(seg);
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int seg) throws IOException {
+        MappedByteBuffer[] mapped = segments;
+
+        if (seg >= mapped.length) {
+            MappedByteBuffer[] grown = new MappedByteBuffer[seg + 1];
+            System.arraycopy(mapped, 0, grown, 0, mapped.length);
+            mapped = grown;
+        }
+
+        if (mapped[seg] == null) {
+            int first = seg * SEGMENT_PAGES;
+            int pages = Math.min(SEGMENT_PAGES, Math.max(num_pages - first, 1));
+            mapped[seg] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    offset(first), (long) pages * pageSize);
+        }
+
+        segments = mapped;
+        return mapped[seg];
+    }
+}
@@ -1,44 +1,263 @@
 package diskmgr;
 
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts page I/O. The database counts every page it reads or writes;
+ * the buffer manager besides counts reads, writes, pins, hits, misses
+ * and evictions per file. A file is named by the heap file, BigT or
+ * B+ tree whose code pins the page: the code of a file enters its
+ * scope around its calls into the buffer manager, and pins and reads
+ * in a thread are counted for the scope the thread is in. A page
+ * written or evicted is counted for the file that read or created it.
+ * Sort buffers are counted for "(sort buffers)". I/O outside of any
+ * scope, such as that of the database directory, is counted for OTHER.
+ * <p>
+ * To see where the I/O of an operation went, take a snapshot before
+ * and one after it, and print the difference:
+ * <pre>
+ *     PCounter.Snapshot before = PCounter.snapshot();
+ *     ...
+ *     PCounter.snapshot().since(before).print(System.out);
+ * </pre>
+ * All counters may be updated by any number of threads.
+ */
 public class PCounter {
 
-    private int readCount;
-    private int writeCount;
+    /**
+     * Counters kept per file.
+     */
+    public static final int READS = 0;
+    public static final int WRITES = 1;
+    public static final int PINS = 2;
+    public static final int HITS = 3;
+    public static final int MISSES = 4;
+    public static final int EVICTIONS = 5;
+    public static final int COUNTERS = 6;
+
+    private static final String[] NAMES = {
+            "reads", "writes", "pins", "hits", "misses", "evictions"};
+
+    /**
+     * The counters of one file.
+     */
+    public static final class Stats {
+
+        private final String file;
+        private final LongAdder[] counts = new LongAdder[COUNTERS];
+
+        private Stats(String file) {
+            this.file = file;
+            for (int i = 0; i < COUNTERS; i++)
+                counts[i] = new LongAdder();
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Adds one to a counter, such as PCounter.READS.
+         */
+        public void count(int counter) {
+            counts[counter].increment();
+        }
+
+        public long get(int counter) {
+            return counts[counter].sum();
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Stats> files =
+            new ConcurrentHashMap<String, Stats>();
+
+    /**
+     * The counters of I/O that is not in the scope of any file.
+     */
+    public static final Stats OTHER = file("(other)");
 
-    private static PCounter mInstance;
+    private static final ThreadLocal<Stats> scope = new ThreadLocal<Stats>();
+
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder writeCount = new LongAdder();
+
+    private static final PCounter mInstance = new PCounter();
 
     private PCounter() {
 
     }
 
     public static PCounter getInstance() {
-        if (mInstance == null) {
-            mInstance = new PCounter();
-        }
         return mInstance;
     }
 
     public void readIncrement() {
-        readCount++;
+        readCount.increment();
     }
 
     public void writeIncrement() {
-        writeCount++;
+        writeCount.increment();
     }
 
     public int getReadCount() {
-        return readCount;
+        return (int) readCount.sum();
     }
 
     public int getWriteCount() {
-        return writeCount;
+        return (int) writeCount.sum();
     }
 
-    public void setReadCount(int readCount) {
-        this.readCount = readCount;
+    public synchronized void setReadCount(int readCount) {
+        this.readCount.reset();
+        this.readCount.add(readCount);
     }
 
-    public void setWriteCount(int writeCount) {
-        this.writeCount = writeCount;
+    public synchronized void setWriteCount(int writeCount) {
+        this.writeCount.reset();
+        this.writeCount.add(writeCount);
+    }
+
+    /**
+     * Returns the counters of a file, created the first time the file
+     * is named. They are kept as long as the program runs, so that a
+     * file deleted and created again goes on counting.
+     */
+    public static Stats file(String name) {
+        Stats s = files.get(name);
+        if (s == null) {
+            s = new Stats(name);
+            Stats old = files.putIfAbsent(name, s);
+            if (old != null)
+                s = old;
+        }
+        return s;
+    }
+
+    /**
+     * Enters the scope of a file in this thread.
+     *
+     * @return the scope the thread was in, to be given to exit.
+     */
+    public static Stats enter(Stats file) {
+        Stats outer = scope.get();
+        scope.set(file);
+        return outer;
+    }
+
+    /**
+     * Leaves the scope entered last, going back to the one returned by
+     * enter.
+     */
+    public static void exit(Stats outer) {
+        scope.set(outer);
+    }
+
+    /**
+     * Returns the counters of the scope this thread is in, OTHER if none.
+     */
+    public static Stats current() {
+        Stats s = scope.get();
+        return (s != null) ? s : OTHER;
+    }
+
+    /**
+     * Returns the values of all counters now.
+     */
+    public static Snapshot snapshot() {
+        Snapshot snap = new Snapshot(mInstance.readCount.sum(), mInstance.writeCount.sum());
+        for (Stats s : files.values()) {
+            long[] values = new long[COUNTERS];
+            for (int i = 0; i < COUNTERS; i++)
+                values[i] = s.get(i);
+            snap.files.put(s.file, values);
+        }
+        return snap;
+    }
+
+    /**
+     * The values of the counters at one time, or the differences between
+     * two times.
+     */
+    public static final class Snapshot {
+
+        private final long reads;
+        private final long writes;
+        private final TreeMap<String, long[]> files = new TreeMap<String, long[]>();
+
+        private Snapshot(long reads, long writes) {
+            this.reads = reads;
+            this.writes = writes;
+        }
+
+        /**
+         * Returns the pages read from the database.
+         */
+        public long getReads() {
+            return reads;
+        }
+
+        /**
+         * Returns the pages written to the database.
+         */
+        public long getWrites() {
+            return writes;
+        }
+
+        /**
+         * Returns a counter of a file, 0 for a file not counted.
+         */
+        public long get(String file, int counter) {
+            long[] values = files.get(file);
+            return (values != null) ? values[counter] : 0;
+        }
+
+        /**
+         * Returns the names of the files counted, in order.
+         */
+        public String[] getFiles() {
+            return files.keySet().toArray(new String[0]);
+        }
+
+        /**
+         * Returns what was counted since an earlier snapshot. Files
+         * without anything counted are left out.
+         */
+        public Snapshot since(Snapshot earlier) {
+            Snapshot diff = new Snapshot(reads - earlier.reads, writes - earlier.writes);
+            long[] zero = new long[COUNTERS];
+            for (Map.Entry<String, long[]> e : files.entrySet()) {
+                long[] before = earlier.files.get(e.getKey());
+                if (before == null)
+                    before = zero;
+                long[] values = new long[COUNTERS];
+                for (int i = 0; i < COUNTERS; i++)
+                    values[i] = e.getValue()[i] - before[i];
+                if (!Arrays.equals(values, zero))
+                    diff.files.put(e.getKey(), values);
+            }
+            return diff;
+        }
+
+        /**
+         * Prints a table of the counters, one line per file.
+         */
+        public void print(PrintStream out) {
+            out.printf("%-30s", "file");
+            for (String name : NAMES)
+                out.printf(" %10s", name);
+            out.println();
+            for (Map.Entry<String, long[]> e : files.entrySet()) {
+                out.printf("%-30s", e.getKey());
+                for (long v : e.getValue())
+                    out.printf(" %10d", v);
+                out.println();
+            }
+            out.println("pages read " + reads + ", written " + writes);
+        }
     }
 }
@@ -12,12 +12,12 @@ public class Page implements GlobalConst {
 
 
     /**
-     * default constructor
+     * default constructor. The byte array is allocated on first use, as
+     * most pages are handed to pinPage or newPage, which replace it with
+     * the frame of the buffer pool.
      */
 
     public Page() {
-        data = new byte[MAX_SPACE];
-
     }
 
     /**
@@ -33,6 +33,8 @@ public class Page implements GlobalConst {
      * @return the byte array of the page
      */
     public byte[] getpage() {
+        if (data == null)
+            data = new byte[SystemDefs.JavabasePageSize];
         return data;
 
     }
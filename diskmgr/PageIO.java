@@ -0,0 +1,137 @@
+/* File PageIO.java */
+
+package diskmgr;
+
+import global.GlobalConst;
+
+import java.io.IOException;
+
+/**
+ * A super class for the page I/O backends of a BigDB. It describes
+ * how a page of the database file is moved between the disk and a
+ * page buffer. The backend is picked by name when SystemDefs is
+ * constructed, the same way the buffer replacement policy is.
+ */
+public abstract class PageIO implements GlobalConst {
+
+    /**
+     * Name of the default backend (seek + read on a RandomAccessFile).
+     */
+    public static final String RANDOM_ACCESS = "RandomAccess";
+
+    /**
+     * Name of the positional FileChannel backend.
+     */
+    public static final String FILE_CHANNEL = "FileChannel";
+
+    /**
+     * Name of the memory-mapped backend.
+     */
+    public static final String MMAP = "Mmap";
+
+    /**
+     * Size in bytes of one page of the file.
+     */
+    protected int pageSize = MINIBASE_PAGESIZE;
+
+    /**
+     * Creates the backend registered under the given name.
+     *
+     * @param io_policy name of the backend, null for the default one.
+     * @return a new, unopened backend.
+     */
+    public static PageIO create(String io_policy) {
+
+        if (io_policy == null || io_policy.compareTo(RANDOM_ACCESS) == 0)
+            return new RandomAccessPageIO();
+        if (io_policy.compareTo(FILE_CHANNEL) == 0)
+            return new FileChannelPageIO();
+        if (io_policy.compareTo(MMAP) == 0)
+            return new MappedPageIO();
+
+        System.out.println("PageIO: Unknown, Use " + RANDOM_ACCESS + "\n");
+        return new RandomAccessPageIO();
+    }
+
+    /**
+     * Opens (and creates if needed) the database file.
+     *
+     * @param fname    the database file name
+     * @param pagesize size in bytes of one page
+     * @throws IOException I/O errors
+     */
+    public abstract void open(String fname, int pagesize) throws IOException;
+
+    /**
+     * Makes the file exactly num_pages pages long.
+     *
+     * @param num_pages number of pages in the file
+     * @throws IOException I/O errors
+     */
+    public abstract void setNumPages(int num_pages) throws IOException;
+
+    /**
+     * Reads a whole page into the buffer.
+     *
+     * @param pid    the page number
+     * @param buffer the destination; at most one page is read
+     * @throws IOException I/O errors, or the file ended inside the page
+     */
+    public abstract void read(int pid, byte[] buffer) throws IOException;
+
+    /**
+     * Writes a whole page from the buffer.
+     *
+     * @param pid    the page number
+     * @param buffer the source; at most one page is written
+     * @throws IOException I/O errors
+     */
+    public void write(int pid, byte[] buffer) throws IOException {
+        write(pid, buffer, 0, length(buffer));
+    }
+
+    /**
+     * Writes bytes of the buffer to the file starting at a page, as one
+     * sequential write. Used to write a run of adjacent pages at once.
+     *
+     * @param pid    the first page number
+     * @param buffer the source
+     * @param off    offset of the first byte in the buffer
+     * @param len    number of bytes to write
+     * @throws IOException I/O errors
+     */
+    public abstract void write(int pid, byte[] buffer, int off, int len) throws IOException;
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException I/O errors
+     */
+    public abstract void close() throws IOException;
+
+    /**
+     * Returns the name of the backend.
+     */
+    public abstract String name();
+
+    /**
+     * Returns the byte offset of a page in the file.
+     *
+     * @param pid the page number
+     * @return the offset of its first byte
+     */
+    protected long offset(int pid) {
+        return (long) pid * pageSize;
+    }
+
+    /**
+     * Returns how many bytes of the buffer make up the page: a full
+     * page, or less if the caller hands in a shorter array.
+     *
+     * @param buffer the page buffer
+     * @return the number of bytes to transfer
+     */
+    protected int length(byte[] buffer) {
+        return Math.min(buffer.length, pageSize);
+    }
+}
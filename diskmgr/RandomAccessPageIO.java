@@ -0,0 +1,43 @@
+/* File RandomAccessPageIO.java */
+
+package diskmgr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The default page I/O backend: a seek followed by a read or write
+ * on one shared RandomAccessFile. The file pointer is shared, so
+ * every call holds the object lock and only one page moves at a time.
+ */
+class RandomAccessPageIO extends PageIO {
+
+    private RandomAccessFile fp;
+
+    public void open(String fname, int pagesize) throws IOException {
+        pageSize = pagesize;
+        fp = new RandomAccessFile(fname, "rw");
+    }
+
+    public synchronized void setNumPages(int num_pages) throws IOException {
+        fp.setLength(offset(num_pages));
+    }
+
+    public synchronized void read(int pid, byte[] buffer) throws IOException {
+        fp.seek(offset(pid));
+        fp.readFully(buffer, 0, length(buffer));
+    }
+
+    public synchronized void write(int pid, byte[] buffer, int off, int len) throws IOException {
+        fp.seek(offset(pid));
+        fp.write(buffer, off, len);
+    }
+
+    public synchronized void close() throws IOException {
+        fp.close();
+    }
+
+    public String name() {
+        return RANDOM_ACCESS;
+    }
+}
@@ -0,0 +1,152 @@
+/* File SpaceMap.java */
+
+package diskmgr;
+
+/**
+ * An in-memory copy of the space map of a BigDB: one bit per page,
+ * 1 if the page is allocated, kept in long words so that runs of free
+ * pages are found a word at a time. The bit order matches the on-disk
+ * space-map pages (bit i of byte b is page 8*b + i), so the map can be
+ * loaded byte by byte from them.
+ * <p>
+ * Allocation is next-fit: the search starts where the last allocated
+ * run ended and wraps around to the start of the file once.
+ */
+class SpaceMap {
+
+    private static final long ALL_ONES = -1L;
+
+    private final long[] words;
+    private final int num_pages;
+
+    /**
+     * Page number where the next search starts.
+     */
+    private int cursor;
+
+    /**
+     * Creates an empty map (every page free).
+     *
+     * @param num_pages number of pages in the DB
+     */
+    SpaceMap(int num_pages) {
+        this.num_pages = num_pages;
+        words = new long[(num_pages + 63) >>> 6];
+        cursor = 0;
+    }
+
+    /**
+     * ORs one byte of an on-disk space-map page into the map.
+     *
+     * @param byte_no byte number counted from the start of the space map
+     * @param value   the byte
+     */
+    void loadByte(int byte_no, byte value) {
+        words[byte_no >>> 3] |= (value & 0xFFL) << ((byte_no & 7) << 3);
+    }
+
+    /**
+     * Finds a run of free pages, next-fit.
+     *
+     * @param run_size number of pages wanted
+     * @return the first page of the run, or -1 if there is none
+     */
+    int findRun(int run_size) {
+        int start = findRun(cursor, num_pages, run_size);
+        if (start < 0 && cursor > 0)
+            start = findRun(0, Math.min(cursor + run_size - 1, num_pages), run_size);
+        return start;
+    }
+
+    /**
+     * Sets or clears the bits of a run and moves the cursor past an
+     * allocated run.
+     *
+     * @param start    first page of the run
+     * @param run_size number of pages
+     * @param bit      1 to allocate, 0 to free
+     */
+    void setRun(int start, int run_size, int bit) {
+        int end = start + run_size;            // exclusive
+        int first = start >>> 6;
+        int last = (end - 1) >>> 6;
+
+        for (int w = first; w <= last && run_size > 0; w++) {
+            long mask = ALL_ONES;
+            if (w == first)
+                mask &= ALL_ONES << (start & 63);
+            if (w == last)
+                mask &= ALL_ONES >>> (63 - ((end - 1) & 63));
+
+            if (bit == 1)
+                words[w] |= mask;
+            else
+                words[w] &= ~mask;
+        }
+
+        if (bit == 1 && run_size > 0)
+            cursor = (end < num_pages) ? end : 0;
+    }
+
+    /**
+     * Returns whether a page is allocated.
+     */
+    boolean isSet(int pid) {
+        return (words[pid >>> 6] & (1L << (pid & 63))) != 0;
+    }
+
+    /**
+     * Finds the first run of run_size free pages in [from, limit).
+     */
+    private int findRun(int from, int limit, int run_size) {
+        int pos = from;
+
+        while (pos < limit) {
+            int free = nextClear(pos, limit);
+            if (free < 0 || limit - free < run_size)
+                return -1;
+
+            int used = nextSet(free, free + run_size);
+            if (used < 0)
+                return free;
+            pos = used + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first free page in [from, limit), or -1.
+     */
+    private int nextClear(int from, int limit) {
+        int w = from >>> 6;
+        long word = ~words[w] & (ALL_ONES << (from & 63));
+
+        while (true) {
+            if (word != 0) {
+                int pid = (w << 6) + Long.numberOfTrailingZeros(word);
+                return (pid < limit) ? pid : -1;
+            }
+            if (++w >= words.length || (w << 6) >= limit)
+                return -1;
+            word = ~words[w];
+        }
+    }
+
+    /**
+     * Returns the first allocated page in [from, limit), or -1.
+     */
+    private int nextSet(int from, int limit) {
+        int w = from >>> 6;
+        long word = words[w] & (ALL_ONES << (from & 63));
+
+        while (true) {
+            if (word != 0) {
+                int pid = (w << 6) + Long.numberOfTrailingZeros(word);
+                return (pid < limit) ? pid : -1;
+            }
+            if (++w >= words.length || (w << 6) >= limit)
+                return -1;
+            word = words[w];
+        }
+    }
+}
@@ -18,22 +18,9 @@ public class Convert{
   public static int getIntValue (int position, byte []data)
    throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      int value;
-      byte tmp[] = new byte[4];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 4);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readInt();  
-      
-      return value;
+      // big-endian, as DataInputStream.readInt reads it
+      return ((data[position] & 0xff) << 24) | ((data[position+1] & 0xff) << 16)
+        | ((data[position+2] & 0xff) << 8) | (data[position+3] & 0xff);
     }
   
   /**
@@ -47,22 +34,7 @@ public class Convert{
   public static float getFloValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      float value;
-      byte tmp[] = new byte[4];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 4);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readFloat();  
-      
-      return value;
+      return Float.intBitsToFloat(getIntValue(position, data));
     }
   
   
@@ -77,22 +49,7 @@ public class Convert{
   public static short getShortValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      short value;
-      byte tmp[] = new byte[2];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 2);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readShort();
-      
-      return value;
+      return (short) (((data[position] & 0xff) << 8) | (data[position+1] & 0xff));
     }
   
   /**
@@ -136,20 +93,7 @@ public class Convert{
   public static char getCharValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      char value;
-      byte tmp[] = new byte[2];
-      // copy the value from data array out to a tmp byte array  
-      System.arraycopy (data, position, tmp, 0, 2);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readChar();
-      return value;
+      return (char) (((data[position] & 0xff) << 8) | (data[position+1] & 0xff));
     }
   
   
@@ -163,24 +107,11 @@ public class Convert{
   public static void setIntValue (int value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeInt(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 4 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 4);
-      
+      // big-endian, as DataOutputStream.writeInt writes it
+      data[position] = (byte) (value >>> 24);
+      data[position+1] = (byte) (value >>> 16);
+      data[position+2] = (byte) (value >>> 8);
+      data[position+3] = (byte) value;
     }
   
   /**
@@ -193,24 +124,7 @@ public class Convert{
   public static void setFloValue (float value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeFloat(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 4 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 4);
-      
+      setIntValue(Float.floatToIntBits(value), position, data);
     }
   
   /**
@@ -223,24 +137,8 @@ public class Convert{
   public static void setShortValue (short value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeShort(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 2 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 2);
-      
+      data[position] = (byte) (value >>> 8);
+      data[position+1] = (byte) value;
     }
   
   /**
@@ -284,22 +182,7 @@ public class Convert{
   public static void setCharValue (char value, int position, byte []data)
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      outstr.writeChar(value);  
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies contents of this byte array into data[]
-      System.arraycopy (B, 0, data, position, 2);
-      
+      data[position] = (byte) (value >>> 8);
+      data[position+1] = (byte) value;
     }
 }
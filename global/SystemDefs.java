@@ -1,6 +1,8 @@
 package global;
 
 import bufmgr.BufMgr;
+import bufmgr.LogMgr;
+import bufmgr.LogMgrException;
 //import catalog.Catalog;
 import diskmgr.BigDB;
 
@@ -9,16 +11,52 @@ public class SystemDefs {
     public static BigDB JavabaseDB;
 //    public static Catalog JavabaseCatalog;
 
+    /**
+     * Write-ahead log of the open database, null while changes are not
+     * logged. See startLog().
+     */
+    public static LogMgr JavabaseLog;
+
     public static String JavabaseDBName;
     public static String JavabaseLogName;
     public static boolean MINIBASE_RESTART_FLAG = false;
     public static String MINIBASE_DBNAME;
 
+    /**
+     * Page size in bytes of the open database. It is chosen when the
+     * database file is created and read back from it when it is opened;
+     * GlobalConst.MINIBASE_PAGESIZE is only the default.
+     */
+    public static int JavabasePageSize = GlobalConst.MINIBASE_PAGESIZE;
+
     public SystemDefs() {
     }
 
     public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
                       String replacement_policy) {
+        this(dbname, num_pgs, bufpoolsize, replacement_policy, null);
+    }
+
+    /**
+     * Same as the four argument constructor, but also names the page
+     * I/O backend of the database file ("RandomAccess", "FileChannel" or
+     * "Mmap", see diskmgr.PageIO). A null io_policy keeps the default.
+     */
+    public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+                      String replacement_policy, String io_policy) {
+        this(dbname, num_pgs, bufpoolsize, replacement_policy, io_policy,
+                GlobalConst.MINIBASE_PAGESIZE);
+    }
+
+    /**
+     * Same as the five argument constructor, but also gives the page
+     * size (1024 to 16384 bytes, a power of two) of a newly created
+     * database. When an existing database is opened its own page size
+     * is used instead.
+     */
+    public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+                      String replacement_policy, String io_policy,
+                      int page_size) {
         int logsize;
 
         String real_logname = new String(dbname);
@@ -35,26 +73,52 @@ public class SystemDefs {
         }
 
         init(real_dbname, real_logname, num_pgs, logsize,
-                bufpoolsize, replacement_policy);
+                bufpoolsize, replacement_policy, io_policy, page_size);
     }
 
 
     public void init(String dbname, String logname,
                      int num_pgs, int maxlogsize,
                      int bufpoolsize, String replacement_policy) {
+        init(dbname, logname, num_pgs, maxlogsize, bufpoolsize,
+                replacement_policy, null, GlobalConst.MINIBASE_PAGESIZE);
+    }
+
+    public void init(String dbname, String logname,
+                     int num_pgs, int maxlogsize,
+                     int bufpoolsize, String replacement_policy,
+                     String io_policy, int page_size) {
 
         boolean status = true;
+        if (JavabaseBM != null) {
+            JavabaseBM.stopFlusher();
+            JavabaseBM.stopPrefetcher();
+        }
+        if (JavabaseLog != null) {
+            try {
+                JavabaseLog.close();
+            } catch (LogMgrException e) {
+                e.printStackTrace();
+            }
+            JavabaseLog = null;
+        }
         JavabaseBM = null;
         JavabaseDB = null;
         JavabaseDBName = null;
         JavabaseLogName = null;
 //        JavabaseCatalog = null;
 
+        boolean open = (MINIBASE_RESTART_FLAG) || (num_pgs == 0);
+
         try {
+            // The buffer frames must match the pages of the file.
+            JavabasePageSize = open ? BigDB.read_page_size(dbname)
+                    : BigDB.check_page_size(page_size);
+
             JavabaseBM = new BufMgr(bufpoolsize, replacement_policy);
-            JavabaseDB = new BigDB();
+            JavabaseDB = new BigDB(io_policy);
 /*
-	JavabaseCatalog = new Catalog(); 
+	JavabaseCatalog = new Catalog();
 */
         } catch (Exception e) {
             System.err.println("" + e);
@@ -68,9 +132,12 @@ public class SystemDefs {
 
         // create or open the DB
 
-        if ((MINIBASE_RESTART_FLAG) || (num_pgs == 0)) {//open an existing database
+        if (open) {//open an existing database
             try {
                 JavabaseDB.openBigDB(dbname);
+                // redo the committed changes that did not reach the file
+                if (LogMgr.recover(logname))
+                    JavabaseDB.reload_space_map();
             } catch (Exception e) {
                 System.err.println("" + e);
                 e.printStackTrace();
@@ -78,6 +145,7 @@ public class SystemDefs {
             }
         } else {
             try {
+                LogMgr.discard(logname);
                 JavabaseDB.openBigDB(dbname, num_pgs);
                 JavabaseBM.flushAllPages();
             } catch (Exception e) {
@@ -87,4 +155,35 @@ public class SystemDefs {
             }
         }
     }
+
+    /**
+     * Starts logging the changes to the open database in a write-ahead
+     * log, see bufmgr.LogMgr. The next time the database is opened, the
+     * committed changes are redone.
+     *
+     * @param groupCommit true to force the log once for the commits of
+     *                    concurrent threads.
+     * @throws LogMgrException the log could not be opened.
+     */
+    public static void startLog(boolean groupCommit)
+            throws LogMgrException {
+        if (JavabaseLog == null)
+            JavabaseLog = new LogMgr(JavabaseLogName, groupCommit);
+    }
+
+    /**
+     * Writes the changed pages, empties the log and stops logging.
+     *
+     * @throws LogMgrException a transaction is still open, or the pages or
+     *                         the log could not be written.
+     */
+    public static void stopLog()
+            throws LogMgrException {
+        LogMgr log = JavabaseLog;
+        if (log == null)
+            return;
+        log.checkpoint();
+        JavabaseLog = null;
+        log.close();
+    }
 }
@@ -0,0 +1,566 @@
+/* File FreeSpaceMap.java */
+
+package heap;
+
+import bigt.Map;
+import bufmgr.LogMgr;
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The free-space map of a heap file: for every data page, where its
+ * DataPageInfo is on the directory and how much space the page has.
+ * An insert asks the map for a page with room instead of walking the
+ * directory, so it costs O(log n) in the number of data pages rather
+ * than O(n). The map also knows the last directory page, where the
+ * DataPageInfo of a new data page goes.
+ * <p>
+ * The space of the pages is kept in a max-tree over the entries: every
+ * node holds the most space of any page below it, and a search goes
+ * down to the leftmost page with enough room.
+ * <p>
+ * The directory stays the truth. The map of a named file is written to
+ * pages of its own by close(), as a chain of pages the DB knows under
+ * the file name followed by ".fsm". It is marked out of date on disk
+ * before the first change after it was read or written, so a map not
+ * closed is built again from the directory the next time the file is
+ * opened. The map of a temporary file is not written.
+ */
+public class FreeSpaceMap implements GlobalConst {
+
+    /**
+     * Layout of a map page: the next page of the chain, the number of
+     * entries on the page, and on the first page whether the map is up
+     * to date and the last directory page. Each entry is the data page,
+     * its directory page, the slot of its DataPageInfo and its space.
+     */
+    private static final int NEXT_PAGE = 0;
+    private static final int ENTRY_CNT = 4;
+    private static final int CLEAN = 8;
+    private static final int LAST_DIR_PAGE = 12;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 12;
+
+    private static boolean enabled = true;
+
+    private final String fileName;
+    private final boolean persistent;
+    private final PCounter.Stats io;
+    private final int entriesPerPage = (SystemDefs.JavabasePageSize - HEADER_SIZE) / ENTRY_SIZE;
+
+    /**
+     * The entries; a removed entry has space -1 and is reused.
+     */
+    private int[] dataPage;
+    private int[] dirPage;
+    private short[] dirSlot;
+    private int size = 0;
+    private int[] holes = new int[16];
+    private int holeCnt = 0;
+
+    /**
+     * The max-tree: leaf i of the tree, at capacity + i, is the space of
+     * entry i.
+     */
+    private int capacity;
+    private int[] tree;
+
+    /**
+     * The entry of each data page.
+     */
+    private final HashMap<Integer, Integer> entries = new HashMap<Integer, Integer>();
+
+    private int lastDirPage;
+
+    /**
+     * First page of the map on disk, INVALID_PAGE if not written yet.
+     */
+    private PageId firstPage = new PageId(INVALID_PAGE);
+
+    /**
+     * Whether the map on disk is marked up to date.
+     */
+    private boolean clean = false;
+
+    /**
+     * Turns the free-space map on or off for heap files and BigTs opened
+     * from now on. Off, an insert walks the directory from its first
+     * page, as it always did.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reads the map of a file, or builds it from the directory if there
+     * is none on disk or it is out of date.
+     *
+     * @param fileName       the name of the file in the DB.
+     * @param firstDirPageId the first directory page of the file.
+     * @param persistent     whether the map is kept on disk.
+     * @param io             the I/O counters of the file.
+     * @throws HFException        a directory page is corrupt
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    public FreeSpaceMap(String fileName, PageId firstDirPageId, boolean persistent, PCounter.Stats io)
+            throws HFException,
+            HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        this.fileName = fileName + ".fsm";
+        this.persistent = persistent;
+        this.io = io;
+        init(16);
+
+        if (persistent) {
+            try {
+                PageId first = SystemDefs.JavabaseDB.get_file_entry(this.fileName);
+                if (first != null)
+                    firstPage = first;
+            } catch (Exception e) {
+                throw new HFDiskMgrException(e, "FreeSpaceMap.java: get_file_entry() failed");
+            }
+        }
+        if (firstPage.pid == INVALID_PAGE || !load())
+            rebuild(firstDirPageId);
+    }
+
+    /**
+     * Returns the leftmost entry whose data page has at least the given
+     * space, -1 if there is none.
+     */
+    public int find(int space) {
+        if (tree[1] < space)
+            return -1;
+        int i = 1;
+        while (i < capacity)
+            i = (tree[2 * i] >= space) ? 2 * i : 2 * i + 1;
+        return i - capacity;
+    }
+
+    /**
+     * Returns the entry of a data page, -1 if the map does not have it.
+     */
+    public int entryOf(int dataPageId) {
+        Integer entry = entries.get(dataPageId);
+        return (entry != null) ? entry : -1;
+    }
+
+    public int getDataPage(int entry) {
+        return dataPage[entry];
+    }
+
+    public int getDirPage(int entry) {
+        return dirPage[entry];
+    }
+
+    /**
+     * Returns the RID of the DataPageInfo of an entry on its directory
+     * page.
+     */
+    public RID getDirRid(int entry) {
+        RID rid = new RID();
+        rid.pageNo.pid = dirPage[entry];
+        rid.slotNo = dirSlot[entry];
+        return rid;
+    }
+
+    public int getSpace(int entry) {
+        return tree[capacity + entry];
+    }
+
+    /**
+     * Returns the number of data pages in the map.
+     */
+    public int getPageCnt() {
+        return entries.size();
+    }
+
+    public int getLastDirPage() {
+        return lastDirPage;
+    }
+
+    public void setLastDirPage(int pid)
+            throws HFBufMgrException, IOException {
+        if (lastDirPage != pid) {
+            markDirty();
+            lastDirPage = pid;
+        }
+    }
+
+    /**
+     * Adds a data page whose DataPageInfo is at dirRid.
+     *
+     * @return the new entry.
+     */
+    public int add(int dataPageId, RID dirRid, int space)
+            throws HFBufMgrException, IOException {
+        markDirty();
+        int entry;
+        if (holeCnt > 0) {
+            entry = holes[--holeCnt];
+        } else {
+            if (size == capacity)
+                init(2 * capacity);
+            entry = size++;
+        }
+        dataPage[entry] = dataPageId;
+        dirPage[entry] = dirRid.pageNo.pid;
+        dirSlot[entry] = (short) dirRid.slotNo;
+        entries.put(dataPageId, entry);
+        set(entry, space);
+        return entry;
+    }
+
+    /**
+     * Sets the space of the data page of an entry.
+     */
+    public void update(int entry, int space)
+            throws HFBufMgrException, IOException {
+        if (tree[capacity + entry] != space) {
+            markDirty();
+            set(entry, space);
+        }
+    }
+
+    /**
+     * Removes the entry of a data page that was freed.
+     */
+    public void remove(int entry)
+            throws HFBufMgrException, IOException {
+        markDirty();
+        entries.remove(dataPage[entry]);
+        set(entry, -1);
+        if (holeCnt == holes.length) {
+            int[] grown = new int[2 * holes.length];
+            System.arraycopy(holes, 0, grown, 0, holeCnt);
+            holes = grown;
+        }
+        holes[holeCnt++] = entry;
+    }
+
+    /**
+     * Writes the map to its pages and marks it up to date, if it is
+     * kept on disk. The map stays usable.
+     *
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    public void close()
+            throws HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        if (!persistent || clean)
+            return;
+
+        Page page = new Page();
+        if (firstPage.pid == INVALID_PAGE) {
+            firstPage = newPage(page);
+            try {
+                SystemDefs.JavabaseDB.add_file_entry(fileName, firstPage);
+            } catch (Exception e) {
+                throw new HFDiskMgrException(e, "FreeSpaceMap.java: add_file_entry() failed");
+            }
+            Convert.setIntValue(INVALID_PAGE, NEXT_PAGE, page.getpage());
+        } else {
+            pinPage(firstPage, page);
+        }
+
+        // the first page is written last, to mark the map up to date
+        // once the rest is on its pages
+        Page first = page;
+        PageId pageId = new PageId(firstPage.pid);
+        int entry = 0;
+        while (true) {
+            byte[] data = page.getpage();
+            int cnt = 0;
+            for (; entry < size && cnt < entriesPerPage; entry++) {
+                int space = tree[capacity + entry];
+                if (space < 0)
+                    continue;
+                int pos = HEADER_SIZE + cnt * ENTRY_SIZE;
+                Convert.setIntValue(dataPage[entry], pos, data);
+                Convert.setIntValue(dirPage[entry], pos + 4, data);
+                Convert.setShortValue(dirSlot[entry], pos + 8, data);
+                Convert.setShortValue((short) space, pos + 10, data);
+                cnt++;
+            }
+            Convert.setIntValue(cnt, ENTRY_CNT, data);
+
+            PageId next = new PageId(Convert.getIntValue(NEXT_PAGE, data));
+            if (entry == size) {
+                // free the rest of the chain
+                Convert.setIntValue(INVALID_PAGE, NEXT_PAGE, data);
+                while (next.pid != INVALID_PAGE) {
+                    Page rest = new Page();
+                    pinPage(next, rest);
+                    PageId after = new PageId(Convert.getIntValue(NEXT_PAGE, rest.getpage()));
+                    unpinPage(next, false);
+                    freePage(next);
+                    next = after;
+                }
+                if (page != first)
+                    unpinPage(pageId, true);
+                break;
+            }
+
+            Page nextPage = new Page();
+            if (next.pid == INVALID_PAGE) {
+                next = newPage(nextPage);
+                Convert.setIntValue(next.pid, NEXT_PAGE, data);
+                Convert.setIntValue(INVALID_PAGE, NEXT_PAGE, nextPage.getpage());
+            } else {
+                pinPage(next, nextPage);
+            }
+            if (page != first)
+                unpinPage(pageId, true);
+            page = nextPage;
+            pageId = next;
+        }
+
+        Convert.setIntValue(1, CLEAN, first.getpage());
+        Convert.setIntValue(lastDirPage, LAST_DIR_PAGE, first.getpage());
+        unpinPage(firstPage, true);
+        clean = true;
+    }
+
+    /**
+     * Frees the pages of the map and removes it from the DB, when its
+     * file is deleted.
+     *
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    public void delete()
+            throws HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        if (firstPage.pid == INVALID_PAGE)
+            return;
+
+        PageId pageId = new PageId(firstPage.pid);
+        Page page = new Page();
+        while (pageId.pid != INVALID_PAGE) {
+            pinPage(pageId, page);
+            PageId next = new PageId(Convert.getIntValue(NEXT_PAGE, page.getpage()));
+            unpinPage(pageId, false);
+            freePage(pageId);
+            pageId = next;
+        }
+        try {
+            SystemDefs.JavabaseDB.delete_file_entry(fileName);
+        } catch (Exception e) {
+            throw new HFDiskMgrException(e, "FreeSpaceMap.java: delete_file_entry() failed");
+        }
+        firstPage.pid = INVALID_PAGE;
+        clean = false;
+    }
+
+    /**
+     * Reads the map from its pages.
+     *
+     * @return false if the map on disk is out of date.
+     */
+    private boolean load()
+            throws HFBufMgrException, IOException {
+        Page page = new Page();
+        pinPage(firstPage, page);
+        boolean upToDate = Convert.getIntValue(CLEAN, page.getpage()) == 1;
+        lastDirPage = Convert.getIntValue(LAST_DIR_PAGE, page.getpage());
+        unpinPage(firstPage, false);
+        if (!upToDate)
+            return false;
+
+        PageId pageId = new PageId(firstPage.pid);
+        RID rid = new RID();
+        while (pageId.pid != INVALID_PAGE) {
+            pinPage(pageId, page);
+            byte[] data = page.getpage();
+            int cnt = Convert.getIntValue(ENTRY_CNT, data);
+            for (int i = 0; i < cnt; i++) {
+                int pos = HEADER_SIZE + i * ENTRY_SIZE;
+                rid.pageNo.pid = Convert.getIntValue(pos + 4, data);
+                rid.slotNo = Convert.getShortValue(pos + 8, data);
+                addLoaded(Convert.getIntValue(pos, data), rid, Convert.getShortValue(pos + 10, data));
+            }
+            PageId next = new PageId(Convert.getIntValue(NEXT_PAGE, data));
+            unpinPage(pageId, false);
+            pageId = next;
+        }
+        clean = true;
+        return true;
+    }
+
+    /**
+     * Builds the map from the directory.
+     */
+    private void rebuild(PageId firstDirPageId)
+            throws HFException,
+            HFBufMgrException,
+            IOException {
+        entries.clear();
+        size = 0;
+        holeCnt = 0;
+        init(16);
+
+        PageId dirPageId = new PageId(firstDirPageId.pid);
+        HFPage dirPage = new HFPage();
+        while (dirPageId.pid != INVALID_PAGE) {
+            pinPage(dirPageId, dirPage);
+            for (RID rid = dirPage.firstMap(); rid != null; rid = dirPage.nextMap(rid)) {
+                DataPageInfo dpinfo;
+                try {
+                    Map aMap = dirPage.returnMap(rid);
+                    dpinfo = new DataPageInfo(aMap);
+                } catch (Exception e) {
+                    unpinPage(dirPageId, false);
+                    throw new HFException(e, "FreeSpaceMap.java: rebuild() failed");
+                }
+                addLoaded(dpinfo.pageId.pid, rid, dpinfo.availspace);
+            }
+            lastDirPage = dirPageId.pid;
+            PageId next = dirPage.getNextPage();
+            unpinPage(dirPageId, false);
+            dirPageId.pid = next.pid;
+        }
+        clean = false;
+    }
+
+    private void addLoaded(int dataPageId, RID dirRid, int space) {
+        if (size == capacity)
+            init(2 * capacity);
+        int entry = size++;
+        dataPage[entry] = dataPageId;
+        dirPage[entry] = dirRid.pageNo.pid;
+        dirSlot[entry] = (short) dirRid.slotNo;
+        entries.put(dataPageId, entry);
+        set(entry, space);
+    }
+
+    /**
+     * Grows the entries and the tree to a capacity, a power of 2.
+     */
+    private void init(int newCapacity) {
+        int[] newDataPage = new int[newCapacity];
+        int[] newDirPage = new int[newCapacity];
+        short[] newDirSlot = new short[newCapacity];
+        int[] newTree = new int[2 * newCapacity];
+        Arrays.fill(newTree, -1);
+        if (tree != null) {
+            System.arraycopy(dataPage, 0, newDataPage, 0, size);
+            System.arraycopy(dirPage, 0, newDirPage, 0, size);
+            System.arraycopy(dirSlot, 0, newDirSlot, 0, size);
+            System.arraycopy(tree, capacity, newTree, newCapacity, size);
+        }
+        dataPage = newDataPage;
+        dirPage = newDirPage;
+        dirSlot = newDirSlot;
+        tree = newTree;
+        capacity = newCapacity;
+        for (int i = capacity - 1; i >= 1; i--)
+            tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+    }
+
+    private void set(int entry, int space) {
+        int i = capacity + entry;
+        tree[i] = space;
+        for (i /= 2; i >= 1; i /= 2)
+            tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+    }
+
+    /**
+     * Marks the map on disk out of date before it is changed. The first
+     * page is written at once, so that a crash before close() finds the
+     * map out of date. Within a transaction of the write-ahead log the
+     * page stays pinned and is logged at commit instead.
+     */
+    private void markDirty()
+            throws HFBufMgrException, IOException {
+        if (!clean)
+            return;
+        clean = false;
+        Page page = new Page();
+        pinPage(firstPage, page);
+        Convert.setIntValue(0, CLEAN, page.getpage());
+        unpinPage(firstPage, true);
+
+        LogMgr log = SystemDefs.JavabaseLog;
+        if (log == null || log.held() == 0)
+            flushPage(firstPage);
+    }
+
+    private void pinPage(PageId pageno, Page page)
+            throws HFBufMgrException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageno, page, false);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "FreeSpaceMap.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    private void unpinPage(PageId pageno, boolean dirty)
+            throws HFBufMgrException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageno, dirty);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "FreeSpaceMap.java: unpinPage() failed");
+        }
+    }
+
+    private void flushPage(PageId pageno)
+            throws HFBufMgrException {
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            SystemDefs.JavabaseBM.flushPage(pageno);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "FreeSpaceMap.java: flushPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+    }
+
+    private void freePage(PageId pageno)
+            throws HFBufMgrException {
+        try {
+            SystemDefs.JavabaseBM.freePage(pageno);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "FreeSpaceMap.java: freePage() failed");
+        }
+    }
+
+    private PageId newPage(Page page)
+            throws HFBufMgrException {
+        PageId pageId;
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            pageId = SystemDefs.JavabaseBM.newPage(page, 1);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "FreeSpaceMap.java: newPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+        if (pageId == null)
+            throw new HFBufMgrException(null, "FreeSpaceMap.java: newPage() failed");
+        return pageId;
+    }
+}
@@ -32,7 +32,7 @@ public class HFPage extends Page
 
 
     public static final int SIZE_OF_SLOT = 4;
-    public static final int DPFIXED = 4 * 2 + 3 * 4;
+    public static final int DPFIXED = 4 * 2 + 3 * 4 + 8;
 
     public static final int SLOT_CNT = 0;
     public static final int USED_PTR = 2;
@@ -41,6 +41,15 @@ public class HFPage extends Page
     public static final int PREV_PAGE = 8;
     public static final int NEXT_PAGE = 12;
     public static final int CUR_PAGE = 16;
+    public static final int LSN = 20;
+
+    /**
+     * The top two bytes of the LSN field ("HF"), set by init(). They tell
+     * the write-ahead log which pages carry an LSN; the other 48 bits are
+     * the LSN itself.
+     */
+    public static final long LSN_MARK = 0x4846L << 48;
+    private static final long LSN_MASK = (1L << 48) - 1;
   
   /* Warning:
      These items must all pack tight, (no padding) for
@@ -137,12 +146,13 @@ public class HFPage extends Page
         Convert.setIntValue(prevPage.pid, PREV_PAGE, data);
         Convert.setIntValue(nextPage.pid, NEXT_PAGE, data);
 
-        usedPtr = (short) MAX_SPACE;  // offset in data array (grow backwards)
+        usedPtr = (short) data.length;  // offset in data array (grow backwards)
         Convert.setShortValue(usedPtr, USED_PTR, data);
 
-        freeSpace = (short) (MAX_SPACE - DPFIXED);    // amount of space available
+        freeSpace = (short) (data.length - DPFIXED);    // amount of space available
         Convert.setShortValue(freeSpace, FREE_SPACE, data);
 
+        setLSN(data, 0);    // no logged change yet
     }
 
     /**
@@ -273,6 +283,48 @@ public class HFPage extends Page
         Convert.setShortValue(type, TYPE, data);
     }
 
+    /**
+     * @return the LSN of the last logged change to the page, 0 if none
+     * @throws IOException I/O errors
+     */
+    public long getLSN()
+            throws IOException {
+        return getLSN(data, Convert.getIntValue(CUR_PAGE, data));
+    }
+
+    /**
+     * Reads the LSN of a page in the buffer pool.
+     *
+     * @param page the bytes of the page
+     * @param pid  the number of the page
+     * @return the LSN, or -1 if the page is not an HFPage with that number
+     * @throws IOException I/O errors
+     */
+    public static long getLSN(byte[] page, int pid)
+            throws IOException {
+        if (Convert.getIntValue(CUR_PAGE, page) != pid)
+            return -1;
+        long lsn = ((long) Convert.getIntValue(LSN, page) << 32)
+                | (Convert.getIntValue(LSN + 4, page) & 0xffffffffL);
+        if ((lsn & ~LSN_MASK) != LSN_MARK)
+            return -1;
+        return lsn & LSN_MASK;
+    }
+
+    /**
+     * Sets the LSN of a page in the buffer pool, keeping the mark.
+     *
+     * @param page the bytes of the page
+     * @param lsn  the LSN of the change just logged
+     * @throws IOException I/O errors
+     */
+    public static void setLSN(byte[] page, long lsn)
+            throws IOException {
+        lsn = LSN_MARK | (lsn & LSN_MASK);
+        Convert.setIntValue((int) (lsn >>> 32), LSN, page);
+        Convert.setIntValue((int) lsn, LSN + 4, page);
+    }
+
     /**
      * @return slotCnt used in this page
      * @throws IOException I/O errors
@@ -633,7 +685,7 @@ public class HFPage extends Page
      *
      * @throws IOException I/O errors
      */
-    protected void compact_slot_dir()
+    public void compact_slot_dir()
             throws IOException {
         int current_scan_posn = 0;   // current scan position
         int first_free_slot = -1;   // An invalid position.
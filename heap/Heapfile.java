@@ -1,6 +1,9 @@
 package heap;
 
 import bigt.Map;
+import bufmgr.BufAccessStrategy;
+import bufmgr.BufMgr;
+import diskmgr.PCounter;
 import diskmgr.Page;
 import global.GlobalConst;
 import global.PageId;
@@ -53,8 +56,25 @@ public class Heapfile implements Filetype, GlobalConst {
     int _ftype;
     private boolean _file_deleted;
     private String _fileName;
+
+    /**
+     * The I/O counters of the file.
+     */
+    PCounter.Stats io;
+
+    /**
+     * The data pages with room, null if the free-space map was off when
+     * the file was opened.
+     */
+    FreeSpaceMap fsm;
+
     private static int tempfilecount = 0;
 
+    /**
+     * Ring of frames for the data pages of bulk inserts, null for none.
+     */
+    private BufAccessStrategy strategy;
+
 
     /* get a new datapage from the buffer manager and initialize dpinfo
        @param dpinfop the information in the new HFPage
@@ -66,7 +86,14 @@ public class Heapfile implements Filetype, GlobalConst {
             IOException {
         Page apage = new Page();
         PageId pageId = new PageId();
-        pageId = newPage(apage, 1);
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            pageId = SystemDefs.JavabaseBM.newPage(apage, 1, strategy);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "Heapfile.java: newPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
 
         if (pageId == null)
             throw new HFException(null, "can't new pae");
@@ -101,6 +128,36 @@ public class Heapfile implements Filetype, GlobalConst {
             Exception {
         PageId currentDirPageId = new PageId(_firstDirPageId.pid);
 
+        // the free-space map knows where the DataPageInfo of a data page
+        // is; fall back to the walk if it does not, or is out of date
+        if (fsm != null) {
+            int entry = fsm.entryOf(rid.pageNo.pid);
+            if (entry >= 0) {
+                RID dirRid = fsm.getDirRid(entry);
+                pinPage(dirRid.pageNo, dirpage, false/*Rdisk*/);
+                boolean known;
+                try {
+                    known = new DataPageInfo(dirpage.returnMap(dirRid)).pageId.pid == rid.pageNo.pid;
+                } catch (Exception e) {
+                    known = false;
+                }
+                if (known) {
+                    try {
+                        pinPage(rid.pageNo, datapage, false/*Rddisk*/);
+                    } catch (Exception e) {
+                        unpinPage(dirRid.pageNo, false/*undirty*/);
+                        throw e;
+                    }
+                    dirPageId.pid = dirRid.pageNo.pid;
+                    dataPageId.pid = rid.pageNo.pid;
+                    rpDataPageRid.pageNo.pid = dirRid.pageNo.pid;
+                    rpDataPageRid.slotNo = dirRid.slotNo;
+                    return true;
+                }
+                unpinPage(dirRid.pageNo, false/*undirty*/);
+            }
+        }
+
         HFPage currentDirPage = new HFPage();
         HFPage currentDataPage = new HFPage();
         RID currentDataPageRid = new RID();
@@ -197,6 +254,19 @@ public class Heapfile implements Filetype, GlobalConst {
 
     } // end of _findDatapage		     
 
+    /* Internal HeapFile function (used in getMap and updateMap): pins the
+       data page of the Map rid straight away and returns true if the
+       free-space map knows it as a data page of this file. Returns false,
+       with nothing pinned, if it does not.
+    */
+    private boolean _pinKnownDataPage(RID rid, HFPage datapage)
+            throws HFBufMgrException {
+        if (fsm == null || fsm.entryOf(rid.pageNo.pid) < 0)
+            return false;
+        pinPage(rid.pageNo, datapage, false/*Rddisk*/);
+        return true;
+    } // end of _pinKnownDataPage
+
     /**
      * Initialize.  A null name produces a temporary heapfile which will be
      * deleted by the destructor.  If the name already denotes a file, the
@@ -234,6 +304,8 @@ public class Heapfile implements Filetype, GlobalConst {
             _fileName = name;
             _ftype = ORDINARY;
         }
+        io = PCounter.file(_fileName);
+        SystemDefs.JavabaseBM.assignPool(io, (_ftype == TEMP) ? BufMgr.TEMP_POOL : BufMgr.DATA_POOL);
 
         // The constructor gets run in two different cases.
         // In the first case, the file is new and the header page
@@ -269,6 +341,8 @@ public class Heapfile implements Filetype, GlobalConst {
 
 
         }
+        if (FreeSpaceMap.isEnabled())
+            fsm = new FreeSpaceMap(_fileName, _firstDirPageId, _ftype == ORDINARY, io);
         _file_deleted = false;
         // ASSERTIONS:
         // - ALL private data members of class Heapfile are valid:
@@ -367,11 +441,34 @@ public class Heapfile implements Filetype, GlobalConst {
         PageId currentDirPageId = new PageId(_firstDirPageId.pid);
         PageId nextDirPageId = new PageId();  // OK
 
+        // with a free-space map, go straight to a data page with room,
+        // or else to the last directory page
+        int entry = -1;
+        if (fsm != null) {
+            entry = fsm.find(recLen);
+            currentDirPageId.pid = (entry >= 0) ? fsm.getDirPage(entry) : fsm.getLastDirPage();
+        }
+
         pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
 
         found = false;
         Map aMap;
         DataPageInfo dpinfo = new DataPageInfo();
+        if (entry >= 0) {
+            currentDataPageRid = fsm.getDirRid(entry);
+            dpinfo = new DataPageInfo(currentDirPage.getMap(currentDataPageRid));
+            if (dpinfo.pageId.pid == fsm.getDataPage(entry) && recLen <= dpinfo.availspace) {
+                pinDataPage(dpinfo.pageId, currentDataPage);
+                found = true;
+            } else {
+                // the map is out of date: search the directory from here
+                if (dpinfo.pageId.pid == fsm.getDataPage(entry))
+                    fsm.update(entry, dpinfo.availspace);
+                else
+                    fsm.remove(entry);
+                entry = -1;
+            }
+        }
         while (found == false) { //Start While01
             // look for suitable dpinfo-struct
             for (currentDataPageRid = currentDirPage.firstMap();
@@ -522,7 +619,7 @@ public class Heapfile implements Filetype, GlobalConst {
 
                 // System.out.println("find the dirpageMap on current page");
 
-                pinPage(dpinfo.pageId, currentDataPage, false);
+                pinDataPage(dpinfo.pageId, currentDataPage);
                 //currentDataPage.openHFpage(pageinbuffer);
 
 
@@ -563,6 +660,16 @@ public class Heapfile implements Filetype, GlobalConst {
         dpinfo_ondirpage.pageId.pid = dpinfo.pageId.pid;
         dpinfo_ondirpage.flushToMap();
 
+        if (fsm != null) {
+            if (entry < 0)
+                entry = fsm.entryOf(dpinfo.pageId.pid);
+            if (entry < 0)
+                fsm.add(dpinfo.pageId.pid, currentDataPageRid, dpinfo.availspace);
+            else
+                fsm.update(entry, dpinfo.availspace);
+            if (currentDirPage.getNextPage().pid == INVALID_PAGE)
+                fsm.setLastDirPage(currentDirPageId.pid);
+        }
 
         unpinPage(currentDirPageId, true /* = DIRTY */);
 
@@ -624,6 +731,11 @@ public class Heapfile implements Filetype, GlobalConst {
 
             pdpinfo.availspace = currentDataPage.available_space();
             pdpinfo.flushToMap();
+            if (fsm != null) {
+                int entry = fsm.entryOf(currentDataPageId.pid);
+                if (entry >= 0)
+                    fsm.update(entry, pdpinfo.availspace);
+            }
             unpinPage(currentDataPageId, true /* = DIRTY*/);
 
             unpinPage(currentDirPageId, true /* = DIRTY */);
@@ -640,6 +752,11 @@ public class Heapfile implements Filetype, GlobalConst {
             unpinPage(currentDataPageId, false /*undirty*/);
 
             freePage(currentDataPageId);
+            if (fsm != null) {
+                int entry = fsm.entryOf(currentDataPageId.pid);
+                if (entry >= 0)
+                    fsm.remove(entry);
+            }
 
             // delete corresponding DataPageInfo-entry on the directory page:
             // currentDataPageRid points to datapage (from for loop above)
@@ -690,6 +807,8 @@ public class Heapfile implements Filetype, GlobalConst {
                 }
 
                 // delete empty directory page: (automatically unpinned?)
+                if (fsm != null && fsm.getLastDirPage() == currentDirPageId.pid)
+                    fsm.setLastDirPage(currentDirPage.getPrevPage().pid);
                 unpinPage(currentDirPageId, false/*undirty*/);
                 freePage(currentDirPageId);
 
@@ -737,12 +856,20 @@ public class Heapfile implements Filetype, GlobalConst {
         PageId currentDataPageId = new PageId();
         RID currentDataPageRid = new RID();
 
-        status = _findDataPage(rid,
-                currentDirPageId, dirPage,
-                currentDataPageId, dataPage,
-                currentDataPageRid);
+        // the free space of the page does not change, so the directory
+        // is only searched if the free-space map does not know the page
+        boolean dirPinned = false;
+        if (_pinKnownDataPage(rid, dataPage)) {
+            currentDataPageId.pid = rid.pageNo.pid;
+        } else {
+            status = _findDataPage(rid,
+                    currentDirPageId, dirPage,
+                    currentDataPageId, dataPage,
+                    currentDataPageRid);
 
-        if (status != true) return status;    // Map not found
+            if (status != true) return status;    // Map not found
+            dirPinned = true;
+        }
         Map aMap = new Map();
         aMap = dataPage.returnMap(rid);
 
@@ -751,7 +878,8 @@ public class Heapfile implements Filetype, GlobalConst {
 
         if (newMap.getLength() != aMap.getLength()) {
             unpinPage(currentDataPageId, false /*undirty*/);
-            unpinPage(currentDirPageId, false /*undirty*/);
+            if (dirPinned)
+                unpinPage(currentDirPageId, false /*undirty*/);
 
             throw new InvalidUpdateException(null, "invalid Map update");
 
@@ -761,7 +889,8 @@ public class Heapfile implements Filetype, GlobalConst {
         aMap.mapCopy(newMap);
         unpinPage(currentDataPageId, true /* = DIRTY */);
 
-        unpinPage(currentDirPageId, false /*undirty*/);
+        if (dirPinned)
+            unpinPage(currentDirPageId, false /*undirty*/);
 
 
         return true;
@@ -795,6 +924,16 @@ public class Heapfile implements Filetype, GlobalConst {
         PageId currentDataPageId = new PageId();
         RID currentDataPageRid = new RID();
 
+        if (_pinKnownDataPage(rid, dataPage)) {
+            Map aMap;
+            try {
+                aMap = dataPage.getMap(rid);
+            } finally {
+                unpinPage(rid.pageNo, false /*undirty*/);
+            }
+            return aMap;
+        }
+
         status = _findDataPage(rid,
                 currentDirPageId, dirPage,
                 currentDataPageId, dataPage,
@@ -821,6 +960,26 @@ public class Heapfile implements Filetype, GlobalConst {
     }
 
 
+    /**
+     * Makes insertMap bring the data pages it fills into the ring of the
+     * strategy, for files written in bulk such as sort runs.
+     *
+     * @param strategy the buffer access strategy, null for none
+     */
+    public void setAccessStrategy(BufAccessStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Assigns the file to another buffer pool than the one for its kind,
+     * such as BufMgr.TEMP_POOL for a named file used only for sorting.
+     *
+     * @param pool the name of the pool, see BufMgr.assignPool
+     */
+    public void setBufferPool(String pool) {
+        SystemDefs.JavabaseBM.assignPool(io, pool);
+    }
+
     /**
      * Initiate a sequential scan.
      *
@@ -835,6 +994,23 @@ public class Heapfile implements Filetype, GlobalConst {
     }
 
 
+    /**
+     * Writes the free-space map of the file to its pages, so that the
+     * next open reads it instead of building it from the directory.
+     * The file stays usable.
+     *
+     * @throws HFBufMgrException  exception thrown from bufmgr layer
+     * @throws HFDiskMgrException exception thrown from diskmgr layer
+     * @throws IOException        I/O errors
+     */
+    public void close()
+            throws HFBufMgrException,
+            HFDiskMgrException,
+            IOException {
+        if (fsm != null)
+            fsm.close();
+    }
+
     /**
      * Delete the file from the database.
      *
@@ -897,6 +1073,8 @@ public class Heapfile implements Filetype, GlobalConst {
             }
         }
 
+        if (fsm != null)
+            fsm.delete();
         delete_file_entry(_fileName);
     }
 
@@ -906,14 +1084,35 @@ public class Heapfile implements Filetype, GlobalConst {
     private void pinPage(PageId pageno, Page page, boolean emptyPage)
             throws HFBufMgrException {
 
+        PCounter.Stats outer = PCounter.enter(io);
         try {
             SystemDefs.JavabaseBM.pinPage(pageno, page, emptyPage);
         } catch (Exception e) {
             throw new HFBufMgrException(e, "Heapfile.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
         }
 
     } // end of pinPage
 
+    /**
+     * short cut to pin a data page through the access strategy of the
+     * file.
+     */
+    private void pinDataPage(PageId pageno, Page page)
+            throws HFBufMgrException {
+
+        PCounter.Stats outer = PCounter.enter(io);
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageno, page, false, strategy);
+        } catch (Exception e) {
+            throw new HFBufMgrException(e, "Heapfile.java: pinPage() failed");
+        } finally {
+            PCounter.exit(outer);
+        }
+
+    } // end of pinDataPage
+
     /**
      * short cut to access the unpinPage function in bufmgr package.
      */
@@ -944,10 +1143,13 @@ public class Heapfile implements Filetype, GlobalConst {
 
         PageId tmpId = new PageId();
 
+        PCounter.Stats outer = PCounter.enter(io);
         try {
             tmpId = SystemDefs.JavabaseBM.newPage(page, num);
         } catch (Exception e) {
             throw new HFBufMgrException(e, "Heapfile.java: newPage() failed");
+        } finally {
+            PCounter.exit(outer);
         }
 
         return tmpId;
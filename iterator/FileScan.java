@@ -120,7 +120,10 @@ public class FileScan extends Iterator {
                 return null;
             }
 
-            map1.setHdr(in1_len, _in1, s_sizes);
+            // a map of the variable-length layout describes its fields
+            map1.setOffsets(map1.getOffset());
+            if (!map1.isVarLen())
+                map1.setHdr(in1_len, _in1, s_sizes);
             if (PredEval.Eval(OutputFilter, map1, null, _in1, null) == true) {
                 Projection.Project(map1, _in1, Jmap, perm_mat);
                 return Jmap;
@@ -4,6 +4,7 @@ package iterator;
 import bigt.Map;
 import global.GlobalConst;
 import global.RID;
+import global.SystemDefs;
 import heap.Heapfile;
 
 import java.io.IOException;
@@ -31,7 +32,7 @@ public class IoBuf implements GlobalConst {
         _temp_fd = temp_fd;
 
         dirty = false;
-        t_per_pg = MINIBASE_PAGESIZE / t_size;
+        t_per_pg = SystemDefs.JavabasePageSize / t_size;
         t_in_buf = n_pages * t_per_pg;
         t_wr_to_pg = 0;
         t_wr_to_buf = 0;
@@ -1,7 +1,9 @@
 package iterator;
 
 import bigt.Map;
+import bufmgr.BufMgr;
 import bufmgr.PageNotReadException;
+import diskmgr.PCounter;
 import diskmgr.Page;
 import global.Flags;
 import global.PageId;
@@ -22,6 +24,12 @@ public abstract class Iterator implements Flags {
      */
     public boolean closeFlag = false; // added by bingjie 5/4/98
 
+    /**
+     * The I/O counters of the buffer pages of sorts, which are kept in
+     * the buffer pool of temporary files.
+     */
+    private static final PCounter.Stats SORT_BUFFERS = PCounter.file("(sort buffers)");
+
     /**
      *abstract method, every subclass must implement it.
      *@return the result tuple
@@ -80,6 +88,7 @@ public abstract class Iterator implements Flags {
         Page pgptr = new Page();
         PageId pgid = null;
 
+        SystemDefs.JavabaseBM.assignPool(SORT_BUFFERS, BufMgr.TEMP_POOL);
         for(int i=0; i < n_pages; i++) {
             pgptr.setpage(bufs[i]);
 
@@ -123,12 +132,19 @@ public abstract class Iterator implements Flags {
 
         PageId tmpId = new PageId();
 
+        PCounter.Stats outer = PCounter.enter(SORT_BUFFERS);
         try {
             tmpId = SystemDefs.JavabaseBM.newPage(page,num);
         }
         catch (Exception e) {
             throw new IteratorBMException(e,"Iterator.java: newPage() failed");
         }
+        finally {
+            PCounter.exit(outer);
+        }
+
+        if (tmpId == null)
+            throw new IteratorBMException(null,"Iterator.java: newPage() failed, buffer pool full");
 
         return tmpId;
 
@@ -36,28 +36,19 @@ public class MapUtils {
             throws IOException,
             UnknowAttrType,
             TupleUtilsException {
-        String m1_s = "", m2_s = "";
         int m1_i, m2_i;
         switch (map_fld_no) {
-            case 1:            // Compare two strings.
+            case 1:            // Compare two strings, on the bytes of the maps.
             case 2:
             case 4:
+                int cmp;
                 try {
-                    if (map_fld_no == 1) {
-                        m1_s = m1.getRowLabel();
-                        m2_s = m2.getRowLabel();
-                    } else if (map_fld_no == 2) {
-                        m1_s = m1.getColumnLabel();
-                        m2_s = m2.getColumnLabel();
-                    } else if (map_fld_no == 4) {
-                        m1_s = m1.getValue();
-                        m2_s = m2.getValue();
-                    }
+                    cmp = m1.compareStrFld(map_fld_no, m2);
                 } catch (Exception e) {
                     throw new TupleUtilsException(e, "FieldNumberOutOfBoundException is caught by mapUtils.java");
                 }
-                if (m1_s.compareTo(m2_s) > 0) return 1;
-                else if (m1_s.compareTo(m2_s) < 0) return -1;
+                if (cmp > 0) return 1;
+                else if (cmp < 0) return -1;
                 else return 0;
 
             case 3:                // Compare two integers
@@ -75,87 +66,43 @@ public class MapUtils {
         return -1;
     }
 
+    /**
+     * Compares two maps in the order of Minibase.getOrderType(), for the
+     * sort: by the labels of the order, then by timestamp. Maps that are
+     * equal in all of them compare as greater, so the result is never 0.
+     * The labels are compared on the bytes of the maps.
+     */
     public static int CustomCompare(Map m1, Map m2) throws IOException {
+        int cmp;
         switch (Minibase.getInstance().getOrderType()) {
             case 1:
-                if (m1.getRowLabel().compareTo(m2.getRowLabel()) > 0) {
-                    return 1;
-                } else if (m1.getRowLabel().compareTo(m2.getRowLabel()) < 0) {
-                    return -1;
-                } else {
-                    if (m1.getColumnLabel().compareTo(m2.getColumnLabel()) > 0) {
-                        return 1;
-                    } else if(m1.getColumnLabel().compareTo(m2.getColumnLabel()) < 0){
-                        return -1;
-                    }else{
-                        if(m1.getTimeStamp() >= m2.getTimeStamp()){
-                            return 1;
-                        }else{
-                            return -1;
-                        }
-                    }
-                }
+                cmp = m1.compareStrFld(1, m2);
+                if (cmp == 0)
+                    cmp = m1.compareStrFld(2, m2);
+                break;
             case 2:
-                if (m1.getColumnLabel().compareTo(m2.getColumnLabel()) > 0) {
-                    return 1;
-                } else if (m1.getColumnLabel().compareTo(m2.getColumnLabel()) < 0) {
-                    return -1;
-                } else {
-                    if (m1.getRowLabel().compareTo(m2.getRowLabel()) > 0) {
-                        return 1;
-                    } else if(m1.getRowLabel().compareTo(m2.getRowLabel()) < 0){
-                        return -1;
-                    }else{
-                        if(m1.getTimeStamp() >= m2.getTimeStamp()){
-                            return 1;
-                        }else{
-                            return -1;
-                        }
-                    }
-                }
+                cmp = m1.compareStrFld(2, m2);
+                if (cmp == 0)
+                    cmp = m1.compareStrFld(1, m2);
+                break;
             case 3:
-                if (m1.getRowLabel().compareTo(m2.getRowLabel()) > 0) {
-                    return 1;
-                } else if (m1.getRowLabel().compareTo(m2.getRowLabel()) < 0) {
-                    return -1;
-                } else {
-                    if (m1.getTimeStamp() >= m2.getTimeStamp()) {
-                        return 1;
-                    } else {
-                        return -1;
-                    }
-                }
+                cmp = m1.compareStrFld(1, m2);
+                break;
             case 4:
-                if (m1.getColumnLabel().compareTo(m2.getColumnLabel()) > 0) {
-                    return 1;
-                } else if (m1.getColumnLabel().compareTo(m2.getColumnLabel()) < 0) {
-                    return -1;
-                } else {
-                    if (m1.getTimeStamp() >= m2.getTimeStamp()) {
-                        return 1;
-                    } else {
-                        return -1;
-                    }
-                }
+                cmp = m1.compareStrFld(2, m2);
+                break;
             case 6:
-                if(m1.getTimeStamp() >= m2.getTimeStamp()){
-                    return 1;
-                }else {
-                    return -1;
-                }
+                cmp = 0;
+                break;
             default:
-                if (m1.getRowLabel().compareTo(m2.getRowLabel()) > 0) {
-                    return 1;
-                } else if (m1.getRowLabel().compareTo(m2.getRowLabel()) < 0) {
-                    return -1;
-                } else {
-                    if (m1.getColumnLabel().compareTo(m2.getColumnLabel()) >= 0) {
-                        return 1;
-                    } else {
-                        return -1;
-                    }
-                }
+                cmp = m1.compareStrFld(1, m2);
+                if (cmp == 0)
+                    return (m1.compareStrFld(2, m2) >= 0) ? 1 : -1;
+                break;
         }
+        if (cmp != 0)
+            return (cmp > 0) ? 1 : -1;
+        return (m1.getTimeStamp() >= m2.getTimeStamp()) ? 1 : -1;
     }
 
     /**
@@ -3,6 +3,7 @@ package iterator;
 import bigt.Map;
 import global.GlobalConst;
 import global.RID;
+import global.SystemDefs;
 import heap.Heapfile;
 
 import java.io.IOException;
@@ -40,7 +41,7 @@ public class OBuf implements GlobalConst{
         _temp_fd = temp_fd;
 
         dirty       = false;
-        t_per_pg    = MINIBASE_PAGESIZE / t_size;
+        t_per_pg    = SystemDefs.JavabasePageSize / t_size;
         t_in_buf    = n_pages * t_per_pg;
         t_wr_to_pg  = 0;
         t_wr_to_buf = 0;
@@ -62,7 +63,8 @@ public class OBuf implements GlobalConst{
     {
         byte[] copybuf;
         copybuf = buf.getMapByteArray();
-        System.arraycopy(copybuf,0,_bufs[curr_page],t_wr_to_pg*t_size,t_size);
+        // a map of the variable-length layout may be shorter than t_size
+        System.arraycopy(copybuf,0,_bufs[curr_page],t_wr_to_pg*t_size,Math.min(copybuf.length,t_size));
         Map map_ptr = new Map(_bufs[curr_page] , t_wr_to_pg * t_size,t_size);
 
         t_written++; t_wr_to_pg++; t_wr_to_buf++; dirty = true;
@@ -2,11 +2,13 @@ package iterator;
 
 
 import bigt.Map;
+import bufmgr.BufAccessStrategy;
 import bufmgr.PageNotReadException;
 import global.AttrType;
 import global.GlobalConst;
 import global.MapOrder;
 import global.PageId;
+import global.SystemDefs;
 import heap.FieldNumberOutOfBoundException;
 import heap.Heapfile;
 import heap.InvalidTupleSizeException;
@@ -34,6 +36,11 @@ public class Sort extends Iterator implements GlobalConst {
 
     private pnodeSplayPQ Q;
     private Heapfile[] temp_files;
+
+    /**
+     * Ring of frames the runs are written through, shared by all runs.
+     */
+    private BufAccessStrategy runStrategy = BufAccessStrategy.bulk();
     private int n_tempfiles;
     private Map output_map;
     private int[] n_maps;
@@ -114,7 +121,7 @@ public class Sort extends Iterator implements GlobalConst {
                 throw new SortException(e, "Sort.java: BUFmgr error");
             }
         } else {
-            for (int k = 0; k < _n_pages; k++) bufs[k] = new byte[MAX_SPACE];
+            for (int k = 0; k < _n_pages; k++) bufs[k] = new byte[SystemDefs.JavabasePageSize];
         }
 
         first_time = true;
@@ -128,6 +135,7 @@ public class Sort extends Iterator implements GlobalConst {
 
         try {
             temp_files[0] = new Heapfile(null);
+            temp_files[0].setAccessStrategy(runStrategy);
         } catch (Exception e) {
             throw new SortException(e, "Sort.java: Heapfile error");
         }
@@ -454,6 +462,7 @@ public class Sort extends Iterator implements GlobalConst {
 
                 try {
                     temp_files[run_num] = new Heapfile(null);
+                    temp_files[run_num].setAccessStrategy(runStrategy);
                 } catch (Exception e) {
                     throw new SortException(e, "Sort.java: create Heapfile failed");
                 }
@@ -545,6 +554,7 @@ public class Sort extends Iterator implements GlobalConst {
 
                     try {
                         temp_files[run_num] = new Heapfile(null);
+                        temp_files[run_num].setAccessStrategy(runStrategy);
                     } catch (Exception e) {
                         throw new SortException(e, "Sort.java: create Heapfile failed");
                     }
@@ -663,9 +673,48 @@ public class Sort extends Iterator implements GlobalConst {
         return;
     }
 
+    /**
+     * Cleaning up, including releasing buffer pages from the buffer pool
+     * and removing temporary files from the database.
+     *
+     * @throws IOException   from lower layers
+     * @throws SortException something went wrong in the lower layer.
+     */
     @Override
     public void close() throws IOException, JoinsException, SortException, IndexException {
+        if (closeFlag)
+            return;
+
+        try {
+            _am.close();
+            if (i_buf != null)
+                for (SpoofIbuf run : i_buf)
+                    run.close();
+        } catch (Exception e) {
+            throw new SortException(e, "Sort.java: error in closing iterator.");
+        }
 
+        if (useBM) {
+            try {
+                free_buffer_pages(_n_pages, bufs_pids);
+            } catch (Exception e) {
+                throw new SortException(e, "Sort.java: BUFmgr error");
+            }
+            for (int i = 0; i < _n_pages; i++)
+                bufs_pids[i].pid = INVALID_PAGE;
+        }
+
+        for (int i = 0; i < temp_files.length; i++) {
+            if (temp_files[i] != null) {
+                try {
+                    temp_files[i].deleteFile();
+                } catch (Exception e) {
+                    throw new SortException(e, "Sort.java: Heapfile error");
+                }
+                temp_files[i] = null;
+            }
+        }
+        closeFlag = true;
     }
 
 
@@ -3,6 +3,7 @@ package iterator;
 import bigt.Map;
 import global.GlobalConst;
 import global.RID;
+import global.SystemDefs;
 import heap.Heapfile;
 import heap.InvalidTupleSizeException;
 import heap.Scan;
@@ -62,7 +63,7 @@ public class SpoofIbuf implements GlobalConst {
         curr_page = 0;
         t_rd_from_pg = 0;
         done = false;
-        t_per_pg = MINIBASE_PAGESIZE / t_size;
+        t_per_pg = SystemDefs.JavabasePageSize / t_size;
 
 
         n_maps = Ntuples;
@@ -164,4 +165,13 @@ public class SpoofIbuf implements GlobalConst {
         return tot_read;
     }
 
+    /**
+     * Closes the scan of the run, which may still hold its last page.
+     */
+    public void close() {
+        if (bt_scan != null) {
+            bt_scan.closescan();
+            bt_scan = null;
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Scan;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.StringKey;
+import bufmgr.BufAccessStrategy;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the ring buffers of BufAccessStrategy. It loads maps into
+ * a BigT with a B+ tree on the row, warms the pool with B+ tree lookups,
+ * and runs a full scan of the BigT in a second thread while the lookups
+ * go on. Afterwards the same lookups run once more, and the hit ratio
+ * and page reads of that last round show how much of the index the
+ * scan pushed out of the pool. It runs once with rings turned off and
+ * once with rings of each size.
+ * <p>
+ * Run with "java tests.AccessStrategyBench [maps] [buffers]".
+ */
+public class AccessStrategyBench implements GlobalConst {
+
+    private static final int[] RINGS = {0, 8, 16, 32};
+    private static final int LOOKUPS = 100;
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        String dbpath = "/tmp/accessstrategybench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("maps: " + maps + ", buffers: " + buffers + ", lookups: " + LOOKUPS);
+        for (int ring : RINGS) {
+            BufAccessStrategy.setRingFrames(ring);
+            new SystemDefs(dbpath, 20000, buffers, "Clock");
+
+            final BigT bigt = new BigT("accessstrategybench", 2);
+            BTreeFile btree = new BTreeFile("accessstrategybench_index", AttrType.attrString, SIZES[0], 1);
+            Random random = new Random(42);
+            String[] rows = new String[maps];
+            for (int i = 0; i < maps; i++) {
+                String row = "row" + random.nextInt(maps);
+                rows[i] = row;
+                RID rid = bigt.insertMap(map(row, "col" + (i % 10), i, "value" + i).getMapByteArray());
+                btree.insert(new StringKey(row), rid);
+            }
+
+            StringKey[] keys = new StringKey[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++)
+                keys[i] = new StringKey(rows[random.nextInt(maps)]);
+            lookups(btree, keys);
+            lookups(btree, keys);
+
+            // the scan runs next to the lookups
+            final Exception[] failure = new Exception[1];
+            Thread scanner = new Thread() {
+                public void run() {
+                    try {
+                        Scan scan = bigt.openScan();
+                        RID rid = new RID();
+                        while (scan.getNext(rid) != null)
+                            ;
+                        scan.closescan();
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            scanner.start();
+            int rounds = 0;
+            while (scanner.isAlive()) {
+                lookups(btree, keys);
+                rounds++;
+            }
+            scanner.join();
+            if (failure[0] != null)
+                throw failure[0];
+
+            SystemDefs.JavabaseBM.resetPinCounters();
+            PCounter.getInstance().setReadCount(0);
+            long start = System.nanoTime();
+            lookups(btree, keys);
+            long nanos = System.nanoTime() - start;
+            long pins = SystemDefs.JavabaseBM.getPins();
+            long misses = SystemDefs.JavabaseBM.getMisses();
+
+            System.out.printf("%-8s rounds during scan %3d  after scan: hit ratio %6.2f%%  reads %5d  %7.2f ms%n",
+                    (ring == 0) ? "no ring" : "ring " + ring, rounds,
+                    100.0 * (pins - misses) / pins, PCounter.getInstance().getReadCount(), nanos / 1e6);
+
+            btree.close();
+            bigt.close();
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+        BufAccessStrategy.setRingFrames(BufAccessStrategy.RING_FRAMES);
+    }
+
+    /**
+     * Looks up every key in the B+ tree.
+     */
+    private static void lookups(BTreeFile btree, StringKey[] keys) throws Exception {
+        for (StringKey key : keys) {
+            BTFileScan scan = btree.new_scan(key, key);
+            if (scan.get_next() == null)
+                throw new RuntimeException("row " + key + " not found");
+            scan.DestroyBTreeFileScan();
+        }
+    }
+
+    private static Map map(String row, String column, int timestamp, String value)
+            throws Exception {
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        map.setRowLabel(row);
+        map.setColumnLabel(column);
+        map.setTimeStamp(timestamp);
+        map.setValue(value);
+        return map;
+    }
+}
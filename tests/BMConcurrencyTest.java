@@ -0,0 +1,386 @@
+package tests;
+
+import java.io.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * This class tests the buffer manager with several threads pinning,
+ * unpinning, allocating and freeing pages at the same time.
+ */
+class BMConcurrencyDriver extends TestDriver implements GlobalConst {
+
+    private static final int THREADS = 8;
+    private static final int BUFFERS = 50;
+
+    /**
+     * Number of thread bodies that failed in the current test.
+     */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * BMConcurrencyDriver Constructor, inherited from TestDriver
+     */
+    public BMConcurrencyDriver() {
+        super("bufconctest");
+    }
+
+    /**
+     * A thread body of a test; any exception counts as a failure.
+     */
+    private interface Body {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs the body in THREADS threads, started together, and waits for
+     * all of them.
+     *
+     * @return whether no thread failed
+     */
+    private boolean runThreads(final Body body) {
+        failures.set(0);
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        body.run(thread);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        System.err.print("*** Thread " + thread + " failed\n");
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                failures.incrementAndGet();
+            }
+        }
+        return failures.get() == 0;
+    }
+
+    /**
+     * Checks that no frame is left pinned.
+     */
+    private boolean checkUnpinned() {
+        int unpinned = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+        if (unpinned != SystemDefs.JavabaseBM.getNumBuffers()) {
+            System.err.print("*** " + (SystemDefs.JavabaseBM.getNumBuffers() - unpinned)
+                    + " frames left pinned\n");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test 1: every thread owns a range of pages and keeps bumping a
+     * counter on them. The threads touch many more pages than there are
+     * frames, so pages are evicted and read back all the time; a lost
+     * update shows up as a wrong counter. Runs for each replacer.
+     */
+    protected boolean test1() {
+
+        System.out.print("\n  Test 1 updates pages owned by each thread ");
+        System.out.print("through a small buffer pool:\n");
+
+        final int pagesPerThread = 20;
+        final int rounds = 50;
+        boolean status = OK;
+
+        for (String replacer : new String[]{"Clock", "LRU", "MRU", "LRU-2", "2Q", "ARC"}) {
+            System.out.print("  - Replacer " + replacer + "\n");
+            new SystemDefs(dbpath, THREADS * pagesPerThread + 20, BUFFERS, replacer);
+
+            final PageId first;
+            try {
+                Page pg = new Page();
+                first = SystemDefs.JavabaseBM.newPage(pg, THREADS * pagesPerThread);
+                SystemDefs.JavabaseBM.unpinPage(first, false);
+            } catch (Exception e) {
+                System.err.print("*** Could not allocate the pages\n");
+                e.printStackTrace();
+                return FAIL;
+            }
+
+            status &= runThreads(new Body() {
+                public void run(int thread) throws Exception {
+                    Page pg = new Page();
+                    PageId pid = new PageId();
+                    int base = first.pid + thread * pagesPerThread;
+                    for (int round = 0; round < rounds; round++) {
+                        for (int i = 0; i < pagesPerThread; i++) {
+                            pid.pid = base + i;
+                            SystemDefs.JavabaseBM.pinPage(pid, pg, round == 0);
+                            if (round > 0) {
+                                int data = Convert.getIntValue(0, pg.getpage());
+                                if (data != pid.pid * 1000 + round - 1)
+                                    throw new Exception("page " + pid.pid + " holds " + data
+                                            + " in round " + round);
+                            }
+                            Convert.setIntValue(pid.pid * 1000 + round, 0, pg.getpage());
+                            SystemDefs.JavabaseBM.unpinPage(pid, true);
+                        }
+                    }
+                }
+            });
+            status &= checkUnpinned();
+
+            try {
+                SystemDefs.JavabaseDB.DBDestroy();
+            } catch (IOException e) {
+                status = FAIL;
+            }
+        }
+
+        if (status == OK)
+            System.out.print("  Test 1 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * Test 2: all threads pin the same pages, none of them resident, at
+     * the same time. Each page must be read from disk exactly once and
+     * every thread must see its contents.
+     */
+    protected boolean test2() {
+
+        System.out.print("\n  Test 2 pins the same pages from all threads ");
+        System.out.print("at once:\n");
+
+        final int pages = BUFFERS / 2;
+        new SystemDefs(dbpath, 2 * BUFFERS + 20, BUFFERS, "Clock");
+
+        final PageId first = new PageId();
+        try {
+            Page pg = new Page();
+            PageId pid = new PageId();
+            PageId other = SystemDefs.JavabaseBM.newPage(pg, BUFFERS);
+            SystemDefs.JavabaseBM.unpinPage(other, false);
+            first.pid = SystemDefs.JavabaseBM.newPage(pg, pages).pid;
+            SystemDefs.JavabaseBM.unpinPage(first, false);
+
+            System.out.print("  - Write the pages and push them out of the pool\n");
+            for (pid.pid = first.pid; pid.pid < first.pid + pages; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                SystemDefs.JavabaseBM.unpinPage(pid, true);
+            }
+            SystemDefs.JavabaseBM.flushAllPages();
+            for (pid.pid = other.pid; pid.pid < other.pid + BUFFERS; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, true);
+                SystemDefs.JavabaseBM.unpinPage(pid, false);
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not set up the pages\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        System.out.print("  - Pin them from " + THREADS + " threads\n");
+        PCounter.getInstance().setReadCount(0);
+        boolean status = runThreads(new Body() {
+            public void run(int thread) throws Exception {
+                Page pg = new Page();
+                PageId pid = new PageId();
+                for (int i = 0; i < pages; i++) {
+                    // start at different pages so threads meet in the middle
+                    pid.pid = first.pid + (i + thread) % pages;
+                    SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+                    int data = Convert.getIntValue(0, pg.getpage());
+                    SystemDefs.JavabaseBM.unpinPage(pid, false);
+                    if (data != pid.pid + 99999)
+                        throw new Exception("page " + pid.pid + " holds " + data);
+                }
+            }
+        });
+
+        int reads = PCounter.getInstance().getReadCount();
+        if (reads != pages) {
+            System.err.print("*** " + reads + " page reads for " + pages + " pages\n");
+            status = FAIL;
+        }
+        status &= checkUnpinned();
+
+        try {
+            SystemDefs.JavabaseDB.DBDestroy();
+        } catch (IOException e) {
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Test 2 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * Test 3: all threads allocate, write, check and free pages at the
+     * same time.
+     */
+    protected boolean test3() {
+
+        System.out.print("\n  Test 3 allocates and frees pages from all ");
+        System.out.print("threads at once:\n");
+
+        final int rounds = 500;
+        new SystemDefs(dbpath, THREADS * 4 + 20, BUFFERS, "Clock");
+
+        boolean status = runThreads(new Body() {
+            public void run(int thread) throws Exception {
+                Page pg = new Page();
+                for (int round = 0; round < rounds; round++) {
+                    PageId pid = SystemDefs.JavabaseBM.newPage(pg, 1);
+                    Convert.setIntValue(thread * rounds + round, 0, pg.getpage());
+                    SystemDefs.JavabaseBM.unpinPage(pid, true);
+
+                    SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+                    int data = Convert.getIntValue(0, pg.getpage());
+                    SystemDefs.JavabaseBM.unpinPage(pid, false);
+                    if (data != thread * rounds + round)
+                        throw new Exception("page " + pid.pid + " holds " + data);
+
+                    SystemDefs.JavabaseBM.freePage(pid);
+                }
+            }
+        });
+        status &= checkUnpinned();
+
+        try {
+            SystemDefs.JavabaseDB.DBDestroy();
+        } catch (IOException e) {
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Test 3 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * Test 4: with an index and a data pool, threads in the scope of a
+     * file of either pool pin the same pages, none of them resident, at
+     * the same time. Each page must go into one pool only, so it is read
+     * from disk exactly once.
+     */
+    protected boolean test4() {
+
+        System.out.print("\n  Test 4 pins the same pages at once from ");
+        System.out.print("threads of files in different pools:\n");
+
+        final int pages = 25;
+        final int rounds = 200;
+        new SystemDefs(dbpath, pages * rounds + 20, BUFFERS, "Clock");
+
+        final PCounter.Stats[] files = {PCounter.file("bufconctest_index"),
+                PCounter.file("bufconctest_data")};
+        final PageId first;
+        try {
+            SystemDefs.JavabaseBM.addPool(BufMgr.INDEX_POOL, pages * rounds, "Clock");
+            SystemDefs.JavabaseBM.addPool(BufMgr.DATA_POOL, pages * rounds, "Clock");
+            SystemDefs.JavabaseBM.assignPool(files[0], BufMgr.INDEX_POOL);
+            SystemDefs.JavabaseBM.assignPool(files[1], BufMgr.DATA_POOL);
+
+            Page pg = new Page();
+            first = SystemDefs.JavabaseBM.newPage(pg, pages * rounds);
+            SystemDefs.JavabaseBM.unpinPage(first, false);
+            PageId pid = new PageId();
+            for (pid.pid = first.pid; pid.pid < first.pid + pages * rounds; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                SystemDefs.JavabaseBM.unpinPage(pid, true);
+            }
+            SystemDefs.JavabaseBM.flushAllPages();
+        } catch (Exception e) {
+            System.err.print("*** Could not set up the pools\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        System.out.print("  - Pin them from " + THREADS + " threads, " + rounds + " times\n");
+        PCounter.getInstance().setReadCount(0);
+        boolean status = OK;
+        for (int round = 0; round < rounds; round++) {
+            final int base = first.pid + round * pages;
+            status &= runThreads(new Body() {
+                public void run(int thread) throws Exception {
+                    Page pg = new Page();
+                    PageId pid = new PageId();
+                    PCounter.Stats outer = PCounter.enter(files[thread % 2]);
+                    try {
+                        for (int i = 0; i < pages; i++) {
+                            // all threads in the same order, to race for each page
+                            pid.pid = base + i;
+                            SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+                            int data = Convert.getIntValue(0, pg.getpage());
+                            SystemDefs.JavabaseBM.unpinPage(pid, false);
+                            if (data != pid.pid + 99999)
+                                throw new Exception("page " + pid.pid + " holds " + data);
+                        }
+                    } finally {
+                        PCounter.exit(outer);
+                    }
+                }
+            });
+        }
+
+        int reads = PCounter.getInstance().getReadCount();
+        if (reads != pages * rounds) {
+            System.err.print("*** " + reads + " page reads for " + pages * rounds + " pages\n");
+            status = FAIL;
+        }
+        for (BufMgr pool : SystemDefs.JavabaseBM.getPools())
+            if (pool.getNumUnpinnedBuffers() != pool.getNumBuffers()) {
+                System.err.print("*** Frames of the " + pool.getPoolName() + " pool left pinned\n");
+                status = FAIL;
+            }
+
+        try {
+            SystemDefs.JavabaseDB.DBDestroy();
+        } catch (IOException e) {
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Test 4 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * overrides the testName function in TestDriver
+     *
+     * @return the name of the test
+     */
+    protected String testName() {
+        return "Concurrent Buffer Management";
+    }
+}
+
+public class BMConcurrencyTest {
+
+    public static void main(String argv[]) {
+
+        BMConcurrencyDriver bmt = new BMConcurrencyDriver();
+        boolean dbstatus;
+
+        dbstatus = bmt.runTests();
+
+        if (dbstatus != true) {
+            System.err.println("Error encountered during concurrent buffer manager tests:\n");
+            Runtime.getRuntime().exit(1);
+        }
+
+        Runtime.getRuntime().exit(0);
+    }
+}
@@ -568,13 +568,130 @@ class BMDriver extends TestDriver implements GlobalConst {
     }
 
     /**
-     * overrides the test4 function in TestDriver
+     * overrides the test4 function in TestDriver.  It resizes the buffer
+     * pool while it holds pages.
      *
      * @return whether test4 has passed
      */
     protected boolean test4() {
 
-        return true;
+        System.out.print("\n  Test 4 resizes the buffer pool while it holds pages\n");
+
+        int numPages = 8;
+        Page pg = new Page();
+        PageId pid = new PageId();
+        PageId firstPid = null;
+        boolean status = OK;
+
+        System.out.print("  - Allocate and dirty some new pages\n");
+
+        try {
+            firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+            SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, /*emptyPage:*/ true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                SystemDefs.JavabaseBM.unpinPage(pid, /*dirty:*/ true);
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not allocate and write the pages\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        System.out.print("  - Grow the pool; the pages should stay without a write\n");
+
+        PCounter.getInstance().setReadCount(0);
+        PCounter.getInstance().setWriteCount(0);
+        try {
+            SystemDefs.JavabaseBM.setNumBuffers(2 * NUMBUF);
+        } catch (Exception e) {
+            System.err.print("*** Could not grow the pool\n");
+            e.printStackTrace();
+            status = FAIL;
+        }
+        if (status == OK && SystemDefs.JavabaseBM.getNumBuffers() != 2 * NUMBUF) {
+            System.err.print("*** The pool has " + SystemDefs.JavabaseBM.getNumBuffers()
+                    + " frames instead of " + 2 * NUMBUF + "\n");
+            status = FAIL;
+        }
+        if (status == OK && PCounter.getInstance().getWriteCount() != 0) {
+            System.err.print("*** Growing the pool wrote pages\n");
+            status = FAIL;
+        }
+        if (status == OK)
+            status = checkPages(firstPid, numPages);
+        if (status == OK && PCounter.getInstance().getReadCount() != 0) {
+            System.err.print("*** Pages were read again after the pool grew\n");
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  - Shrink the pool below the number of pages, with one pinned\n");
+
+        if (status == OK) {
+            try {
+                SystemDefs.JavabaseBM.pinPage(firstPid, pg, false);
+                SystemDefs.JavabaseBM.setNumBuffers(numPages / 2);
+                if (Convert.getIntValue(0, pg.getpage()) != firstPid.pid + 99999) {
+                    System.err.print("*** The pinned page changed in the resize\n");
+                    status = FAIL;
+                }
+                SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+            } catch (Exception e) {
+                System.err.print("*** Could not shrink the pool\n");
+                e.printStackTrace();
+                status = FAIL;
+            }
+        }
+        if (status == OK)
+            status = checkPages(firstPid, numPages);
+
+        try {
+            SystemDefs.JavabaseBM.setNumBuffers(NUMBUF);
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++)
+                SystemDefs.JavabaseBM.freePage(pid);
+        } catch (Exception e) {
+            System.err.print("*** Could not restore the pool and free the pages\n");
+            e.printStackTrace();
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Test 4 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Reads back the pages written by test4.
+     */
+    private boolean checkPages(PageId firstPid, int numPages) {
+        return checkPages(firstPid, numPages, 99999);
+    }
+
+    /**
+     * Reads back pages that hold their page number plus base.
+     */
+    private boolean checkPages(PageId firstPid, int numPages, int base) {
+        Page pg = new Page();
+        PageId pid = new PageId();
+        try {
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+                int data = Convert.getIntValue(0, pg.getpage());
+                SystemDefs.JavabaseBM.unpinPage(pid, false);
+                if (data != pid.pid + base) {
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                    return FAIL;
+                }
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not read page " + pid.pid + "\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+        return OK;
     }
 
     /**
@@ -584,7 +701,90 @@ class BMDriver extends TestDriver implements GlobalConst {
      */
     protected boolean test5() {
 
-        return true;
+        System.out.print("\n  Test 5 counts the I/O of each file\n");
+
+        int numPages = 8;
+        Page pg = new Page();
+        PageId pid = new PageId();
+        PageId firstPid = null;
+        boolean status = OK;
+        PCounter.Stats writer = PCounter.file("bmtest_writer");
+        PCounter.Stats reader = PCounter.file("bmtest_reader");
+        PCounter.Snapshot before = PCounter.snapshot();
+
+        System.out.print("  - Write some new pages in the scope of one file\n");
+
+        PCounter.Stats outer = PCounter.enter(writer);
+        try {
+            firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+            SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, /*emptyPage:*/ true);
+                Convert.setIntValue(pid.pid + 77777, 0, pg.getpage());
+                SystemDefs.JavabaseBM.unpinPage(pid, /*dirty:*/ true);
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not allocate and write the pages\n");
+            e.printStackTrace();
+            return FAIL;
+        } finally {
+            PCounter.exit(outer);
+        }
+
+        System.out.print("  - Flush them, and read them back in the scope of another\n");
+
+        outer = PCounter.enter(reader);
+        try {
+            SystemDefs.JavabaseBM.flushAllPages();
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 77777) {
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                    status = FAIL;
+                }
+                SystemDefs.JavabaseBM.unpinPage(pid, false);
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not flush and read the pages\n");
+            e.printStackTrace();
+            status = FAIL;
+        } finally {
+            PCounter.exit(outer);
+        }
+
+        PCounter.Snapshot diff = PCounter.snapshot().since(before);
+        if (status == OK && (diff.get("bmtest_writer", PCounter.WRITES) != numPages
+                || diff.get("bmtest_writer", PCounter.READS) != 0)) {
+            System.err.print("*** The writes were not counted for the file that wrote\n");
+            status = FAIL;
+        }
+        if (status == OK && (diff.get("bmtest_reader", PCounter.READS) != numPages
+                || diff.get("bmtest_reader", PCounter.MISSES) != numPages
+                || diff.get("bmtest_reader", PCounter.PINS) != numPages
+                || diff.get("bmtest_reader", PCounter.WRITES) != 0)) {
+            System.err.print("*** The reads were not counted for the file that read\n");
+            status = FAIL;
+        }
+        if (status == OK && diff.getReads() != numPages) {
+            System.err.print("*** " + diff.getReads() + " pages read instead of " + numPages + "\n");
+            status = FAIL;
+        }
+        if (status != OK)
+            diff.print(System.err);
+
+        try {
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++)
+                SystemDefs.JavabaseBM.freePage(pid);
+        } catch (Exception e) {
+            System.err.print("*** Could not free the pages\n");
+            e.printStackTrace();
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Test 5 completed successfully.\n");
+
+        return status;
     }
 
     /**
@@ -594,7 +794,97 @@ class BMDriver extends TestDriver implements GlobalConst {
      */
     protected boolean test6() {
 
-        return true;
+        System.out.print("\n  Test 6 keeps the pages of a file in its own pool\n");
+
+        int numPages = 8;
+        Page pg = new Page();
+        PageId pid = new PageId();
+        PageId firstPid = null;
+        boolean status = OK;
+        BufMgr pool = null;
+        PCounter.Stats file = PCounter.file("bmtest_pooled");
+
+        System.out.print("  - Add a pool of " + numPages / 2 + " frames and assign a file to it\n");
+
+        try {
+            pool = SystemDefs.JavabaseBM.addPool(BufMgr.INDEX_POOL, numPages / 2, "Clock");
+            SystemDefs.JavabaseBM.assignPool(file, BufMgr.INDEX_POOL);
+        } catch (Exception e) {
+            System.err.print("*** Could not add the pool\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        System.out.print("  - Write more pages of the file than the pool has frames\n");
+
+        int unpinned = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+        PCounter.Stats outer = PCounter.enter(file);
+        try {
+            firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+            SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, pg, /*emptyPage:*/ true);
+                Convert.setIntValue(pid.pid + 55555, 0, pg.getpage());
+                SystemDefs.JavabaseBM.unpinPage(pid, /*dirty:*/ true);
+            }
+        } catch (Exception e) {
+            System.err.print("*** Could not allocate and write the pages\n");
+            e.printStackTrace();
+            status = FAIL;
+        } finally {
+            PCounter.exit(outer);
+        }
+        if (status == OK && pool.getMisses() != numPages) {
+            System.err.print("*** The pool brought in " + pool.getMisses() + " pages instead of "
+                    + numPages + "\n");
+            status = FAIL;
+        }
+        if (status == OK && SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != unpinned) {
+            System.err.print("*** The pages of the file took frames of the default pool\n");
+            status = FAIL;
+        }
+
+        System.out.print("  - Pin the page still in the pool from outside the file\n");
+
+        if (status == OK) {
+            PageId last = new PageId(firstPid.pid + numPages - 1);
+            PCounter.getInstance().setReadCount(0);
+            try {
+                SystemDefs.JavabaseBM.pinPage(last, pg, false);
+                if (Convert.getIntValue(0, pg.getpage()) != last.pid + 55555) {
+                    System.err.print("*** Read wrong data from page " + last.pid + "\n");
+                    status = FAIL;
+                }
+                SystemDefs.JavabaseBM.unpinPage(last, false);
+            } catch (Exception e) {
+                System.err.print("*** Could not pin page " + last.pid + "\n");
+                e.printStackTrace();
+                status = FAIL;
+            }
+            if (status == OK && PCounter.getInstance().getReadCount() != 0) {
+                System.err.print("*** The page was read again instead of found in its pool\n");
+                status = FAIL;
+            }
+        }
+
+        if (status == OK)
+            status = checkPages(firstPid, numPages, 55555);
+
+        try {
+            SystemDefs.JavabaseBM.flushAllPages();
+            for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++)
+                SystemDefs.JavabaseBM.freePage(pid);
+            SystemDefs.JavabaseBM.assignPool(file, null);
+        } catch (Exception e) {
+            System.err.print("*** Could not flush and free the pages\n");
+            e.printStackTrace();
+            status = FAIL;
+        }
+
+        if (status == OK)
+            System.out.print("  Test 6 completed successfully.\n");
+
+        return status;
     }
 
     /**
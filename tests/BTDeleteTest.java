@@ -0,0 +1,202 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+
+import global.*;
+import btree.*;
+
+/**
+ * This class tests deletes from a B+ tree interleaved with inserts, on
+ * keys with many duplicates. The duplicates of a key span several leaves
+ * and several index entries hold equal keys, so a delete must find the
+ * entry on the right leaf and merge or redistribute the right pages.
+ */
+class BTDeleteDriver extends TestDriver implements GlobalConst {
+
+    private static final int OPS = 20000;
+    private static final int CHECK_EVERY = 500;
+    private static final int BUFFERS = 100;
+
+    /**
+     * BTDeleteDriver Constructor, inherited from TestDriver
+     */
+    public BTDeleteDriver() {
+        super("btdeletetest");
+    }
+
+    /**
+     * Test 1: full delete on string keys.
+     */
+    protected boolean test1() {
+        System.out.print("\n  Test 1 interleaves full deletes and inserts ");
+        System.out.print("of string keys:\n");
+        boolean status = run(AttrType.attrString, DeleteFashion.FULL_DELETE, 30, 1);
+        if (status == OK)
+            System.out.print("  Test 1 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * Test 2: full delete on integer keys, with fewer distinct keys so
+     * that a run of duplicates fills many leaves.
+     */
+    protected boolean test2() {
+        System.out.print("\n  Test 2 interleaves full deletes and inserts ");
+        System.out.print("of integer keys:\n");
+        boolean status = run(AttrType.attrInteger, DeleteFashion.FULL_DELETE, 5, 2);
+        if (status == OK)
+            System.out.print("  Test 2 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * Test 3: naive delete on string keys.
+     */
+    protected boolean test3() {
+        System.out.print("\n  Test 3 interleaves naive deletes and inserts ");
+        System.out.print("of string keys:\n");
+        boolean status = run(AttrType.attrString, DeleteFashion.NAIVE_DELETE, 30, 3);
+        if (status == OK)
+            System.out.print("  Test 3 completed successfully.\n");
+        return status;
+    }
+
+    /**
+     * Inserts and deletes random entries, and every CHECK_EVERY operations
+     * checks the tree against the entries it should hold. The page number
+     * of the rid of an entry is the operation that inserted it.
+     */
+    private boolean run(int keyType, int deleteFashion, int keys, long seed) {
+        new SystemDefs(dbpath, 5000, BUFFERS, "Clock");
+        Random random = new Random(seed);
+        HashMap<Integer, KeyClass> entries = new HashMap<Integer, KeyClass>();
+        ArrayList<Integer> live = new ArrayList<Integer>();
+        int deletes = 0;
+        try {
+            BTreeFile file = new BTreeFile("btdeletetest", keyType, 24, deleteFashion);
+            for (int op = 0; op < OPS; op++) {
+                if (live.isEmpty() || random.nextInt(100) < 60) {
+                    int n = random.nextInt(keys);
+                    KeyClass key = (keyType == AttrType.attrString)
+                            ? new StringKey("key" + n + "xxxxxxxx") : new IntegerKey(n);
+                    file.insert(key, new RID(new PageId(op), 0));
+                    entries.put(op, key);
+                    live.add(op);
+                } else {
+                    int i = random.nextInt(live.size());
+                    int inserted = live.get(i);
+                    live.set(i, live.get(live.size() - 1));
+                    live.remove(live.size() - 1);
+                    if (!file.Delete(entries.remove(inserted), new RID(new PageId(inserted), 0))) {
+                        System.err.print("*** Op " + op + " did not find the entry of op "
+                                + inserted + "\n");
+                        return FAIL;
+                    }
+                    deletes++;
+                }
+                if ((op + 1) % CHECK_EVERY == 0 && !check(file, entries, op))
+                    return FAIL;
+            }
+            System.out.print("  - " + OPS + " operations, " + deletes + " deletes, "
+                    + entries.size() + " entries left\n");
+            file.destroyFile();
+        } catch (Exception e) {
+            System.err.print("*** The tree failed\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        boolean status = OK;
+        if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SystemDefs.JavabaseBM.getNumBuffers()) {
+            System.err.print("*** Frames left pinned\n");
+            status = FAIL;
+        }
+        try {
+            SystemDefs.JavabaseDB.DBDestroy();
+        } catch (IOException e) {
+            status = FAIL;
+        }
+        return status;
+    }
+
+    /**
+     * Checks that a scan of the whole tree returns the entries in key
+     * order, and that a scan of each key, which goes down the index,
+     * finds all of its entries.
+     */
+    private boolean check(BTreeFile file, HashMap<Integer, KeyClass> entries, int op)
+            throws Exception {
+        HashMap<String, Integer> perKey = new HashMap<String, Integer>();
+        HashMap<String, KeyClass> distinct = new HashMap<String, KeyClass>();
+        for (KeyClass key : entries.values()) {
+            Integer cnt = perKey.get(key.toString());
+            perKey.put(key.toString(), (cnt == null) ? 1 : cnt + 1);
+            distinct.put(key.toString(), key);
+        }
+
+        BTFileScan scan = file.new_scan(null, null);
+        KeyClass last = null;
+        int cnt = 0;
+        for (KeyDataEntry entry = scan.get_next(); entry != null; entry = scan.get_next()) {
+            int inserted = ((LeafData) entry.data).getData().pageNo.pid;
+            KeyClass key = entries.get(inserted);
+            if (key == null || BT.keyCompare(key, entry.key) != 0
+                    || (last != null && BT.keyCompare(last, entry.key) > 0)) {
+                System.err.print("*** After op " + op + " the scan returned " + entry.key
+                        + " of op " + inserted + " after " + last + "\n");
+                scan.DestroyBTreeFileScan();
+                return FAIL;
+            }
+            last = entry.key;
+            cnt++;
+        }
+        scan.DestroyBTreeFileScan();
+        if (cnt != entries.size()) {
+            System.err.print("*** After op " + op + " the scan returned " + cnt
+                    + " entries, not " + entries.size() + "\n");
+            return FAIL;
+        }
+
+        for (Map.Entry<String, KeyClass> e : distinct.entrySet()) {
+            scan = file.new_scan(e.getValue(), e.getValue());
+            cnt = 0;
+            while (scan.get_next() != null)
+                cnt++;
+            scan.DestroyBTreeFileScan();
+            if (cnt != perKey.get(e.getKey())) {
+                System.err.print("*** After op " + op + " a scan of " + e.getKey() + " returned "
+                        + cnt + " entries, not " + perKey.get(e.getKey()) + "\n");
+                return FAIL;
+            }
+        }
+        return OK;
+    }
+
+    /**
+     * overrides the testName function in TestDriver
+     *
+     * @return the name of the test
+     */
+    protected String testName() {
+        return "B+ Tree Delete";
+    }
+}
+
+public class BTDeleteTest {
+
+    public static void main(String argv[]) {
+
+        BTDeleteDriver btt = new BTDeleteDriver();
+        boolean dbstatus;
+
+        dbstatus = btt.runTests();
+
+        if (dbstatus != true) {
+            System.err.println("Error encountered during B+ tree delete tests:\n");
+            Runtime.getRuntime().exit(1);
+        }
+
+        Runtime.getRuntime().exit(0);
+    }
+}
@@ -0,0 +1,88 @@
+package tests;
+
+import diskmgr.Page;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Throughput of BufMgr pinPage/unpinPage pairs from 1, 2, 4, ... threads
+ * up to the number of available processors (at least 4). The hit run
+ * pins pages that are all resident; the miss run pins pages from a range
+ * four times the pool, so most pins evict a frame and read a page. Each
+ * thread pins random pages from the shared range.
+ * <p>
+ * Run with "java tests.BufMgrScalingBench [pairs per thread] [buffers]".
+ */
+public class BufMgrScalingBench implements GlobalConst {
+
+    public static void main(String[] args) throws Exception {
+        final int pairs = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        String dbpath = "/tmp/bufmgrscalingbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("pairs per thread: " + pairs + ", buffers: " + buffers
+                + ", processors: " + Runtime.getRuntime().availableProcessors());
+        new SystemDefs(dbpath, 4 * buffers + 20, buffers, "Clock");
+        Page page = new Page();
+        PageId first = SystemDefs.JavabaseBM.newPage(page, 4 * buffers);
+        SystemDefs.JavabaseBM.unpinPage(first, false);
+        SystemDefs.JavabaseBM.flushAllPages();
+
+        for (int run = 0; run < 2; run++) {
+            int pages = (run == 0) ? buffers / 2 : 4 * buffers;
+            String name = (run == 0) ? "hit " : "miss";
+            // one untimed round to warm up
+            measure(first.pid, pages, pairs, 1);
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                long nanos = measure(first.pid, pages, pairs, threads);
+                System.out.printf("%s threads %3d  %10.0f pairs/s%n", name, threads,
+                        (double) pairs * threads * 1e9 / nanos);
+            }
+        }
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    /**
+     * Runs the threads and returns the wall-clock time of the slowest.
+     */
+    private static long measure(final int first, final int pages, final int pairs, int threads)
+            throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(threads + 1);
+        final Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Page page = new Page();
+                    PageId pid = new PageId();
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < pairs; i++) {
+                            pid.pid = first + random.nextInt(pages);
+                            SystemDefs.JavabaseBM.pinPage(pid, page, false);
+                            SystemDefs.JavabaseBM.unpinPage(pid, false);
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread worker : workers)
+            worker.join();
+        long nanos = System.nanoTime() - begin;
+        if (failure[0] != null)
+            throw failure[0];
+        return nanos;
+    }
+}
@@ -0,0 +1,175 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Scan;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.KeyDataEntry;
+import btree.LeafData;
+import btree.StringKey;
+import bufmgr.PinTrace;
+import diskmgr.PCounter;
+import diskmgr.Page;
+import global.AttrType;
+import global.GlobalConst;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Replays a trace of buffer manager calls (see bufmgr.PinTrace) against
+ * each replacement policy and reports, per policy, the hit ratio of the
+ * pins and the page reads and writes counted by PCounter. Pins and
+ * unpins are replayed in their original order, so pages pinned at the
+ * same time in the trace are pinned at the same time in the replay.
+ * <p>
+ * Without a trace file it records one first: B+ tree lookups of random
+ * rows, each fetching its map, interleaved with full scans of the BigT,
+ * the case where a scan pushes the index pages out of the pool.
+ * <p>
+ * Run with "java tests.BufTraceReplay [buffers [trace file]]".
+ */
+public class BufTraceReplay implements GlobalConst {
+
+    private static final String[] POLICIES = {"Clock", "LRU", "MRU", "LRU-2", "2Q", "ARC"};
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int buffers = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        String dbpath = "/tmp/buftracereplay" + System.getProperty("user.name") + ".minibase-db";
+        String tracefile;
+        if (args.length > 1) {
+            tracefile = args[1];
+        } else {
+            tracefile = "/tmp/buftracereplay" + System.getProperty("user.name") + ".trace";
+            record(dbpath, tracefile, 20000, 10, 500);
+        }
+
+        // the replay database must hold every page of the trace
+        int maxPid = 0;
+        long calls = 0;
+        PinTrace trace = PinTrace.open(tracefile);
+        while (trace.next()) {
+            maxPid = Math.max(maxPid, trace.pid());
+            calls++;
+        }
+        trace.close();
+
+        System.out.println("trace: " + tracefile + ", " + calls + " calls, buffers: " + buffers);
+        for (String policy : POLICIES) {
+            new SystemDefs(dbpath, maxPid + 1, buffers, policy);
+            replay(tracefile, maxPid, policy);
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+    }
+
+    /**
+     * Replays the trace against the current buffer manager and prints
+     * the result.
+     */
+    private static void replay(String tracefile, int maxPid, String policy) throws Exception {
+        int[] pinned = new int[maxPid + 1];
+        Page page = new Page();
+        PageId pid = new PageId();
+
+        PCounter.getInstance().setReadCount(0);
+        PCounter.getInstance().setWriteCount(0);
+        SystemDefs.JavabaseBM.resetPinCounters();
+        long start = System.nanoTime();
+
+        PinTrace trace = PinTrace.open(tracefile);
+        while (trace.next()) {
+            pid.pid = trace.pid();
+            switch (trace.op()) {
+                case PinTrace.PIN:
+                case PinTrace.PIN_EMPTY:
+                    SystemDefs.JavabaseBM.pinPage(pid, page, trace.op() == PinTrace.PIN_EMPTY);
+                    pinned[pid.pid]++;
+                    break;
+                case PinTrace.UNPIN:
+                case PinTrace.UNPIN_DIRTY:
+                    // pages pinned before the trace started are not pinned here
+                    if (pinned[pid.pid] > 0) {
+                        SystemDefs.JavabaseBM.unpinPage(pid, trace.op() == PinTrace.UNPIN_DIRTY);
+                        pinned[pid.pid]--;
+                    }
+                    break;
+                case PinTrace.FREE:
+                    // the page stays allocated; only its pins go
+                    for (; pinned[pid.pid] > 0; pinned[pid.pid]--)
+                        SystemDefs.JavabaseBM.unpinPage(pid, false);
+                    break;
+            }
+        }
+        trace.close();
+
+        long nanos = System.nanoTime() - start;
+        long pins = SystemDefs.JavabaseBM.getPins();
+        long misses = SystemDefs.JavabaseBM.getMisses();
+        System.out.printf("%-6s hit ratio %6.2f%%  reads %8d  writes %8d  %8.2f ms%n", policy,
+                (pins == 0) ? 0.0 : 100.0 * (pins - misses) / pins,
+                PCounter.getInstance().getReadCount(), PCounter.getInstance().getWriteCount(),
+                nanos / 1e6);
+    }
+
+    /**
+     * Loads maps into a BigT with a B+ tree on the row and records the
+     * trace of rounds of lookups, each followed by a full scan.
+     */
+    private static void record(String dbpath, String tracefile, int maps, int rounds, int lookups)
+            throws Exception {
+        new SystemDefs(dbpath, 20000, 1000, "Clock");
+
+        BigT bigt = new BigT("buftracereplay", 2);
+        BTreeFile btree = new BTreeFile("buftracereplay_index", AttrType.attrString, SIZES[0], 1);
+        Random random = new Random(42);
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + random.nextInt(maps);
+            RID rid = bigt.insertMap(map(row, "col" + (i % 10), i, "value" + i).getMapByteArray());
+            btree.insert(new StringKey(row), rid);
+        }
+
+        PinTrace trace = PinTrace.create(tracefile);
+        SystemDefs.JavabaseBM.setTrace(trace);
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < lookups; i++) {
+                StringKey key = new StringKey("row" + random.nextInt(maps));
+                BTFileScan scan = btree.new_scan(key, key);
+                KeyDataEntry entry = scan.get_next();
+                scan.DestroyBTreeFileScan();
+                if (entry != null)
+                    bigt.getMap(((LeafData) entry.data).getData());
+            }
+
+            Scan scan = bigt.openScan();
+            RID rid = new RID();
+            while (scan.getNext(rid) != null)
+                ;
+            scan.closescan();
+        }
+        SystemDefs.JavabaseBM.setTrace(null);
+        trace.close();
+
+        btree.close();
+        bigt.close();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    private static Map map(String row, String column, int timestamp, String value)
+            throws Exception {
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        map.setRowLabel(row);
+        map.setColumnLabel(column);
+        map.setTimeStamp(timestamp);
+        map.setValue(value);
+        return map;
+    }
+}
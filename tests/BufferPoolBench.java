@@ -0,0 +1,116 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.StringKey;
+import bufmgr.BufMgr;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of separate buffer pools. It loads maps into a BigT with a
+ * B+ tree on the row, then runs rounds of a few B+ tree lookups among
+ * many reads of maps at random, first with one pool, then with the
+ * frames split among an index pool, a data pool and the default pool.
+ * For each it reports the pages read for the index and for the data,
+ * and the hit ratio of each pool.
+ * <p>
+ * Run with "java tests.BufferPoolBench [maps] [buffers] [index share]
+ * [data share]".
+ */
+public class BufferPoolBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS = 100;
+    private static final int READS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        double indexShare = (args.length > 2) ? Double.parseDouble(args[2]) : 0.25;
+        double dataShare = (args.length > 3) ? Double.parseDouble(args[3]) : 0.7;
+        String dbpath = "/tmp/bufferpoolbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("maps: " + maps + ", buffers: " + buffers);
+        new SystemDefs(dbpath, 4 * maps / 16 + 20000, buffers, "Clock");
+
+        BigT bigt = new BigT("bufferpoolbench", 2);
+        BTreeFile btree = new BTreeFile("bufferpoolbench_index", AttrType.attrString, SIZES[0], 1);
+        Random random = new Random(42);
+        RID[] rids = new RID[maps];
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + random.nextInt(maps);
+            map.setRowLabel(row);
+            map.setColumnLabel("col" + (i % 10));
+            map.setTimeStamp(i);
+            map.setValue("value" + i);
+            rids[i] = bigt.insertMap(map.getMapByteArray());
+            btree.insert(new StringKey(row), rids[i]);
+        }
+        btree.close();
+        bigt.close();
+
+        run(dbpath, buffers, 0, 0, rids);
+        run(dbpath, buffers, indexShare, dataShare, rids);
+
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    /**
+     * Opens the database again with the frames split by the shares, and
+     * runs the rounds.
+     */
+    private static void run(String dbpath, int buffers, double indexShare, double dataShare,
+                            RID[] rids) throws Exception {
+        int index = (int) (indexShare * buffers);
+        int data = (int) (dataShare * buffers);
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.closeDB();
+        new SystemDefs(dbpath, 0, buffers - index - data, "Clock");
+        if (index > 0)
+            SystemDefs.JavabaseBM.addPool(BufMgr.INDEX_POOL, index, "Clock");
+        if (data > 0)
+            SystemDefs.JavabaseBM.addPool(BufMgr.DATA_POOL, data, "Clock");
+
+        BigT bigt = new BigT("bufferpoolbench", 2);
+        BTreeFile btree = new BTreeFile("bufferpoolbench_index");
+        Random random = new Random(7);
+        PCounter.Snapshot before = PCounter.snapshot();
+        SystemDefs.JavabaseBM.resetPinCounters();
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < LOOKUPS; i++) {
+                BTFileScan scan = btree.new_scan(new StringKey("row" + random.nextInt(rids.length)), null);
+                scan.get_next();
+                scan.DestroyBTreeFileScan();
+            }
+            for (int i = 0; i < READS; i++)
+                bigt.getMap(rids[random.nextInt(rids.length)]);
+        }
+        long nanos = System.nanoTime() - start;
+        PCounter.Snapshot diff = PCounter.snapshot().since(before);
+
+        System.out.printf("%npools: index %d, data %d, default %d; %.1f ms%n",
+                index, data, buffers - index - data, nanos / 1e6);
+        System.out.printf("index reads %d (%.2f per lookup), data reads %d%n",
+                diff.get("bufferpoolbench_index", PCounter.READS),
+                (double) diff.get("bufferpoolbench_index", PCounter.READS) / (ROUNDS * LOOKUPS),
+                diff.get("bufferpoolbench2", PCounter.READS));
+        SystemDefs.JavabaseBM.printPools(System.out);
+        btree.close();
+    }
+}
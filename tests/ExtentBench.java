@@ -0,0 +1,111 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Scan;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.StringKey;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of extent allocation for BigT data pages and B+ tree pages.
+ * For each extent size it inserts maps in random key order into a BigT
+ * and a B+ tree on the row label, so that data pages and index pages
+ * are allocated interleaved, and then scans both through a small buffer
+ * pool. It reports the scan time, the page reads, and how often the BigT
+ * scan moved to a data page that does not directly follow the last one
+ * on disk (a seek).
+ * <p>
+ * Run with "java tests.ExtentBench [maps] [buffers]".
+ */
+public class ExtentBench implements GlobalConst {
+
+    /**
+     * Data extent / index extent pairs; 1/1 is page by page allocation.
+     */
+    private static final int[][] EXTENTS = {{1, 1}, {8, 8}, {32, 8}};
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        String dbpath = "/tmp/extentbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("maps: " + maps + ", buffers: " + buffers);
+        for (int[] extent : EXTENTS) {
+            new SystemDefs(dbpath, 20000, buffers, "Clock");
+            BigT.setDataExtentPages(extent[0]);
+            BTreeFile.setExtentPages(extent[1]);
+            String name = "extent " + extent[0] + "/" + extent[1];
+
+            BigT bigt = new BigT("extentbench", 2);
+            BTreeFile btree = new BTreeFile("extentbench_index", AttrType.attrString, SIZES[0], 1);
+
+            Random random = new Random(42);
+            for (int i = 0; i < maps; i++) {
+                String row = "row" + random.nextInt(maps);
+                RID rid = bigt.insertMap(map(row, "col" + (i % 10), i, "value" + i).getMapByteArray());
+                btree.insert(new StringKey(row), rid);
+            }
+            btree.close();
+            bigt.close();
+            SystemDefs.JavabaseBM.flushAllPages();
+
+            PCounter.getInstance().setReadCount(0);
+            long start = System.nanoTime();
+            int pages = 0, seeks = 0, prev = INVALID_PAGE;
+            Scan scan = bigt.openScan();
+            RID rid = new RID();
+            while (scan.getNext(rid) != null) {
+                if (rid.pageNo.pid != prev) {
+                    pages++;
+                    if (prev != INVALID_PAGE && rid.pageNo.pid != prev + 1)
+                        seeks++;
+                    prev = rid.pageNo.pid;
+                }
+            }
+            scan.closescan();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%-12s bigt  scan %8.2f ms  reads %6d  data pages %6d  seeks %6d%n",
+                    name, nanos / 1e6, PCounter.getInstance().getReadCount(), pages, seeks);
+
+            SystemDefs.JavabaseBM.flushAllPages();
+            PCounter.getInstance().setReadCount(0);
+            start = System.nanoTime();
+            btree = new BTreeFile("extentbench_index");
+            BTFileScan iscan = btree.new_scan(null, null);
+            int entries = 0;
+            while (iscan.get_next() != null)
+                entries++;
+            iscan.DestroyBTreeFileScan();
+            nanos = System.nanoTime() - start;
+            System.out.printf("%-12s btree scan %8.2f ms  reads %6d  entries %6d%n",
+                    name, nanos / 1e6, PCounter.getInstance().getReadCount(), entries);
+
+            btree.close();
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+    }
+
+    private static Map map(String row, String column, int timestamp, String value)
+            throws Exception {
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        map.setRowLabel(row);
+        map.setColumnLabel(column);
+        map.setTimeStamp(timestamp);
+        map.setValue(value);
+        return map;
+    }
+}
@@ -0,0 +1,110 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Scan;
+import btree.BTreeFile;
+import btree.StringKey;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the background write-behind flusher of BufMgr. It loads
+ * maps in random key order into a BigT and a B+ tree through a small
+ * buffer pool, once without the flusher and once for each target share
+ * of clean frames, and reports the load time, the dirty pages written
+ * ahead of eviction, the ones pinPage still had to write at eviction,
+ * and the total page writes. Each load is scanned back and checked. A
+ * first load without the flusher warms up the JVM and is not reported.
+ * <p>
+ * Run with "java tests.FlusherBench [maps] [buffers]".
+ */
+public class FlusherBench implements GlobalConst {
+
+    /**
+     * Target shares of clean frames; 0 runs without the flusher.
+     */
+    private static final double[] CLEAN_SHARES = {0, 0.1, 0.25, 0.5};
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        String dbpath = "/tmp/flusherbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("maps: " + maps + ", buffers: " + buffers);
+        for (int run = -1; run < CLEAN_SHARES.length; run++) {
+            double share = (run < 0) ? 0 : CLEAN_SHARES[run];
+            new SystemDefs(dbpath, 20000, buffers, "Clock");
+            if (share > 0)
+                SystemDefs.JavabaseBM.startFlusher(share);
+            String name = (share > 0) ? "clean " + share : "no flusher";
+
+            PCounter.getInstance().setWriteCount(0);
+            SystemDefs.JavabaseBM.resetWriteCounters();
+            long start = System.nanoTime();
+
+            BigT bigt = new BigT("flusherbench", 2);
+            BTreeFile btree = new BTreeFile("flusherbench_index", AttrType.attrString, SIZES[0], 1);
+            Random random = new Random(42);
+            for (int i = 0; i < maps; i++) {
+                String row = "row" + random.nextInt(maps);
+                RID rid = bigt.insertMap(map(row, "col" + (i % 10), i, "value" + i).getMapByteArray());
+                btree.insert(new StringKey(row), rid);
+            }
+            btree.close();
+            bigt.close();
+
+            long nanos = System.nanoTime() - start;
+            SystemDefs.JavabaseBM.stopFlusher();
+            if (SystemDefs.JavabaseBM.getFlushError() != null)
+                throw SystemDefs.JavabaseBM.getFlushError();
+            if (run >= 0)
+                System.out.printf("%-11s load %9.2f ms  ahead %7d  forced %7d  writes %7d%n",
+                        name, nanos / 1e6, SystemDefs.JavabaseBM.getAheadWrites(),
+                        SystemDefs.JavabaseBM.getForcedWrites(), PCounter.getInstance().getWriteCount());
+
+            check(bigt, maps);
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+    }
+
+    /**
+     * Scans the BigT back and checks every map.
+     */
+    private static void check(BigT bigt, int maps) throws Exception {
+        Scan scan = bigt.openScan();
+        RID rid = new RID();
+        Map map;
+        int count = 0;
+        while ((map = scan.getNext(rid)) != null) {
+            map.setHdr((short) 4, TYPES, SIZES);
+            if (!map.getValue().equals("value" + map.getTimeStamp()))
+                throw new RuntimeException("bad map at " + rid.pageNo.pid + "/" + rid.slotNo);
+            count++;
+        }
+        scan.closescan();
+        if (count != maps)
+            throw new RuntimeException(count + " maps scanned, " + maps + " inserted");
+    }
+
+    private static Map map(String row, String column, int timestamp, String value)
+            throws Exception {
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        map.setRowLabel(row);
+        map.setColumnLabel(column);
+        map.setTimeStamp(timestamp);
+        map.setValue(value);
+        return map;
+    }
+}
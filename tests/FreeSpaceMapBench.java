@@ -0,0 +1,98 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.SystemDefs;
+import heap.FreeSpaceMap;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark of the free-space map. It loads the rows of a CSV file into
+ * a BigT a number of times over, once with inserts that walk the
+ * directory and once with inserts that ask the free-space map, and
+ * reports the time, the inserts per second and the pages pinned per
+ * insert. Without the map an insert reads every DataPageInfo before the
+ * last data page, so the load is quadratic; the directory walk is only
+ * run up to the largest scale given for it.
+ * <p>
+ * Run with "java tests.FreeSpaceMapBench [csv] [scales] [walk up to]
+ * [buffers]", for example "java tests.FreeSpaceMapBench
+ * ../project2_testdata.csv 1,10,100 10 1000".
+ */
+public class FreeSpaceMapBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+
+    public static void main(String[] args) throws Exception {
+        String csv = (args.length > 0) ? args[0] : "../project2_testdata.csv";
+        String[] scales = ((args.length > 1) ? args[1] : "1,10,100").split(",");
+        int walkUpTo = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        int buffers = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+
+        // the rows, and the longest labels and value for the map sizes
+        List<String[]> rows = new ArrayList<String[]>();
+        short[] sizes = {0, 0, 0};
+        BufferedReader br = new BufferedReader(new FileReader(csv));
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] fields = line.split(",");
+            sizes[0] = (short) Math.max(sizes[0], fields[0].length() + 8);
+            sizes[1] = (short) Math.max(sizes[1], fields[1].length());
+            sizes[2] = (short) Math.max(sizes[2], fields[3].length());
+            rows.add(fields);
+        }
+        br.close();
+
+        System.out.println("rows: " + rows.size() + ", buffers: " + buffers);
+        System.out.println("scale  free-space map       maps    time ms   inserts/s  pins/insert");
+        for (String s : scales) {
+            int scale = Integer.parseInt(s);
+            if (scale <= walkUpTo)
+                run(rows, sizes, scale, buffers, false);
+            run(rows, sizes, scale, buffers, true);
+        }
+        FreeSpaceMap.setEnabled(true);
+    }
+
+    private static void run(List<String[]> rows, short[] sizes, int scale, int buffers,
+                            boolean fsm) throws Exception {
+        String dbpath = "/tmp/freespacemapbench" + System.getProperty("user.name") + ".minibase-db";
+        long maps = (long) rows.size() * scale;
+        // a map takes about a tenth of a page
+        new SystemDefs(dbpath, (int) (maps / 8 + 20000), buffers, "Clock");
+        FreeSpaceMap.setEnabled(fsm);
+
+        BigT bigt = new BigT("freespacemapbench", 1);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, sizes);
+        SystemDefs.JavabaseBM.resetPinCounters();
+        PCounter.Snapshot before = PCounter.snapshot();
+        long start = System.nanoTime();
+        for (int copy = 0; copy < scale; copy++) {
+            for (String[] fields : rows) {
+                map.setRowLabel(copy + "_" + fields[0]);
+                map.setColumnLabel(fields[1]);
+                map.setTimeStamp(Integer.parseInt(fields[2]));
+                map.setValue(fields[3]);
+                bigt.insertMap(map.getMapByteArray());
+            }
+        }
+        bigt.close();
+        long nanos = System.nanoTime() - start;
+        long pins = PCounter.snapshot().since(before).get("freespacemapbench1", PCounter.PINS);
+
+        System.out.printf("%5d  %-14s %10d %10.1f %11.0f %12.2f%n", scale, fsm ? "on" : "off", maps,
+                nanos / 1e6, maps / (nanos / 1e9), (double) pins / maps);
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+}
@@ -0,0 +1,98 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import btree.BTreeFile;
+import btree.StringKey;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.Random;
+
+/**
+ * Heap usage and garbage collection of a bulk load. It loads maps into a
+ * BigT with a B+ tree on the row and reports the load time, the bytes
+ * the loading thread allocated, the number and total time of garbage
+ * collections during the load, and the peak heap usage.
+ * <p>
+ * Run with "java tests.HeapUsageBench [maps] [buffers] [page size]".
+ */
+public class HeapUsageBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int pageSize = (args.length > 2) ? Integer.parseInt(args[2]) : MINIBASE_PAGESIZE;
+        String dbpath = "/tmp/heapusagebench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("maps: " + maps + ", buffers: " + buffers + ", page size: " + pageSize);
+        new SystemDefs(dbpath, 4 * maps / (pageSize / 64) + 20000, buffers, "Clock", null, pageSize);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long collections = collections();
+        long collectionMillis = collectionMillis();
+        long start = System.nanoTime();
+
+        BigT bigt = new BigT("heapusagebench", 2);
+        BTreeFile btree = new BTreeFile("heapusagebench_index", AttrType.attrString, SIZES[0], 1);
+        Random random = new Random(42);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + random.nextInt(maps);
+            map.setRowLabel(row);
+            map.setColumnLabel("col" + (i % 10));
+            map.setTimeStamp(i);
+            map.setValue("value" + i);
+            RID rid = bigt.insertMap(map.getMapByteArray());
+            btree.insert(new StringKey(row), rid);
+        }
+        btree.close();
+        bigt.close();
+
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        collections = collections() - collections;
+        collectionMillis = collectionMillis() - collectionMillis;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == java.lang.management.MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+
+        System.out.printf("load %10.2f s%n", nanos / 1e9);
+        System.out.printf("allocated %10.1f MB (%d bytes per map)%n",
+                allocated / 1048576.0, allocated / maps);
+        System.out.printf("gc %6d collections, %8d ms%n", collections, collectionMillis);
+        System.out.printf("peak heap %10.1f MB%n", peak / 1048576.0);
+
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    private static long collections() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += gc.getCollectionCount();
+        return n;
+    }
+
+    private static long collectionMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += gc.getCollectionTime();
+        return n;
+    }
+}
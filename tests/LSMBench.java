@@ -0,0 +1,174 @@
+package tests;
+
+import bigt.BigT;
+import bigt.LSMScan;
+import bigt.LSMTree;
+import bigt.Map;
+import bigt.Scan;
+import bigt.VersionIndex;
+import btree.BTreeFile;
+import btree.DeleteFashion;
+import btree.StringKey;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the ingest of an LSMTree against that of a BigT with a
+ * B+ tree on the row, as BatchInsert loads type 2. The same maps, of a
+ * number of (row, column)s with timestamps at random, go into both; the
+ * BigT keeps the newest VersionIndex.MAX_VERSIONS versions through a
+ * version index, deleting the maps and index entries it drops, and the
+ * LSM tree through its merges, done by its CompactionTask. It reports
+ * the inserts per second and the pages read and written, and checks
+ * that both hold the same maps.
+ * <p>
+ * Run with "java tests.LSMBench [maps] [row, column pairs] [buffers]".
+ */
+public class LSMBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+
+        System.out.println("maps: " + maps + ", (row, column)s: " + keys + ", buffers: " + buffers);
+        System.out.println("path            time ms   inserts/s   pages read   pages written   maps kept");
+        long heap = heap(maps, keys, buffers);
+        long lsm = lsm(maps, keys, buffers);
+        if (heap != lsm)
+            throw new Exception("the BigT and the LSM tree hold different maps");
+        System.out.println("both hold the same maps");
+    }
+
+    /**
+     * Loads the maps into a BigT and a B+ tree on the row, and returns a
+     * checksum of the maps kept.
+     */
+    private static long heap(int maps, int keys, int buffers) throws Exception {
+        String dbpath = "/tmp/lsmbench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, maps / 2 + 20000, buffers, "Clock");
+        BigT bigt = new BigT("lsmbench", 1);
+        BTreeFile btree = new BTreeFile("lsmbench_rows", AttrType.attrString, SIZES[0],
+                DeleteFashion.NAIVE_DELETE);
+        VersionIndex versions = new VersionIndex("lsmbench_versions", SIZES[0] + SIZES[1]);
+
+        Random random = new Random(42);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        Counts before = new Counts();
+        long start = System.nanoTime();
+        for (int i = 0; i < maps; i++) {
+            int key = random.nextInt(keys);
+            String row = row(key);
+            String column = "col" + (key % 10);
+            int timeStamp = random.nextInt();
+            if (versions.isObsolete(row, column, timeStamp))
+                continue;
+            map.setRowLabel(row);
+            map.setColumnLabel(column);
+            map.setTimeStamp(timeStamp);
+            map.setValue("value" + i);
+            RID rid = bigt.insertMap(map.getMapByteArray());
+            btree.insert(new StringKey(row), rid);
+            RID dropped = versions.add(row, column, timeStamp, rid);
+            if (dropped != null) {
+                Map old = bigt.getMap(dropped);
+                old.setOffsets(old.getOffset());
+                btree.Delete(new StringKey(old.getRowLabel()), dropped);
+                bigt.deleteMap(dropped);
+            }
+        }
+        versions.close();
+        btree.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+        long nanos = System.nanoTime() - start;
+        Counts after = new Counts();
+
+        long sum = 0;
+        int kept = 0;
+        Scan scan = bigt.openScan();
+        RID rid = new RID();
+        Map m;
+        while ((m = scan.getNext(rid)) != null) {
+            m.setHdr((short) 4, TYPES, SIZES);
+            sum += checksum(m);
+            kept++;
+        }
+        scan.closescan();
+        report("heap + B+ tree", maps, nanos, before, after, kept);
+        bigt.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+        return sum;
+    }
+
+    /**
+     * Loads the maps into an LSM tree, and returns a checksum of the maps
+     * kept.
+     */
+    private static long lsm(int maps, int keys, int buffers) throws Exception {
+        String dbpath = "/tmp/lsmbench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, maps / 2 + 20000, buffers, "Clock");
+        LSMTree lsm = new LSMTree("lsmbench", SIZES);
+        lsm.startCompaction();
+
+        Random random = new Random(42);
+        Counts before = new Counts();
+        long start = System.nanoTime();
+        for (int i = 0; i < maps; i++) {
+            int key = random.nextInt(keys);
+            lsm.insertMap(row(key), "col" + (key % 10), random.nextInt(), "value" + i);
+        }
+        lsm.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+        long nanos = System.nanoTime() - start;
+        Counts after = new Counts();
+
+        long sum = 0;
+        int kept = 0;
+        LSMScan scan = lsm.openScan(null, null);
+        Map m;
+        while ((m = scan.getNext()) != null) {
+            sum += checksum(m);
+            kept++;
+        }
+        scan.closescan();
+        report("LSM tree", maps, nanos, before, after, kept);
+        lsm.printLevels(System.out);
+        lsm.destroy();
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+        return sum;
+    }
+
+    /**
+     * The pages read and written so far.
+     */
+    private static class Counts {
+        final long reads = PCounter.getInstance().getReadCount();
+        final long writes = PCounter.getInstance().getWriteCount();
+    }
+
+    private static void report(String path, int maps, long nanos, Counts before, Counts after, int kept) {
+        System.out.printf("%-14s %8.1f %11.0f %12d %15d %11d%n", path, nanos / 1e6, maps / (nanos / 1e9),
+                after.reads - before.reads, after.writes - before.writes, kept);
+    }
+
+    private static long checksum(Map m) throws Exception {
+        return (m.getRowLabel() + m.getColumnLabel() + m.getValue()).hashCode() * 31L + m.getTimeStamp();
+    }
+
+    private static String row(int key) {
+        return "row" + (key / 10);
+    }
+}
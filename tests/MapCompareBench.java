@@ -0,0 +1,181 @@
+package tests;
+
+import bigt.Map;
+import bigt.Minibase;
+import bigt.Stream;
+import global.AttrType;
+import global.GlobalConst;
+import global.SystemDefs;
+import iterator.MapUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Benchmark of the comparisons of maps on their bytes against the
+ * comparisons of the Strings of the getters, as the sort and the filter
+ * of a stream did them before. For maps of the fixed and of the
+ * variable-length layout it reports the ns per comparison and the bytes
+ * allocated per comparison, for the sort order of MapUtils.CustomCompare
+ * and for Stream.filterOutput with a row range and a column. Both ways
+ * must agree on every pair of maps; some labels are not ASCII.
+ * <p>
+ * The JVM must report the bytes allocated by a thread for the second
+ * number, as HotSpot does.
+ * <p>
+ * Run with "java tests.MapCompareBench [maps] [rounds]".
+ */
+public class MapCompareBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {24, 24, 24};
+
+    private static final String[] ROW_FILTER = {"row2000", "row6999"};
+    private static final String[] COLUMN_FILTER = {"col3"};
+    private static final String[] VALUE_FILTER = {"*"};
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        String dbpath = "/tmp/mapcomparebench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, 1000, 100, "Clock");
+        Minibase.getInstance().setOrderType(1);
+
+        Random random = new Random(42);
+        Map[] fixed = new Map[maps];
+        Map[] varLen = new Map[maps];
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + random.nextInt(maps);
+            String column = "col" + random.nextInt(10);
+            if (random.nextInt(20) == 0)
+                row += "\u00e9t\u00e9";
+            if (random.nextInt(50) == 0)
+                column += (random.nextBoolean() ? "\u6771\ud83d\ude00" : "\uffff\u0000");
+            Map map = new Map();
+            map.setHdr((short) 4, TYPES, SIZES);
+            map.setRowLabel(row);
+            map.setColumnLabel(column);
+            map.setTimeStamp(random.nextInt(1000));
+            map.setValue(Integer.toString(random.nextInt(100000)));
+            fixed[i] = map;
+            byte[] bytes = map.getVarLenByteArray();
+            varLen[i] = new Map(bytes, 0, bytes.length);
+            varLen[i].setOffsets(0);
+        }
+        check(fixed, varLen);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.println("maps: " + maps + ", rounds: " + rounds);
+        System.out.println("path     layout    compare      ns/op   bytes/op");
+        for (int pass = 0; pass < 2; pass++) {
+            // the first pass warms up the JIT
+            boolean print = (pass == 1);
+            run(threads, print, "sort", "fixed", "strings", fixed, rounds, 0);
+            run(threads, print, "sort", "fixed", "bytes", fixed, rounds, 1);
+            run(threads, print, "sort", "variable", "strings", varLen, rounds, 0);
+            run(threads, print, "sort", "variable", "bytes", varLen, rounds, 1);
+            run(threads, print, "filter", "fixed", "strings", fixed, rounds, 2);
+            run(threads, print, "filter", "fixed", "bytes", fixed, rounds, 3);
+            run(threads, print, "filter", "variable", "strings", varLen, rounds, 2);
+            run(threads, print, "filter", "variable", "bytes", varLen, rounds, 3);
+        }
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    /**
+     * Checks that the comparisons on bytes agree with those on Strings,
+     * within and across the layouts.
+     */
+    private static void check(Map[] fixed, Map[] varLen) throws Exception {
+        byte[][] rows = Stream.encodeFilter(ROW_FILTER);
+        byte[][] columns = Stream.encodeFilter(COLUMN_FILTER);
+        byte[][] values = Stream.encodeFilter(VALUE_FILTER);
+        for (int i = 0; i < fixed.length; i++) {
+            Map a = fixed[i];
+            Map b = fixed[(i * 7 + 1) % fixed.length];
+            Map c = varLen[(i * 7 + 1) % fixed.length];
+            for (int fldNo = 1; fldNo <= 4; fldNo += (fldNo == 2) ? 2 : 1) {
+                int expected = Integer.signum(a.getStrFld(fldNo).compareTo(b.getStrFld(fldNo)));
+                if (Integer.signum(a.compareStrFld(fldNo, b)) != expected
+                        || Integer.signum(a.compareStrFld(fldNo, c)) != expected
+                        || Integer.signum(varLen[i].compareStrFld(fldNo, c)) != expected)
+                    throw new Exception("maps " + i + " differ on field " + fldNo);
+            }
+            if (stringCompare(a, b) != MapUtils.CustomCompare(a, b)
+                    || stringCompare(a, b) != MapUtils.CustomCompare(varLen[i], c))
+                throw new Exception("maps " + i + " sort differently");
+            boolean expected = stringFilter(a);
+            if (Stream.filterOutput(a, rows, columns, values) != expected
+                    || Stream.filterOutput(varLen[i], rows, columns, values) != expected)
+                throw new Exception("map " + i + " filtered differently");
+        }
+        System.out.println("the comparisons on bytes agree with those on Strings");
+    }
+
+    private static void run(com.sun.management.ThreadMXBean threads, boolean print, String path,
+                            String layout, String compare, Map[] maps, int rounds, int how)
+            throws Exception {
+        byte[][] rows = Stream.encodeFilter(ROW_FILTER);
+        byte[][] columns = Stream.encodeFilter(COLUMN_FILTER);
+        byte[][] values = Stream.encodeFilter(VALUE_FILTER);
+        long id = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < maps.length; i++) {
+                Map a = maps[i];
+                Map b = maps[(i * 7 + 1) % maps.length];
+                switch (how) {
+                    case 0:
+                        sum += stringCompare(a, b);
+                        break;
+                    case 1:
+                        sum += MapUtils.CustomCompare(a, b);
+                        break;
+                    case 2:
+                        sum += stringFilter(a) ? 1 : 0;
+                        break;
+                    default:
+                        sum += Stream.filterOutput(a, rows, columns, values) ? 1 : 0;
+                        break;
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(id) - bytes;
+        sink = sum;
+        long ops = (long) rounds * maps.length;
+        if (print)
+            System.out.printf("%-8s %-9s %-9s %8.1f %10.1f%n", path, layout, compare,
+                    (double) nanos / ops, (double) bytes / ops);
+    }
+
+    /**
+     * The order of MapUtils.CustomCompare for order type 1, on the Strings
+     * of the getters.
+     */
+    private static int stringCompare(Map m1, Map m2) throws Exception {
+        int cmp = m1.getRowLabel().compareTo(m2.getRowLabel());
+        if (cmp == 0)
+            cmp = m1.getColumnLabel().compareTo(m2.getColumnLabel());
+        if (cmp != 0)
+            return (cmp > 0) ? 1 : -1;
+        return (m1.getTimeStamp() >= m2.getTimeStamp()) ? 1 : -1;
+    }
+
+    /**
+     * Stream.filterOutput on the Strings of the getters.
+     */
+    private static boolean stringFilter(Map map) throws Exception {
+        String row = map.getRowLabel();
+        if (row.compareTo(ROW_FILTER[0]) < 0 || row.compareTo(ROW_FILTER[1]) > 0)
+            return false;
+        return map.getColumnLabel().compareTo(COLUMN_FILTER[0]) == 0;
+    }
+}
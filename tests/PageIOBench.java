@@ -0,0 +1,92 @@
+package tests;
+
+import diskmgr.Page;
+import diskmgr.PageIO;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Microbenchmark of the page I/O backends of BigDB. For each backend
+ * it creates a database file, writes every page once, and then reads
+ * random pages from 1, 2, 4 and 8 threads, reporting pages/sec.
+ * <p>
+ * Run with "java tests.PageIOBench [num_pages] [reads_per_thread]".
+ */
+public class PageIOBench implements GlobalConst {
+
+    private static final String[] BACKENDS = {PageIO.RANDOM_ACCESS, PageIO.FILE_CHANNEL, PageIO.MMAP};
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        int num_pages = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int reads = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+        String dbpath = "/tmp/pageiobench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("pages: " + num_pages + ", reads per thread: " + reads);
+        for (String backend : BACKENDS) {
+            new SystemDefs(dbpath, num_pages, NUMBUF, "Clock", backend);
+
+            long start = System.nanoTime();
+            Page page = new Page();
+            for (int pid = 0; pid < num_pages; pid++) {
+                page.getpage()[0] = (byte) pid;
+                SystemDefs.JavabaseDB.write_page(new PageId(pid), page);
+            }
+            report(backend, "write", 1, num_pages, System.nanoTime() - start);
+
+            for (int threads : THREADS)
+                report(backend, "read", threads, (long) threads * reads,
+                        readRandom(num_pages, reads, threads));
+
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+    }
+
+    /**
+     * Reads random pages from several threads at once.
+     *
+     * @return elapsed nanoseconds
+     */
+    private static long readRandom(final int num_pages, final int reads, int threads)
+            throws Exception {
+        Thread[] workers = new Thread[threads];
+        final Exception[] failure = new Exception[1];
+
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                Page page = new Page();
+                PageId pid = new PageId();
+                try {
+                    for (int i = 0; i < reads; i++) {
+                        pid.pid = random.nextInt(num_pages);
+                        SystemDefs.JavabaseDB.read_page(pid, page);
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers)
+            worker.start();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - start;
+
+        if (failure[0] != null)
+            throw failure[0];
+        return elapsed;
+    }
+
+    private static void report(String backend, String op, int threads, long pages, long nanos) {
+        double pagesPerSec = pages * 1e9 / nanos;
+        System.out.printf("%-13s %-6s threads=%d  %,12.0f pages/sec%n",
+                backend, op, threads, pagesPerSec);
+    }
+}
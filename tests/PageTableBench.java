@@ -0,0 +1,60 @@
+package tests;
+
+import diskmgr.Page;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Microbenchmark of buffer hits: pinPage followed by unpinPage of a page
+ * that is already in the buffer pool, which is a lookup in the page
+ * table of BufMgr plus the replacer bookkeeping. For pool sizes from 100
+ * to 100k frames it fills the pool and then pins and unpins random
+ * resident pages, reporting nanoseconds per pin/unpin pair.
+ * <p>
+ * Run with "java tests.PageTableBench [pairs]".
+ */
+public class PageTableBench implements GlobalConst {
+
+    private static final int[] POOL_SIZES = {100, 1000, 10000, 100000};
+
+    public static void main(String[] args) throws Exception {
+        int pairs = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+        String dbpath = "/tmp/pagetablebench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("pin/unpin pairs: " + pairs);
+        for (int frames : POOL_SIZES) {
+            new SystemDefs(dbpath, frames + 10, frames, "Clock");
+
+            // fill the pool; empty pages, so nothing is read
+            Page page = new Page();
+            PageId pid = new PageId();
+            for (pid.pid = 0; pid.pid < frames; pid.pid++) {
+                SystemDefs.JavabaseBM.pinPage(pid, page, true);
+                SystemDefs.JavabaseBM.unpinPage(pid, false);
+            }
+
+            int[] pids = new int[1 << 16];
+            Random random = new Random(frames);
+            for (int i = 0; i < pids.length; i++)
+                pids[i] = random.nextInt(frames);
+
+            // one untimed round to warm up, then the timed one
+            long nanos = 0;
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < pairs; i++) {
+                    pid.pid = pids[i & (pids.length - 1)];
+                    SystemDefs.JavabaseBM.pinPage(pid, page, false);
+                    SystemDefs.JavabaseBM.unpinPage(pid, false);
+                }
+                nanos = System.nanoTime() - start;
+            }
+
+            System.out.printf("frames %7d  %8.1f ns per pin/unpin%n", frames, (double) nanos / pairs);
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+    }
+}
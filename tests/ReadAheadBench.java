@@ -0,0 +1,109 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Scan;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.StringKey;
+import bufmgr.ReadAhead;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of read-ahead. It loads maps into a BigT with a B+ tree on
+ * the row, then reopens the database with an empty buffer pool and
+ * scans the BigT and the leaves of the B+ tree, once without read-ahead
+ * and once with it. For each scan it reports the time, the pages read
+ * and the pages read ahead, used and wasted.
+ * <p>
+ * The pages come from the page cache of the operating system, so the
+ * time read-ahead can save is small here; on a disk that has to seek it
+ * is the time of every page the scan no longer waits for.
+ * <p>
+ * Run with "java tests.ReadAheadBench [maps] [buffers]".
+ */
+public class ReadAheadBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        String dbpath = "/tmp/readaheadbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("maps: " + maps + ", buffers: " + buffers);
+        new SystemDefs(dbpath, 4 * maps / 16 + 20000, buffers, "Clock");
+
+        BigT bigt = new BigT("readaheadbench", 2);
+        BTreeFile btree = new BTreeFile("readaheadbench_index", AttrType.attrString, SIZES[0], 1);
+        Random random = new Random(42);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + random.nextInt(maps);
+            map.setRowLabel(row);
+            map.setColumnLabel("col" + (i % 10));
+            map.setTimeStamp(i);
+            map.setValue("value" + i);
+            RID rid = bigt.insertMap(map.getMapByteArray());
+            btree.insert(new StringKey(row), rid);
+        }
+        btree.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+
+        System.out.println("scan           depth    time ms    reads  read ahead     used   wasted");
+        for (int depth : new int[]{0, ReadAhead.MAX_DEPTH}) {
+            ReadAhead.setMaxDepth(depth);
+
+            reopen(dbpath, buffers);
+            bigt = new BigT("readaheadbench", 2);
+            long start = System.nanoTime();
+            Scan scan = bigt.openScan();
+            RID rid = new RID();
+            while (scan.getNext(rid) != null)
+                ;
+            scan.closescan();
+            report("bigt", depth, System.nanoTime() - start);
+
+            reopen(dbpath, buffers);
+            btree = new BTreeFile("readaheadbench_index");
+            start = System.nanoTime();
+            BTFileScan leaves = btree.new_scan(null, null);
+            while (leaves.get_next() != null)
+                ;
+            leaves.DestroyBTreeFileScan();
+            report("btree leaves", depth, System.nanoTime() - start);
+            btree.close();
+        }
+        ReadAhead.setMaxDepth(ReadAhead.MAX_DEPTH);
+
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    /**
+     * Opens the database again with an empty buffer pool.
+     */
+    private static void reopen(String dbpath, int buffers) throws Exception {
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.closeDB();
+        new SystemDefs(dbpath, 0, buffers, "Clock");
+        PCounter.getInstance().setReadCount(0);
+        SystemDefs.JavabaseBM.resetReadAheadCounters();
+    }
+
+    private static void report(String scan, int depth, long nanos) {
+        SystemDefs.JavabaseBM.stopPrefetcher();
+        System.out.printf("%-12s %7d %10.1f %8d %11d %8d %8d%n", scan, depth, nanos / 1e6,
+                PCounter.getInstance().getReadCount(), SystemDefs.JavabaseBM.getReadAheads(),
+                SystemDefs.JavabaseBM.getReadAheadUsed(), SystemDefs.JavabaseBM.getReadAheadWasted());
+    }
+}
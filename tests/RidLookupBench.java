@@ -0,0 +1,85 @@
+package tests;
+
+import bigt.Map;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+import heap.FreeSpaceMap;
+import heap.Heapfile;
+
+import java.util.Random;
+
+/**
+ * Benchmark of lookups by RID. It loads maps into a heap file, then
+ * reads, updates and deletes maps at random by their RIDs, once finding
+ * the page through the directory and once through the free-space map.
+ * For each operation it reports the time and the pages pinned and read
+ * per call.
+ * <p>
+ * Run with "java tests.RidLookupBench [maps] [operations] [buffers]".
+ */
+public class RidLookupBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int ops = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+
+        System.out.println("maps: " + maps + ", operations: " + ops + ", buffers: " + buffers);
+        System.out.println("operation  free-space map    time ms   pins/call  reads/call");
+        for (boolean fsm : new boolean[]{false, true})
+            run(maps, ops, buffers, fsm);
+        FreeSpaceMap.setEnabled(true);
+    }
+
+    private static void run(int maps, int ops, int buffers, boolean fsm) throws Exception {
+        String dbpath = "/tmp/ridlookupbench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, maps / 8 + 20000, buffers, "Clock");
+        FreeSpaceMap.setEnabled(fsm);
+
+        Heapfile file = new Heapfile("ridlookupbench");
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        RID[] rids = new RID[maps];
+        for (int i = 0; i < maps; i++) {
+            map.setRowLabel("row" + i);
+            map.setColumnLabel("col" + (i % 10));
+            map.setTimeStamp(i);
+            map.setValue("value" + i);
+            rids[i] = file.insertMap(map.getMapByteArray());
+        }
+
+        Random random = new Random(42);
+        for (String op : new String[]{"getMap", "updateMap", "deleteMap"}) {
+            PCounter.Snapshot before = PCounter.snapshot();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                int m = random.nextInt(maps);
+                if (op.equals("getMap")) {
+                    file.getMap(rids[m]);
+                } else if (op.equals("updateMap")) {
+                    map.setValue("update" + i);
+                    file.updateMap(rids[m], map);
+                } else {
+                    // each map once; the ones deleted are taken out of the draw
+                    file.deleteMap(rids[m]);
+                    rids[m] = rids[--maps];
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            PCounter.Snapshot diff = PCounter.snapshot().since(before);
+            System.out.printf("%-10s %-14s %10.1f %11.2f %11.2f%n", op, fsm ? "on" : "off", nanos / 1e6,
+                    (double) diff.get("ridlookupbench", PCounter.PINS) / ops,
+                    (double) diff.get("ridlookupbench", PCounter.READS) / ops);
+        }
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+}
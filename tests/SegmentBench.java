@@ -0,0 +1,146 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Segment;
+import bigt.SegmentScan;
+import bigt.SegmentWriter;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.DeleteFashion;
+import btree.KeyDataEntry;
+import btree.LeafData;
+import btree.StringKey;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the segment format. It writes the same maps to a segment,
+ * in order, and to a BigT with a B+ tree on the row, inserted at random,
+ * then runs the same row range scans on both: on the segment alone, and
+ * on the B+ tree with every map read back from the BigT by its RID. It
+ * checks that both return the same maps, and reports the pages each
+ * takes and the time of a scan.
+ * <p>
+ * Run with "java tests.SegmentBench [maps] [rows per scan] [buffers]".
+ */
+public class SegmentBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    private static final int COLUMNS = 10;
+    private static final int SCANS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int range = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+        String dbpath = "/tmp/segmentbench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, maps / 2 + 20000, buffers, "Clock");
+        int rows = maps / COLUMNS;
+
+        SegmentWriter writer = new SegmentWriter("segmentbench", SIZES);
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < COLUMNS; c++)
+                writer.add(row(r), "col" + c, r * COLUMNS + c, Integer.toString(r * COLUMNS + c));
+        Segment segment = writer.finish();
+        if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != buffers)
+            throw new Exception("the segment writer left pages pinned");
+
+        BigT bigt = new BigT("segmentbench", 1);
+        BTreeFile btree = new BTreeFile("segmentbench_rows", AttrType.attrString, SIZES[0],
+                DeleteFashion.NAIVE_DELETE);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        Random random = new Random(42);
+        int[] order = new int[rows * COLUMNS];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        for (int i : order) {
+            map.setRowLabel(row(i / COLUMNS));
+            map.setColumnLabel("col" + (i % COLUMNS));
+            map.setTimeStamp(i);
+            map.setValue(Integer.toString(i));
+            RID rid = bigt.insertMap(map.getMapByteArray());
+            btree.insert(new StringKey(row(i / COLUMNS)), rid);
+        }
+        System.out.println("maps: " + order.length + ", rows per scan: " + range + ", buffers: " + buffers);
+        btree.close();
+        System.out.println("segment: " + segment.getBlockCnt() + " blocks");
+
+        int[] from = new int[SCANS];
+        for (int s = 0; s < SCANS; s++)
+            from[s] = random.nextInt(Math.max(1, rows - range));
+
+        SystemDefs.JavabaseBM.flushAllPages();
+        PCounter.Snapshot before = PCounter.snapshot();
+        long start = System.nanoTime();
+        long segmentSum = 0;
+        for (int s = 0; s < SCANS; s++) {
+            SegmentScan scan = segment.openScan(row(from[s]), row(from[s] + range - 1));
+            Map m;
+            while ((m = scan.getNext()) != null)
+                segmentSum += m.getTimeStamp();
+            scan.closescan();
+        }
+        long nanos = System.nanoTime() - start;
+        PCounter.Snapshot diff = PCounter.snapshot().since(before);
+        System.out.printf("segment scan: %.1f pages read, %.1f pins, %.2f ms per scan%n",
+                (double) diff.get("segmentbench", PCounter.READS) / SCANS,
+                (double) diff.get("segmentbench", PCounter.PINS) / SCANS, nanos / 1e6 / SCANS);
+
+        SystemDefs.JavabaseBM.flushAllPages();
+        btree = new BTreeFile("segmentbench_rows");
+        before = PCounter.snapshot();
+        start = System.nanoTime();
+        long indexSum = 0;
+        for (int s = 0; s < SCANS; s++) {
+            BTFileScan scan = btree.new_scan(new StringKey(row(from[s])),
+                    new StringKey(row(from[s] + range - 1)));
+            KeyDataEntry entry;
+            while ((entry = scan.get_next()) != null) {
+                Map m = bigt.getMap(((LeafData) entry.data).getData());
+                m.setOffsets(m.getOffset());
+                indexSum += m.getTimeStamp();
+            }
+            scan.DestroyBTreeFileScan();
+        }
+        nanos = System.nanoTime() - start;
+        diff = PCounter.snapshot().since(before);
+        System.out.printf("index scan:   %.1f pages read, %.1f pins, %.2f ms per scan%n",
+                (double) (diff.get("segmentbench1", PCounter.READS)
+                        + diff.get("segmentbench_rows", PCounter.READS)) / SCANS,
+                (double) (diff.get("segmentbench1", PCounter.PINS)
+                        + diff.get("segmentbench_rows", PCounter.PINS)) / SCANS, nanos / 1e6 / SCANS);
+        if (segmentSum != indexSum)
+            throw new Exception("the scans returned different maps");
+        System.out.println("both scans returned the same maps");
+
+        btree.destroyFile();
+        segment.delete();
+        bigt.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    /**
+     * A row label that sorts as the row numbers do.
+     */
+    private static String row(int r) {
+        return String.format("row%08d", r);
+    }
+}
@@ -0,0 +1,53 @@
+package tests;
+
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+/**
+ * Benchmark of BigDB.allocate_page with the in-memory space map against
+ * the allocator that walks the space-map pages. On a fresh database it
+ * allocates single pages, frees every other one, and then allocates
+ * runs of 8 pages, reporting allocations/sec for each phase.
+ * <p>
+ * Run with "java tests.SpaceMapBench [num_pages] [allocations]".
+ */
+public class SpaceMapBench implements GlobalConst {
+
+    public static void main(String[] args) throws Exception {
+        int num_pages = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int allocs = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        String dbpath = "/tmp/spacemapbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("pages: " + num_pages + ", allocations: " + allocs);
+        for (boolean cached : new boolean[]{false, true}) {
+            new SystemDefs(dbpath, num_pages, NUMBUF, "Clock");
+            SystemDefs.JavabaseDB.setSpaceMapCache(cached);
+            String name = cached ? "cached" : "page walk";
+
+            PageId[] pages = new PageId[allocs];
+            long start = System.nanoTime();
+            for (int i = 0; i < allocs; i++) {
+                pages[i] = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(pages[i], 1);
+            }
+            report(name, "alloc 1", allocs, System.nanoTime() - start);
+
+            for (int i = 0; i < allocs; i += 2)
+                SystemDefs.JavabaseDB.deallocate_page(pages[i]);
+
+            PageId run = new PageId();
+            start = System.nanoTime();
+            for (int i = 0; i < allocs / 8; i++)
+                SystemDefs.JavabaseDB.allocate_page(run, 8);
+            report(name, "alloc 8", allocs / 8, System.nanoTime() - start);
+
+            SystemDefs.JavabaseDB.DBDestroy();
+        }
+    }
+
+    private static void report(String allocator, String op, int count, long nanos) {
+        System.out.printf("%-10s %-8s %,12.0f allocations/sec%n",
+                allocator, op, count * 1e9 / nanos);
+    }
+}
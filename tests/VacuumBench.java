@@ -0,0 +1,129 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.MapMoveListener;
+import bigt.Scan;
+import bigt.VacuumReport;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.PageId;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Benchmark of BigT.vacuum(). It loads maps into a BigT, deletes a share
+ * of them at random, and scans the BigT before and after a vacuum,
+ * reporting the pages and the time of each scan and what the vacuum
+ * did. The listener keeps the RIDs of the maps left up to date, and
+ * every map is read back by its RID after the vacuum. No map may move
+ * into a page that maps moved out of, and the vacuum must free pages.
+ * <p>
+ * With "log", the vacuum runs with the write-ahead log on; its
+ * transactions must not pin more pages than the pool has.
+ * <p>
+ * Run with "java tests.VacuumBench [maps] [share deleted] [buffers] [log]".
+ */
+public class VacuumBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    private static final int SCANS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        double deleted = (args.length > 1) ? Double.parseDouble(args[1]) : 0.7;
+        int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+        String dbpath = "/tmp/vacuumbench" + System.getProperty("user.name") + ".minibase-db";
+        boolean log = (args.length > 3) && args[3].equals("log");
+        new SystemDefs(dbpath, maps / 4 + 20000, buffers, "Clock");
+
+        BigT bigt = new BigT("vacuumbench", 1);
+        final RID[] rids = new RID[maps];
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        for (int i = 0; i < maps; i++) {
+            map.setRowLabel("row" + i);
+            map.setColumnLabel("col" + (i % 10));
+            map.setTimeStamp(i);
+            map.setValue(Integer.toString(i));
+            rids[i] = bigt.insertMap(map.getMapByteArray());
+        }
+        Random random = new Random(42);
+        int left = maps;
+        for (int i = 0; i < maps; i++) {
+            if (random.nextDouble() < deleted) {
+                bigt.deleteMap(rids[i]);
+                rids[i] = null;
+                left--;
+            }
+        }
+        System.out.println("maps: " + maps + ", left: " + left + ", buffers: " + buffers
+                + (log ? ", write-ahead log" : ""));
+        if (log)
+            SystemDefs.startLog(true);
+        scan(bigt, "before");
+
+        final HashSet<Integer> emptied = new HashSet<Integer>();
+        long start = System.nanoTime();
+        VacuumReport report = bigt.vacuum(new MapMoveListener() {
+            public void moved(Map map, RID from, RID to) throws Exception {
+                map.setOffsets(map.getOffset());
+                int i = Integer.parseInt(map.getValue());
+                if (!rids[i].equals(from))
+                    throw new Exception("map " + i + " moved from the wrong RID");
+                if (from.pageNo.pid != to.pageNo.pid) {
+                    emptied.add(from.pageNo.pid);
+                    if (emptied.contains(to.pageNo.pid))
+                        throw new Exception("map " + i + " moved into page " + to.pageNo.pid
+                                + ", which maps moved out of");
+                }
+                rids[i] = new RID(new PageId(to.pageNo.pid), to.slotNo);
+            }
+        });
+        System.out.printf("vacuum: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        report.print(System.out);
+        if (report.mapsMoved > 0 && report.dataPagesAfter >= report.dataPagesBefore)
+            throw new Exception("the vacuum moved maps but freed no data page");
+        scan(bigt, "after");
+
+        for (int i = 0; i < maps; i++) {
+            if (rids[i] == null)
+                continue;
+            Map m = bigt.getMap(rids[i]);
+            m.setOffsets(m.getOffset());
+            if (m.getTimeStamp() != i)
+                throw new Exception("map " + i + " not found at its RID");
+        }
+        System.out.println("all " + left + " maps found at their RIDs");
+        bigt.close();
+        SystemDefs.stopLog();
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    private static void scan(BigT bigt, String when) throws Exception {
+        SystemDefs.JavabaseBM.flushAllPages();
+        PCounter.Snapshot before = PCounter.snapshot();
+        long start = System.nanoTime();
+        int cnt = 0;
+        for (int s = 0; s < SCANS; s++) {
+            Scan scan = bigt.openScan();
+            RID rid = new RID();
+            while (scan.getNext(rid) != null)
+                cnt++;
+            scan.closescan();
+        }
+        long nanos = System.nanoTime() - start;
+        PCounter.Snapshot diff = PCounter.snapshot().since(before);
+        System.out.printf("scan %-6s: %d maps, %.1f pages read, %.2f ms per scan%n", when, cnt / SCANS,
+                (double) diff.get("vacuumbench1", PCounter.READS) / SCANS, nanos / 1e6 / SCANS);
+    }
+}
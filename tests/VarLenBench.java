@@ -0,0 +1,157 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Minibase;
+import bigt.Scan;
+import global.AttrType;
+import global.GlobalConst;
+import global.MapOrder;
+import global.RID;
+import global.SystemDefs;
+import iterator.Iterator;
+import iterator.Sort;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the variable-length layout of Map against the fixed one
+ * of setHdr(). It loads the same skewed maps into two BigTs: most labels
+ * and values are short, and one map in a hundred has a long row label
+ * or value, which sets the width of every map of the fixed layout. It
+ * reports the pages of each BigT and the time of a scan, checks that
+ * every map reads back the same in both layouts, and sorts maps of the
+ * variable-length layout by row.
+ * <p>
+ * Run with "java tests.VarLenBench [maps] [buffers]".
+ */
+public class VarLenBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+
+    private static final int SORTED = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int buffers = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+        String dbpath = "/tmp/varlenbench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, 3 * maps + 20000, buffers, "Clock");
+
+        Random random = new Random(42);
+        String[][] rows = new String[maps][];
+        short[] sizes = new short[3];
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + random.nextInt(maps / 10);
+            String value = Integer.toString(random.nextInt(100000));
+            if (random.nextInt(100) == 0)
+                row += pad(100 + random.nextInt(100));
+            if (random.nextInt(100) == 0)
+                value += pad(200 + random.nextInt(200));
+            rows[i] = new String[]{row, "col" + (i % 10), value};
+            sizes[0] = (short) Math.max(sizes[0], row.length());
+            sizes[1] = (short) Math.max(sizes[1], rows[i][1].length());
+            sizes[2] = (short) Math.max(sizes[2], value.length());
+        }
+
+        BigT fixed = new BigT("varlenbench_fixed", 1);
+        BigT varLen = new BigT("varlenbench_varlen", 1);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, sizes);
+        RID[] fixedRids = new RID[maps];
+        RID[] varLenRids = new RID[maps];
+        for (int i = 0; i < maps; i++) {
+            map.setRowLabel(rows[i][0]);
+            map.setColumnLabel(rows[i][1]);
+            map.setTimeStamp(i);
+            map.setValue(rows[i][2]);
+            fixedRids[i] = fixed.insertMap(map.getMapByteArray());
+            varLenRids[i] = varLen.insertMap(map.getVarLenByteArray());
+        }
+        System.out.println("maps: " + maps + ", widest row label " + sizes[0] + ", widest value " + sizes[2]
+                + ", fixed map " + map.size() + " bytes");
+        System.out.println("layout       pages   scan ms");
+        int fixedPages = report("fixed", fixed);
+        int varLenPages = report("variable", varLen);
+        System.out.printf("%.1f%% fewer pages%n", 100.0 * (fixedPages - varLenPages) / fixedPages);
+
+        for (int i = 0; i < maps; i++) {
+            Map a = fixed.getMap(fixedRids[i]);
+            a.setOffsets(a.getOffset());
+            Map b = varLen.getMap(varLenRids[i]);
+            b.setOffsets(b.getOffset());
+            if (!b.isVarLen() || !a.getRowLabel().equals(b.getRowLabel())
+                    || !a.getColumnLabel().equals(b.getColumnLabel())
+                    || a.getTimeStamp() != b.getTimeStamp() || !a.getValue().equals(b.getValue()))
+                throw new Exception("map " + i + " differs between the layouts");
+        }
+        System.out.println("all maps read back the same");
+
+        sort(varLen, sizes, Math.min(maps, SORTED));
+        fixed.close();
+        varLen.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+
+    private static String pad(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++)
+            sb.append('x');
+        return sb.toString();
+    }
+
+    private static int report(String name, BigT bigt) throws Exception {
+        SystemDefs.JavabaseBM.flushAllPages();
+        long start = System.nanoTime();
+        Scan scan = bigt.openScan();
+        RID rid = new RID();
+        while (scan.getNext(rid) != null)
+            ;
+        scan.closescan();
+        System.out.printf("%-10s %7d %9.1f%n", name, bigt.getCount(), (System.nanoTime() - start) / 1e6);
+        return bigt.getCount();
+    }
+
+    /**
+     * Sorts the first maps of the variable-length layout by row, fed to
+     * the sort as they are read from the BigT, and checks the order. The
+     * runs of the sort keep the fixed width of a map, so not all of them
+     * are sorted.
+     */
+    private static void sort(BigT bigt, short[] sizes, final int maps) throws Exception {
+        final Scan scan = bigt.openScan();
+        Iterator input = new Iterator() {
+            private final RID rid = new RID();
+            private int cnt;
+
+            public Map get_next() throws Exception {
+                Map map = (cnt++ < maps) ? scan.getNext(rid) : null;
+                if (map != null)
+                    map.setOffsets(map.getOffset());
+                return map;
+            }
+
+            public void close() {
+                scan.closescan();
+            }
+        };
+        Minibase.getInstance().setOrderType(3);
+        Sort sort = new Sort(TYPES, (short) 4, sizes, input, 1, new MapOrder(MapOrder.Ascending), sizes[0], 240);
+        int cnt = 0;
+        String last = "";
+        Map map;
+        while ((map = sort.get_next()) != null) {
+            String row = map.getRowLabel();
+            if (row.compareTo(last) < 0)
+                throw new Exception("sort out of order at " + row);
+            last = row;
+            cnt++;
+        }
+        sort.close();
+        if (cnt != maps)
+            throw new Exception(cnt + " maps sorted, not " + maps);
+        System.out.println("sorted " + cnt + " maps by row");
+    }
+}
@@ -0,0 +1,91 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.VersionIndex;
+import diskmgr.PCounter;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the version index. It inserts maps of a number of (row,
+ * column)s, with timestamps at random, into a BigT, keeping only the
+ * newest VersionIndex.MAX_VERSIONS versions of each: the version index
+ * gives the version to drop, which is deleted. It runs once with every
+ * (row, column) in memory and once with a cache of a tenth of them, and
+ * reports the inserts per second, the maps dropped, and the pages read
+ * and pinned of the B+ tree of the versions per insert.
+ * <p>
+ * Run with "java tests.VersionIndexBench [maps] [row, column pairs]
+ * [buffers]".
+ */
+public class VersionIndexBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int maps = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+
+        System.out.println("maps: " + maps + ", (row, column)s: " + keys + ", buffers: " + buffers);
+        System.out.println("     cache    time ms   inserts/s    dropped  reads/insert  pins/insert");
+        int cacheSize = VersionIndex.getCacheSize();
+        run(maps, keys, buffers, keys);
+        run(maps, keys, buffers, keys / 10);
+        VersionIndex.setCacheSize(cacheSize);
+    }
+
+    private static void run(int maps, int keys, int buffers, int cache) throws Exception {
+        String dbpath = "/tmp/versionindexbench" + System.getProperty("user.name") + ".minibase-db";
+        new SystemDefs(dbpath, maps / 4 + 20000, buffers, "Clock");
+        VersionIndex.setCacheSize(cache);
+
+        BigT bigt = new BigT("versionindexbench", 1);
+        VersionIndex versions = new VersionIndex("versionindexbench_versions", SIZES[0] + SIZES[1]);
+        Random random = new Random(42);
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        int dropped = 0;
+        PCounter.Snapshot before = PCounter.snapshot();
+        long start = System.nanoTime();
+        for (int i = 0; i < maps; i++) {
+            int key = random.nextInt(keys);
+            String row = "row" + (key / 10);
+            String column = "col" + (key % 10);
+            int timeStamp = random.nextInt();
+            if (versions.isObsolete(row, column, timeStamp)) {
+                dropped++;
+                continue;
+            }
+            map.setRowLabel(row);
+            map.setColumnLabel(column);
+            map.setTimeStamp(timeStamp);
+            map.setValue("value" + i);
+            RID rid = bigt.insertMap(map.getMapByteArray());
+            RID old = versions.add(row, column, timeStamp, rid);
+            if (old != null) {
+                bigt.deleteMap(old);
+                dropped++;
+            }
+        }
+        versions.close();
+        long nanos = System.nanoTime() - start;
+        PCounter.Snapshot diff = PCounter.snapshot().since(before);
+
+        System.out.printf("%10d %10.1f %11.0f %10d %13.2f %12.2f%n", cache, nanos / 1e6,
+                maps / (nanos / 1e9), dropped,
+                (double) diff.get("versionindexbench_versions", PCounter.READS) / maps,
+                (double) diff.get("versionindexbench_versions", PCounter.PINS) / maps);
+        bigt.close();
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+    }
+}
@@ -0,0 +1,239 @@
+package tests;
+
+import bigt.BigT;
+import bigt.Map;
+import bigt.Scan;
+import btree.BTFileScan;
+import btree.BTreeFile;
+import btree.DeleteFashion;
+import btree.StringKey;
+import bufmgr.LogMgr;
+import global.AttrType;
+import global.GlobalConst;
+import global.RID;
+import global.SystemDefs;
+
+/**
+ * Benchmark of the commits of the write-ahead log. Each thread inserts
+ * maps into its own BigT and a B+ tree on the row, one map and its
+ * index entry per transaction, first without the log, then with the log
+ * forced for every commit, then with group commit. It reports the
+ * commits per second and how many commits shared a force of the log.
+ * <p>
+ * After the group commit run the buffer pool is dropped without writing
+ * it, as in a crash, and the database is opened again: the recovery
+ * must bring back every map and index entry.
+ * <p>
+ * Last, maps and index entries inserted in a transaction that is aborted
+ * must be gone, before and after another crash, and the maps committed
+ * after them must be found.
+ * <p>
+ * Run with "java tests.WALBench [threads] [maps per thread] [buffers]".
+ */
+public class WALBench implements GlobalConst {
+
+    private static final AttrType[] TYPES = {
+            new AttrType(AttrType.attrString), new AttrType(AttrType.attrString),
+            new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString)};
+    private static final short[] SIZES = {20, 20, 20};
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int maps = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        int buffers = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+        String dbpath = "/tmp/walbench" + System.getProperty("user.name") + ".minibase-db";
+
+        System.out.println("threads: " + threads + ", maps per thread: " + maps + ", buffers: " + buffers);
+        System.out.println("log             time ms   commits/s    forces   commits/force");
+        run("none", dbpath, threads, maps, buffers, false, false);
+        run("force each", dbpath, threads, maps, buffers, true, false);
+        run("group commit", dbpath, threads, maps, buffers, true, true);
+
+        // the last run left the log but not the pages on disk
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        new SystemDefs(dbpath, 0, buffers, "Clock");
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        for (int t = 0; t < threads; t++) {
+            BigT bigt = new BigT("walbench" + t, 1);
+            int found = 0;
+            Scan scan = bigt.openScan();
+            RID rid = new RID();
+            while (scan.getNext(rid) != null)
+                found++;
+            scan.closescan();
+
+            BTreeFile btree = new BTreeFile("walbench_rows" + t);
+            int entries = 0;
+            BTFileScan index = btree.new_scan(null, null);
+            while (index.get_next() != null)
+                entries++;
+            index.DestroyBTreeFileScan();
+            btree.close();
+
+            if (found != maps || entries != maps)
+                throw new Exception("thread " + t + ": " + found + " maps and " + entries
+                        + " index entries after recovery, not " + maps);
+        }
+        System.out.println("all maps and index entries recovered");
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+        LogMgr.discard(dbpath);
+
+        abort(dbpath, maps, buffers);
+    }
+
+    /**
+     * Commits maps, inserts as many in a transaction that is aborted,
+     * half of them with a row too long for the B+ tree, and commits as
+     * many again. Only the committed maps may be found, before and after
+     * a crash.
+     */
+    private static void abort(String dbpath, int maps, int buffers) throws Exception {
+        new SystemDefs(dbpath, 20 * maps / 10 + 20000, buffers, "Clock");
+        BigT bigt = new BigT("walbench_abort", 1);
+        BTreeFile btree = new BTreeFile("walbench_abort_rows", AttrType.attrString, SIZES[0],
+                DeleteFashion.NAIVE_DELETE);
+        SystemDefs.startLog(true);
+        LogMgr log = SystemDefs.JavabaseLog;
+        log.checkpoint();
+        insert(bigt, btree, 0, maps);
+
+        log.begin();
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        for (int i = 0; i < maps; i++) {
+            map.setRowLabel("aborted" + i);
+            map.setColumnLabel("col");
+            map.setTimeStamp(i);
+            map.setValue("aborted");
+            bigt.insertMap(map.getMapByteArray());
+        }
+        try {
+            for (int i = 0; i < maps; i++)
+                btree.insert(new StringKey(((i < maps / 2) ? "aborted" : "aborted_too_long_for_the_tree") + i),
+                        new RID());
+            throw new Exception("a row too long for the B+ tree was inserted");
+        } catch (btree.KeyTooLongException e) {
+            log.abort();
+        }
+        if (log.held() != 0)
+            throw new Exception("the aborted transaction still holds pages");
+        if (bigt.getMapCnt() != maps)
+            throw new Exception("the statistics count " + bigt.getMapCnt() + " maps after the abort, not "
+                    + maps);
+        insert(bigt, btree, 1, maps);
+        check(bigt, btree, 2 * maps, "after the abort");
+        if (bigt.getMapCnt() != 2 * maps)
+            throw new Exception("the statistics count " + bigt.getMapCnt() + " maps, not " + 2 * maps);
+
+        // a crash, with the committed pages in the log only
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        new SystemDefs(dbpath, 0, buffers, "Clock");
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        check(new BigT("walbench_abort", 1), new BTreeFile("walbench_abort_rows"), 2 * maps, "after recovery");
+        SystemDefs.JavabaseBM.flushAllPages();
+        SystemDefs.JavabaseDB.DBDestroy();
+        LogMgr.discard(dbpath);
+    }
+
+    private static void check(BigT bigt, BTreeFile btree, int maps, String when) throws Exception {
+        int found = 0;
+        Scan scan = bigt.openScan();
+        RID rid = new RID();
+        Map map;
+        while ((map = scan.getNext(rid)) != null) {
+            map.setOffsets(map.getOffset());
+            if (map.getValue().equals("aborted"))
+                throw new Exception("a map of the aborted transaction is found " + when);
+            found++;
+        }
+        scan.closescan();
+
+        int entries = 0;
+        BTFileScan index = btree.new_scan(null, null);
+        while (index.get_next() != null)
+            entries++;
+        index.DestroyBTreeFileScan();
+        btree.close();
+
+        if (found != maps || entries != maps)
+            throw new Exception(found + " maps and " + entries + " index entries " + when
+                    + ", not " + maps);
+        System.out.println("aborted maps and index entries gone " + when);
+    }
+
+    /**
+     * Creates the database and the files, then runs the threads. With
+     * the log, the pages are left in the buffer pool at the end.
+     */
+    private static void run(String name, String dbpath, int threads, final int maps, int buffers,
+                            boolean log, boolean groupCommit) throws Exception {
+        new SystemDefs(dbpath, 20 * threads * maps / 10 + 20000, buffers, "Clock");
+        final BigT[] bigts = new BigT[threads];
+        final BTreeFile[] btrees = new BTreeFile[threads];
+        for (int t = 0; t < threads; t++) {
+            bigts[t] = new BigT("walbench" + t, 1);
+            btrees[t] = new BTreeFile("walbench_rows" + t, AttrType.attrString, SIZES[0],
+                    DeleteFashion.NAIVE_DELETE);
+        }
+        if (log) {
+            SystemDefs.startLog(groupCommit);
+            SystemDefs.JavabaseLog.checkpoint();
+            SystemDefs.JavabaseLog.resetCounters();
+        }
+
+        final Exception[] failed = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        insert(bigts[id], btrees[id], id, maps);
+                    } catch (Exception e) {
+                        failed[0] = e;
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        long nanos = System.nanoTime() - start;
+        if (failed[0] != null)
+            throw failed[0];
+
+        long commits = (long) threads * maps;
+        long forces = log ? SystemDefs.JavabaseLog.getForces() : 0;
+        System.out.printf("%-14s %8d %11.0f %9d %15.1f%n", name, nanos / 1000000,
+                commits * 1e9 / nanos, forces, (forces == 0) ? 0.0 : (double) commits / forces);
+
+        if (!log) {
+            for (BTreeFile btree : btrees)
+                btree.close();
+            SystemDefs.JavabaseBM.flushAllPages();
+        }
+    }
+
+    private static void insert(BigT bigt, BTreeFile btree, int thread, int maps) throws Exception {
+        Map map = new Map();
+        map.setHdr((short) 4, TYPES, SIZES);
+        for (int i = 0; i < maps; i++) {
+            String row = "row" + thread + "_" + (i * 7919 % maps);
+            map.setRowLabel(row);
+            map.setColumnLabel("col" + (i % 10));
+            map.setTimeStamp(i);
+            map.setValue("value" + i);
+
+            LogMgr log = SystemDefs.JavabaseLog;
+            if (log != null)
+                log.begin();
+            RID rid = bigt.insertMap(map.getMapByteArray());
+            // the B+ tree is not synchronized; each thread has its own
+            btree.insert(new StringKey(row), rid);
+            if (log != null)
+                log.commit();
+        }
+    }
+}